@@ -0,0 +1,98 @@
+package edu.tufts.cs.ebm.mesh;
+
+import java.util.Arrays;
+
+import com.google.common.collect.SortedMultiset;
+import com.google.common.collect.TreeMultiset;
+
+/**
+ * Counts the occurrences of MeSH terms by their ids in a MeshDictionary,
+ * instead of in a multiset of strings.
+ *
+ * Thread-safe.
+ */
+public class MeshCounts {
+  /** The dictionary of the ids. */
+  protected final MeshDictionary dictionary;
+  /** The counts, by id. */
+  protected int[] counts = new int[0];
+  /** The total count. */
+  protected long total;
+
+  /**
+   * Default constructor, over the global MeSH dictionary.
+   */
+  public MeshCounts() {
+    this( MeshDictionary.getInstance() );
+  }
+
+  /**
+   * Constructor with the dictionary of the ids.
+   *
+   * @param dictionary
+   */
+  public MeshCounts( MeshDictionary dictionary ) {
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * Count one occurrence of each of the ids.
+   *
+   * @param ids
+   */
+  public synchronized void addAll( int[] ids ) {
+    for ( int id : ids ) {
+      if ( id >= counts.length ) {
+        counts = Arrays.copyOf( counts, Math.max( id + 1,
+            2 * counts.length ) );
+      }
+      counts[id]++;
+    }
+    total += ids.length;
+  }
+
+  /**
+   * Get the count of the id.
+   *
+   * @param id
+   * @return
+   */
+  public synchronized int count( int id ) {
+    return ( id >= 0 && id < counts.length ) ? counts[id] : 0;
+  }
+
+  /**
+   * Get the count of the MeSH term.
+   *
+   * @param term
+   * @return
+   */
+  public int count( String term ) {
+    return count( dictionary.indexOf( term ) );
+  }
+
+  /**
+   * Get the total count.
+   *
+   * @return
+   */
+  public synchronized long size() {
+    return this.total;
+  }
+
+  /**
+   * Get the counts as a multiset of the MeSH terms.
+   *
+   * @return
+   */
+  public synchronized SortedMultiset<String> toMultiset() {
+    SortedMultiset<String> multiset = TreeMultiset.create();
+    for ( int id = 0; id < counts.length; id++ ) {
+      if ( counts[id] > 0 ) {
+        multiset.add( dictionary.getName( id ), counts[id] );
+      }
+    }
+
+    return multiset;
+  }
+}
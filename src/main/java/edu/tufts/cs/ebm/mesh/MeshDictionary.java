@@ -0,0 +1,371 @@
+package edu.tufts.cs.ebm.mesh;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+
+import com.scireum.open.xml.NodeHandler;
+import com.scireum.open.xml.StructuredNode;
+import com.scireum.open.xml.XMLReader;
+
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.ml.DoubleFeature;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * Maps MeSH descriptors to dense int ids, so that citations can be
+ * represented by one binary feature per descriptor without any text
+ * processing.
+ *
+ * If the MeSH tree is loaded, a citation can also get one feature per
+ * ancestor of its descriptors in the tree: the tree numbers that are
+ * prefixes of the tree numbers of the descriptor (C14.280 and C14 for
+ * C14.280.647). The tree numbers share the id space of the descriptors.
+ *
+ * Thread-safe; one dictionary is shared by the whole JVM.
+ */
+public class MeshDictionary {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( MeshDictionary.class );
+  /** The prefix of the tree number entries. */
+  public static final String TREE_PREFIX = "tree:";
+  /** The prefix of the feature names. */
+  public static final String FEATURE_PREFIX = "m";
+  /** The MeSH descriptor XML file. */
+  public static final File TREE_FILE = new File( MeshWalker.TREE_XML_FILE );
+  /** The dictionary shared by the whole JVM. */
+  protected static final MeshDictionary GLOBAL = new MeshDictionary();
+  /** The ids of the descriptors and the tree numbers. */
+  protected final FeatureDictionary ids = new FeatureDictionary();
+  /** The tree numbers of the descriptors, keyed by descriptor id. */
+  protected final Map<Integer, String[]> treeNumbers = new HashMap<>();
+  /** The ids of the ancestors of the descriptors, keyed by descriptor id. */
+  protected final Map<Integer, int[]> ancestors = new HashMap<>();
+  /** Whether the tree has been loaded. */
+  protected boolean treeLoaded;
+
+  /**
+   * Get the dictionary shared by the whole JVM.
+   *
+   * @return
+   */
+  public static MeshDictionary getInstance() {
+    return GLOBAL;
+  }
+
+  /**
+   * Get the id of the descriptor, adding it if it is new.
+   *
+   * @param descriptor
+   * @return
+   */
+  public int intern( String descriptor ) {
+    return ids.add( descriptor );
+  }
+
+  /**
+   * Get the ids of the descriptors, adding any that are new.
+   *
+   * @param descriptors
+   * @return the ids, sorted and without duplicates
+   */
+  public int[] intern( Collection<String> descriptors ) {
+    int[] result = new int[descriptors.size()];
+    int n = 0;
+    for ( String descriptor : descriptors ) {
+      if ( descriptor != null ) {
+        result[n++] = intern( descriptor );
+      }
+    }
+
+    return sortUnique( result, n );
+  }
+
+  /**
+   * Get the id of the descriptor.
+   *
+   * @param descriptor
+   * @return the id, or -1 if the descriptor is unknown
+   */
+  public int indexOf( String descriptor ) {
+    return ids.indexOf( descriptor );
+  }
+
+  /**
+   * Get the descriptor (or TREE_PREFIX and the tree number) with the id.
+   *
+   * @param id
+   * @return
+   */
+  public String getName( int id ) {
+    return ids.getName( id );
+  }
+
+  /**
+   * Get the number of ids.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Set the tree numbers of the descriptor.
+   *
+   * @param descriptor
+   * @param numbers
+   */
+  public synchronized void addTreeNumbers( String descriptor,
+      String... numbers ) {
+    int id = intern( descriptor );
+    treeNumbers.put( id, numbers.clone() );
+    ancestors.remove( id );
+  }
+
+  /**
+   * Get the tree numbers of the descriptor.
+   *
+   * @param id
+   * @return the tree numbers, or an empty array if they are unknown
+   */
+  public synchronized String[] getTreeNumbers( int id ) {
+    String[] numbers = treeNumbers.get( id );
+
+    return ( numbers == null ) ? new String[0] : numbers.clone();
+  }
+
+  /**
+   * Get the ids of the ancestors of the descriptor in the tree.
+   *
+   * @param id
+   * @return the ids, sorted
+   */
+  public synchronized int[] getAncestors( int id ) {
+    int[] result = ancestors.get( id );
+    if ( result == null ) {
+      TreeSet<String> prefixes = new TreeSet<>();
+      for ( String number : getTreeNumbers( id ) ) {
+        for ( int i = number.indexOf( '.' ); i >= 0; i = number.indexOf( '.',
+            i + 1 ) ) {
+          prefixes.add( number.substring( 0, i ) );
+        }
+      }
+      result = new int[prefixes.size()];
+      int n = 0;
+      for ( String prefix : prefixes ) {
+        result[n++] = intern( TREE_PREFIX + prefix );
+      }
+      Arrays.sort( result );
+      ancestors.put( id, result );
+    }
+
+    return result;
+  }
+
+  /**
+   * Load the tree numbers of the descriptors in the MeSH descriptor XML
+   * file, once.
+   *
+   * @throws IOException
+   */
+  public void loadTree() throws IOException {
+    loadTree( TREE_FILE );
+  }
+
+  /**
+   * Load the tree numbers of the descriptors in the MeSH descriptor XML
+   * file, once.
+   *
+   * @param f
+   * @throws IOException
+   */
+  public synchronized void loadTree( File f ) throws IOException {
+    if ( treeLoaded ) {
+      return;
+    }
+
+    InputStream in = new FileInputStream( f );
+    try {
+      loadTree( in );
+    } finally {
+      in.close();
+    }
+    LOG.info( "Loaded the tree numbers of " + treeNumbers.size()
+        + " MeSH descriptors from " + f );
+  }
+
+  /**
+   * Load the tree numbers of the descriptors in the MeSH descriptor XML.
+   *
+   * @param in
+   * @throws IOException
+   */
+  public synchronized void loadTree( InputStream in ) throws IOException {
+    XMLReader r = new XMLReader();
+    r.addHandler( MeshWalker.DESCRIPTOR_RECORD_NODE_NAME, new NodeHandler() {
+      @Override
+      public void process( StructuredNode node ) {
+        try {
+          String name = node.queryString(
+              MeshWalker.DESCRIPTOR_NAME_NODE_NAME );
+          List<String> numbers = new ArrayList<>();
+          for ( StructuredNode n : node
+              .queryNodeList( "TreeNumberList/TreeNumber" ) ) {
+            numbers.add( n.queryString( "." ) );
+          }
+          if ( name != null ) {
+            addTreeNumbers( name, numbers.toArray( new String[0] ) );
+          }
+        } catch ( XPathExpressionException e ) {
+          LOG.error( e );
+        }
+      }
+    } );
+
+    try {
+      r.parse( in );
+    } catch ( ParserConfigurationException | SAXException e ) {
+      throw new IOException( "Could not parse the MeSH tree.", e );
+    }
+    treeLoaded = true;
+  }
+
+  /**
+   * Build the binary vector of the descriptors.
+   *
+   * @param descriptors the descriptor ids, sorted and without duplicates
+   * @param withAncestors whether to add the ancestors of the descriptors
+   * @return
+   */
+  public SparseVector vectorize( int[] descriptors, boolean withAncestors ) {
+    int[] indices = descriptors;
+    if ( withAncestors ) {
+      int n = descriptors.length;
+      for ( int d : descriptors ) {
+        n += getAncestors( d ).length;
+      }
+      indices = Arrays.copyOf( descriptors, n );
+      n = descriptors.length;
+      for ( int d : descriptors ) {
+        int[] a = getAncestors( d );
+        System.arraycopy( a, 0, indices, n, a.length );
+        n += a.length;
+      }
+      indices = sortUnique( indices, n );
+    }
+
+    double[] values = new double[indices.length];
+    Arrays.fill( values, 1 );
+
+    return new SparseVector( indices, values );
+  }
+
+  /**
+   * Build the binary feature vector of the descriptors; the features are
+   * named FEATURE_PREFIX followed by the id.
+   *
+   * @param id the feature vector id
+   * @param descriptors the descriptor ids, sorted and without duplicates
+   * @param withAncestors whether to add the ancestors of the descriptors
+   * @return
+   */
+  public <E> UnlabeledFeatureVector<E> createFeatureVector( String id,
+      int[] descriptors, boolean withAncestors ) {
+    UnlabeledFeatureVector<E> fv = new UnlabeledFeatureVector<>( id );
+    SparseVector v = vectorize( descriptors, withAncestors );
+    for ( int i = 0; i < v.size(); i++ ) {
+      String name = FEATURE_PREFIX + v.index( i );
+      fv.put( name, new DoubleFeature( name, v.value( i ) ) );
+    }
+
+    return fv;
+  }
+
+  /**
+   * Sort the start of the array and remove the duplicates.
+   *
+   * @param ids
+   * @param n the number of ids
+   * @return a new array
+   */
+  public static int[] sortUnique( int[] ids, int n ) {
+    Arrays.sort( ids, 0, n );
+    int size = 0;
+    for ( int i = 0; i < n; i++ ) {
+      if ( size == 0 || ids[size - 1] != ids[i] ) {
+        ids[size++] = ids[i];
+      }
+    }
+
+    return Arrays.copyOf( ids, size );
+  }
+
+  /**
+   * The ids in both sorted arrays.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  public static int[] intersect( int[] a, int[] b ) {
+    int[] result = new int[Math.min( a.length, b.length )];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while ( i < a.length && j < b.length ) {
+      if ( a[i] == b[j] ) {
+        result[n++] = a[i++];
+        j++;
+      } else if ( a[i] < b[j] ) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return Arrays.copyOf( result, n );
+  }
+
+  /**
+   * The ids in either sorted array.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  public static int[] union( int[] a, int[] b ) {
+    int[] result = new int[a.length + b.length];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while ( i < a.length || j < b.length ) {
+      if ( j == b.length || ( i < a.length && a[i] < b[j] ) ) {
+        result[n++] = a[i++];
+      } else if ( i == a.length || b[j] < a[i] ) {
+        result[n++] = b[j++];
+      } else {
+        result[n++] = a[i++];
+        j++;
+      }
+    }
+
+    return Arrays.copyOf( result, n );
+  }
+}
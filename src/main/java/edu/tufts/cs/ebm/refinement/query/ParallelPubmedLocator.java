@@ -79,10 +79,12 @@ public class ParallelPubmedLocator extends PubmedService implements Runnable {
       notifyObservers( c );
     } else {
       if ( activeReview != null ) {
-        MainController.EM.getTransaction().begin();
-        this.activeReview.addBlacklisted( pmid );
-        MainController.EM.merge( this.activeReview );
-        MainController.EM.getTransaction().commit();
+        synchronized ( MainController.EM ) {
+          MainController.EM.getTransaction().begin();
+          this.activeReview.addBlacklisted( pmid );
+          MainController.EM.merge( this.activeReview );
+          MainController.EM.getTransaction().commit();
+        }
         LOG.warn( "Null citation: " + pmid + "; adding to blacklist ("
             + activeReview.getBlacklist().size() + " total)" );
       } else {
@@ -19,8 +19,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.google.common.collect.SortedMultiset;
-import com.google.common.collect.TreeMultiset;
 
+import edu.tufts.cs.ebm.mesh.MeshCounts;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
 import edu.tufts.cs.ebm.review.systematic.SystematicReview;
@@ -51,7 +51,7 @@ public class ParallelPubmedSearcher extends PubmedService implements Runnable,
   /** Citations pertaining to this query. */
   protected Set<Citation> citations = new CopyOnWriteArraySet<>();
   /** The current MeSH terms associated with the Review. */
-  protected TreeMultiset<String> meshes = TreeMultiset.create();
+  protected MeshCounts meshes = new MeshCounts();
   /** The active review. */
   protected SystematicReview activeReview;
   /** The current query associated with the Searcher. */
@@ -114,6 +114,15 @@ public class ParallelPubmedSearcher extends PubmedService implements Runnable,
    * @return
    */
   public SortedMultiset<String> getMeshTerms() {
+    return this.meshes.toMultiset();
+  }
+
+  /**
+   * Get the counts of all of the MeSH terms, by id.
+   * 
+   * @return
+   */
+  public MeshCounts getMeshCounts() {
     return this.meshes;
   }
 
@@ -260,7 +269,7 @@ public class ParallelPubmedSearcher extends PubmedService implements Runnable,
     Citation c = super.articleToCitation( articleType );
 
     if ( c != null ) {
-      meshes.addAll( c.getMeshTerms() );
+      meshes.addAll( c.getMeshIds() );
     }
 
     return c;
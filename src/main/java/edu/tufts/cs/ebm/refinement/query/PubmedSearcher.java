@@ -21,8 +21,8 @@ import com.aliasi.spell.TfIdfDistance;
 import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
 import com.aliasi.tokenizer.TokenizerFactory;
 import com.google.common.collect.SortedMultiset;
-import com.google.common.collect.TreeMultiset;
 
+import edu.tufts.cs.ebm.mesh.MeshCounts;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.SystematicReview;
 import gov.nih.nlm.ncbi.www.soap.eutils.EFetchPubmedServiceStub;
@@ -48,7 +48,7 @@ public class PubmedSearcher extends PubmedService implements Runnable {
   protected ListProperty<Citation> citations = new SimpleListProperty<>(
       FXCollections.observableList( new ArrayList<Citation>() ) );
   /** The current MeSH terms associated with the Review. */
-  protected TreeMultiset<String> meshes = TreeMultiset.create();
+  protected MeshCounts meshes = new MeshCounts();
   /** The active review. */
   protected SystematicReview activeReview;
   /** The current query associated with the Searcher. */
@@ -131,6 +131,15 @@ public class PubmedSearcher extends PubmedService implements Runnable {
    * @return
    */
   public SortedMultiset<String> getMeshTerms() {
+    return this.meshes.toMultiset();
+  }
+
+  /**
+   * Get the counts of all of the MeSH terms, by id.
+   * 
+   * @return
+   */
+  public MeshCounts getMeshCounts() {
     return this.meshes;
   }
 
@@ -221,7 +230,7 @@ public class PubmedSearcher extends PubmedService implements Runnable {
 
       if ( c != null ) {
         for ( Citation cit : c ) {
-          meshes.addAll( cit.getMeshTerms() );
+          meshes.addAll( cit.getMeshIds() );
         }
 
         setChanged();
@@ -104,10 +104,12 @@ public abstract class PubmedService extends Observable {
 
       if ( title != null && !title.isEmpty() ) {
         id.setTitle( title );
-        MainController.EM.getTransaction().begin();
         c = new Citation( id, title, abstr, journal, date, authors, meshSet );
-        MainController.EM.persist( c );
-        MainController.EM.getTransaction().commit();
+        synchronized ( MainController.EM ) {
+          MainController.EM.getTransaction().begin();
+          MainController.EM.persist( c );
+          MainController.EM.getTransaction().commit();
+        }
       }
     }
 
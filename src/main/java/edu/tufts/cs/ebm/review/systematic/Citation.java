@@ -1,8 +1,11 @@
 package edu.tufts.cs.ebm.review.systematic;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javafx.collections.ObservableSet;
@@ -18,8 +21,8 @@ import javax.persistence.TemporalType;
 import javax.persistence.Transient;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Sets;
+
+import edu.tufts.cs.ebm.mesh.MeshDictionary;
 
 @Entity
 public class Citation implements Comparable<Citation>, Serializable {
@@ -70,9 +73,9 @@ public class Citation implements Comparable<Citation>, Serializable {
   @Column(length = 5000)
   @Lob
   protected String meshStr;
-  /** The MeSH terms. */
+  /** The ids of the MeSH terms, sorted, or null until they are needed. */
   @Transient
-  protected Set<String> meshTerms = new HashSet<>();
+  protected transient volatile int[] meshIds;
 
   /**
    * Get the simple id.
@@ -243,12 +246,76 @@ public class Citation implements Comparable<Citation>, Serializable {
   }
 
   /**
-   * Get the MeSH terms.
+   * Get the MeSH terms: a read-only view of the MeSH term ids.
    * 
    * @return
    */
   public Set<String> getMeshTerms() {
-    return this.meshTerms;
+    final int[] ids = getMeshIds();
+
+    return new AbstractSet<String>() {
+      @Override
+      public int size() {
+        return ids.length;
+      }
+
+      @Override
+      public boolean contains( Object o ) {
+        return ( o instanceof String ) && containsMesh( (String) o );
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        return new Iterator<String>() {
+          private int i = 0;
+
+          @Override
+          public boolean hasNext() {
+            return i < ids.length;
+          }
+
+          @Override
+          public String next() {
+            if ( !hasNext() ) {
+              throw new NoSuchElementException();
+            }
+            return MeshDictionary.getInstance().getName( ids[i++] );
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Get the ids of the MeSH terms in the global MeSH dictionary.
+   * 
+   * @return the ids, sorted and without duplicates; not to be modified
+   */
+  public int[] getMeshIds() {
+    int[] ids = this.meshIds;
+    if ( ids == null ) {
+      ids = parseMesh( this.meshStr );
+      this.meshIds = ids;
+    }
+
+    return ids;
+  }
+
+  /**
+   * Whether the citation has the MeSH term.
+   * 
+   * @param term
+   * @return
+   */
+  public boolean containsMesh( String term ) {
+    int id = MeshDictionary.getInstance().indexOf( term );
+
+    return id >= 0 && Arrays.binarySearch( getMeshIds(), id ) >= 0;
   }
 
   /**
@@ -266,9 +333,9 @@ public class Citation implements Comparable<Citation>, Serializable {
    * @param terms
    */
   public void setMeshTerms( ObservableSet<String> terms ) {
-    this.meshTerms = terms;
     Joiner joiner = Joiner.on( ',' ).skipNulls();
     this.meshStr = joiner.join( terms );
+    this.meshIds = MeshDictionary.getInstance().intern( terms );
   }
 
   /**
@@ -278,8 +345,40 @@ public class Citation implements Comparable<Citation>, Serializable {
    */
   public void setMeshStr( String mesh ) {
     this.meshStr = mesh;
-    this.meshTerms = Sets.newHashSet( Splitter.on( ',' ).trimResults()
-        .omitEmptyStrings().split( mesh ) );
+    this.meshIds = null;
+  }
+
+  /**
+   * Intern the comma-separated MeSH terms.
+   * 
+   * @param mesh
+   * @return the ids, sorted and without duplicates
+   */
+  protected static int[] parseMesh( String mesh ) {
+    if ( mesh == null || mesh.isEmpty() ) {
+      return new int[0];
+    }
+
+    MeshDictionary dictionary = MeshDictionary.getInstance();
+    int[] ids = new int[16];
+    int n = 0;
+    int start = 0;
+    while ( start <= mesh.length() ) {
+      int end = mesh.indexOf( ',', start );
+      if ( end < 0 ) {
+        end = mesh.length();
+      }
+      String term = mesh.substring( start, end ).trim();
+      if ( !term.isEmpty() ) {
+        if ( n == ids.length ) {
+          ids = Arrays.copyOf( ids, n * 2 );
+        }
+        ids[n++] = dictionary.intern( term );
+      }
+      start = end + 1;
+    }
+
+    return MeshDictionary.sortUnique( ids, n );
   }
 
   /**
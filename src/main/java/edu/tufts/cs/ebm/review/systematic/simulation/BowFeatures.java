@@ -0,0 +1,584 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.CsrRelation;
+import edu.tufts.cs.features.FeatureCache;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.FeatureHasher;
+import edu.tufts.cs.features.ParallelVectorizer;
+import edu.tufts.cs.features.TextTokenizer;
+import edu.tufts.cs.features.TokenStore;
+import edu.tufts.cs.ml.Feature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.Metadata;
+import edu.tufts.cs.ml.text.BagOfWords;
+
+/**
+ * The Bag of Words representation of a corpus: the feature vectors, their
+ * metadata and the Bag of Words they were built from.
+ *
+ * When there is a feature cache directory, the feature vectors are read from
+ * a cache built from the same corpus and parameters if one exists, and saved
+ * to one otherwise. On a cache hit the Bag of Words is only built if it is
+ * asked for.
+ *
+ * With parallel vectorization, read-only features are built by a
+ * ParallelVectorizer with the same stoplist and parameters instead of the
+ * Bag of Words; texts outside the corpus must then be vectorized with
+ * createUnlabeledFV(...) so that they share its tokenization. The tokenizer
+ * is first checked against the Bag of Words on a sample of the corpus, and
+ * the Bag of Words is used if they split a text differently.
+ *
+ * The parallel and hashed features are built from the token ids that
+ * CitationTokens stores once per Citation, so that simulations over the same
+ * corpus do not tokenize it again.
+ */
+public class BowFeatures {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( BowFeatures.class );
+  /** The stoplist. */
+  public static final File STOPLIST = new File(
+      "src/main/resources/stoplists/en.txt" );
+  /** The minimum number of occurrences of a term. */
+  public static final int MIN_OCCURS = 5;
+  /** The minimum length of a term. */
+  public static final int MIN_LENGTH = 3;
+  /** Whether to stem the terms. */
+  public static final boolean STEM = true;
+  /** The fingerprint mode for features built by the Bag of Words. */
+  protected static final String MODE_BOW = "bow";
+  /** The fingerprint mode for features built by the parallel vectorizer. */
+  protected static final String MODE_PARALLEL = "parallel";
+  /** The fingerprint mode for hashed features, followed by the dimension. */
+  protected static final String MODE_HASHED = "hashed";
+  /** The number of Citations the tokenizer is checked on. */
+  protected static final int PARITY_SAMPLE = 50;
+  /** The metadata type of the features held in CSR form. */
+  protected static final String FEATURE_TYPE = "numeric";
+  /** The Citations. */
+  protected Collection<Citation> citations;
+  /** The seed Citations. */
+  protected Collection<Citation> seeds;
+  /** The Bag of Words, or null if it has not been built. */
+  protected BagOfWords<Integer> bow;
+  /** The metadata of the features. */
+  protected Metadata metadata;
+  /** The feature vectors. */
+  protected Map<PubmedId, FeatureVector<Integer>> fvs;
+  /** The feature vectors in compressed sparse row form, or null. */
+  protected CsrRelation<PubmedId> relation;
+  /** The parallel vectorizer, or null if the Bag of Words builds them. */
+  protected ParallelVectorizer vectorizer;
+  /** The feature hasher, or null if the features are not hashed. */
+  protected FeatureHasher hasher;
+  /** The tokenizer of the parallel vectorizer, or null. */
+  protected TextTokenizer tokenizer;
+  /** The directory of feature caches, or null to always vectorize. */
+  protected File cacheDir;
+
+  /**
+   * Default constructor.
+   *
+   * @param citations
+   * @param seeds
+   * @param cacheDir the directory of feature caches (may be null)
+   */
+  protected BowFeatures( Collection<Citation> citations,
+      Collection<Citation> seeds, File cacheDir ) {
+    this.citations = citations;
+    this.seeds = seeds;
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Build the feature vectors for the Citations, or read them from the
+   * feature cache.
+   *
+   * If the ranking only reads the vectors (it never trains the Bag of Words),
+   * they are held in compressed sparse row form and may come from the
+   * feature cache; otherwise they are built from the Bag of Words each time.
+   *
+   * @param citations
+   * @param seeds
+   * @param readOnly whether the ranking only reads the vectors
+   * @param cacheDir the directory of feature caches, or null to always
+   *          vectorize
+   * @param parallel whether read-only features are built by the parallel
+   *          vectorizer
+   * @return
+   */
+  public static BowFeatures load( Collection<Citation> citations,
+      Collection<Citation> seeds, boolean readOnly, File cacheDir,
+      boolean parallel ) {
+    BowFeatures features = new BowFeatures( citations, seeds, cacheDir );
+    if ( !readOnly ) {
+      features.bow = createBagOfWords( citations, seeds );
+      features.metadata = features.bow.getTrainingData().getMetadata();
+      features.fvs = vectorize( features.bow, citations );
+
+      return features;
+    }
+
+    String mode = MODE_BOW;
+    if ( parallel ) {
+      try {
+        TextTokenizer tokenizer = createTokenizer();
+        if ( agreesWithBagOfWords( tokenizer, sample( citations ) ) ) {
+          features.vectorizer = new ParallelVectorizer( tokenizer,
+              MIN_OCCURS );
+          features.tokenizer = tokenizer;
+          mode = MODE_PARALLEL;
+        } else {
+          LOG.error( "The parallel tokenizer does not split the texts as the "
+              + "Bag of Words does; using the Bag of Words." );
+        }
+      } catch ( IOException e ) {
+        LOG.error( "Could not read the stoplist; using the Bag of Words.", e );
+      }
+    }
+
+    return load( features, mode );
+  }
+
+  /**
+   * Build hashed feature vectors for the Citations in one pass, or read them
+   * from the feature cache.
+   *
+   * @param citations
+   * @param seeds
+   * @param dimension the number of hash buckets
+   * @param trackCollisions whether to record the distinct terms, so that
+   *          the collision rate can be reported; this holds every term in
+   *          memory
+   * @param cacheDir the directory of feature caches, or null to always
+   *          vectorize
+   * @return
+   * @throws IOException if the stoplist cannot be read
+   */
+  public static BowFeatures loadHashed( Collection<Citation> citations,
+      Collection<Citation> seeds, int dimension, boolean trackCollisions,
+      File cacheDir ) throws IOException {
+    BowFeatures features = new BowFeatures( citations, seeds, cacheDir );
+    TextTokenizer tokenizer = createTokenizer();
+    features.hasher = new FeatureHasher( tokenizer, dimension );
+    features.hasher.setTrackCollisions( trackCollisions );
+
+    return load( features, MODE_HASHED + features.hasher.getDimension() );
+  }
+
+  /**
+   * Read the feature vectors from the feature cache, or build them and save
+   * them to it.
+   *
+   * @param features
+   * @param mode how the features are built
+   * @return
+   */
+  protected static BowFeatures load( BowFeatures features, String mode ) {
+    String fingerprint = null;
+    File f = null;
+    if ( features.cacheDir != null ) {
+      try {
+        fingerprint = fingerprint( mode, features.citations, features.seeds );
+        f = getCacheFile( features.cacheDir, fingerprint );
+      } catch ( IOException e ) {
+        LOG.error( "Could not fingerprint the corpus.", e );
+      }
+    }
+
+    if ( f != null && f.exists() ) {
+      try {
+        FeatureCache cache = FeatureCache.open( f );
+        if ( fingerprint.equals( cache.getFingerprint() ) ) {
+          features.setRelation( read( cache ) );
+          LOG.info( "Loaded " + cache.size() + " feature vectors from " + f );
+
+          return features;
+        }
+      } catch ( IOException e ) {
+        LOG.error( "Could not read feature cache " + f, e );
+      }
+    }
+
+    features.setRelation( features.build() );
+    if ( features.getCollisionReport() != null ) {
+      LOG.info( "Hashing collisions:\n" + features.getCollisionReport() );
+    }
+
+    if ( f != null ) {
+      try {
+        f.getParentFile().mkdirs();
+        FeatureCache.write( f, fingerprint, features.relation );
+        LOG.info( "Saved feature cache " + f );
+      } catch ( IOException e ) {
+        LOG.error( "Could not write feature cache " + f, e );
+      }
+    }
+
+    return features;
+  }
+
+  /**
+   * Build the feature vectors in compressed sparse row form.
+   *
+   * @return
+   */
+  protected CsrRelation<PubmedId> build() {
+    List<PubmedId> ids = new ArrayList<>( citations.size() );
+    for ( Citation c : citations ) {
+      ids.add( c.getPmid() );
+    }
+
+    if ( hasher != null ) {
+      // stream the texts, so that only the hashed rows are held
+      return hasher.vectorize( ids, Iterables.transform( citations,
+          new Function<Citation, String>() {
+            @Override
+            public String apply( Citation c ) {
+              return getText( c );
+            }
+          } ) );
+    } else if ( vectorizer != null ) {
+      // the token store only lives as long as the build
+      TokenStore.View view = CitationTokens.view( tokenizer );
+      return vectorizer.vectorize( ids, CitationTokens.tokenize( view,
+          citations ), view );
+    }
+
+    bow = createBagOfWords( citations, seeds );
+
+    return CsrRelation.create( vectorize( bow, citations ),
+        new FeatureDictionary() );
+  }
+
+  /**
+   * Get the hashing collision report.
+   *
+   * @return the report, or null if the features are not hashed or were read
+   *         from the cache
+   */
+  public String getCollisionReport() {
+    return ( hasher == null || hasher.getDistinctTerms() <= 0 ) ? null
+        : hasher.getCollisionReport();
+  }
+
+  /**
+   * Write the hashing collision report, if there is one.
+   *
+   * @param f
+   * @throws IOException
+   */
+  public void writeCollisionReport( File f ) throws IOException {
+    String report = getCollisionReport();
+    if ( report != null ) {
+      Files.write( f.toPath(), report.getBytes( Charset.forName( "UTF-8" ) ) );
+    }
+  }
+
+  /**
+   * Hold the feature vectors in compressed sparse row form.
+   *
+   * @param relation
+   */
+  protected void setRelation( CsrRelation<PubmedId> relation ) {
+    this.relation = relation;
+    relation.getDictionary().setRows( relation );
+    this.metadata = getMetadata( relation.getDictionary() );
+    this.fvs = relation.asMap();
+  }
+
+  /**
+   * Get the Bag of Words, building it if the features were read from the
+   * cache.
+   *
+   * @return
+   */
+  public synchronized BagOfWords<Integer> getBagOfWords() {
+    if ( bow == null ) {
+      bow = createBagOfWords( citations, seeds );
+    }
+
+    return bow;
+  }
+
+  /**
+   * Create a FeatureVector for a text that is not in the corpus, the same way
+   * the corpus vectors were built. Terms that are not features are ignored.
+   *
+   * @param id
+   * @param text
+   * @return
+   */
+  public synchronized FeatureVector<Integer> createUnlabeledFV( String id,
+      String text ) {
+    if ( hasher != null ) {
+      FeatureDictionary dictionary = relation.getDictionary();
+
+      return dictionary.toFeatureVector( id, hasher.transform( text,
+          dictionary ) );
+    } else if ( vectorizer != null ) {
+      FeatureDictionary dictionary = relation.getDictionary();
+
+      return dictionary.toFeatureVector( id, vectorizer.transform( text,
+          dictionary ) );
+    }
+
+    return getBagOfWords().createUnlabeledFV( id, text );
+  }
+
+  /**
+   * Get the metadata of the features.
+   *
+   * @return
+   */
+  public Metadata getMetadata() {
+    return this.metadata;
+  }
+
+  /**
+   * Get the feature vectors.
+   *
+   * @return
+   */
+  public Map<PubmedId, FeatureVector<Integer>> getFeatureVectors() {
+    return this.fvs;
+  }
+
+  /**
+   * Get the feature vectors in compressed sparse row form.
+   *
+   * @return the relation, or null if the ranking trains the Bag of Words
+   */
+  public CsrRelation<PubmedId> getRelation() {
+    return this.relation;
+  }
+
+  /**
+   * Build the Bag of Words for the Citations, trained on the seeds.
+   *
+   * @param citations
+   * @param seeds
+   * @return
+   */
+  public static BagOfWords<Integer> createBagOfWords(
+      Collection<Citation> citations, Collection<Citation> seeds ) {
+    BagOfWords<Integer> bow = new BagOfWords<Integer>( STOPLIST, STEM, false,
+        MIN_OCCURS, MIN_LENGTH );
+
+    // create the features
+    List<String> texts = new ArrayList<String>();
+    for ( Citation c : citations ) {
+      texts.add( getText( c ) );
+    }
+    bow.createFeatures( texts );
+
+    for ( Citation c : seeds ) {
+      // seed citations are in the positive class
+      bow.train( c.getPmid().toString(), getText( c ), 1 );
+    }
+
+    return bow;
+  }
+
+  /**
+   * Create the FeatureVectors for the Citations.
+   *
+   * @param bow
+   * @param citations
+   * @return
+   */
+  public static Map<PubmedId, FeatureVector<Integer>> vectorize(
+      BagOfWords<Integer> bow, Collection<Citation> citations ) {
+    Map<PubmedId, FeatureVector<Integer>> fvs = new HashMap<>();
+    for ( Citation c : citations ) {
+      fvs.put( c.getPmid(), bow.createUnlabeledFV( c.getPmid().toString(),
+          getText( c ) ) );
+    }
+
+    return fvs;
+  }
+
+  /**
+   * Create the parallel vectorizer, with the same parameters as the Bag of
+   * Words.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static ParallelVectorizer createVectorizer() throws IOException {
+    return new ParallelVectorizer( createTokenizer(), MIN_OCCURS );
+  }
+
+  /**
+   * Create the tokenizer, with the same parameters as the Bag of Words.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static TextTokenizer createTokenizer() throws IOException {
+    return new TextTokenizer( TextTokenizer.readStoplist( STOPLIST ),
+        MIN_LENGTH, STEM );
+  }
+
+  /**
+   * Whether the tokenizer gives the Citations the same term counts as the
+   * Bag of Words. Every term is kept, since the rare terms of a sample are
+   * not those of the corpus.
+   *
+   * @param tokenizer
+   * @param citations
+   * @return
+   */
+  public static boolean agreesWithBagOfWords( TextTokenizer tokenizer,
+      Collection<Citation> citations ) {
+    BagOfWords<Integer> bow = new BagOfWords<Integer>( STOPLIST, STEM, false,
+        1, MIN_LENGTH );
+    List<String> texts = new ArrayList<String>();
+    for ( Citation c : citations ) {
+      texts.add( getText( c ) );
+    }
+    bow.createFeatures( texts );
+
+    for ( Citation c : citations ) {
+      String text = getText( c );
+      Map<String, Double> expected = new HashMap<>();
+      for ( Map.Entry<String, Feature<?>> e : bow.createUnlabeledFV(
+          c.getPmid().toString(), text ).entrySet() ) {
+        double value = FeatureDictionary.valueOf( e.getValue() );
+        if ( value != 0 ) {
+          expected.put( e.getKey(), value );
+        }
+      }
+      Map<String, Double> actual = new HashMap<>();
+      for ( String term : tokenizer.tokenize( text ) ) {
+        Double count = actual.get( term );
+        actual.put( term, ( count == null ) ? 1 : count + 1 );
+      }
+
+      if ( !expected.equals( actual ) ) {
+        LOG.warn( "Citation " + c.getPmid() + " has terms " + actual
+            + " but the Bag of Words has " + expected );
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Get the first Citations, to check the tokenizer on.
+   *
+   * @param citations
+   * @return
+   */
+  protected static List<Citation> sample( Collection<Citation> citations ) {
+    List<Citation> sample = new ArrayList<>( PARITY_SAMPLE );
+    for ( Citation c : citations ) {
+      if ( sample.size() == PARITY_SAMPLE ) break;
+      sample.add( c );
+    }
+
+    return sample;
+  }
+
+  /**
+   * Fingerprint the Citations and the vectorization parameters.
+   *
+   * @param mode how the features are built
+   * @param citations
+   * @param seeds
+   * @return
+   * @throws IOException
+   */
+  public static String fingerprint( String mode,
+      Collection<Citation> citations, Collection<Citation> seeds )
+    throws IOException {
+    List<String> params = Arrays.asList( mode, String.valueOf( STEM ),
+        String.valueOf( MIN_OCCURS ), String.valueOf( MIN_LENGTH ),
+        new String( Files.readAllBytes( STOPLIST.toPath() ), Charset
+            .forName( "UTF-8" ) ) );
+    SortedMap<String, String> texts = new TreeMap<>();
+    for ( Citation c : citations ) {
+      texts.put( c.getPmid().toString(), getText( c ) );
+    }
+    // the seeds train the Bag of Words
+    for ( Citation c : seeds ) {
+      texts.put( "seed:" + c.getPmid(), getText( c ) );
+    }
+
+    return FeatureCache.fingerprint( params, texts );
+  }
+
+  /**
+   * Get the feature cache file for the fingerprint, or null if there is no
+   * feature cache directory.
+   *
+   * @param dir
+   * @param fingerprint
+   * @return
+   */
+  public static File getCacheFile( File dir, String fingerprint ) {
+    return ( dir == null ) ? null : new File( dir, "bow-" + fingerprint
+        + FeatureCache.EXTENSION );
+  }
+
+  /**
+   * Read the feature vectors from the cache.
+   *
+   * @param cache
+   * @return
+   */
+  public static CsrRelation<PubmedId> read( FeatureCache cache ) {
+    List<PubmedId> ids = new ArrayList<>( cache.size() );
+    for ( int i = 0; i < cache.size(); i++ ) {
+      ids.add( new PubmedId( Long.valueOf( cache.getId( i ) ) ) );
+    }
+
+    return new CsrRelation<>( ids, cache.getMatrix(), cache.getDictionary() );
+  }
+
+  /**
+   * Get the metadata of the features in the dictionary.
+   *
+   * @param dictionary
+   * @return
+   */
+  public static Metadata getMetadata( FeatureDictionary dictionary ) {
+    Metadata m = new Metadata();
+    for ( int i = 0; i < dictionary.size(); i++ ) {
+      m.put( dictionary.getName( i ), FEATURE_TYPE );
+    }
+
+    return m;
+  }
+
+  /**
+   * Get the text of the Citation.
+   *
+   * @param c
+   * @return
+   */
+  protected static String getText( Citation c ) {
+    return CitationTokens.getText( c );
+  }
+}
@@ -0,0 +1,106 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.base.Function;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.features.TextTokenizer;
+import edu.tufts.cs.features.TokenStore;
+
+/**
+ * Tokenizes the texts of the Citations into a TokenStore: a text is stored
+ * under its field name and the PMID of its Citation, so every representation
+ * built from the same store reads the same token ids of a Citation. A store
+ * is created for each feature build and released with it.
+ */
+public class CitationTokens {
+  /** The field of the title and abstract. */
+  public static final String TEXT = "text";
+
+  /**
+   * Get the view of a new token store through the tokenizer.
+   *
+   * @param tokenizer
+   * @return
+   */
+  public static TokenStore.View view( TextTokenizer tokenizer ) {
+    return new TokenStore().view( tokenizer );
+  }
+
+  /**
+   * Get the term ids of the title and abstract of the Citation.
+   *
+   * @param view
+   * @param c
+   * @return
+   */
+  public static int[] tokenize( TokenStore.View view, Citation c ) {
+    return tokenize( view, TEXT, c, getText( c ) );
+  }
+
+  /**
+   * Get the term ids of a text of the Citation.
+   *
+   * @param view
+   * @param field the name of the text; a field always has the same text
+   * @param c
+   * @param text
+   * @return
+   */
+  public static int[] tokenize( TokenStore.View view, String field,
+      Citation c, String text ) {
+    return view.tokenize( field + ":" + c.getPmid(), text );
+  }
+
+  /**
+   * Get the term ids of the titles and abstracts of the Citations.
+   *
+   * @param view
+   * @param citations
+   * @return the term ids, in the order of the Citations
+   */
+  public static List<int[]> tokenize( TokenStore.View view,
+      Collection<Citation> citations ) {
+    return tokenize( view, TEXT, citations, new Function<Citation, String>() {
+      @Override
+      public String apply( Citation c ) {
+        return getText( c );
+      }
+    } );
+  }
+
+  /**
+   * Get the term ids of a text of the Citations, tokenizing them in
+   * parallel.
+   *
+   * @param view
+   * @param field the name of the text; a field always has the same text
+   * @param citations
+   * @param text
+   * @return the term ids, in the order of the Citations
+   */
+  public static List<int[]> tokenize( TokenStore.View view, String field,
+      Collection<Citation> citations, Function<Citation, String> text ) {
+    List<String> ids = new ArrayList<>( citations.size() );
+    List<String> texts = new ArrayList<>( citations.size() );
+    for ( Citation c : citations ) {
+      ids.add( field + ":" + c.getPmid() );
+      texts.add( text.apply( c ) );
+    }
+
+    return view.tokenize( ids, texts );
+  }
+
+  /**
+   * Get the title and abstract of the Citation.
+   *
+   * @param c
+   * @return
+   */
+  public static String getText( Citation c ) {
+    return c.getTitle() + " " + c.getAbstr();
+  }
+}
@@ -0,0 +1,521 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.io.CountingOutputStream;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+
+/**
+ * A versioned binary snapshot of the corpus returned by a review's query,
+ * read back through a memory-mapped file so that simulations can start
+ * without PubMed or the database.
+ *
+ * The file holds a header (magic number, version), the review (id, name,
+ * PICO queries, the query that produced the corpus and its labeled PMID
+ * sets), one record per citation (PMID, flags, date, title, abstract,
+ * journal, authors, MeSH) and a trailing table of record offsets. Strings are
+ * length-prefixed UTF-8; a length of -1 is null.
+ */
+public class CorpusSnapshot {
+  /** The magic number at the start of every snapshot ("EBMC"). */
+  public static final int MAGIC = 0x45424D43;
+  /** The current file format version. */
+  public static final int VERSION = 1;
+  /** The snapshot file extension. */
+  public static final String EXTENSION = ".corpus";
+  /** The flag for citations returned by the query. */
+  public static final byte IN_CORPUS = 1;
+  /** The flag for seed citations. */
+  public static final byte SEED = 2;
+  /** The flag for level 1 relevant citations. */
+  public static final byte RELEVANT_L1 = 4;
+  /** The flag for level 2 relevant citations. */
+  public static final byte RELEVANT_L2 = 8;
+  /** The flag for blacklisted citations. */
+  public static final byte BLACKLISTED = 16;
+  /** The size of the trailer (number of records, offset of the table). */
+  protected static final int TRAILER_BYTES = 4 + 8;
+  /** The value written for a missing date. */
+  protected static final long NO_DATE = Long.MIN_VALUE;
+  /** The string encoding. */
+  protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+  /** The mapped file. */
+  protected ByteBuffer buf;
+  /** The record offsets. */
+  protected int[] offsets;
+  /** The review. */
+  protected SystematicReview review;
+  /** The query that produced the corpus. */
+  protected String query;
+
+  /**
+   * Default constructor.
+   *
+   * @param buf
+   * @throws IOException
+   */
+  protected CorpusSnapshot( ByteBuffer buf ) throws IOException {
+    this.buf = buf;
+
+    if ( buf.capacity() < 8 + TRAILER_BYTES || buf.getInt( 0 ) != MAGIC ) {
+      throw new IOException( "Not a corpus snapshot." );
+    }
+    int version = buf.getInt( 4 );
+    if ( version != VERSION ) {
+      throw new IOException( "Unsupported corpus snapshot version " + version
+          + " (expected " + VERSION + ")." );
+    }
+
+    // the record table
+    int numRecords = buf.getInt( buf.capacity() - TRAILER_BYTES );
+    int table = (int) buf.getLong( buf.capacity() - TRAILER_BYTES + 4 );
+    this.offsets = new int[numRecords];
+    for ( int i = 0; i < numRecords; i++ ) {
+      offsets[i] = (int) buf.getLong( table + i * 8 );
+    }
+
+    readReview();
+  }
+
+  /**
+   * Open the snapshot file.
+   *
+   * @param f
+   * @return
+   * @throws IOException
+   */
+  public static CorpusSnapshot open( File f ) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile( f, "r" );
+    try {
+      FileChannel channel = raf.getChannel();
+      if ( channel.size() > Integer.MAX_VALUE ) {
+        throw new IOException( "Corpus snapshot " + f + " is too large to map." );
+      }
+      // the mapping stays valid after the channel is closed
+      return new CorpusSnapshot( channel.map( FileChannel.MapMode.READ_ONLY,
+          0, channel.size() ) );
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Write the review and the corpus returned by the query to the snapshot
+   * file. The file is written under a temporary name and then renamed, so
+   * readers never see a partial snapshot.
+   *
+   * @param f
+   * @param r
+   * @param query
+   * @param corpus
+   * @throws IOException
+   */
+  public static void write( File f, SystematicReview r, String query,
+      Collection<Citation> corpus ) throws IOException {
+    // the corpus, then any seeds the query did not return
+    Map<PubmedId, Citation> citations = new LinkedHashMap<>();
+    for ( Citation c : corpus ) {
+      citations.put( c.getPmid(), c );
+    }
+    Set<PubmedId> inCorpus = new HashSet<>( citations.keySet() );
+    for ( Citation c : r.getSeedCitations() ) {
+      if ( !citations.containsKey( c.getPmid() ) ) {
+        citations.put( c.getPmid(), c );
+      }
+    }
+
+    File tmp = new File( f.getPath() + "." + Thread.currentThread().getId()
+        + ".tmp" );
+    // DataOutputStream.size() stops counting at Integer.MAX_VALUE
+    CountingOutputStream counter = new CountingOutputStream(
+        new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+    DataOutputStream out = new DataOutputStream( counter );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+
+      out.writeLong( ( r.getId() == null ) ? -1 : r.getId() );
+      writeString( out, r.getName() );
+      writeString( out, r.getQueryP() );
+      writeString( out, r.getQueryIC() );
+      writeString( out, r.getQueryO() );
+      writeString( out, query );
+      writePmids( out, r.getSeeds() );
+      writePmids( out, r.getRelevantLevel1() );
+      writePmids( out, r.getRelevantLevel2() );
+      writePmids( out, r.getBlacklist() );
+      writePmids( out, r.getIrrelevantP() );
+      writePmids( out, r.getIrrelevantIC() );
+      writePmids( out, r.getIrrelevantO() );
+
+      List<Long> offsets = new ArrayList<>();
+      for ( Citation c : citations.values() ) {
+        offsets.add( counter.getCount() );
+        PubmedId pmid = c.getPmid();
+        byte flags = 0;
+        if ( inCorpus.contains( pmid ) ) flags |= IN_CORPUS;
+        if ( r.getSeeds().contains( pmid ) ) flags |= SEED;
+        if ( r.getRelevantLevel1().contains( pmid ) ) flags |= RELEVANT_L1;
+        if ( r.getRelevantLevel2().contains( pmid ) ) flags |= RELEVANT_L2;
+        if ( r.getBlacklist().contains( pmid ) ) flags |= BLACKLISTED;
+
+        out.writeLong( pmid.longValue() );
+        out.writeByte( flags );
+        out.writeLong( ( c.getDate() == null ) ? NO_DATE : c.getDate()
+            .getTime() );
+        writeString( out, c.getTitle() );
+        writeString( out, c.getAbstr() );
+        writeString( out, c.getJournal() );
+        writeString( out, c.getAuthors() );
+        writeString( out, c.getMeshStr() );
+        if ( counter.getCount() > Integer.MAX_VALUE ) {
+          throw new IOException( "Corpus is too large for a snapshot." );
+        }
+      }
+
+      long table = counter.getCount();
+      for ( long offset : offsets ) {
+        out.writeLong( offset );
+      }
+      out.writeInt( offsets.size() );
+      out.writeLong( table );
+    } finally {
+      out.close();
+    }
+
+    if ( !tmp.renameTo( f ) ) {
+      f.delete();
+      if ( !tmp.renameTo( f ) ) {
+        tmp.delete();
+        throw new IOException( "Could not move snapshot to " + f );
+      }
+    }
+  }
+
+  /**
+   * Get the review, with its seed citations.
+   *
+   * @return
+   */
+  public SystematicReview getReview() {
+    return this.review;
+  }
+
+  /**
+   * Get the query that produced the corpus.
+   *
+   * @return
+   */
+  public String getQuery() {
+    return this.query;
+  }
+
+  /**
+   * Get the number of records (the corpus and any seeds outside of it).
+   *
+   * @return
+   */
+  public int size() {
+    return offsets.length;
+  }
+
+  /**
+   * Get the PMID of the record.
+   *
+   * @param i
+   * @return
+   */
+  public long getPmid( int i ) {
+    return buf.getLong( offsets[i] );
+  }
+
+  /**
+   * Get the flags of the record.
+   *
+   * @param i
+   * @return
+   */
+  public byte getFlags( int i ) {
+    return buf.get( offsets[i] + 8 );
+  }
+
+  /**
+   * Whether the record has the flag.
+   *
+   * @param i
+   * @param flag
+   * @return
+   */
+  public boolean is( int i, byte flag ) {
+    return ( getFlags( i ) & flag ) != 0;
+  }
+
+  /**
+   * Get the title of the record.
+   *
+   * @param i
+   * @return
+   */
+  public String getTitle( int i ) {
+    return getString( i, 0 );
+  }
+
+  /**
+   * Get the abstract of the record.
+   *
+   * @param i
+   * @return
+   */
+  public String getAbstr( int i ) {
+    return getString( i, 1 );
+  }
+
+  /**
+   * Get the record as a (detached) citation.
+   *
+   * @param i
+   * @return
+   */
+  public Citation getCitation( int i ) {
+    ByteBuffer b = buf.duplicate();
+    b.position( offsets[i] );
+    Citation c = new Citation( new PubmedId( b.getLong() ) );
+    b.get(); // flags
+    long date = b.getLong();
+    if ( date != NO_DATE ) c.setDate( new Date( date ) );
+    c.setTitle( readString( b ) );
+    c.setAbstr( readString( b ) );
+    c.setJournal( readString( b ) );
+    c.setAuthors( readString( b ) );
+    String mesh = readString( b );
+    if ( mesh != null ) c.setMeshStr( mesh );
+
+    return c;
+  }
+
+  /**
+   * Get the citations returned by the query. The set is a view of the
+   * snapshot: each citation is read from its record when it is iterated, so
+   * the corpus is not held on the heap.
+   *
+   * @return an unmodifiable set
+   */
+  public Set<Citation> getCitations() {
+    final int[] records = getRecords( IN_CORPUS );
+
+    return new AbstractSet<Citation>() {
+      @Override
+      public Iterator<Citation> iterator() {
+        return new Iterator<Citation>() {
+          /** The next record. */
+          protected int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < records.length;
+          }
+
+          @Override
+          public Citation next() {
+            if ( !hasNext() ) {
+              throw new NoSuchElementException();
+            }
+
+            return getCitation( records[next++] );
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return records.length;
+      }
+
+      @Override
+      public boolean contains( Object o ) {
+        PubmedId id = ( o instanceof Citation ) ? ( (Citation) o ).getPmid()
+            : null;
+        if ( id == null ) {
+          return false;
+        }
+        long pmid = id.longValue();
+        for ( int i : records ) {
+          if ( getPmid( i ) == pmid ) {
+            return true;
+          }
+        }
+
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get the records with the flag.
+   *
+   * @param flag
+   * @return the indices of the records
+   */
+  protected int[] getRecords( byte flag ) {
+    int[] records = new int[size()];
+    int n = 0;
+    for ( int i = 0; i < size(); i++ ) {
+      if ( is( i, flag ) ) {
+        records[n++] = i;
+      }
+    }
+
+    return Arrays.copyOf( records, n );
+  }
+
+  /**
+   * Get the seed citations.
+   *
+   * @return
+   */
+  public Set<Citation> getSeedCitations() {
+    Set<Citation> seeds = new HashSet<>();
+    for ( int i = 0; i < size(); i++ ) {
+      if ( is( i, SEED ) ) {
+        seeds.add( getCitation( i ) );
+      }
+    }
+
+    return seeds;
+  }
+
+  /**
+   * Read the review section.
+   */
+  protected void readReview() {
+    ByteBuffer b = buf.duplicate();
+    b.position( 8 );
+
+    this.review = new SystematicReview();
+    long id = b.getLong();
+    if ( id >= 0 ) review.setId( id );
+    review.setName( readString( b ) );
+    review.setQueryP( readString( b ) );
+    review.setQueryIC( readString( b ) );
+    review.setQueryO( readString( b ) );
+    this.query = readString( b );
+    review.setSeeds( readPmids( b ) );
+    review.setRelevantLevel1( readPmids( b ) );
+    review.setRelevantLevel2( readPmids( b ) );
+    review.setBlacklist( readPmids( b ) );
+    review.setIrrelevantP( readPmids( b ) );
+    review.setIrrelevantIC( readPmids( b ) );
+    review.setIrrelevantO( readPmids( b ) );
+    review.setSeedCitations( getSeedCitations() );
+  }
+
+  /**
+   * Get the nth string field of the record.
+   *
+   * @param i
+   * @param field
+   * @return
+   */
+  protected String getString( int i, int field ) {
+    ByteBuffer b = buf.duplicate();
+    b.position( offsets[i] + 8 + 1 + 8 );
+    for ( int f = 0; f < field; f++ ) {
+      int len = b.getInt();
+      if ( len > 0 ) b.position( b.position() + len );
+    }
+
+    return readString( b );
+  }
+
+  /**
+   * Read a length-prefixed string.
+   *
+   * @param b
+   * @return
+   */
+  protected static String readString( ByteBuffer b ) {
+    int len = b.getInt();
+    if ( len < 0 ) return null;
+    byte[] bytes = new byte[len];
+    b.get( bytes );
+
+    return new String( bytes, UTF8 );
+  }
+
+  /**
+   * Read a set of PMIDs.
+   *
+   * @param b
+   * @return
+   */
+  protected static Set<PubmedId> readPmids( ByteBuffer b ) {
+    int n = b.getInt();
+    Set<PubmedId> pmids = new HashSet<>();
+    for ( int i = 0; i < n; i++ ) {
+      pmids.add( new PubmedId( b.getLong() ) );
+    }
+
+    return pmids;
+  }
+
+  /**
+   * Write a length-prefixed string.
+   *
+   * @param out
+   * @param s
+   * @throws IOException
+   */
+  protected static void writeString( DataOutputStream out, String s )
+    throws IOException {
+    if ( s == null ) {
+      out.writeInt( -1 );
+    } else {
+      byte[] bytes = s.getBytes( UTF8 );
+      out.writeInt( bytes.length );
+      out.write( bytes );
+    }
+  }
+
+  /**
+   * Write a set of PMIDs.
+   *
+   * @param out
+   * @param pmids
+   * @throws IOException
+   */
+  protected static void writePmids( DataOutputStream out,
+      Collection<PubmedId> pmids ) throws IOException {
+    out.writeInt( pmids.size() );
+    for ( PubmedId pmid : pmids ) {
+      out.writeLong( pmid.longValue() );
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A per-simulation dictionary mapping each document to a dense int id.
+ */
+public class DocumentIndex<I> {
+  /** The id returned for documents that are not in the index. */
+  public static final int NOT_FOUND = -1;
+  /** The dense ids, keyed by document. */
+  protected Map<I, Integer> ids = new HashMap<>();
+  /** The documents, indexed by dense id. */
+  protected List<I> documents = new ArrayList<>();
+
+  /**
+   * Add the document to the index if it is not already present.
+   *
+   * @param doc
+   * @return the dense id of the document
+   */
+  public int add( I doc ) {
+    Integer id = ids.get( doc );
+    if ( id == null ) {
+      id = documents.size();
+      ids.put( doc, id );
+      documents.add( doc );
+    }
+
+    return id;
+  }
+
+  /**
+   * Get the dense id of the document.
+   *
+   * @param doc
+   * @return the id, or NOT_FOUND
+   */
+  public int indexOf( Object doc ) {
+    Integer id = ids.get( doc );
+
+    return ( id == null ) ? NOT_FOUND : id;
+  }
+
+  /**
+   * Get the document with the given dense id.
+   *
+   * @param id
+   * @return
+   */
+  public I get( int id ) {
+    return documents.get( id );
+  }
+
+  /**
+   * Whether the document is in the index.
+   *
+   * @param doc
+   * @return
+   */
+  public boolean contains( Object doc ) {
+    return ids.containsKey( doc );
+  }
+
+  /**
+   * Get the number of documents in the index.
+   *
+   * @return
+   */
+  public int size() {
+    return documents.size();
+  }
+}
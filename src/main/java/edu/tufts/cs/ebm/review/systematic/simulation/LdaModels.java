@@ -0,0 +1,416 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Function;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.features.FeatureCache;
+import edu.tufts.cs.features.TextTokenizer;
+import edu.tufts.cs.features.TokenStore;
+import edu.tufts.cs.ml.topics.lda.BasicLDA;
+import edu.tufts.cs.topics.LdaTopicModel;
+import edu.tufts.cs.topics.SparseLda;
+import edu.tufts.cs.topics.TopicModel;
+
+/**
+ * Creates and trains the topic models of the LDA simulations.
+ *
+ * When the sparse LDA sampler is used and there is a model directory (the
+ * simulation's feature cache directory), trained models are saved there,
+ * keyed by the review, the parameters and the fingerprint of the corpus. A
+ * model saved for the same corpus is reused as is. If folding in is
+ * enabled, the newest model saved for the same review and parameters whose
+ * training corpus is known is reused otherwise, as long as the citations it
+ * was not trained on are at most MAX_FOLD_IN of the corpus: the new ones are
+ * folded into it instead of training a new model. The citations folded in so
+ * far count towards the limit, so repeated fold-ins eventually retrain.
+ *
+ * The sparse LDA sampler reads the token ids that CitationTokens stores once
+ * per Citation and field, rather than tokenizing the texts again; the store
+ * lives as long as the training.
+ */
+public class LdaModels {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( LdaModels.class );
+  /** The minimum length of a term for the sparse LDA sampler. */
+  public static final int MIN_LENGTH = 3;
+  /** The largest fraction of new citations to fold into a saved model. */
+  public static final double MAX_FOLD_IN = 0.25;
+  /** The prefix of the model files. */
+  protected static final String PREFIX = "lda-";
+  /** The directory the models are saved to, or null to always train. */
+  protected File dir;
+  /** Whether to use the parallel sparse LDA sampler. */
+  protected boolean sparse = false;
+  /** Whether new citations may be folded into a saved model. */
+  protected boolean foldIn = false;
+  /** The number of threads of the sparse LDA sampler. */
+  protected int numThreads = Runtime.getRuntime().availableProcessors();
+  /** The executor of the sparse LDA sampler, or null for a pool per model. */
+  protected ExecutorService executor;
+
+  /**
+   * Default constructor.
+   *
+   * @param dir the directory the models are saved to, or null to always
+   *          train
+   */
+  public LdaModels( File dir ) {
+    this.dir = dir;
+  }
+
+  /**
+   * Set whether to use the parallel sparse LDA sampler instead of the
+   * BasicLDA.
+   *
+   * @param sparse
+   */
+  public void setSparse( boolean sparse ) {
+    this.sparse = sparse;
+  }
+
+  /**
+   * Set whether new citations may be folded into a saved model.
+   *
+   * @param foldIn
+   */
+  public void setFoldIn( boolean foldIn ) {
+    this.foldIn = foldIn;
+  }
+
+  /**
+   * Set the number of threads of the sparse LDA sampler.
+   *
+   * @param numThreads
+   */
+  public void setNumThreads( int numThreads ) {
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Set the executor of the sparse LDA sampler (null for a pool per model).
+   *
+   * @param executor
+   */
+  public void setExecutor( ExecutorService executor ) {
+    this.executor = executor;
+  }
+
+  /**
+   * Create the LDA model: the parallel sparse LDA sampler if it is enabled,
+   * or else the BasicLDA.
+   *
+   * @param numTopics
+   * @param alphaSum
+   * @param beta
+   * @param seed the seed of the sparse LDA sampler
+   * @return
+   */
+  public TopicModel create( int numTopics, double alphaSum,
+      double beta, long seed ) {
+    if ( sparse ) {
+      try {
+        SparseLda lda = new SparseLda( numTopics, alphaSum, beta,
+            createTokenizer() );
+        lda.setSeed( seed );
+        lda.setNumThreads( numThreads );
+        lda.setExecutor( executor );
+
+        return lda;
+      } catch ( IOException e ) {
+        LOG.error( "Could not read the stoplist; using the BasicLDA.", e );
+      }
+    }
+
+    return new LdaTopicModel( new BasicLDA( numTopics, alphaSum, beta ) );
+  }
+
+  /**
+   * Create the tokenizer of the sparse LDA sampler.
+   *
+   * @return
+   * @throws IOException if the stoplist cannot be read
+   */
+  protected static TextTokenizer createTokenizer() throws IOException {
+    return new TextTokenizer( TextTokenizer
+        .readStoplist( BowFeatures.STOPLIST ), MIN_LENGTH, false );
+  }
+
+  /**
+   * Train a topic model on the citations, or reuse a saved one.
+   *
+   * @param review the name of the review
+   * @param citations
+   * @param field the name of the text, under which its tokens are stored
+   * @param text the text of each citation
+   * @param numTopics
+   * @param alphaSum
+   * @param beta
+   * @param iterations
+   * @param seed the seed of the simulation, or null for the default
+   * @return
+   * @throws IOException
+   */
+  public TopicModel train( String review,
+      Collection<Citation> citations, String field,
+      Function<Citation, String> text, int numTopics, double alphaSum,
+      double beta, int iterations, Long seed ) throws IOException {
+    long ldaSeed = ( seed == null ) ? SparseLda.DEFAULT_SEED : seed;
+    TopicModel model = create( numTopics, alphaSum, beta, ldaSeed );
+    if ( !( model instanceof SparseLda ) ) {
+      for ( Citation c : citations ) {
+        model.add( c.getPmid().toString(), text.apply( c ) );
+      }
+      model.train( iterations );
+
+      return model;
+    }
+
+    TokenStore.View view = CitationTokens.view( createTokenizer() );
+    if ( dir == null ) {
+      add( (SparseLda) model, view, citations, field, text );
+      model.train( iterations );
+
+      return model;
+    }
+
+    List<String> params = Arrays.asList( "lda", String.valueOf( numTopics ),
+        String.valueOf( alphaSum ), String.valueOf( beta ), String
+            .valueOf( iterations ), String.valueOf( MIN_LENGTH ), String
+            .valueOf( ldaSeed ),
+        new String( Files.readAllBytes( BowFeatures.STOPLIST.toPath() ),
+            Charset.forName( "UTF-8" ) ) );
+    String prefix = PREFIX + review + "-"
+        + FeatureCache.fingerprint( params, Collections
+            .<Map.Entry<String, String>> emptyList() ).substring( 0, 12 )
+        + "-";
+    String fingerprint = FeatureCache.fingerprint( params, texts( citations,
+        text ) );
+    File f = new File( dir, prefix + fingerprint + SparseLda.EXTENSION );
+
+    SparseLda saved = read( f, fingerprint );
+    if ( saved != null ) {
+      LOG.info( "Loaded LDA model " + f );
+
+      return saved;
+    }
+
+    if ( foldIn ) {
+      saved = readNewest( dir, prefix );
+      if ( saved != null && foldIn( saved, view, citations, field, text ) ) {
+        write( saved, f, fingerprint );
+
+        return saved;
+      }
+    }
+
+    add( (SparseLda) model, view, citations, field, text );
+    model.train( iterations );
+    write( (SparseLda) model, f, fingerprint );
+
+    return model;
+  }
+
+  /**
+   * Add the stored tokens of the citations to the model.
+   *
+   * @param lda
+   * @param view
+   * @param citations
+   * @param field
+   * @param text
+   */
+  protected static void add( SparseLda lda, TokenStore.View view,
+      Collection<Citation> citations, String field,
+      Function<Citation, String> text ) {
+    List<int[]> docs = CitationTokens.tokenize( view, field, citations,
+        text );
+    int i = 0;
+    for ( Citation c : citations ) {
+      lda.add( c.getPmid().toString(), docs.get( i++ ), view );
+    }
+  }
+
+  /**
+   * Fold the citations that are not in the model into it, unless too many
+   * of the citations were not trained on, counting those folded in before.
+   *
+   * @param lda
+   * @param view
+   * @param citations
+   * @param field
+   * @param text
+   * @return whether the citations were folded in
+   */
+  protected static boolean foldIn( SparseLda lda, TokenStore.View view,
+      Collection<Citation> citations, String field,
+      Function<Citation, String> text ) {
+    List<Citation> added = new ArrayList<>();
+    int untrained = 0;
+    for ( Citation c : citations ) {
+      String id = c.getPmid().toString();
+      if ( !lda.contains( id ) ) {
+        added.add( c );
+        untrained++;
+      } else if ( lda.isFoldedIn( id ) ) {
+        untrained++;
+      }
+    }
+    if ( untrained > MAX_FOLD_IN * citations.size() ) {
+      LOG.info( untrained + " of " + citations.size() + " citations were "
+          + "not trained on; retraining the LDA model." );
+      return false;
+    }
+
+    List<int[]> docs = CitationTokens.tokenize( view, field, added, text );
+    for ( int i = 0; i < added.size(); i++ ) {
+      lda.foldIn( added.get( i ).getPmid().toString(), docs.get( i ), view );
+    }
+    LOG.info( "Folded " + added.size() + " new citations into the LDA model." );
+
+    return true;
+  }
+
+  /**
+   * Read the model, if the file exists and has the fingerprint.
+   *
+   * @param f
+   * @param fingerprint
+   * @return the model, or null
+   */
+  protected static SparseLda read( File f, String fingerprint ) {
+    if ( !f.exists() ) {
+      return null;
+    }
+
+    try {
+      SparseLda lda = SparseLda.read( f, createTokenizer() );
+      if ( fingerprint == null || fingerprint.equals( lda.getFingerprint() ) ) {
+        return lda;
+      }
+    } catch ( IOException e ) {
+      LOG.error( "Could not read LDA model " + f, e );
+    }
+
+    return null;
+  }
+
+  /**
+   * Read the newest model with the prefix that records the corpus it was
+   * trained on.
+   *
+   * @param dir
+   * @param prefix
+   * @return the model, or null if there is none
+   */
+  protected static SparseLda readNewest( File dir, final String prefix ) {
+    File[] files = dir.listFiles( new FileFilter() {
+      @Override
+      public boolean accept( File f ) {
+        return f.getName().startsWith( prefix )
+            && f.getName().endsWith( SparseLda.EXTENSION );
+      }
+    } );
+    if ( files == null || files.length == 0 ) {
+      return null;
+    }
+
+    Arrays.sort( files, new Comparator<File>() {
+      @Override
+      public int compare( File a, File b ) {
+        return Long.compare( b.lastModified(), a.lastModified() );
+      }
+    } );
+    for ( File f : files ) {
+      SparseLda lda = read( f, null );
+      if ( lda != null && lda.getBaseFingerprint() != null ) {
+        LOG.info( "Loaded LDA model " + f + " to fold citations into" );
+
+        return lda;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Save the model, logging any failure.
+   *
+   * @param lda
+   * @param f
+   * @param fingerprint
+   */
+  protected static void write( SparseLda lda, File f, String fingerprint ) {
+    try {
+      f.getParentFile().mkdirs();
+      lda.write( f, fingerprint );
+      LOG.info( "Saved LDA model " + f );
+    } catch ( IOException e ) {
+      LOG.error( "Could not write LDA model " + f, e );
+    }
+  }
+
+  /**
+   * The ids and texts of the citations, ordered by id, built as they are
+   * read.
+   *
+   * @param citations
+   * @param text
+   * @return
+   */
+  protected static Iterable<Map.Entry<String, String>> texts(
+      Collection<Citation> citations, final Function<Citation, String> text ) {
+    final List<Citation> sorted = new ArrayList<>( citations );
+    Collections.sort( sorted, new Comparator<Citation>() {
+      @Override
+      public int compare( Citation a, Citation b ) {
+        return a.getPmid().toString().compareTo( b.getPmid().toString() );
+      }
+    } );
+
+    return new Iterable<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        final Iterator<Citation> it = sorted.iterator();
+
+        return new Iterator<Map.Entry<String, String>>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            Citation c = it.next();
+
+            return new AbstractMap.SimpleImmutableEntry<>( c.getPmid()
+                .toString(), text.apply( c ) );
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
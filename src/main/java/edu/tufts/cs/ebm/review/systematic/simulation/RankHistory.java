@@ -0,0 +1,296 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.tufts.cs.ebm.util.MathUtil;
+
+/**
+ * A columnar store of the rank and probability of every document at every
+ * iteration of a simulation.
+ *
+ * The history is a (document x iteration) matrix of int ranks and float
+ * probabilities. It grows by chunks of iterations, and the chunks may be
+ * allocated off the heap for very large reviews. A rank of 0 means that the
+ * document was not ranked in that iteration.
+ */
+public class RankHistory {
+  /** The default number of iterations per chunk. */
+  public static final int DEFAULT_CHUNK_SIZE = 64;
+  /** The number of decimal places the probabilities are written with. */
+  protected static final int PROB_PLACES = 7;
+  /** The number of bytes per cell (one int rank, one float probability). */
+  protected static final int CELL_BYTES = 4;
+  /** The number of iterations per chunk. */
+  protected int chunkSize;
+  /** Whether the chunks are allocated off the heap. */
+  protected boolean offHeap;
+  /** The number of documents to allocate each chunk for. */
+  protected int numDocs;
+  /** The number of iterations recorded so far. */
+  protected int numIterations = 0;
+  /** The chunks, in iteration order. */
+  protected List<Chunk> chunks = new ArrayList<>();
+
+  /**
+   * Default constructor.
+   *
+   * @param numDocs
+   */
+  public RankHistory( int numDocs ) {
+    this( numDocs, DEFAULT_CHUNK_SIZE, false );
+  }
+
+  /**
+   * Constructor with the chunk size and the allocation strategy.
+   *
+   * @param numDocs
+   * @param chunkSize
+   * @param offHeap
+   */
+  public RankHistory( int numDocs, int chunkSize, boolean offHeap ) {
+    if ( chunkSize <= 0 ) {
+      throw new IllegalArgumentException( "Chunk size must be positive: "
+          + chunkSize );
+    }
+    this.numDocs = Math.max( numDocs, 1 );
+    this.chunkSize = chunkSize;
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * Record the rank and probability of the document at the iteration.
+   *
+   * @param iteration
+   * @param doc
+   * @param rank
+   * @param prob
+   */
+  public void record( int iteration, int doc, int rank, float prob ) {
+    if ( doc >= numDocs ) {
+      numDocs = Math.max( doc + 1, numDocs + numDocs / 2 );
+    }
+    while ( chunks.size() <= iteration / chunkSize ) {
+      chunks.add( new Chunk( numDocs ) );
+    }
+    Chunk chunk = chunks.get( iteration / chunkSize );
+    if ( doc >= chunk.docs ) {
+      chunk.grow( numDocs );
+    }
+
+    int cell = ( iteration % chunkSize ) * chunk.docs + doc;
+    chunk.ranks.put( cell, rank );
+    chunk.probs.put( cell, prob );
+    numIterations = Math.max( numIterations, iteration + 1 );
+  }
+
+  /**
+   * Get the rank of the document at the iteration.
+   *
+   * @param iteration
+   * @param doc
+   * @return the rank, or 0 if it was not ranked
+   */
+  public int getRank( int iteration, int doc ) {
+    Chunk chunk = getChunk( iteration, doc );
+
+    return ( chunk == null ) ? 0 : chunk.ranks.get( ( iteration % chunkSize )
+        * chunk.docs + doc );
+  }
+
+  /**
+   * Get the probability of the document at the iteration.
+   *
+   * @param iteration
+   * @param doc
+   * @return
+   */
+  public float getProb( int iteration, int doc ) {
+    Chunk chunk = getChunk( iteration, doc );
+
+    return ( chunk == null ) ? 0 : chunk.probs.get( ( iteration % chunkSize )
+        * chunk.docs + doc );
+  }
+
+  /**
+   * Get the number of iterations recorded.
+   *
+   * @return
+   */
+  public int getNumIterations() {
+    return this.numIterations;
+  }
+
+  /**
+   * Write the comma-separated ranks of the document, one per iteration in
+   * which it was ranked.
+   *
+   * @param doc
+   * @param out
+   * @throws IOException
+   */
+  public void writeRanks( int doc, Writer out ) throws IOException {
+    boolean first = true;
+    for ( int it = 0; it < numIterations; it++ ) {
+      int rank = getRank( it, doc );
+      if ( rank > 0 ) {
+        if ( !first ) out.write( ',' );
+        out.write( Integer.toString( rank ) );
+        first = false;
+      }
+    }
+  }
+
+  /**
+   * Write the comma-separated probabilities of the document, one per
+   * iteration in which it was ranked.
+   *
+   * @param doc
+   * @param out
+   * @throws IOException
+   */
+  public void writeProbs( int doc, Writer out ) throws IOException {
+    boolean first = true;
+    for ( int it = 0; it < numIterations; it++ ) {
+      if ( getRank( it, doc ) > 0 ) {
+        if ( !first ) out.write( ',' );
+        // floats hold the probability to well within PROB_PLACES
+        out.write( String.valueOf( MathUtil.round( getProb( it, doc ),
+            PROB_PLACES ) ) );
+        first = false;
+      }
+    }
+  }
+
+  /**
+   * Write the iterations in binary, so that a file can be appended to as the
+   * history grows: each iteration is the number of documents, then the rank
+   * and probability of each document.
+   *
+   * @param out
+   * @param from the first iteration
+   * @param to the iteration after the last
+   * @throws IOException
+   */
+  public void write( DataOutput out, int from, int to ) throws IOException {
+    for ( int it = from; it < to; it++ ) {
+      out.writeInt( numDocs );
+      for ( int doc = 0; doc < numDocs; doc++ ) {
+        out.writeInt( getRank( it, doc ) );
+        out.writeFloat( getProb( it, doc ) );
+      }
+    }
+  }
+
+  /**
+   * Read the iterations written by write(...).
+   *
+   * @param in
+   * @param iterations the number of iterations to read
+   * @param chunkSize
+   * @param offHeap
+   * @return
+   * @throws IOException
+   */
+  public static RankHistory read( DataInput in, int iterations,
+      int chunkSize, boolean offHeap ) throws IOException {
+    RankHistory history = null;
+    for ( int it = 0; it < iterations; it++ ) {
+      int docs = in.readInt();
+      if ( history == null ) {
+        history = new RankHistory( docs, chunkSize, offHeap );
+      }
+      for ( int doc = 0; doc < docs; doc++ ) {
+        int rank = in.readInt();
+        float prob = in.readFloat();
+        if ( rank > 0 ) {
+          history.record( it, doc, rank, prob );
+        }
+      }
+    }
+    if ( history != null ) {
+      history.numIterations = iterations;
+    }
+
+    return history;
+  }
+
+  /**
+   * Get the chunk holding the cell, if it has been allocated.
+   *
+   * @param iteration
+   * @param doc
+   * @return
+   */
+  protected Chunk getChunk( int iteration, int doc ) {
+    if ( iteration >= numIterations || iteration / chunkSize >= chunks.size() ) {
+      return null;
+    }
+    Chunk chunk = chunks.get( iteration / chunkSize );
+
+    return ( doc < chunk.docs ) ? chunk : null;
+  }
+
+  /**
+   * Allocate a buffer of the given number of cells.
+   *
+   * @param cells
+   * @return
+   */
+  protected ByteBuffer allocate( int cells ) {
+    ByteBuffer buf = offHeap ? ByteBuffer.allocateDirect( cells * CELL_BYTES )
+        : ByteBuffer.allocate( cells * CELL_BYTES );
+
+    return buf.order( ByteOrder.nativeOrder() );
+  }
+
+  /**
+   * A block of chunkSize iterations, stored iteration-major.
+   */
+  protected class Chunk {
+    /** The number of documents per iteration. */
+    protected int docs;
+    /** The ranks. */
+    protected IntBuffer ranks;
+    /** The probabilities. */
+    protected FloatBuffer probs;
+
+    /**
+     * Default constructor.
+     *
+     * @param docs
+     */
+    protected Chunk( int docs ) {
+      this.docs = docs;
+      this.ranks = allocate( docs * chunkSize ).asIntBuffer();
+      this.probs = allocate( docs * chunkSize ).asFloatBuffer();
+    }
+
+    /**
+     * Grow the chunk to hold the given number of documents.
+     *
+     * @param newDocs
+     */
+    protected void grow( int newDocs ) {
+      IntBuffer newRanks = allocate( newDocs * chunkSize ).asIntBuffer();
+      FloatBuffer newProbs = allocate( newDocs * chunkSize ).asFloatBuffer();
+      for ( int it = 0; it < chunkSize; it++ ) {
+        for ( int doc = 0; doc < docs; doc++ ) {
+          newRanks.put( it * newDocs + doc, ranks.get( it * docs + doc ) );
+          newProbs.put( it * newDocs + doc, probs.get( it * docs + doc ) );
+        }
+      }
+      this.docs = newDocs;
+      this.ranks = newRanks;
+      this.probs = newProbs;
+    }
+  }
+}
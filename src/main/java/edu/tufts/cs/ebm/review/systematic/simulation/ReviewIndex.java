@@ -0,0 +1,137 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.BitSet;
+
+import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+
+/**
+ * A document dictionary that also records which documents the review labels
+ * as seeds, level 1 and level 2 relevant and blacklisted, as bits indexed by
+ * dense id. Each document is looked up in the review's sets once, when it is
+ * added, so that membership checks in the simulation loop are bit tests.
+ */
+public class ReviewIndex<I> extends DocumentIndex<I> {
+  /** The review. */
+  protected SystematicReview review;
+  /** The seed documents. */
+  protected BitSet seeds = new BitSet();
+  /** The level 1 relevant documents. */
+  protected BitSet relevantL1 = new BitSet();
+  /** The level 2 relevant documents. */
+  protected BitSet relevantL2 = new BitSet();
+  /** The blacklisted documents. */
+  protected BitSet blacklisted = new BitSet();
+
+  /**
+   * Default constructor.
+   *
+   * @param review
+   */
+  public ReviewIndex( SystematicReview review ) {
+    this.review = review;
+  }
+
+  @Override
+  public int add( I doc ) {
+    int size = size();
+    int id = super.add( doc );
+    if ( id == size ) { // new document
+      seeds.set( id, review.getSeeds().contains( doc ) );
+      relevantL1.set( id, review.getRelevantLevel1().contains( doc ) );
+      relevantL2.set( id, review.getRelevantLevel2().contains( doc ) );
+      blacklisted.set( id, review.getBlacklist().contains( doc ) );
+    }
+
+    return id;
+  }
+
+  /**
+   * Whether the document is level 1 relevant.
+   *
+   * @param doc
+   * @return
+   */
+  public boolean isRelevantL1( Object doc ) {
+    int id = indexOf( doc );
+
+    return ( id == NOT_FOUND ) ? review.getRelevantLevel1().contains( doc )
+        : relevantL1.get( id );
+  }
+
+  /**
+   * Whether the document is level 2 relevant.
+   *
+   * @param doc
+   * @return
+   */
+  public boolean isRelevantL2( Object doc ) {
+    int id = indexOf( doc );
+
+    return ( id == NOT_FOUND ) ? review.getRelevantLevel2().contains( doc )
+        : relevantL2.get( id );
+  }
+
+  /**
+   * Whether the document is relevant at either level.
+   *
+   * @param doc
+   * @return
+   */
+  public boolean isRelevant( Object doc ) {
+    int id = indexOf( doc );
+
+    return ( id == NOT_FOUND ) ? review.getRelevantLevel1().contains( doc )
+        || review.getRelevantLevel2().contains( doc ) : relevantL1.get( id )
+        || relevantL2.get( id );
+  }
+
+  /**
+   * Get the seed documents.
+   *
+   * @return
+   */
+  public BitSet getSeeds() {
+    return this.seeds;
+  }
+
+  /**
+   * Get the level 1 relevant documents.
+   *
+   * @return
+   */
+  public BitSet getRelevantL1() {
+    return this.relevantL1;
+  }
+
+  /**
+   * Get the level 2 relevant documents.
+   *
+   * @return
+   */
+  public BitSet getRelevantL2() {
+    return this.relevantL2;
+  }
+
+  /**
+   * Get the blacklisted documents.
+   *
+   * @return
+   */
+  public BitSet getBlacklisted() {
+    return this.blacklisted;
+  }
+
+  /**
+   * Count the documents in both sets.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  public static int countBoth( BitSet a, BitSet b ) {
+    BitSet both = (BitSet) a.clone();
+    both.and( b );
+
+    return both.cardinality();
+  }
+}
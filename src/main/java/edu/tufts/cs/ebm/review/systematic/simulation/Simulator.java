@@ -1,5 +1,7 @@
 package edu.tufts.cs.ebm.review.systematic.simulation;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -8,7 +10,15 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -26,8 +36,10 @@ import edu.tufts.cs.ebm.refinement.query.InfoMeasure;
 import edu.tufts.cs.ebm.refinement.query.ParallelPubmedSearcher;
 import edu.tufts.cs.ebm.refinement.query.controller.MainController;
 import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
 import edu.tufts.cs.ebm.review.systematic.SystematicReview;
 import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.util.Util;
 
 /**
  * Simulate a systematic review.
@@ -51,12 +63,44 @@ public abstract class Simulator {
   protected static final String DEFAULT_CACHE_NAME = "default";
   /** The data cache. */
   protected static JCS defaultCache;
+  /** The data shared between simulations running in the same JVM. */
+  protected static final ConcurrentMap<String, Future<Object>> SHARED =
+      new ConcurrentHashMap<>();
+  /** The default directory of corpus snapshots (none if unset). */
+  protected static final String DEFAULT_SNAPSHOT_DIR = System
+      .getProperty( "ebm.snapshots" );
+  /** The default directory of feature caches (none if unset). */
+  protected static final String DEFAULT_FEATURE_CACHE_DIR = System
+      .getProperty( "ebm.features" );
+  /** The directory to write the output files to. */
+  protected File outputDir = new File( "." );
+  /** The directory of corpus snapshots, or null to always search. */
+  protected File snapshotDir = ( DEFAULT_SNAPSHOT_DIR == null ) ? null
+      : new File( DEFAULT_SNAPSHOT_DIR );
+  /** The directory of feature caches, or null to always vectorize. */
+  protected File featureCacheDir = ( DEFAULT_FEATURE_CACHE_DIR == null )
+      ? null : new File( DEFAULT_FEATURE_CACHE_DIR );
+  /** Whether read-only Bag of Words features are built in parallel. */
+  protected boolean parallelVectorization = Boolean
+      .getBoolean( "ebm.parallelVectorization" );
+  /** Whether LDA simulations use the parallel sparse LDA sampler. */
+  protected boolean sparseLda = Boolean.getBoolean( "ebm.sparseLda" );
+  /** Whether new citations are folded into a saved LDA model. */
+  protected boolean foldInLda = Boolean.getBoolean( "ebm.foldInLda" );
+  /** The number of threads of the sparse LDA sampler. */
+  protected int ldaThreads = Runtime.getRuntime().availableProcessors();
+  /** The executor of the sparse LDA sampler, or null for a pool per model. */
+  protected ExecutorService ldaExecutor;
   /** The file containing the recall statistics. */
   protected String statsFile = "stats.csv";
   /** The file containing the rankings of the papers. */
   protected String paperRankFile = "ranks.csv";
   /** The file containing the probabilities of the papers. */
   protected String paperProbFile = "probs.csv";
+  /** The random number generator for sampling. */
+  protected Random random = new Random();
+  /** The seed of the random number generator, or null if it is not set. */
+  protected Long seed = null;
   /** The iteration. */
   protected long iteration = 0;
   /** The z value for probability calculations. */
@@ -64,7 +108,7 @@ public abstract class Simulator {
   /** The default maximum number of negative citations. */
   protected static final int DEFAULT_MAX_NEGATIVE = 10000;
   /** The maximum number of negative citations. */
-  protected static int maxNegative = DEFAULT_MAX_NEGATIVE;
+  protected int maxNegative = DEFAULT_MAX_NEGATIVE;
   /** The document ID prefix for a pseudo document term. */
   protected static final String PSEUDO_PREFIX = "pseudo_";
   /** The pseduo document positive class label. */
@@ -162,9 +206,12 @@ public abstract class Simulator {
   @Bean
   protected static Set<Citation> citations() throws NamingException,
       ClassNotFoundException, SQLException {
-    Query q = MainController.EM
-        .createQuery( "select m from SystematicReview m" );
-    Set<Citation> citations = new HashSet<Citation>( q.getResultList() );
+    Set<Citation> citations;
+    synchronized ( MainController.EM ) {
+      Query q = MainController.EM
+          .createQuery( "select m from SystematicReview m" );
+      citations = new HashSet<Citation>( q.getResultList() );
+    }
 
     return citations;
   }
@@ -182,9 +229,12 @@ public abstract class Simulator {
   protected static ObservableList<SystematicReview> reviews()
       throws NamingException, ClassNotFoundException, SQLException {
 
-    Query q = MainController.EM
-        .createQuery( "select m from SystematicReview m" );
-    List<SystematicReview> list = q.getResultList();
+    List<SystematicReview> list;
+    synchronized ( MainController.EM ) {
+      Query q = MainController.EM
+          .createQuery( "select m from SystematicReview m" );
+      list = q.getResultList();
+    }
 
     ObservableList<SystematicReview> reviews = FXCollections
         .observableArrayList( list );
@@ -213,6 +263,193 @@ public abstract class Simulator {
     }
   }
 
+  /**
+   * Load the review whose name contains the dataset, from its newest corpus
+   * snapshot if there is one and from the database otherwise.
+   *
+   * @param dataset
+   * @return
+   * @throws Exception
+   */
+  protected SystematicReview loadReview( String dataset )
+    throws Exception {
+    File snapshot = findSnapshot( dataset );
+    if ( snapshot != null ) {
+      LOG.info( "Loading review from snapshot " + snapshot );
+      return CorpusSnapshot.open( snapshot ).getReview();
+    }
+
+    SystematicReview review = null;
+    for ( SystematicReview r : reviews() ) {
+      if ( Util.normalize( r.getName() ).contains( dataset ) ) {
+        review = r;
+      }
+    }
+
+    if ( review == null )
+      throw new RuntimeException( "Could not find review " + dataset );
+
+    synchronized ( MainController.EM ) {
+      // load up the seeds
+      for ( PubmedId pmid : review.getSeeds() ) {
+        MainController.EM.find( PubmedId.class, pmid.getValue() );
+      }
+
+      // load up the relevant papers
+      for ( PubmedId pmid : review.getRelevantLevel2() ) {
+        MainController.EM.find( PubmedId.class, pmid.getValue() );
+      }
+    }
+
+    return review;
+  }
+
+  /**
+   * Find the newest snapshot of the review whose name contains the dataset.
+   *
+   * @param dataset
+   * @return the snapshot, or null if there is none
+   * @throws IOException if the snapshots of several reviews match
+   */
+  protected File findSnapshot( String dataset ) throws IOException {
+    File[] snapshots = ( snapshotDir == null ) ? null : snapshotDir
+        .listFiles();
+    if ( snapshots == null ) {
+      return null;
+    }
+
+    File newest = null;
+    String review = null;
+    for ( File f : snapshots ) {
+      String name = f.getName();
+      int end = name.lastIndexOf( '-' );
+      if ( !name.endsWith( CorpusSnapshot.EXTENSION ) || end <= 0
+          || !name.substring( 0, end ).contains( dataset ) ) {
+        continue;
+      }
+      if ( review != null && !review.equals( name.substring( 0, end ) ) ) {
+        throw new IOException( "Snapshots of both " + review + " and "
+            + name.substring( 0, end ) + " match " + dataset );
+      }
+      review = name.substring( 0, end );
+      if ( newest == null || f.lastModified() > newest.lastModified()
+          || ( f.lastModified() == newest.lastModified() && name
+              .compareTo( newest.getName() ) > 0 ) ) {
+        newest = f;
+      }
+    }
+
+    return newest;
+  }
+
+  /**
+   * Get the snapshot file for the review's query.
+   *
+   * @param review
+   * @param query
+   * @return the file, or null if snapshots are disabled
+   */
+  protected File getSnapshotFile( SystematicReview review,
+      String query ) {
+    if ( snapshotDir == null ) return null;
+
+    return new File( snapshotDir, Util.normalize( review.getName() ) + "-"
+        + Integer.toHexString( query.hashCode() ) + CorpusSnapshot.EXTENSION );
+  }
+
+  /**
+   * Run the search for the review, or reuse the citations found by a
+   * simulation of the same review that already ran it in this JVM or saved
+   * them to a snapshot.
+   *
+   * @param review
+   * @param query
+   * @return
+   * @throws IOException
+   */
+  protected Set<Citation> search( final SystematicReview review,
+      final String query ) throws IOException {
+    return shared( "corpus:" + review.getId() + ":" + query,
+        new Callable<Set<Citation>>() {
+          @Override
+          public Set<Citation> call() throws IOException {
+            File f = getSnapshotFile( review, query );
+            if ( f != null && f.exists() ) {
+              CorpusSnapshot snapshot = CorpusSnapshot.open( f );
+              if ( query.equals( snapshot.getQuery() ) ) {
+                LOG.info( "Loading corpus from snapshot " + f );
+                if ( review.getSeedCitations().isEmpty() ) {
+                  review.setSeedCitations( snapshot.getSeedCitations() );
+                }
+                return snapshot.getCitations();
+              }
+            }
+
+            ParallelPubmedSearcher searcher = new ParallelPubmedSearcher(
+                query, review );
+            LOG.info( "Initial query: " + query );
+            search( searcher );
+
+            if ( f != null ) {
+              try {
+                snapshotDir.mkdirs();
+                CorpusSnapshot.write( f, review, query, searcher
+                    .getCitations() );
+                LOG.info( "Saved corpus snapshot " + f );
+              } catch ( IOException e ) {
+                LOG.error( "Could not save corpus snapshot " + f, e );
+              }
+            }
+
+            return Collections.unmodifiableSet( searcher.getCitations() );
+          }
+        } );
+  }
+
+  /**
+   * Get the shared value for the key, computing it if no simulation in this
+   * JVM has yet. Concurrent callers with the same key wait for the first.
+   *
+   * @param key
+   * @param loader
+   * @return
+   * @throws IOException
+   */
+  @SuppressWarnings( "unchecked" )
+  protected static <T> T shared( String key, Callable<T> loader )
+    throws IOException {
+    Future<Object> f = SHARED.get( key );
+    if ( f == null ) {
+      FutureTask<Object> task = new FutureTask<Object>(
+          (Callable<Object>) loader );
+      f = SHARED.putIfAbsent( key, task );
+      if ( f == null ) {
+        f = task;
+        task.run();
+      }
+    }
+
+    try {
+      return (T) f.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IOException( "Interrupted while loading " + key, e );
+    } catch ( ExecutionException e ) {
+      SHARED.remove( key, f );
+      if ( e.getCause() instanceof IOException ) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException( "Could not load " + key, e.getCause() );
+    }
+  }
+
+  /**
+   * Release the data shared between simulations.
+   */
+  public static void clearShared() {
+    SHARED.clear();
+  }
+
   /**
    * Set the proxy information.
    */
@@ -245,6 +482,129 @@ public abstract class Simulator {
    */
   public abstract void simulateReview() throws Exception;
 
+  /**
+   * Seed the random number generator for a reproducible simulation.
+   *
+   * @param seed
+   */
+  public void setSeed( long seed ) {
+    this.random = new Random( seed );
+    this.seed = seed;
+    LOG.info( "seed: " + seed );
+  }
+
+  /**
+   * Set the directory of corpus snapshots. The simulation loads its review
+   * and corpus from a snapshot when one exists and saves one after searching
+   * otherwise; null always searches.
+   *
+   * @param dir
+   */
+  public void setSnapshotDirectory( File dir ) {
+    this.snapshotDir = dir;
+    LOG.info( "snapshots: " + dir );
+  }
+
+  /**
+   * Set the directory of feature caches. If the simulation supports it, it
+   * reads its feature vectors from a cache built from the same corpus and
+   * parameters when one exists, and saves one otherwise; null always
+   * vectorizes. The sparse LDA models are saved there too.
+   *
+   * @param dir
+   */
+  public void setFeatureCacheDirectory( File dir ) {
+    this.featureCacheDir = dir;
+    LOG.info( "feature cache: " + dir );
+  }
+
+  /**
+   * Set whether the simulation builds its features with the parallel
+   * vectorizer instead of the BagOfWords, if it never trains its Bag of
+   * Words.
+   *
+   * @param parallel
+   */
+  public void setParallelVectorization( boolean parallel ) {
+    this.parallelVectorization = parallel;
+    LOG.info( "parallel vectorization: " + parallel );
+  }
+
+  /**
+   * Set whether an LDA simulation trains its topics with the parallel sparse
+   * LDA sampler, which stops early once the log-likelihood levels off,
+   * instead of the BasicLDA.
+   *
+   * @param sparse
+   */
+  public void setSparseLda( boolean sparse ) {
+    this.sparseLda = sparse;
+    LOG.info( "sparse LDA: " + sparse );
+  }
+
+  /**
+   * Set whether the sparse LDA sampler may fold new citations into a model
+   * saved for a similar corpus instead of training a new one. Folded
+   * citations are not trained on, so this trades some fidelity for time.
+   *
+   * @param foldIn
+   */
+  public void setFoldInLda( boolean foldIn ) {
+    this.foldInLda = foldIn;
+    LOG.info( "fold in LDA: " + foldIn );
+  }
+
+  /**
+   * Set the number of threads of the sparse LDA sampler.
+   *
+   * @param threads
+   */
+  public void setLdaThreads( int threads ) {
+    this.ldaThreads = threads;
+    LOG.info( "LDA threads: " + threads );
+  }
+
+  /**
+   * Set the executor of the sparse LDA sampler, which the caller shuts down
+   * (null for a pool per model).
+   *
+   * @param executor
+   */
+  public void setLdaExecutor( ExecutorService executor ) {
+    this.ldaExecutor = executor;
+  }
+
+  /**
+   * Create the topic models of the LDA simulations, with the settings of
+   * this simulation.
+   *
+   * @return
+   */
+  protected LdaModels createLdaModels() {
+    LdaModels models = new LdaModels( featureCacheDir );
+    models.setSparse( sparseLda );
+    models.setFoldIn( foldInLda );
+    models.setNumThreads( ldaThreads );
+    models.setExecutor( ldaExecutor );
+
+    return models;
+  }
+
+  /**
+   * Set the directory to write the output files to.
+   *
+   * @param dir
+   */
+  public void setOutputDirectory( File dir ) {
+    this.statsFile = new File( dir, new File( statsFile ).getName() )
+        .getPath();
+    this.paperRankFile = new File( dir, new File( paperRankFile ).getName() )
+        .getPath();
+    this.paperProbFile = new File( dir, new File( paperProbFile ).getName() )
+        .getPath();
+    this.outputDir = dir;
+  }
+
 
   /**
    * Downsample the negative instances.
@@ -259,19 +619,21 @@ public abstract class Simulator {
     ArrayList<Citation> citList = new ArrayList<>(
         citations );
 
-    // so we don't get stuck in an infinite loop
-    if ( maxNegative > citations.size() ) maxNegative = citations.size() -
+    // so we don't get stuck in an infinite loop (the limit is per review, so
+    // the field is left alone)
+    int max = maxNegative;
+    if ( max > citations.size() ) max = citations.size() -
         r.getRelevantLevel1().size() - r.getRelevantLevel2().size();
 
     int totalNegative = citations.size() - r.getRelevantLevel1().size()
         - r.getRelevantLevel2().size();
-    double proportion = (double) totalNegative / (double) maxNegative;
+    double proportion = (double) totalNegative / (double) max;
     int n = (int) Math.ceil( proportion );
 
     // include every nth negative record for a deterministic downsampling
-    while ( downsampled.size() < maxNegative ) {
+    while ( downsampled.size() < max ) {
       for ( int i = 0; i < citList.size(); i += n ) {
-        if ( downsampled.size() >= maxNegative ) break;
+        if ( downsampled.size() >= max ) break;
         Citation c = citList.get( i );
         if ( !( r.getRelevantLevel1().contains( c.getPmid() )
             || r.getRelevantLevel2().contains( c.getPmid() ) ) ) {
@@ -0,0 +1,201 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import edu.tufts.cs.ebm.refinement.query.InfoMeasure;
+
+/**
+ * A criterion for ending a screening simulation before the corpus is
+ * exhausted.
+ *
+ * Rules are specified as comma-separated name:value pairs, e.g.
+ * "recallL2:0.95,screened:2000,nohit:10,minutes:60".
+ */
+public abstract class StoppingRule {
+  /** The rule name for a target L1 recall. */
+  public static final String RECALL_L1 = "recallL1";
+  /** The rule name for a target L2 recall. */
+  public static final String RECALL_L2 = "recallL2";
+  /** The rule name for a maximum number of screened papers. */
+  public static final String SCREENED = "screened";
+  /** The rule name for a number of consecutive batches without a hit. */
+  public static final String NO_HIT = "nohit";
+  /** The rule name for a time budget in minutes. */
+  public static final String MINUTES = "minutes";
+
+  /**
+   * Get the reason to stop, if the rule is met.
+   *
+   * @param screened the number of papers screened so far
+   * @param batchesWithoutHit the number of consecutive batches with no
+   *          relevant paper
+   * @param im the current L1 and L2 measures (may be null)
+   * @param elapsedMillis the time since the simulation started
+   * @return the reason, or null to continue
+   */
+  public abstract String getStopReason( int screened, int batchesWithoutHit,
+      Map<String, InfoMeasure> im, long elapsedMillis );
+
+  /**
+   * Parse the rules from their specification.
+   *
+   * @param spec
+   * @return
+   */
+  public static List<StoppingRule> parse( String spec ) {
+    List<StoppingRule> rules = new ArrayList<>();
+    for ( String rule : spec.split( "," ) ) {
+      rule = rule.trim();
+      if ( rule.isEmpty() ) continue;
+
+      String[] parts = rule.split( ":" );
+      if ( parts.length != 2 ) {
+        throw new IllegalArgumentException( "Expected name:value, got "
+            + rule );
+      }
+      String name = parts[0].trim();
+      String value = parts[1].trim();
+      if ( name.equalsIgnoreCase( RECALL_L1 ) ) {
+        rules.add( new TargetRecall( "L1", Double.parseDouble( value ) ) );
+      } else if ( name.equalsIgnoreCase( RECALL_L2 ) ) {
+        rules.add( new TargetRecall( "L2", Double.parseDouble( value ) ) );
+      } else if ( name.equalsIgnoreCase( SCREENED ) ) {
+        rules.add( new MaxScreened( Integer.parseInt( value ) ) );
+      } else if ( name.equalsIgnoreCase( NO_HIT ) ) {
+        rules.add( new NoHit( Integer.parseInt( value ) ) );
+      } else if ( name.equalsIgnoreCase( MINUTES ) ) {
+        rules.add( new TimeBudget( (long) ( Double.parseDouble( value )
+            * 60 * 1000 ) ) );
+      } else {
+        throw new IllegalArgumentException( "Unknown stopping rule: " + name );
+      }
+    }
+
+    return rules;
+  }
+
+  /**
+   * Get the reason to stop from the first rule that is met.
+   *
+   * @param rules
+   * @param screened
+   * @param batchesWithoutHit
+   * @param im
+   * @param elapsedMillis
+   * @return the reason, or null to continue
+   */
+  public static String getStopReason( List<StoppingRule> rules, int screened,
+      int batchesWithoutHit, Map<String, InfoMeasure> im, long elapsedMillis ) {
+    for ( StoppingRule rule : rules ) {
+      String reason = rule.getStopReason( screened, batchesWithoutHit, im,
+          elapsedMillis );
+      if ( reason != null ) {
+        return reason;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Stop once the recall of a level reaches the target.
+   */
+  public static class TargetRecall extends StoppingRule {
+    /** The level ("L1" or "L2"). */
+    protected String level;
+    /** The target recall. */
+    protected double target;
+
+    /**
+     * Default constructor.
+     *
+     * @param level
+     * @param target
+     */
+    public TargetRecall( String level, double target ) {
+      this.level = level;
+      this.target = target;
+    }
+
+    @Override
+    public String getStopReason( int screened, int batchesWithoutHit,
+        Map<String, InfoMeasure> im, long elapsedMillis ) {
+      InfoMeasure m = ( im == null ) ? null : im.get( level );
+
+      return ( m != null && m.getRecall() >= target ) ? "recall" + level
+          + ">=" + target : null;
+    }
+  }
+
+  /**
+   * Stop once a number of papers have been screened.
+   */
+  public static class MaxScreened extends StoppingRule {
+    /** The maximum number of screened papers. */
+    protected int max;
+
+    /**
+     * Default constructor.
+     *
+     * @param max
+     */
+    public MaxScreened( int max ) {
+      this.max = max;
+    }
+
+    @Override
+    public String getStopReason( int screened, int batchesWithoutHit,
+        Map<String, InfoMeasure> im, long elapsedMillis ) {
+      return ( screened >= max ) ? "screened>=" + max : null;
+    }
+  }
+
+  /**
+   * Stop after a number of consecutive batches with no relevant paper.
+   */
+  public static class NoHit extends StoppingRule {
+    /** The number of batches. */
+    protected int batches;
+
+    /**
+     * Default constructor.
+     *
+     * @param batches
+     */
+    public NoHit( int batches ) {
+      this.batches = batches;
+    }
+
+    @Override
+    public String getStopReason( int screened, int batchesWithoutHit,
+        Map<String, InfoMeasure> im, long elapsedMillis ) {
+      return ( batchesWithoutHit >= batches ) ? "nohit>=" + batches : null;
+    }
+  }
+
+  /**
+   * Stop once the time budget is spent.
+   */
+  public static class TimeBudget extends StoppingRule {
+    /** The budget in milliseconds. */
+    protected long millis;
+
+    /**
+     * Default constructor.
+     *
+     * @param millis
+     */
+    public TimeBudget( long millis ) {
+      this.millis = millis;
+    }
+
+    @Override
+    public String getStopReason( int screened, int batchesWithoutHit,
+        Map<String, InfoMeasure> im, long elapsedMillis ) {
+      return ( elapsedMillis >= millis ) ? "time>=" + millis / 1000 + "s"
+          : null;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.BitSet;
+
+/**
+ * Selects the k best-scoring documents that are not excluded, keeping only a
+ * bounded heap of k candidates rather than sorting or copying the corpus.
+ *
+ * Documents are identified by their index into the score array (see
+ * DocumentIndex). Documents with a NaN score are treated as unranked and are
+ * never selected. Ties go to the lower index.
+ */
+public class TopKSelector {
+
+  /**
+   * Hidden constructor for a static utility class.
+   */
+  private TopKSelector() {
+    // static methods only
+  }
+
+  /**
+   * Select the k best documents, best first.
+   *
+   * @param scores
+   * @param exclude the documents to skip (may be null)
+   * @param k
+   * @param ascending whether lower scores are better
+   * @return the indices of at most k documents
+   */
+  public static int[] select( double[] scores, BitSet exclude, int k,
+      boolean ascending ) {
+    if ( k <= 0 ) return new int[0];
+
+    // heap[0] is the worst of the candidates kept so far
+    int[] heap = new int[k];
+    int size = 0;
+    for ( int i = nextCandidate( scores, exclude, 0 ); i < scores.length; i =
+        nextCandidate( scores, exclude, i + 1 ) ) {
+      if ( size < k ) {
+        heap[size] = i;
+        siftUp( heap, size++, scores, ascending );
+      } else if ( isBetter( i, heap[0], scores, ascending ) ) {
+        heap[0] = i;
+        siftDown( heap, size, scores, ascending );
+      }
+    }
+
+    // drain the heap worst-first into the back of the result
+    int[] top = new int[size];
+    for ( int n = size; n > 0; n-- ) {
+      top[n - 1] = heap[0];
+      heap[0] = heap[n - 1];
+      siftDown( heap, n - 1, scores, ascending );
+    }
+
+    return top;
+  }
+
+  /**
+   * Get the next document at or after the index that can be selected.
+   *
+   * @param scores
+   * @param exclude
+   * @param from
+   * @return the index, or scores.length if there is none
+   */
+  protected static int nextCandidate( double[] scores, BitSet exclude,
+      int from ) {
+    int i = ( exclude == null ) ? from : exclude.nextClearBit( from );
+    while ( i < scores.length && Double.isNaN( scores[i] ) ) {
+      i = ( exclude == null ) ? i + 1 : exclude.nextClearBit( i + 1 );
+    }
+
+    return Math.min( i, scores.length );
+  }
+
+  /**
+   * Whether document a ranks ahead of document b.
+   *
+   * @param a
+   * @param b
+   * @param scores
+   * @param ascending
+   * @return
+   */
+  protected static boolean isBetter( int a, int b, double[] scores,
+      boolean ascending ) {
+    if ( scores[a] == scores[b] ) return a < b;
+
+    return ascending ? scores[a] < scores[b] : scores[a] > scores[b];
+  }
+
+  /**
+   * Restore the heap after adding at the index.
+   *
+   * @param heap
+   * @param idx
+   * @param scores
+   * @param ascending
+   */
+  protected static void siftUp( int[] heap, int idx, double[] scores,
+      boolean ascending ) {
+    int doc = heap[idx];
+    while ( idx > 0 ) {
+      int parent = ( idx - 1 ) / 2;
+      if ( !isBetter( heap[parent], doc, scores, ascending ) ) break;
+      heap[idx] = heap[parent];
+      idx = parent;
+    }
+    heap[idx] = doc;
+  }
+
+  /**
+   * Restore the heap after replacing the root.
+   *
+   * @param heap
+   * @param size
+   * @param scores
+   * @param ascending
+   */
+  protected static void siftDown( int[] heap, int size, double[] scores,
+      boolean ascending ) {
+    if ( size == 0 ) return;
+    int doc = heap[0];
+    int idx = 0;
+    while ( 2 * idx + 1 < size ) {
+      int child = 2 * idx + 1;
+      // follow the worse child
+      if ( child + 1 < size
+          && isBetter( heap[child], heap[child + 1], scores, ascending ) ) {
+        child++;
+      }
+      if ( !isBetter( doc, heap[child], scores, ascending ) ) break;
+      heap[idx] = heap[child];
+      idx = child;
+    }
+    heap[idx] = doc;
+  }
+}
@@ -1,5 +1,6 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.drivers;
 
+import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
@@ -7,8 +8,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.tufts.cs.ebm.review.systematic.simulation.Simulator;
+import edu.tufts.cs.ebm.review.systematic.simulation.StoppingRule;
+import edu.tufts.cs.ebm.review.systematic.simulation.online.OnlineSimulator;
+import edu.tufts.cs.ebm.review.systematic.simulation.online.OnlineSimulatorBowCosine;
 import edu.tufts.cs.ebm.review.systematic.simulation.online.OnlineSimulatorBowRankSvm;
+import edu.tufts.cs.ebm.review.systematic.simulation.online.OnlineSimulatorHashedBowRankSvm;
 import edu.tufts.cs.ebm.review.systematic.simulation.offline.OfflineSimulatorBowRankSvm;
+import edu.tufts.cs.ebm.review.systematic.simulation.offline.OfflineSimulatorHashedBowRankSvm;
 import edu.tufts.cs.ml.exception.CommandLineArgumentException;
 
 public class SimulateReview {
@@ -23,35 +29,13 @@ public class SimulateReview {
     SimulateReviewArguments cmd = new SimulateReviewArguments( args );
     printInfo( cmd );
 
-    String dataset = cmd.getDataset();
-    boolean online = cmd.isOnline();
-    String representation = cmd.getRepresentation();
-    String classifier = cmd.getClassifier();
-    String onlineStr = ( online ) ? "Online" : "Offline";
-    String pkgName = SimulateReview.class.getPackage().getName()
-        .replace( "drivers", "" ).concat( onlineStr.toLowerCase() )
-        + ".";
-    String className = pkgName + onlineStr + "Simulator" + representation
-        + classifier;
+    String className = getSimulatorClassName( cmd );
 
     LOG.info( "Attempting to load simulation " + className + " on dataset "
-        + dataset + "..." );
+        + cmd.getDataset() + "..." );
     try {
-      Class<?> simulator = SimulateReview.class.getClassLoader().loadClass(
-          className );
-      Constructor<?> constructor = simulator.getConstructor( String.class );
-      Object instance = constructor.newInstance( dataset );
-      if ( instance instanceof Simulator ) {
-        Simulator s = (Simulator) instance;
-        if ( s instanceof OnlineSimulatorBowRankSvm
-            && cmd.getHyperparameter() != null ) {
-          ( (OnlineSimulatorBowRankSvm) s ).setC( cmd.getHyperparameter() );
-        } else if ( s instanceof OfflineSimulatorBowRankSvm && cmd.getHyperparameter() != null ) {
-	    ( (OfflineSimulatorBowRankSvm) s ).setUndersamplingMultiplier( cmd.getHyperparameter().intValue() );
-	}
-
-	    s.simulateReview();
-      }
+      Simulator s = createSimulator( cmd );
+      s.simulateReview();
     } catch ( ClassNotFoundException | NoSuchMethodException
         | SecurityException | InstantiationException | IllegalAccessException
         | IllegalArgumentException | InvocationTargetException e ) {
@@ -62,6 +46,117 @@ public class SimulateReview {
     }
   }
 
+  /**
+   * Get the name of the simulator class for the configuration.
+   *
+   * @param cmd
+   * @return
+   */
+  public static String getSimulatorClassName( SimulateReviewArguments cmd ) {
+    String onlineStr = ( cmd.isOnline() ) ? "Online" : "Offline";
+    String pkgName = SimulateReview.class.getPackage().getName()
+        .replace( "drivers", "" ).concat( onlineStr.toLowerCase() )
+        + ".";
+
+    return pkgName + onlineStr + "Simulator" + cmd.getRepresentation()
+        + cmd.getClassifier();
+  }
+
+  /**
+   * Instantiate the simulator for the configuration and apply its
+   * hyperparameter.
+   *
+   * @param cmd
+   * @return
+   * @throws ClassNotFoundException
+   * @throws NoSuchMethodException
+   * @throws InstantiationException
+   * @throws IllegalAccessException
+   * @throws InvocationTargetException
+   */
+  public static Simulator createSimulator( SimulateReviewArguments cmd )
+    throws ClassNotFoundException, NoSuchMethodException,
+    InstantiationException, IllegalAccessException,
+    InvocationTargetException {
+    String className = getSimulatorClassName( cmd );
+    Class<?> simulator = SimulateReview.class.getClassLoader().loadClass(
+        className );
+    if ( !Simulator.class.isAssignableFrom( simulator ) ) {
+      throw new ClassNotFoundException( className + " is not a simulator." );
+    }
+    Constructor<?> constructor = simulator.getConstructor( String.class );
+    Simulator s = (Simulator) constructor.newInstance( cmd.getDataset() );
+    configure( cmd, s );
+
+    if ( s instanceof OnlineSimulatorBowRankSvm
+        && cmd.getHyperparameter() != null ) {
+      ( (OnlineSimulatorBowRankSvm) s ).setC( cmd.getHyperparameter() );
+    } else if ( s instanceof OfflineSimulatorBowRankSvm
+        && cmd.getHyperparameter() != null ) {
+      ( (OfflineSimulatorBowRankSvm) s ).setUndersamplingMultiplier( cmd
+          .getHyperparameter().intValue() );
+    }
+    if ( s instanceof OnlineSimulatorHashedBowRankSvm ) {
+      ( (OnlineSimulatorHashedBowRankSvm) s ).setTrackCollisions( cmd
+          .isTrackCollisions() );
+    } else if ( s instanceof OfflineSimulatorHashedBowRankSvm ) {
+      ( (OfflineSimulatorHashedBowRankSvm) s ).setTrackCollisions( cmd
+          .isTrackCollisions() );
+    }
+    if ( cmd.getDimension() != null ) {
+      if ( s instanceof OnlineSimulatorHashedBowRankSvm ) {
+        ( (OnlineSimulatorHashedBowRankSvm) s ).setDimension( cmd
+            .getDimension() );
+      } else if ( s instanceof OfflineSimulatorHashedBowRankSvm ) {
+        ( (OfflineSimulatorHashedBowRankSvm) s ).setDimension( cmd
+            .getDimension() );
+      }
+    }
+    if ( cmd.getLsh() != null && s instanceof OnlineSimulatorBowCosine ) {
+      ( (OnlineSimulatorBowCosine) s ).setLsh( cmd.getLsh()[0],
+          cmd.getLsh()[1] );
+    }
+    if ( s instanceof OnlineSimulator ) {
+      ( (OnlineSimulator<?, ?>) s ).setResume( cmd.isResume() );
+      if ( cmd.getCheckpointInterval() != null ) {
+        ( (OnlineSimulator<?, ?>) s ).setCheckpointInterval( cmd
+            .getCheckpointInterval() );
+      }
+      if ( cmd.getStoppingRules() != null ) {
+        ( (OnlineSimulator<?, ?>) s ).setStoppingRules( StoppingRule
+            .parse( cmd.getStoppingRules() ) );
+      }
+    }
+
+    return s;
+  }
+
+  /**
+   * Apply the settings that every simulator has. The review is loaded when
+   * the simulation starts, so they may be applied after the constructor.
+   *
+   * @param cmd
+   * @param s
+   */
+  public static void configure( SimulateReviewArguments cmd, Simulator s ) {
+    if ( cmd.getSnapshotDirectory() != null ) {
+      s.setSnapshotDirectory( new File( cmd.getSnapshotDirectory() ) );
+    }
+    if ( cmd.getFeatureCacheDirectory() != null ) {
+      s.setFeatureCacheDirectory( new File( cmd
+          .getFeatureCacheDirectory() ) );
+    }
+    if ( cmd.getParallelVectorization() != null ) {
+      s.setParallelVectorization( cmd.getParallelVectorization() );
+    }
+    if ( cmd.getSparseLda() != null ) {
+      s.setSparseLda( cmd.getSparseLda() );
+    }
+    if ( cmd.getFoldInLda() != null ) {
+      s.setFoldInLda( cmd.getFoldInLda() );
+    }
+  }
+
   /**
    * Print the configuration to the console.
    * 
@@ -71,6 +166,11 @@ public class SimulateReview {
     LOG.info( "Running Simulate Review with: " + "\n\tDataset:\t"
         + cmd.getDataset() + "\n\tOnline:\t" + cmd.isOnline()
         + "\n\tRepresentation:\t" + cmd.getRepresentation()
-        + "\n\tClassifier:\t" + cmd.getClassifier() );
+        + "\n\tClassifier:\t" + cmd.getClassifier() + "\n\tResume:\t"
+        + cmd.isResume() + "\n\tStopping rules:\t"
+        + cmd.getStoppingRules() + "\n\tDimension:\t"
+        + cmd.getDimension() + "\n\tSnapshots:\t"
+        + cmd.getSnapshotDirectory() + "\n\tFeatures:\t"
+        + cmd.getFeatureCacheDirectory() );
   }
 }
@@ -25,6 +25,28 @@ public class SimulateReviewArguments {
   public static final String ARG_CLASSIFIER = "classifier";
   /** The argument name for the classifier (cosine sim., SVM...). */
   public static final String ARG_HYPERPARAMETER = "hyperparameter";
+  /** The argument for resuming from the last checkpoint. */
+  public static final String ARG_RESUME = "resume";
+  /** The argument prefix for the stopping rules. */
+  public static final String ARG_STOP = "stop=";
+  /** The argument prefix for the number of hash buckets. */
+  public static final String ARG_DIMENSION = "dim=";
+  /** The argument for tracking the hashing collisions. */
+  public static final String ARG_COLLISIONS = "collisions";
+  /** The argument prefix for the LSH tables and bits. */
+  public static final String ARG_LSH = "lsh=";
+  /** The argument prefix for the directory of corpus snapshots. */
+  public static final String ARG_SNAPSHOTS = "snapshots=";
+  /** The argument prefix for the directory of feature caches. */
+  public static final String ARG_FEATURES = "features=";
+  /** The argument prefix for whether to vectorize in parallel. */
+  public static final String ARG_PARALLEL_VECTORIZATION = "parallel=";
+  /** The argument prefix for whether to train LDA with the sparse sampler. */
+  public static final String ARG_SPARSE_LDA = "sparseLda=";
+  /** The argument prefix for whether to fold into saved LDA models. */
+  public static final String ARG_FOLD_IN_LDA = "foldInLda=";
+  /** The argument prefix for the number of iterations between checkpoints. */
+  public static final String ARG_CHECKPOINT = "checkpoint=";
   /** The usage message for the dataset identifier. */
   public static final String USAGE_DATASET = "The name of the dataset to use"
       + " (ex. 'clopidogrel' or 'protonbeam').";
@@ -33,13 +55,47 @@ public class SimulateReviewArguments {
       + "online (ex. 'true' or 'false').";
   /** The usage message for the representation type. */
   public static final String USAGE_REPRESENTATION = "The representation for "
-      + "the simulation data (ex. 'Bow' or 'Lda').";
+      + "the simulation data (ex. 'Bow', 'HashedBow' or 'Lda').";
   /** The usage message for the classifier. */
   public static final String USAGE_CLASSIFIER = "The type of classifier to "
       + "use (ex. 'Cosine', 'LibSvm', 'SvmLight', or 'RankSvm').";
   /** The usage message for the classifier. */
   public static final String USAGE_HYPERPARAMETER = "The hyperparameter "
       + "value (ex. 'c' for rank-svm).";
+  /** The usage message for resuming. */
+  public static final String USAGE_RESUME = "Resume an online simulation "
+      + "from its last checkpoint.";
+  /** The usage message for the stopping rules. */
+  public static final String USAGE_STOP = "Stop an online simulation early "
+      + "(ex. 'stop=recallL2:0.95,screened:2000,nohit:10,minutes:60').";
+  /** The usage message for the number of hash buckets. */
+  public static final String USAGE_DIMENSION = "The number of hash buckets "
+      + "for a hashed representation (ex. 'dim=262144').";
+  /** The usage message for tracking the hashing collisions. */
+  public static final String USAGE_COLLISIONS = "Track the distinct terms "
+      + "of a hashed representation and report the collision rate.";
+  /** The usage message for the LSH tables and bits. */
+  public static final String USAGE_LSH = "The number of LSH tables and bits "
+      + "per key for the cosine classifier (ex. 'lsh=8:12').";
+  /** The usage message for the directory of corpus snapshots. */
+  public static final String USAGE_SNAPSHOTS = "The directory of corpus "
+      + "snapshots (ex. 'snapshots=/data/snapshots').";
+  /** The usage message for the directory of feature caches. */
+  public static final String USAGE_FEATURES = "The directory of feature "
+      + "caches (ex. 'features=/data/features').";
+  /** The usage message for whether to vectorize in parallel. */
+  public static final String USAGE_PARALLEL_VECTORIZATION = "Whether to "
+      + "build the Bag of Words in parallel (ex. 'parallel=true').";
+  /** The usage message for whether to train LDA with the sparse sampler. */
+  public static final String USAGE_SPARSE_LDA = "Whether to train LDA with "
+      + "the parallel sparse sampler (ex. 'sparseLda=true').";
+  /** The usage message for whether to fold into saved LDA models. */
+  public static final String USAGE_FOLD_IN_LDA = "Whether to fold new "
+      + "citations into a saved sparse LDA model (ex. 'foldInLda=true').";
+  /** The usage message for the number of iterations between checkpoints. */
+  public static final String USAGE_CHECKPOINT = "The number of iterations "
+      + "between checkpoints of an online simulation, or 0 for none "
+      + "(ex. 'checkpoint=10').";
   /** The usage message. */
   protected static String usage = "simulate <" + ARG_DATASET + "> <"
       + ARG_IS_ONLINE + "> <" + ARG_REPRESENTATION + "> <" + ARG_CLASSIFIER
@@ -47,7 +103,17 @@ public class SimulateReviewArguments {
       + ARG_IS_ONLINE + ">:\t\t" + USAGE_IS_ONLINE + "\n<" + ARG_REPRESENTATION
       + ">:\t" + USAGE_REPRESENTATION + "\n<" + ARG_CLASSIFIER + ">:\t\t"
       + USAGE_CLASSIFIER + "\n\n[" + ARG_HYPERPARAMETER + "]:\t\t"
-      + USAGE_HYPERPARAMETER;
+      + USAGE_HYPERPARAMETER + "\n[" + ARG_RESUME + "]:\t\t" + USAGE_RESUME
+      + "\n[" + ARG_STOP + "<rules>]:\t" + USAGE_STOP + "\n[" + ARG_DIMENSION
+      + "<n>]:\t\t" + USAGE_DIMENSION + "\n[" + ARG_COLLISIONS + "]:\t"
+      + USAGE_COLLISIONS + "\n[" + ARG_LSH + "<t>:<b>]:\t"
+      + USAGE_LSH + "\n[" + ARG_SNAPSHOTS + "<dir>]:\t" + USAGE_SNAPSHOTS
+      + "\n[" + ARG_FEATURES + "<dir>]:\t" + USAGE_FEATURES + "\n["
+      + ARG_PARALLEL_VECTORIZATION + "<bool>]:\t"
+      + USAGE_PARALLEL_VECTORIZATION + "\n[" + ARG_SPARSE_LDA + "<bool>]:\t"
+      + USAGE_SPARSE_LDA + "\n[" + ARG_FOLD_IN_LDA + "<bool>]:\t"
+      + USAGE_FOLD_IN_LDA + "\n[" + ARG_CHECKPOINT + "<n>]:\t"
+      + USAGE_CHECKPOINT;
 
   /*
    * Argument definitions for command line use.
@@ -62,6 +128,28 @@ public class SimulateReviewArguments {
   private String classifier;
   /** The hyperparameter. */
   private Double hyperparameter = null;
+  /** Whether to resume from the last checkpoint. */
+  private boolean resume = false;
+  /** The stopping rules. */
+  private String stoppingRules = null;
+  /** The number of hash buckets. */
+  private Integer dimension = null;
+  /** Whether to track the hashing collisions. */
+  private boolean trackCollisions = false;
+  /** The number of LSH tables and bits per key. */
+  private int[] lsh = null;
+  /** The directory of corpus snapshots. */
+  private String snapshotDirectory = null;
+  /** The directory of feature caches. */
+  private String featureCacheDirectory = null;
+  /** Whether to vectorize in parallel. */
+  private Boolean parallelVectorization = null;
+  /** Whether to train LDA with the sparse sampler. */
+  private Boolean sparseLda = null;
+  /** Whether to fold into saved LDA models. */
+  private Boolean foldInLda = null;
+  /** The number of iterations between checkpoints. */
+  private Integer checkpointInterval = null;
 
   /**
    * Options from the command line arguments override default settings defined
@@ -80,7 +168,48 @@ public class SimulateReviewArguments {
     this.representation = args[2];
     this.classifier = args[3];
 
-    if ( args.length > 4 ) {
+    // the options follow the hyperparameter, in any order
+    int numArgs = args.length;
+    while ( numArgs > 4 ) {
+      String arg = args[numArgs - 1];
+      if ( ARG_RESUME.equalsIgnoreCase( arg ) ) {
+        this.resume = true;
+      } else if ( arg.startsWith( ARG_STOP ) ) {
+        this.stoppingRules = arg.substring( ARG_STOP.length() );
+      } else if ( arg.startsWith( ARG_DIMENSION ) ) {
+        this.dimension = Integer.valueOf( arg.substring( ARG_DIMENSION
+            .length() ) );
+      } else if ( ARG_COLLISIONS.equalsIgnoreCase( arg ) ) {
+        this.trackCollisions = true;
+      } else if ( arg.startsWith( ARG_LSH ) ) {
+        String[] parts = arg.substring( ARG_LSH.length() ).split( ":" );
+        if ( parts.length != 2 ) {
+          printUsage( "Bad LSH argument: " + arg );
+        }
+        this.lsh = new int[] { Integer.valueOf( parts[0] ),
+            Integer.valueOf( parts[1] ) };
+      } else if ( arg.startsWith( ARG_SNAPSHOTS ) ) {
+        this.snapshotDirectory = arg.substring( ARG_SNAPSHOTS.length() );
+      } else if ( arg.startsWith( ARG_FEATURES ) ) {
+        this.featureCacheDirectory = arg.substring( ARG_FEATURES.length() );
+      } else if ( arg.startsWith( ARG_PARALLEL_VECTORIZATION ) ) {
+        this.parallelVectorization = Boolean.valueOf( arg
+            .substring( ARG_PARALLEL_VECTORIZATION.length() ) );
+      } else if ( arg.startsWith( ARG_SPARSE_LDA ) ) {
+        this.sparseLda = Boolean.valueOf( arg.substring( ARG_SPARSE_LDA
+            .length() ) );
+      } else if ( arg.startsWith( ARG_FOLD_IN_LDA ) ) {
+        this.foldInLda = Boolean.valueOf( arg.substring( ARG_FOLD_IN_LDA
+            .length() ) );
+      } else if ( arg.startsWith( ARG_CHECKPOINT ) ) {
+        this.checkpointInterval = Integer.valueOf( arg
+            .substring( ARG_CHECKPOINT.length() ) );
+      } else {
+        break;
+      }
+      numArgs--;
+    }
+    if ( numArgs > 4 ) {
       this.hyperparameter = Double.valueOf( args[4] );
     }
   }
@@ -148,4 +277,103 @@ public class SimulateReviewArguments {
   public Double getHyperparameter() {
     return this.hyperparameter;
   }
+
+  /**
+   * Whether to resume from the last checkpoint.
+   * 
+   * @return
+   */
+  public boolean isResume() {
+    return this.resume;
+  }
+
+  /**
+   * The stopping rules, or null to screen every paper.
+   * 
+   * @return
+   */
+  public String getStoppingRules() {
+    return this.stoppingRules;
+  }
+
+  /**
+   * The number of hash buckets, or null for the default.
+   * 
+   * @return
+   */
+  public Integer getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * Whether to track the hashing collisions.
+   * 
+   * @return
+   */
+  public boolean isTrackCollisions() {
+    return this.trackCollisions;
+  }
+
+  /**
+   * The number of LSH tables and bits per key, or null for exact search.
+   * 
+   * @return
+   */
+  public int[] getLsh() {
+    return this.lsh;
+  }
+
+  /**
+   * The directory of corpus snapshots, or null for the default.
+   * 
+   * @return
+   */
+  public String getSnapshotDirectory() {
+    return this.snapshotDirectory;
+  }
+
+  /**
+   * The directory of feature caches, or null for the default.
+   * 
+   * @return
+   */
+  public String getFeatureCacheDirectory() {
+    return this.featureCacheDirectory;
+  }
+
+  /**
+   * Whether to vectorize in parallel, or null for the default.
+   * 
+   * @return
+   */
+  public Boolean getParallelVectorization() {
+    return this.parallelVectorization;
+  }
+
+  /**
+   * Whether to train LDA with the sparse sampler, or null for the default.
+   * 
+   * @return
+   */
+  public Boolean getSparseLda() {
+    return this.sparseLda;
+  }
+
+  /**
+   * Whether to fold into saved LDA models, or null for the default.
+   * 
+   * @return
+   */
+  public Boolean getFoldInLda() {
+    return this.foldInLda;
+  }
+
+  /**
+   * The number of iterations between checkpoints, or null for the default.
+   * 
+   * @return
+   */
+  public Integer getCheckpointInterval() {
+    return this.checkpointInterval;
+  }
 }
@@ -0,0 +1,231 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.drivers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.tufts.cs.ebm.review.systematic.simulation.Simulator;
+import edu.tufts.cs.ml.exception.CommandLineArgumentException;
+
+/**
+ * Runs a grid of simulations, each repeated with its own seed, concurrently
+ * in one JVM. Simulations of the same review share the search results (and,
+ * where safe, the feature vectors) instead of rebuilding them per process.
+ *
+ * The results are laid out as by run-simulator:
+ * results/[representation]-[classifier]/[dataset]/[hyperparameter]/[n].
+ */
+public class SimulateReviewGrid {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( SimulateReviewGrid.class );
+  /** The directory to write the results to. */
+  protected static final File RESULTS_DIR = new File( "results" );
+  /** The spreadsheet copied into each configuration's directory. */
+  protected static final File TEMPLATE = new File( RESULTS_DIR,
+      "template.xlsx" );
+
+  /**
+   * @param args
+   * @throws CommandLineArgumentException
+   * @throws IOException
+   */
+  public static void main( String[] args ) throws CommandLineArgumentException,
+    IOException {
+    SimulateReviewGridArguments cmd = new SimulateReviewGridArguments( args );
+    List<String[]> grid = readGrid( new File( cmd.getGridFile() ) );
+    LOG.info( "Running " + grid.size() + " simulations x "
+        + cmd.getRepetitions() + " repetitions on " + cmd.getNumThreads()
+        + " threads" );
+
+    long start = System.currentTimeMillis();
+    ExecutorService pool = Executors.newFixedThreadPool( cmd.getNumThreads() );
+    // the runs share one pool of LDA samplers rather than one pool per model
+    ExecutorService ldaPool = Executors.newFixedThreadPool( cmd
+        .getNumThreads() );
+    List<Future<?>> runs = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    int failed = 0;
+    try {
+      for ( int rep = 0; rep < cmd.getRepetitions(); rep++ ) {
+        for ( String[] config : grid ) {
+          // repetition n uses the same seed in every configuration
+          GridRun run = new GridRun( config, cmd.getSeed() + rep );
+          run.setLdaExecutor( ldaPool, cmd.getNumThreads() );
+          runs.add( pool.submit( run ) );
+          names.add( join( config ) + " #" + ( rep + 1 ) );
+        }
+      }
+      pool.shutdown();
+
+      for ( int i = 0; i < runs.size(); i++ ) {
+        try {
+          runs.get( i ).get();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          LOG.error( "Interrupted while waiting for " + names.get( i ), e );
+          failed++;
+        } catch ( ExecutionException e ) {
+          LOG.error( "Simulation " + names.get( i ) + " failed.",
+              e.getCause() );
+          failed++;
+        }
+      }
+    } finally {
+      pool.shutdown();
+      ldaPool.shutdown();
+    }
+    Simulator.clearShared();
+
+    LOG.info( ( runs.size() - failed ) + " of " + runs.size()
+        + " simulations completed (" + failed + " failed) in "
+        + ( System.currentTimeMillis() - start ) / 1000 + "s" );
+  }
+
+  /**
+   * Read the simulation configurations from the grid file.
+   *
+   * @param gridFile
+   * @return
+   * @throws IOException
+   * @throws CommandLineArgumentException
+   */
+  protected static List<String[]> readGrid( File gridFile )
+    throws IOException, CommandLineArgumentException {
+    List<String[]> grid = new ArrayList<>();
+    BufferedReader br = new BufferedReader( new FileReader( gridFile ) );
+    try {
+      String line;
+      while ( ( line = br.readLine() ) != null ) {
+        line = line.trim();
+        if ( line.isEmpty() || line.startsWith( "#" ) ) {
+          continue;
+        }
+        String[] config = line.split( "\\s+" );
+        new SimulateReviewArguments( config ); // fail fast on a bad line
+        grid.add( config );
+      }
+    } finally {
+      br.close();
+    }
+
+    return grid;
+  }
+
+  /**
+   * Create the next numbered results directory for the configuration.
+   *
+   * @param config
+   * @return
+   * @throws IOException
+   */
+  protected static synchronized File createRunDirectory( String[] config )
+    throws IOException {
+    String hyperparameter = ( config.length > 4 ) ? config[4] : "";
+    File configDir = new File( new File( new File( RESULTS_DIR, config[2]
+        + "-" + config[3] ), config[0] ), hyperparameter );
+    if ( !configDir.isDirectory() && !configDir.mkdirs() ) {
+      throw new IOException( "Could not create " + configDir );
+    }
+
+    File avg = new File( configDir, config[2] + "-" + config[3] + "-"
+        + config[0] + "-avg.xlsx" );
+    if ( !avg.exists() && TEMPLATE.exists() ) {
+      Files.copy( TEMPLATE.toPath(), avg.toPath() );
+    }
+
+    int n = 1;
+    File runDir = new File( configDir, String.valueOf( n ) );
+    while ( !runDir.mkdir() ) {
+      if ( !runDir.exists() ) {
+        throw new IOException( "Could not create " + runDir );
+      }
+      runDir = new File( configDir, String.valueOf( ++n ) );
+    }
+
+    return runDir;
+  }
+
+  /**
+   * Join the configuration for logging.
+   *
+   * @param config
+   * @return
+   */
+  protected static String join( String[] config ) {
+    StringBuilder sb = new StringBuilder();
+    for ( String s : config ) {
+      if ( sb.length() > 0 ) sb.append( ' ' );
+      sb.append( s );
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * A single repetition of one configuration.
+   */
+  protected static class GridRun implements Runnable {
+    /** The simulate arguments. */
+    protected String[] config;
+    /** The seed. */
+    protected long seed;
+    /** The executor of the LDA samplers. */
+    protected ExecutorService ldaExecutor;
+    /** The number of threads of each LDA sampler. */
+    protected int ldaThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default constructor.
+     *
+     * @param config
+     * @param seed
+     */
+    public GridRun( String[] config, long seed ) {
+      this.config = config;
+      this.seed = seed;
+    }
+
+    /**
+     * Set the executor shared by the LDA samplers of the runs.
+     *
+     * @param executor
+     * @param threads
+     */
+    public void setLdaExecutor( ExecutorService executor, int threads ) {
+      this.ldaExecutor = executor;
+      this.ldaThreads = threads;
+    }
+
+    @Override
+    public void run() {
+      try {
+        SimulateReviewArguments cmd = new SimulateReviewArguments( config );
+        // every use of the shared entity manager locks it (see Util), so the
+        // runs may load reviews and look up papers concurrently
+        Simulator s = SimulateReview.createSimulator( cmd );
+        File runDir = createRunDirectory( config );
+        s.setSeed( seed );
+        s.setLdaThreads( ldaThreads );
+        s.setLdaExecutor( ldaExecutor );
+        s.setOutputDirectory( runDir );
+        s.simulateReview();
+        LOG.info( "Saved the results of " + join( config ) + " to " + runDir );
+      } catch ( RuntimeException e ) {
+        throw e;
+      } catch ( Exception e ) {
+        throw new RuntimeException( e );
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * SimulateReviewGridArguments.java
+ */
+package edu.tufts.cs.ebm.review.systematic.simulation.drivers;
+
+import edu.tufts.cs.ml.exception.CommandLineArgumentException;
+
+/**
+ * The command-line options for running a grid of simulations in one JVM.
+ */
+public class SimulateReviewGridArguments {
+  /*
+   * Usage statements for command-line use.
+   */
+  /** The argument name for the grid file. */
+  public static final String ARG_GRID = "grid";
+  /** The argument name for the number of repetitions. */
+  public static final String ARG_REPETITIONS = "repetitions";
+  /** The argument name for the number of concurrent simulations. */
+  public static final String ARG_THREADS = "threads";
+  /** The argument name for the base random seed. */
+  public static final String ARG_SEED = "seed";
+  /** The usage message for the grid file. */
+  public static final String USAGE_GRID = "A file with one simulation per "
+      + "line, in the order of the simulate arguments (ex. 'clopidogrel true "
+      + "Bow RankSvm 0.1'). Blank lines and lines starting with '#' are "
+      + "skipped.";
+  /** The usage message for the number of repetitions. */
+  public static final String USAGE_REPETITIONS = "The number of times to run "
+      + "each simulation (default 1).";
+  /** The usage message for the number of concurrent simulations. */
+  public static final String USAGE_THREADS = "The number of simulations to "
+      + "run at once (default: the number of processors).";
+  /** The usage message for the base random seed. */
+  public static final String USAGE_SEED = "The seed for repetition 1; "
+      + "repetition n uses seed + n - 1 (default 0).";
+  /** The usage message. */
+  protected static String usage = "simulate-grid <" + ARG_GRID + "> ["
+      + ARG_REPETITIONS + "] [" + ARG_THREADS + "] [" + ARG_SEED + "]\n\n<"
+      + ARG_GRID + ">:\t\t" + USAGE_GRID + "\n[" + ARG_REPETITIONS + "]:\t"
+      + USAGE_REPETITIONS + "\n[" + ARG_THREADS + "]:\t\t" + USAGE_THREADS
+      + "\n[" + ARG_SEED + "]:\t\t" + USAGE_SEED;
+
+  /*
+   * Argument definitions for command line use.
+   */
+  /** The grid file. */
+  private String gridFile;
+  /** The number of repetitions. */
+  private int repetitions = 1;
+  /** The number of concurrent simulations. */
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  /** The base random seed. */
+  private long seed = 0;
+
+  /**
+   * Options from the command line arguments override default settings defined
+   * in this class.
+   */
+  public SimulateReviewGridArguments( String[] args )
+    throws CommandLineArgumentException {
+    if ( args.length >= 1 && args[0].toUpperCase().contains( "USAGE" ) ) {
+      printUsage( "Usage:" );
+    } else if ( args.length < 1 ) {
+      printUsage( CommandLineArgumentException.DIFF_NUM_ARGS );
+    }
+
+    this.gridFile = args[0];
+
+    if ( args.length > 1 ) {
+      this.repetitions = Integer.valueOf( args[1] );
+    }
+    if ( args.length > 2 ) {
+      this.numThreads = Integer.valueOf( args[2] );
+    }
+    if ( args.length > 3 ) {
+      this.seed = Long.valueOf( args[3] );
+    }
+  }
+
+  /**
+   * Print the usage and the error message.
+   *
+   * @param args
+   * @throws CommandLineArgumentException
+   */
+  public void printUsage( String... args ) throws CommandLineArgumentException {
+    System.err.println( usage );
+
+    if ( args.length > 0 && args[0].toUpperCase().contains( "USAGE" ) ) {
+      System.exit( 0 );
+    }
+    if ( args.length == 1 ) {
+      throw new CommandLineArgumentException( args[0] );
+    } else {
+      throw new CommandLineArgumentException( args[0], args[1] );
+    }
+  }
+
+  /**
+   * The grid file.
+   *
+   * @return
+   */
+  public String getGridFile() {
+    return this.gridFile;
+  }
+
+  /**
+   * The number of repetitions.
+   *
+   * @return
+   */
+  public int getRepetitions() {
+    return this.repetitions;
+  }
+
+  /**
+   * The number of concurrent simulations.
+   *
+   * @return
+   */
+  public int getNumThreads() {
+    return this.numThreads;
+  }
+
+  /**
+   * The base random seed.
+   *
+   * @return
+   */
+  public long getSeed() {
+    return this.seed;
+  }
+}
@@ -12,17 +12,15 @@ import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import edu.tufts.cs.ebm.refinement.query.ParallelPubmedSearcher;
-import edu.tufts.cs.ebm.refinement.query.controller.MainController;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
 import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+import edu.tufts.cs.ebm.review.systematic.simulation.ReviewIndex;
 import edu.tufts.cs.ebm.review.systematic.simulation.Simulator;
 import edu.tufts.cs.ml.util.Util;
 
@@ -34,6 +32,8 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
   protected static final Log LOG = LogFactory.getLog( OfflineSimulator.class );
   /** The active review. */
   protected SystematicReview activeReview;
+  /** The dense ids of the corpus and their review labels. */
+  protected ReviewIndex<PubmedId> documents;
   /** The name of the dataset. */
   protected String dataset;
   /** The default number of iterations. */
@@ -60,40 +60,42 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
    * @throws BiffException
    */
   public OfflineSimulator( String review ) throws Exception {
-    Collection<SystematicReview> reviews = reviews();
     this.dataset = Util.normalize( review );
-    for ( SystematicReview r : reviews ) {
-      if ( Util.normalize( r.getName() ).contains( this.dataset ) ) {
-        this.activeReview = r;
-      }
-    }
-
-    if ( this.activeReview == null )
-      throw new RuntimeException( "Could not find review " + review );
 
     Runtime rt = Runtime.getRuntime();
     LOG.info( "Max Memory: " + rt.maxMemory() / MB );
 
-    LOG.info( "# seeds:\t " + activeReview.getSeeds().size() );
-    LOG.info( "# relevant L1:\t " + activeReview.getRelevantLevel1().size() );
-    LOG.info( "# relevant L2:\t " + activeReview.getRelevantLevel2().size() );
-    LOG.info( "# blacklisted:\t " + activeReview.getBlacklist().size() );
+    if ( temporalSplits ) numIt = 1;
+  }
 
-    // load up the seeds
-    for ( PubmedId pmid : activeReview.getSeeds() ) {
-      MainController.EM.find( PubmedId.class, pmid.getValue() ); // load seeds
+  /**
+   * Load the review, once the settings of the simulation have been applied.
+   *
+   * @throws IOException
+   */
+  protected void initializeReview() throws IOException {
+    if ( activeReview != null ) {
+      return;
     }
-
-    // load up the relevant papers
-    for ( PubmedId pmid : activeReview.getRelevantLevel2() ) {
-      MainController.EM.find( PubmedId.class, pmid.getValue() );
+    try {
+      this.activeReview = loadReview( this.dataset );
+    } catch ( IOException | RuntimeException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new IOException( "Could not load review " + dataset, e );
     }
+    this.documents = new ReviewIndex<>( activeReview );
 
-    if ( temporalSplits ) numIt = 1;
+    LOG.info( "# seeds:\t " + activeReview.getSeeds().size() );
+    LOG.info( "# relevant L1:\t " + activeReview.getRelevantLevel1().size() );
+    LOG.info( "# relevant L2:\t " + activeReview.getRelevantLevel2().size() );
+    LOG.info( "# blacklisted:\t " + activeReview.getBlacklist().size() );
   }
 
   @Override
   public void simulateReview() throws Exception {
+    initializeReview();
+
     // prepare the CSV output
     FileWriter fw = new FileWriter( statsFile );
     BufferedWriter out = new BufferedWriter( fw );
@@ -127,12 +129,10 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
       else query = query + " AND(" + oQuery + ")";
     }
 
-    ParallelPubmedSearcher searcher = new ParallelPubmedSearcher( query,
-        activeReview );
-    LOG.info( "Initial query: " + query );
-    search( searcher );
-
-    Set<Citation> citations = searcher.getCitations();
+    Set<Citation> citations = search( activeReview, query );
+    for ( Citation c : citations ) {
+      documents.add( c.getPmid() );
+    }
     //citations = removePostStudyArticles( citations );
     Collection<Citation> downsampled = downsample(
         citations, activeReview );
@@ -162,8 +162,7 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
         if ( temporalSplits ) {
           int numRelevantTest = 0;
           for ( Citation c : test ) {
-            if ( activeReview.getRelevantLevel1().contains( c.getPmid() )
-                || activeReview.getRelevantLevel2().contains( c.getPmid() ) ) {
+            if ( documents.isRelevant( c.getPmid() ) ) {
               numRelevantTest++;
             }
           }
@@ -189,14 +188,13 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
    */
   protected void writeRanking( List<PubmedId> ranks, int it, int trainPct ) {
     try {
-      File f = new File ( "ranks-" + it + "-" + trainPct + ".csv" );
+      File f = new File( outputDir, "ranks-" + it + "-" + trainPct + ".csv" );
       FileWriter fw = new FileWriter( f );
       BufferedWriter bw = new BufferedWriter( fw );
   
       for ( int i = 0; i < ranks.size(); i++ ) {
         PubmedId pmid = ranks.get( i );
-        String relevant = ( activeReview.getRelevantLevel1().contains( pmid )
-            || activeReview.getRelevantLevel2().contains( pmid ) ) ? "1" : "0";
+        String relevant = documents.isRelevant( pmid ) ? "1" : "0";
         bw.append( (i+1) + "," + relevant + "\n" );
       }
       bw.flush();
@@ -218,10 +216,10 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
     Set<PubmedId> relevantL1 = new HashSet<PubmedId>();
     Set<PubmedId> relevantL2 = new HashSet<PubmedId>();
     for ( PubmedId id : ranking ) {
-      if ( activeReview.getRelevantLevel1().contains( id ) ) {
+      if ( documents.isRelevantL1( id ) ) {
         relevantL1.add( id );
       }
-      if ( activeReview.getRelevantLevel2().contains( id ) ) {
+      if ( documents.isRelevantL2( id ) ) {
         relevantL2.add( id );
       }
     }
@@ -346,7 +344,6 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
    */
   protected Collection<Citation> createRandomTrainingSet( Collection<Citation> citations, double pctData ) {
     List<Citation> train = new ArrayList<Citation>();
-    Random generator = new Random();
     Citation[] values = (Citation[]) citations.toArray();
 
     int numInstances = (int) Math.ceil( citations.size() * pctData );
@@ -355,7 +352,7 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
         + citations.size() + "..." );
 
     while ( train.size() < numInstances ) {
-      int i = generator.nextInt( values.length );
+      int i = random.nextInt( values.length );
       Citation randPaper = values[i];
       if ( !train.contains( randPaper ) ) {
         train.add( randPaper );
@@ -408,7 +405,7 @@ public abstract class OfflineSimulator<I, C> extends Simulator {
           || !c.getDate().after( activeReview.getCreatedOn() ) ) {
         filtered.add( c );
       } else {
-        if ( activeReview.getRelevantLevel1().contains( c.getPmid() ) ) {
+        if ( documents.isRelevantL1( c.getPmid() ) ) {
           throw new RuntimeException( "Filtered out relevant article by date! "
               + c.getPmid() );
         }
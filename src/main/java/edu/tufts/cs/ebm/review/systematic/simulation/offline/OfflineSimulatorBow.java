@@ -6,9 +6,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,7 +15,9 @@ import org.apache.commons.logging.LogFactory;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.simulation.BowFeatures;
 import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.Metadata;
 import edu.tufts.cs.ml.text.BagOfWords;
 
 /**
@@ -28,8 +28,10 @@ public abstract class OfflineSimulatorBow extends
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OfflineSimulatorBow.class );
-  /** The Bag of Words. */
+  /** The Bag of Words (null if the features may come from the cache). */
   protected BagOfWords<Integer> bow;
+  /** The feature vectors and the Bag of Words they were built from. */
+  protected BowFeatures features;
 
   /**
    * Default constructor.
@@ -41,6 +43,39 @@ public abstract class OfflineSimulatorBow extends
     super( review );
   }
 
+  /**
+   * Whether the feature vectors may be held in compressed sparse row form and
+   * read from and saved to the feature cache. This is only safe if the
+   * ranking never trains the Bag of Words, since the vectors are then built
+   * from the rows on demand and the Bag of Words is not always built.
+   *
+   * @return
+   */
+  protected boolean isFeatureCacheSafe() {
+    return false;
+  }
+
+  /**
+   * Create a FeatureVector for a text that is not in the corpus (e.g. a
+   * pseudo-document), the same way the corpus vectors were built.
+   *
+   * @param id
+   * @param text
+   * @return
+   */
+  protected FeatureVector<Integer> createUnlabeledFV( String id, String text ) {
+    return features.createUnlabeledFV( id, text );
+  }
+
+  /**
+   * Get the metadata of the feature vectors.
+   *
+   * @return
+   */
+  protected Metadata getMetadata() {
+    return features.getMetadata();
+  }
+
   /**
    * Turn the Citations into FeatureVectors.
    * 
@@ -50,33 +85,15 @@ public abstract class OfflineSimulatorBow extends
   @Override
   protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
       Collection<Citation> citations ) {
-    // initialize the bag of words
-    final int minOccurs = 5;
-    final int minLength = 3;
-    bow = new BagOfWords<Integer>( new File(
-        "src/main/resources/stoplists/en.txt" ), true, false, minOccurs,
-        minLength );
-
-    // create the features
-    List<String> texts = new ArrayList<String>();
-    for ( Citation c : citations ) {
-      texts.add( c.getTitle() + " " + c.getAbstr() );
-    }
-    bow.createFeatures( texts );
-
-    for ( Citation c : activeReview.getSeedCitations() ) {
-      // seed citations are in the positive class
-      bow.train( c.getPmid().toString(), c.getTitle() + " " + c.getAbstr(), 1 );
+    try {
+      features = loadFeatures( citations );
+    } catch ( IOException e ) {
+      throw new IllegalStateException( "Could not build feature vectors.", e );
     }
-
-    // create the feature vectors
-    Map<PubmedId, FeatureVector<Integer>> fvs = new HashMap<>();
-    for ( Citation c : citations ) {
-      fvs.put(
-          c.getPmid(),
-          bow.createUnlabeledFV( c.getPmid().toString(),
-              c.getTitle() + " " + c.getAbstr() ) );
+    if ( !isFeatureCacheSafe() ) {
+      bow = features.getBagOfWords();
     }
+    Map<PubmedId, FeatureVector<Integer>> fvs = features.getFeatureVectors();
 
     File f = new File( "src/test/resources/" + this.dataset
         + "-labeled-terms.csv" );
@@ -90,6 +107,19 @@ public abstract class OfflineSimulatorBow extends
     return fvs;
   }
 
+  /**
+   * Build the features of the Citations.
+   *
+   * @param citations
+   * @return
+   * @throws IOException
+   */
+  protected BowFeatures loadFeatures( Collection<Citation> citations )
+    throws IOException {
+    return BowFeatures.load( citations, activeReview.getSeedCitations(),
+        isFeatureCacheSafe(), featureCacheDir, parallelVectorization );
+  }
+
   /**
    * Load up the pseudo-documents (labeled terms).
    * 
@@ -116,9 +146,9 @@ public abstract class OfflineSimulatorBow extends
     }
 
     for ( int i = 0; i < numReplications; i++ ) {
-      FeatureVector<Integer> pseudoNeg = bow.createUnlabeledFV(
+      FeatureVector<Integer> pseudoNeg = createUnlabeledFV(
           PSEUDO_PREFIX + "neg_" + i, negPseudoDoc.toString() );
-      FeatureVector<Integer> pseudoPos = bow.createUnlabeledFV(
+      FeatureVector<Integer> pseudoPos = createUnlabeledFV(
           PSEUDO_PREFIX + "pos_" + i, posPseudoDoc.toString() );
       labeledTerms.put( pseudoPos, PSEUDO_POS );
       labeledTerms.put( pseudoNeg, PSEUDO_NEG );
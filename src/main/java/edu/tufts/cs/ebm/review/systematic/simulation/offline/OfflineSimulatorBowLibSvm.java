@@ -16,8 +16,7 @@ import edu.tufts.cs.ml.LabeledFeatureVector;
 import edu.tufts.cs.ml.TestRelation;
 import edu.tufts.cs.ml.TrainRelation;
 import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.LibSvmClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
+import edu.tufts.cs.rank.LinearSvm;
 
 /**
  * An offline simulation of a systematic review.
@@ -26,6 +25,8 @@ public class OfflineSimulatorBowLibSvm extends OfflineSimulatorBow {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OfflineSimulatorBowLibSvm.class );
+  /** The c parameter for SVM (the default of libsvm). */
+  protected static final double DEFAULT_C = 1;
 
   /**
    * Default constructor.
@@ -47,8 +48,7 @@ public class OfflineSimulatorBowLibSvm extends OfflineSimulatorBow {
     List<FeatureVector<Integer>> neg = new ArrayList<FeatureVector<Integer>>();
 
     for ( PubmedId id : training.keySet() ) {
-      if ( activeReview.getRelevantLevel1().contains( id )
-          || activeReview.getRelevantLevel2().contains( id ) ) {
+      if ( documents.isRelevant( id ) ) {
         pos.add( training.get( id ) );
       } else {
         neg.add( training.get( id ) );
@@ -86,25 +86,23 @@ public class OfflineSimulatorBowLibSvm extends OfflineSimulatorBow {
         testRelation.add( (UnlabeledFeatureVector<Integer>) c );
       }
 
-      LibSvmClassifier c = new LibSvmClassifier();
+      LinearSvm<Integer> c = new LinearSvm<>( LinearSvm.Loss.HINGE,
+          DEFAULT_C );
       c.train( trainRelation );
-      try {
-        TreeMultimap<Double, FeatureVector<Integer>> results = c
-            .rank( testRelation );
-
-        for ( Double rank : results.keySet() ) {
-          for ( FeatureVector<Integer> fv : results.get( rank ) ) {
-            try {
-              PubmedId pmid = edu.tufts.cs.ebm.util.Util
-                  .createOrUpdatePmid( Long.valueOf( fv.getId() ) );
-              ranking.add( pmid );
-            } catch ( NumberFormatException e ) {
-              LOG.error( "Could not parse pmid: " + fv.getId(), e );
-            }
+      TreeMultimap<Double, FeatureVector<Integer>> results = c
+          .rank( testRelation );
+
+      // the highest decision value is the most likely to be relevant
+      for ( Double rank : results.keySet().descendingSet() ) {
+        for ( FeatureVector<Integer> fv : results.get( rank ) ) {
+          try {
+            PubmedId pmid = edu.tufts.cs.ebm.util.Util
+                .createOrUpdatePmid( Long.valueOf( fv.getId() ) );
+            ranking.add( pmid );
+          } catch ( NumberFormatException e ) {
+            LOG.error( "Could not parse pmid: " + fv.getId(), e );
           }
         }
-      } catch ( IncomparableFeatureVectorException e ) {
-        LOG.error( "Could not compare feature vectors.", e );
       }
     }
 
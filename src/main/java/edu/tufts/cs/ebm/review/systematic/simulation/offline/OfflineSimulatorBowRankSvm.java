@@ -1,6 +1,7 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.offline;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -11,15 +12,16 @@ import org.apache.commons.logging.LogFactory;
 
 import com.google.common.collect.TreeMultimap;
 
+import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.FeatureDictionary;
 import edu.tufts.cs.ml.FeatureVector;
 import edu.tufts.cs.ml.LabeledFeatureVector;
 import edu.tufts.cs.ml.TestRelation;
 import edu.tufts.cs.ml.TrainRelation;
 import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.RankSvmClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
 import edu.tufts.cs.rank.BordaAggregator;
+import edu.tufts.cs.rank.LinearRankSvm;
 
 /**
  * An offline simulation of a systematic review.
@@ -35,8 +37,8 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
    * make this number very high to eliminate undersampling.
    */
   protected static final int DEFAULT_UNDERSAMPLING_MULTIPLIER = 1;
-  
-    protected static int undersamplingMultiplier = DEFAULT_UNDERSAMPLING_MULTIPLIER;
+  /** The number of times the size of the minority class to sample. */
+  protected int undersamplingMultiplier = DEFAULT_UNDERSAMPLING_MULTIPLIER;
   /** The positive class label for L2. */
   protected static final int POS = 1;
   /** The negative class label. */
@@ -45,11 +47,18 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
   protected static final double DEFAULT_C = 1;
   /** The c parameter for SVM. */
   protected double cParam = DEFAULT_C;
+  /** The sparse feature indices, shared by the ensemble models. */
+  protected FeatureDictionary dictionary = new FeatureDictionary();
 
-    public void setUndersamplingMultiplier( int u ) {
-	this.undersamplingMultiplier = u;
-
+  /**
+   * Set the undersampling multiplier.
+   *
+   * @param u
+   */
+  public void setUndersamplingMultiplier( int u ) {
+    this.undersamplingMultiplier = u;
   }
+
   /**
    * Default constructor.
    * 
@@ -60,6 +69,37 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
     super( review );
   }
 
+  /**
+   * The ranking never trains the Bag of Words, so the feature vectors may
+   * come from the feature cache.
+   *
+   * @return
+   */
+  @Override
+  protected boolean isFeatureCacheSafe() {
+    return true;
+  }
+
+  /**
+   * Turn the Citations into FeatureVectors. If they are held in compressed
+   * sparse row form, the models use the dictionary of its columns, so that
+   * the vectors are read from the rows instead of being converted.
+   *
+   * @param citations
+   * @return
+   */
+  @Override
+  protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
+      Collection<Citation> citations ) {
+    Map<PubmedId, FeatureVector<Integer>> fvs = super
+        .createFeatureVectors( citations );
+    if ( features != null && features.getRelation() != null ) {
+      dictionary = features.getRelation().getDictionary();
+    }
+
+    return fvs;
+  }
+
   @Override
   protected List<PubmedId> rank(
       Map<PubmedId, FeatureVector<Integer>> training,
@@ -70,8 +110,7 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
     List<FeatureVector<Integer>> neg = new ArrayList<FeatureVector<Integer>>();
 
     for ( PubmedId id : training.keySet() ) {
-      if ( activeReview.getRelevantLevel1().contains( id )
-          || activeReview.getRelevantLevel2().contains( id ) ) {
+      if ( documents.isRelevant( id ) ) {
         pos.add( training.get( id ) );
       } else {
         neg.add( training.get( id ) );
@@ -97,7 +136,7 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
 
       // create the test set
       TestRelation<Integer> testRelation = new TestRelation<Integer>( "test",
-          bow.getTrainingData().getMetadata() );
+          getMetadata() );
       for ( FeatureVector<Integer> c : test.values() ) {
         if ( c.getQid() == null )
           c.setQid( 1 );
@@ -165,7 +204,7 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
       TestRelation<Integer> test ) {
     // prepare the data for the ranking function
     TrainRelation<Integer> trainRelation = new TrainRelation<Integer>( "train",
-        bow.getTrainingData().getMetadata() );
+        getMetadata() );
     // add minority instances
     for ( FeatureVector<Integer> fv : minorityClass.keySet() ) {
       LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
@@ -183,7 +222,7 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
         * undersamplingMultiplier;
     ArrayList<FeatureVector<Integer>> shuffled = new ArrayList<>(
         majorityClass.keySet() );
-    Collections.shuffle( shuffled );
+    Collections.shuffle( shuffled, random );
     for ( int i = 0; i < numNegSamples; i++ ) {
       FeatureVector<Integer> fv = shuffled.get( i );
       LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
@@ -207,24 +246,19 @@ public class OfflineSimulatorBowRankSvm extends OfflineSimulatorBow {
     LOG.info( "\t\t# minority instances: " + minorityClass.size() + "\n\t\t"
         + "# majority instances: " + numNegSamples + "/" + majorityClass.size() );
     List<PubmedId> ranking = new ArrayList<PubmedId>();
-    RankSvmClassifier c = new RankSvmClassifier( cParam );
+    LinearRankSvm<Integer> c = new LinearRankSvm<>( cParam, dictionary,
+        random );
     c.train( trainRelation );
-    try {
-      TreeMultimap<Double, FeatureVector<Integer>> results = c.rank( test );
-
-      for ( Double rank : results.keySet() ) {
-        for ( FeatureVector<Integer> fv : results.get( rank ) ) {
-          try {
-            PubmedId pmid = edu.tufts.cs.ebm.util.Util.createOrUpdatePmid( Long
-                .valueOf( fv.getId() ) );
-            ranking.add( pmid );
-          } catch ( NumberFormatException e ) {
-            LOG.error( "Could not parse pmid: " + fv.getId(), e );
-          }
+    TreeMultimap<Double, FeatureVector<Integer>> results = c.rank( test );
+
+    for ( Double rank : results.keySet() ) {
+      for ( FeatureVector<Integer> fv : results.get( rank ) ) {
+        try {
+          ranking.add( new PubmedId( Long.valueOf( fv.getId() ) ) );
+        } catch ( NumberFormatException e ) {
+          LOG.error( "Could not parse pmid: " + fv.getId(), e );
         }
       }
-    } catch ( IncomparableFeatureVectorException e ) {
-      LOG.error( "Could not compare feature vectors.", e );
     }
 
     return ranking;
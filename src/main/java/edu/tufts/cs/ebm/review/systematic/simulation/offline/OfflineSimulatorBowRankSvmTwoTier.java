@@ -9,7 +9,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
-import edu.tufts.cs.ebm.util.Util;
 import edu.tufts.cs.ml.FeatureVector;
 import edu.tufts.cs.ml.TestRelation;
 import edu.tufts.cs.ml.UnlabeledFeatureVector;
@@ -54,8 +53,7 @@ public class OfflineSimulatorBowRankSvmTwoTier extends
     List<FeatureVector<Integer>> neg = new ArrayList<FeatureVector<Integer>>();
 
     for ( PubmedId id : training.keySet() ) {
-      if ( activeReview.getRelevantLevel1().contains( id )
-          || activeReview.getRelevantLevel2().contains( id ) ) {
+      if ( documents.isRelevant( id ) ) {
         pos.add( training.get( id ) );
       } else {
         neg.add( training.get( id ) );
@@ -69,9 +67,9 @@ public class OfflineSimulatorBowRankSvmTwoTier extends
       Map<FeatureVector<Integer>, Integer> minorityMap = new HashMap<FeatureVector<Integer>, Integer>();
       for ( FeatureVector<Integer> fv : pos ) {
         fv.setQid( 1 );
-        PubmedId pmid = Util.createOrUpdatePmid( Long.valueOf( fv.getId() ) );
         int posRank = POS_L1;
-        if ( activeReview.getRelevantLevel2().contains( pmid ) )
+        if ( documents.isRelevantL2( new PubmedId( Long.valueOf( fv
+            .getId() ) ) ) )
           posRank = POS_L2;
         fv.setRank( posRank );
         minorityMap.put( fv, posRank );
@@ -85,7 +83,7 @@ public class OfflineSimulatorBowRankSvmTwoTier extends
 
       // create the test set
       TestRelation<Integer> testRelation = new TestRelation<Integer>( "test",
-          bow.getTrainingData().getMetadata() );
+          getMetadata() );
       for ( FeatureVector<Integer> c : test.values() ) {
         if ( c.getQid() == null )
           c.setQid( 1 );
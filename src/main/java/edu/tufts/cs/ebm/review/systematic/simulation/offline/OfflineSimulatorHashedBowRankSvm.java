@@ -0,0 +1,82 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.offline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.simulation.BowFeatures;
+import edu.tufts.cs.features.FeatureHasher;
+
+/**
+ * An offline simulation of a systematic review using a hashed Bag of Words
+ * representation and a ranking SVM. The terms are hashed into a fixed number
+ * of signed buckets, so the features are built in one pass over the corpus
+ * without a vocabulary.
+ */
+public class OfflineSimulatorHashedBowRankSvm extends
+    OfflineSimulatorBowRankSvm {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory
+      .getLog( OfflineSimulatorHashedBowRankSvm.class );
+  /** The file containing the hashing collision report. */
+  protected static final String COLLISION_FILE = "collisions.csv";
+  /** The default number of hash buckets. */
+  protected static final int DEFAULT_DIMENSION = FeatureHasher
+      .DEFAULT_DIMENSION;
+  /** The number of hash buckets. */
+  protected int dimension = DEFAULT_DIMENSION;
+  /** Whether to track and report the hashing collisions. */
+  protected boolean trackCollisions = false;
+
+  /**
+   * Default constructor.
+   *
+   * @param review
+   * @throws Exception
+   */
+  public OfflineSimulatorHashedBowRankSvm( String review ) throws Exception {
+    super( review );
+  }
+
+  /**
+   * Set the number of hash buckets (rounded up to a power of two).
+   *
+   * @param dimension
+   */
+  public void setDimension( int dimension ) {
+    this.dimension = dimension;
+    LOG.info( "dimension: " + dimension );
+  }
+
+  /**
+   * Track the distinct terms and write the hashing collision report. The
+   * terms are held in memory, so this is off by default.
+   *
+   * @param trackCollisions
+   */
+  public void setTrackCollisions( boolean trackCollisions ) {
+    this.trackCollisions = trackCollisions;
+    LOG.info( "track collisions: " + trackCollisions );
+  }
+
+  @Override
+  protected BowFeatures loadFeatures( Collection<Citation> citations )
+    throws IOException {
+    BowFeatures hashed = BowFeatures.loadHashed( citations, activeReview
+        .getSeedCitations(), dimension, trackCollisions, featureCacheDir );
+    if ( trackCollisions ) {
+      File f = new File( outputDir, COLLISION_FILE );
+      try {
+        hashed.writeCollisionReport( f );
+      } catch ( IOException e ) {
+        LOG.error( "Could not write the collision report to " + f, e );
+      }
+    }
+
+    return hashed;
+  }
+}
@@ -1,15 +1,20 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,13 +28,15 @@ import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.mesh.RankedMesh;
 import edu.tufts.cs.ebm.refinement.query.InfoMeasure;
-import edu.tufts.cs.ebm.refinement.query.ParallelPubmedSearcher;
 import edu.tufts.cs.ebm.refinement.query.PicoElement;
-import edu.tufts.cs.ebm.refinement.query.controller.MainController;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
 import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+import edu.tufts.cs.ebm.review.systematic.simulation.RankHistory;
+import edu.tufts.cs.ebm.review.systematic.simulation.ReviewIndex;
 import edu.tufts.cs.ebm.review.systematic.simulation.Simulator;
+import edu.tufts.cs.ebm.review.systematic.simulation.StoppingRule;
+import edu.tufts.cs.ebm.review.systematic.simulation.TopKSelector;
 import edu.tufts.cs.ebm.util.MathUtil;
 import edu.tufts.cs.ml.FeatureVector;
 import edu.tufts.cs.ml.LabeledFeatureVector;
@@ -44,12 +51,45 @@ import edu.tufts.cs.ml.util.Util;
 public abstract class OnlineSimulator<I, C> extends Simulator {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory.getLog( OnlineSimulator.class );
-  /** The rankings output. */
-  protected Map<I, String> rankOutput = new HashMap<>();
+  /** The default for whether to keep the rank history off the heap. */
+  protected static final boolean DEFAULT_OFF_HEAP_HISTORY = false;
+  /** Whether to keep the rank history off the heap. */
+  protected boolean offHeapHistory = DEFAULT_OFF_HEAP_HISTORY;
+  /** The default number of iterations between checkpoints (0 for never). */
+  protected static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
+  /** The number of iterations between checkpoints (0 for never). */
+  protected int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+  /** Whether to resume from the last checkpoint, if there is one. */
+  protected boolean resume = false;
+  /** The stop reason recorded when every paper has been screened. */
+  protected static final String STOP_EXHAUSTED = "exhausted";
+  /** The rules for stopping before every paper has been screened. */
+  protected List<StoppingRule> stoppingRules = new ArrayList<>();
+  /** Whether lower scores rank higher (ranking classifiers). */
+  protected boolean ascendingScores = false;
+  /** The dense ids of the ranked documents and their review labels. */
+  protected ReviewIndex<I> documents;
+  /** The papers the expert has labeled relevant, by dense id. */
+  protected BitSet expertRelevant = new BitSet();
+  /** The papers the expert has labeled irrelevant, by dense id. */
+  protected BitSet expertIrrelevant = new BitSet();
+  /** The papers the expert has labeled, by dense id. */
+  protected BitSet labeled = new BitSet();
+  /**
+   * The scores of the last ranking by dense id (NaN if not ranked), or null
+   * if the ranker only returned the rank map.
+   */
+  protected double[] rankScores;
+  /** The array the rankers' scores are copied into, reused. */
+  protected double[] scoreBuffer;
+  /** The rankings and probabilities output. */
+  protected RankHistory rankHistory;
+  /** The number of iterations of the rank history that were checkpointed. */
+  protected int historyIterations;
+  /** The length of the checkpointed rank history file. */
+  protected long historyLength;
   /** The observations output. */
   protected Map<I, String> observOutput = new HashMap<>();
-  /** The probabilities output. */
-  protected Map<I, String> probOutput = new HashMap<>();
   /** The active review. */
   protected SystematicReview activeReview;
   /** The name of the dataset. */
@@ -62,37 +102,11 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
    * @throws BiffException
    */
   public OnlineSimulator( String review ) throws Exception {
-    Collection<SystematicReview> reviews = reviews();
     this.dataset = Util.normalize( review );
 
-    for ( SystematicReview r : reviews ) {
-      if ( Util.normalize( r.getName() ).contains( this.dataset ) ) {
-        this.activeReview = r;
-      }
-    }
-
-    if ( this.activeReview == null )
-      throw new RuntimeException( "Could not find review " + review );
-
     Runtime rt = Runtime.getRuntime();
     LOG.info( "Max Memory: " + rt.maxMemory() / MB );
 
-    LOG.info( "# seeds:\t " + activeReview.getSeeds().size() );
-    LOG.info( "# relevant L1:\t " + activeReview.getRelevantLevel1().size() );
-    LOG.info( "# relevant L2:\t " + activeReview.getRelevantLevel2().size() );
-    LOG.info( "# blacklisted:\t " + activeReview.getBlacklist().size() );
-
-    // load up the seeds
-    for ( PubmedId pmid : activeReview.getSeeds() ) {
-      MainController.EM.find( PubmedId.class, pmid.getValue() ); // load the
-                                                                 // seeds
-    }
-
-    // load up the relevant papers
-    for ( PubmedId pmid : activeReview.getRelevantLevel2() ) {
-      MainController.EM.find( PubmedId.class, pmid.getValue() );
-    }
-
     // initialize the cache
     try {
       defaultCache = JCS.getInstance( DEFAULT_CACHE_NAME );
@@ -102,6 +116,30 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
     }
   }
 
+  /**
+   * Load the review, once the settings of the simulation have been applied.
+   *
+   * @throws IOException
+   */
+  protected void initializeReview() throws IOException {
+    if ( activeReview != null ) {
+      return;
+    }
+    try {
+      this.activeReview = loadReview( this.dataset );
+    } catch ( IOException | RuntimeException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new IOException( "Could not load review " + dataset, e );
+    }
+    this.documents = new ReviewIndex<>( activeReview );
+
+    LOG.info( "# seeds:\t " + activeReview.getSeeds().size() );
+    LOG.info( "# relevant L1:\t " + activeReview.getRelevantLevel1().size() );
+    LOG.info( "# relevant L2:\t " + activeReview.getRelevantLevel2().size() );
+    LOG.info( "# blacklisted:\t " + activeReview.getBlacklist().size() );
+  }
+
   /**
    * Turn the Citations into FeatureVectors.
    *
@@ -155,18 +193,12 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
 
     int i = 0;
     int truePosTotal = 0;
-    int truePosL1 = 0;
-    int truePosL2 = 0;
-
-    for ( I pmid : expertRelevantPapers ) {
-      if ( activeReview.getRelevantLevel2().contains( pmid ) ) {
-        truePosL2++;
-      } // have to do this because some of the seed papers may be
-        // left out of the relevant set
-      if ( activeReview.getRelevantLevel1().contains( pmid ) ) {
-        truePosL1++;
-      }
-    }
+    // have to do this because some of the seed papers may be left out of
+    // the relevant set
+    int truePosL1 = ReviewIndex.countBoth( expertRelevant, documents
+        .getRelevantL1() );
+    int truePosL2 = ReviewIndex.countBoth( expertRelevant, documents
+        .getRelevantL2() );
 
     LOG.info( "\tTrue & false positives total: " + i );
     LOG.info( "\tTrue positives for L1/n: " + truePosL1 );
@@ -187,6 +219,19 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
     return infoMap;
   }
 
+  /**
+   * Record the expert's label for the paper.
+   *
+   * @param pmid
+   * @param relevant
+   */
+  protected void observe( I pmid, boolean relevant ) {
+    int id = documents.add( pmid );
+    expertRelevant.set( id, relevant );
+    expertIrrelevant.set( id, !relevant );
+    labeled.set( id );
+  }
+
   /**
    * Get the papers terms to propose.
    *
@@ -195,35 +240,93 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
    */
   protected Set<I> getPaperProposals( TreeMultimap<Double, I> rankMap,
       Set<I> expertRelevantPapers, Set<I> expertIrrelevantPapers ) {
+    double[] scores = ( rankScores != null ) ? rankScores
+        : getScores( rankMap );
+
+    LOG.info( "Getting paper proposal set..." );
+    // TODO temporarily removing stochastic element
     Set<I> results = new HashSet<>();
+    for ( int id : TopKSelector.select( scores, labeled,
+        PAPER_PROPOSALS_PER_ITERATION, ascendingScores ) ) {
+      results.add( documents.get( id ) );
+    }
 
-    List<I> citList = new ArrayList<>();
-    for ( Double sim : rankMap.keySet().descendingSet() ) {
-      for ( I pmid : rankMap.get( sim ) ) {
-        if ( !expertRelevantPapers.contains( pmid )
-            && !expertIrrelevantPapers.contains( pmid ) ) {
-          citList.add( pmid );
-        }
+    LOG.info( "Paper proposals: " + results );
+    return results;
+  }
+
+  /**
+   * Set the scores of the ranking from the scores the ranker computed, so
+   * that the proposals are selected from them rather than from the rank map.
+   *
+   * @param docs the dense id of each scored document, or -1 to skip it
+   * @param scores the score of each document
+   * @param exclude the documents not ranked (may be null)
+   */
+  protected void setRankScores( int[] docs, double[] scores, BitSet exclude ) {
+    if ( scoreBuffer == null || scoreBuffer.length != documents.size() ) {
+      scoreBuffer = new double[documents.size()];
+    }
+    Arrays.fill( scoreBuffer, Double.NaN );
+    for ( int i = 0; i < docs.length; i++ ) {
+      if ( docs[i] >= 0 && ( exclude == null || !exclude.get( i ) ) ) {
+        scoreBuffer[docs[i]] = scores[i];
       }
     }
+    rankScores = scoreBuffer;
+  }
 
-    LOG.info( "Getting paper proposal set..." );
-    // Set<Integer> rands = MathUtil.uniqueHarmonicRandom(
-    // citList.size(), PAPER_PROPOSALS_PER_ITERATION );
-    // //Set<Integer> rands = MathUtil.uniqueQuadraticRandom(
-    // // n, PAPER_PROPOSALS_PER_ITERATION );
-    // LOG.info( "\tGetting citations at ranks " + rands );
-    // for ( int r : rands ) {
-    // results.add( citList.get( r ) );
-    // }
+  /**
+   * Get the dense ids of the documents.
+   *
+   * @param ids
+   * @return the dense ids, or -1 for documents that are not in the index
+   */
+  protected int[] getDocumentIds( List<I> ids ) {
+    int[] docs = new int[ids.size()];
+    for ( int i = 0; i < docs.length; i++ ) {
+      docs[i] = documents.indexOf( ids.get( i ) );
+    }
 
-    // TODO temporarily removing stochastic element
-    int lastIdx = ( citList.size() < PAPER_PROPOSALS_PER_ITERATION ) ? citList
-        .size() : PAPER_PROPOSALS_PER_ITERATION;
-    results.addAll( citList.subList( 0, lastIdx ) );
+    return docs;
+  }
 
-    LOG.info( "Paper proposals: " + results );
-    return results;
+  /**
+   * Rank the papers, dropping the scores of the last ranking.
+   *
+   * @param citations
+   * @param expertRelevantPapers
+   * @param expertIrrelevantPapers
+   * @return
+   */
+  protected TreeMultimap<Double, I> updateRanking( Map<I, C> citations,
+      Map<I, C> expertRelevantPapers, Map<I, C> expertIrrelevantPapers ) {
+    rankScores = null;
+
+    return rank( citations, expertRelevantPapers, expertIrrelevantPapers );
+  }
+
+  /**
+   * Get the score of every ranked document, indexed by its dense id; NaN for
+   * documents that were not ranked.
+   *
+   * @param rankMap
+   * @return
+   */
+  protected double[] getScores( TreeMultimap<Double, I> rankMap ) {
+    double[] scores = new double[Math.max( documents.size(), rankMap.size() )];
+    Arrays.fill( scores, Double.NaN );
+    for ( Map.Entry<Double, I> e : rankMap.entries() ) {
+      int id = documents.add( e.getValue() );
+      if ( id >= scores.length ) {
+        int oldLength = scores.length;
+        scores = Arrays.copyOf( scores, Math.max( id + 1, oldLength * 2 ) );
+        Arrays.fill( scores, oldLength, scores.length, Double.NaN );
+      }
+      scores[id] = e.getKey();
+    }
+
+    return scores;
   }
 
   /**
@@ -251,10 +354,8 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
 
       LabeledFeatureVector<Integer> lfv;
       try {
-        PubmedId pmid = edu.tufts.cs.ebm.util.Util.createOrUpdatePmid( Long
-            .valueOf( fv.getId() ) );
-        if ( activeReview.getRelevantLevel1().contains( pmid )
-            || activeReview.getRelevantLevel2().contains( pmid ) ) {
+        PubmedId pmid = new PubmedId( Long.valueOf( fv.getId() ) );
+        if ( documents.isRelevant( pmid ) ) {
           lfv = new LabeledFeatureVector<Integer>( NEG, fv.getId() );
         } else {
           lfv = new LabeledFeatureVector<Integer>( POS, fv.getId() );
@@ -282,8 +383,7 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
     LOG.info( "Proposing papers..." );
     Set<I> newRelevant = new HashSet<>();
     for ( I pmid : proposals ) {
-      if ( activeReview.getRelevantLevel1().contains( pmid )
-          || activeReview.getRelevantLevel2().contains( pmid ) ) {
+      if ( documents.isRelevant( pmid ) ) {
         LOG.debug( "\t" + pmid + " is relevant" );
         newRelevant.add( pmid );
       } else {
@@ -305,45 +405,254 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
       Map<I, C> expertRelevantPapers, Map<I, C> expertIrrelevantPapers );
 
   /**
-   * Record the current ranking.
+   * Set the number of iterations between checkpoints (0 for never).
+   *
+   * @param interval
+   */
+  public void setCheckpointInterval( int interval ) {
+    this.checkpointInterval = interval;
+  }
+
+  /**
+   * Resume from the last checkpoint in the output directory, if there is one.
+   *
+   * @param resume
+   */
+  public void setResume( boolean resume ) {
+    this.resume = resume;
+  }
+
+  /**
+   * Set the rules for stopping before every paper has been screened; the
+   * simulation stops at the first rule that is met.
+   *
+   * @param rules
+   */
+  public void setStoppingRules( List<StoppingRule> rules ) {
+    this.stoppingRules = rules;
+    LOG.info( "stopping rules: " + rules.size() );
+  }
+
+  /**
+   * Get the checkpoint file.
+   *
+   * @return
+   */
+  protected File getCheckpointFile() {
+    return new File( outputDir, SimulationCheckpoint.FILE_NAME );
+  }
+
+  /**
+   * Serialize the model for a checkpoint. By default the model is re-trained
+   * on resume.
    *
+   * @return the model, or null to leave it out
+   * @throws IOException
+   */
+  protected byte[] saveModel() throws IOException {
+    return null;
+  }
+
+  /**
+   * Restore the model from a checkpoint.
+   *
+   * @param model
+   * @throws IOException
+   */
+  protected void restoreModel( byte[] model ) throws IOException {
+    // nothing to restore by default
+  }
+
+  /**
+   * Write a checkpoint of the simulation after the given loop iteration.
+   *
+   * @param i
+   * @param papersProposed
+   * @param batchesWithoutHit
+   * @param elapsed the milliseconds the simulation loop has run
    * @param rankMap
    */
-  protected void recordRank( TreeMultimap<Double, I> rankMap,
-      Set<I> expertRelevantPapers, Set<I> expertIrrelevantPapers ) {
+  protected void writeCheckpoint( int i, int papersProposed,
+      int batchesWithoutHit, long elapsed, TreeMultimap<Double, I> rankMap ) {
+    SimulationCheckpoint cp = new SimulationCheckpoint();
+    cp.dataset = dataset;
+    cp.numDocs = documents.size();
+    cp.loopIteration = i;
+    cp.iteration = iteration;
+    cp.papersProposed = papersProposed;
+    cp.batchesWithoutHit = batchesWithoutHit;
+    cp.elapsed = elapsed;
+    cp.statsLength = new File( statsFile ).length();
+    cp.relevant = expertRelevant;
+    cp.irrelevant = expertIrrelevant;
+    cp.observed = new int[documents.size()];
+    for ( int doc = 0; doc < cp.observed.length; doc++ ) {
+      String observ = observOutput.get( documents.get( doc ) );
+      cp.observed[doc] = ( observ == null ) ? SimulationCheckpoint.NOT_OBSERVED
+          : Integer.parseInt( observ );
+    }
+    cp.scores = ( rankScores != null ) ? rankScores : getScores( rankMap );
+    cp.random = random;
+    cp.rankHistory = rankHistory;
+    cp.historyIterations = historyIterations;
+    cp.historyLength = historyLength;
+
+    File f = getCheckpointFile();
+    try {
+      cp.model = saveModel();
+      cp.write( f );
+      historyIterations = cp.historyIterations;
+      historyLength = cp.historyLength;
+      LOG.info( "Wrote checkpoint after iteration " + i + " to " + f );
+    } catch ( IOException e ) {
+      LOG.error( "Could not write checkpoint " + f, e );
+    }
+  }
+
+  /**
+   * Read the last checkpoint, if resuming and there is one.
+   *
+   * @return the checkpoint, or null to start from the beginning
+   * @throws IOException
+   */
+  protected SimulationCheckpoint readCheckpoint() throws IOException {
+    File f = getCheckpointFile();
+    if ( !resume || !f.exists() ) {
+      return null;
+    }
+    SimulationCheckpoint cp = SimulationCheckpoint.read( f, offHeapHistory );
+    if ( !dataset.equals( cp.dataset ) ) {
+      throw new IOException( "Checkpoint " + f + " is for " + cp.dataset
+          + ", not " + dataset );
+    }
+
+    return cp;
+  }
+
+  /**
+   * Restore the simulation state from the checkpoint.
+   *
+   * @param cp
+   * @param citations
+   * @param expertRelevantPapers
+   * @param expertIrrelevantPapers
+   * @return the last ranking
+   * @throws IOException
+   */
+  @SuppressWarnings( { "unchecked", "rawtypes" } )
+  protected TreeMultimap<Double, I> restoreCheckpoint(
+      SimulationCheckpoint cp, Map<I, C> citations,
+      Map<I, C> expertRelevantPapers, Map<I, C> expertIrrelevantPapers )
+    throws IOException {
+    if ( cp.numDocs != documents.size() ) {
+      throw new IOException( "Checkpoint has " + cp.numDocs
+          + " documents, but the corpus has " + documents.size() );
+    }
+
+    expertRelevantPapers.clear();
+    expertIrrelevantPapers.clear();
+    expertRelevant = cp.relevant;
+    expertIrrelevant = cp.irrelevant;
+    labeled = (BitSet) expertRelevant.clone();
+    labeled.or( expertIrrelevant );
+    for ( int doc = expertRelevant.nextSetBit( 0 ); doc >= 0; doc = expertRelevant
+        .nextSetBit( doc + 1 ) ) {
+      I pmid = documents.get( doc );
+      expertRelevantPapers.put( pmid, citations.get( pmid ) );
+    }
+    for ( int doc = expertIrrelevant.nextSetBit( 0 ); doc >= 0; doc = expertIrrelevant
+        .nextSetBit( doc + 1 ) ) {
+      I pmid = documents.get( doc );
+      expertIrrelevantPapers.put( pmid, citations.get( pmid ) );
+    }
+
+    observOutput.clear();
+    for ( int doc = 0; doc < cp.observed.length; doc++ ) {
+      if ( cp.observed[doc] != SimulationCheckpoint.NOT_OBSERVED ) {
+        observOutput.put( documents.get( doc ), String
+            .valueOf( cp.observed[doc] ) );
+      }
+    }
+
+    // the documents are comparable, as they are in every ranking
+    rankScores = cp.scores;
+    TreeMultimap<Double, I> rankMap = (TreeMultimap) TreeMultimap.create();
+    for ( int doc = 0; doc < cp.scores.length; doc++ ) {
+      if ( !Double.isNaN( cp.scores[doc] ) ) {
+        rankMap.put( cp.scores[doc], documents.get( doc ) );
+      }
+    }
+
+    iteration = cp.iteration;
+    random = cp.random;
+    rankHistory = cp.rankHistory;
+    historyIterations = cp.historyIterations;
+    historyLength = cp.historyLength;
+    if ( cp.model != null ) {
+      restoreModel( cp.model );
+    }
+
+    // drop any stats written after the checkpoint
+    RandomAccessFile raf = new RandomAccessFile( statsFile, "rw" );
+    try {
+      raf.setLength( Math.min( raf.length(), cp.statsLength ) );
+    } finally {
+      raf.close();
+    }
 
+    LOG.info( "Resumed after iteration " + cp.loopIteration + " with "
+        + expertRelevantPapers.size() + " relevant and "
+        + expertIrrelevantPapers.size() + " irrelevant papers." );
+
+    return rankMap;
+  }
+
+  /**
+   * Keep the rank history off the heap.
+   *
+   * @param offHeap
+   */
+  public void setOffHeapHistory( boolean offHeap ) {
+    this.offHeapHistory = offHeap;
+  }
+
+  /**
+   * Record the ranks and probabilities of the current ranking in the rank
+   * history.
+   *
+   * @param rankMap
+   */
+  protected void recordRankHistory( TreeMultimap<Double, I> rankMap ) {
     // get probability information
     if ( z == -1 ) {
       z = calcZ( rankMap.values().size() );
     }
+    if ( rankHistory == null ) {
+      rankHistory = new RankHistory( rankMap.values().size(),
+          RankHistory.DEFAULT_CHUNK_SIZE, offHeapHistory );
+    }
 
     int rank = 1;
     for ( Double sim : rankMap.keySet().descendingSet() ) {
       for ( I pmid : rankMap.get( sim ) ) {
-        String rankStr = rankOutput.get( pmid );
-        if ( rankStr == null ) {
-          rankStr = "";
-        } else {
-          rankStr += ",";
-        }
-        rankStr += String.valueOf( rank );
-        rankOutput.put( pmid, rankStr );
-
         double prob = (double) 1 / (double) rank / z;
         prob = MathUtil.round( prob, 7 );
-
-        String probStr = probOutput.get( pmid );
-        if ( probStr == null ) {
-          probStr = "";
-        } else {
-          probStr += ",";
-        }
-        probStr += String.valueOf( prob );
-        probOutput.put( pmid, probStr );
+        rankHistory.record( (int) iteration, documents.add( pmid ), rank,
+            (float) prob );
 
         rank++;
       }
     }
+  }
+
+  /**
+   * Record the current ranking.
+   *
+   * @param rankMap
+   */
+  protected void recordRank( TreeMultimap<Double, I> rankMap,
+      Set<I> expertRelevantPapers, Set<I> expertIrrelevantPapers ) {
+    recordRankHistory( rankMap );
 
     Set<I> allObserved = new HashSet<>();
     allObserved.addAll( expertRelevantPapers );
@@ -408,14 +717,8 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
   @Override
   @SuppressWarnings( "unchecked" )
   public void simulateReview() throws InterruptedException, IOException {
-    // prepare the CSV output
-    FileWriter fw = new FileWriter( statsFile );
-    BufferedWriter out = new BufferedWriter( fw );
-    // header row
-    out.write( "i,papers proposed,papers added,L1 cost," +
-      "L1 recall,L2cost,L2recall" );
-    out.newLine();
-    out.flush();
+    initializeReview();
+    SimulationCheckpoint checkpoint = readCheckpoint();
 
     StringBuffer popQuery = new StringBuffer( activeReview.getQueryP() );
     StringBuffer icQuery = new StringBuffer( activeReview.getQueryIC() );
@@ -428,38 +731,70 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
 
     // run the initial query
     String query = "(" + popQuery + ") AND (" + icQuery + ")";
-    ParallelPubmedSearcher searcher = new ParallelPubmedSearcher( query,
-        activeReview );
-    LOG.info( "Initial query: " + query );
-    search( searcher );
-
-    initializeClassifier( searcher.getCitations() );
-    Map<I, C> citations = createFeatureVectors( searcher.getCitations() );
-
-    // populate the relevant papers with the seed citations
-    for ( Citation c : activeReview.getSeedCitations() ) {
-      if ( citations.get( c.getPmid() ) != null ) {
-        expertRelevantPapers
-            .put( (I) c.getPmid(), citations.get( c.getPmid() ) );
-      }
+    Set<Citation> corpus = search( activeReview, query );
+
+    initializeClassifier( corpus );
+    Map<I, C> citations = createFeatureVectors( corpus );
+
+    // number the documents in their natural order, so that ties are proposed
+    // in the order the rank map holds them
+    for ( I pmid : new TreeSet<>( citations.keySet() ) ) {
+      documents.add( pmid );
     }
 
-    LOG.info( "Starting with " + expertRelevantPapers.size()
-        + " relevant papers." );
+    long start = System.currentTimeMillis();
+    int i = 0;
+    int papersProposed = 0;
+    int batchesWithoutHit = 0;
+    TreeMultimap<Double, I> rankMap;
+    BufferedWriter out;
+    if ( checkpoint != null ) {
+      rankMap = restoreCheckpoint( checkpoint, citations,
+          expertRelevantPapers, expertIrrelevantPapers );
+      i = checkpoint.loopIteration;
+      papersProposed = checkpoint.papersProposed;
+      batchesWithoutHit = checkpoint.batchesWithoutHit;
+      // the time limit counts the time run before the checkpoint
+      start -= checkpoint.elapsed;
+      // append to the CSV output
+      out = new BufferedWriter( new FileWriter( statsFile, true ) );
+    } else {
+      // prepare the CSV output; the history of any earlier run is dropped
+      // by the first checkpoint
+      out = new BufferedWriter( new FileWriter( statsFile ) );
+      historyIterations = 0;
+      historyLength = 0;
+      // header row
+      out.write( "i,papers proposed,papers added,L1 cost," +
+        "L1 recall,L2cost,L2recall,stop reason" );
+      out.newLine();
+      out.flush();
 
-    // gather initial statistics on the results
-    TreeMultimap<Double, I> rankMap = rank( citations, expertRelevantPapers,
-        expertIrrelevantPapers );
-    // record the ranks
-    recordRank( rankMap, expertRelevantPapers.keySet(),
-        expertIrrelevantPapers.keySet() );
+      // populate the relevant papers with the seed citations
+      for ( Citation c : activeReview.getSeedCitations() ) {
+        if ( citations.get( c.getPmid() ) != null ) {
+          expertRelevantPapers.put( (I) c.getPmid(), citations.get( c
+              .getPmid() ) );
+          observe( (I) c.getPmid(), true );
+        }
+      }
+
+      LOG.info( "Starting with " + expertRelevantPapers.size()
+          + " relevant papers." );
+
+      // gather initial statistics on the results
+      rankMap = updateRanking( citations, expertRelevantPapers,
+          expertIrrelevantPapers );
+      // record the ranks
+      recordRank( rankMap, expertRelevantPapers.keySet(),
+          expertIrrelevantPapers.keySet() );
+    }
     evaluateQuery( rankMap, expertRelevantPapers.keySet(),
         expertIrrelevantPapers.keySet() );
 
-    int i = 0;
-    int papersProposed = 0;
     boolean papersRemaining = true;
     Map<String, InfoMeasure> im = null;
+    String stopReason = null;
     while ( papersRemaining ) {
       LOG.info( "\n\nIteration " + ++i + ":\n" );
 
@@ -470,6 +805,7 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
       if ( paperProposals.isEmpty() ) {
         LOG.info( "No new papers to propose." );
         papersRemaining = false;
+        stopReason = STOP_EXHAUSTED;
       } else {
         papersRemaining = true;
         papersProposed += PAPER_PROPOSALS_PER_ITERATION;
@@ -483,16 +819,19 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
           } else {
             expertIrrelevantPapers.put( pmid, citations.get( pmid ) );
           }
+          observe( pmid, accepted.contains( pmid ) );
         }
 
+        batchesWithoutHit = accepted.isEmpty() ? batchesWithoutHit + 1 : 0;
+
         LOG.debug( "\t# relevant: " + expertRelevantPapers.size() );
         LOG.debug( "\t# irrelevant: " + expertIrrelevantPapers.size() );
       }
 
       // if new papers are proposed, update the ranking
       if ( expertRelevantPapers.size() > numRelevant || i <= 1 ) {
-        rankMap = rank(
-            citations, expertRelevantPapers, expertIrrelevantPapers );
+        rankMap = updateRanking( citations, expertRelevantPapers,
+            expertIrrelevantPapers );
         // record the ranks
         recordRank( rankMap, expertRelevantPapers.keySet(),
             expertIrrelevantPapers.keySet() );
@@ -502,6 +841,16 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
             expertIrrelevantPapers.keySet() );
       }
 
+      if ( papersRemaining ) {
+        stopReason = StoppingRule.getStopReason( stoppingRules,
+            papersProposed, batchesWithoutHit, im, System.currentTimeMillis()
+                - start );
+        if ( stopReason != null ) {
+          LOG.info( "Stopping: " + stopReason );
+          papersRemaining = false;
+        }
+      }
+
       if ( im != null ) {
         // write out the current stats
         double costL1 = papersProposed
@@ -512,15 +861,24 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
             - im.get( "L2" ).getTruePositives();
         out.write( i + "," + papersProposed + "," + expertRelevantPapers.size()
             + "," + costL1 + "," + im.get( "L1" ).getRecall() + "," + costL2
-            + "," + im.get( "L2" ).getRecall() );
+            + "," + im.get( "L2" ).getRecall() + ","
+            + ( ( stopReason == null ) ? "" : stopReason ) );
       }
 
       out.newLine();
       out.flush();
+
+      if ( papersRemaining && checkpointInterval > 0
+          && i % checkpointInterval == 0 ) {
+        writeCheckpoint( i, papersProposed, batchesWithoutHit, System
+            .currentTimeMillis() - start, rankMap );
+      }
     }
 
     out.close();
-    fw.close();
+    // the simulation is complete, so there is nothing left to resume
+    getCheckpointFile().delete();
+    SimulationCheckpoint.getHistoryFile( getCheckpointFile() ).delete();
   }
 
   /**
@@ -544,20 +902,20 @@ public abstract class OnlineSimulator<I, C> extends Simulator {
     outRanks.append( header.toString() + "\n" );
     outProbs.append( header.toString() + "\n" );
 
-    for ( I pmid : rankOutput.keySet() ) {
+    int numDocs = ( rankHistory == null ) ? 0 : documents.size();
+    for ( int doc = 0; doc < numDocs; doc++ ) {
+      I pmid = documents.get( doc );
       String observ = observOutput.get( pmid );
-      String rankStr = rankOutput.get( pmid );
       String observStr = ( observ == null ) ? "" : observ;
-      String l1 = activeReview.getRelevantLevel1().contains( pmid ) ? "true"
-          : "false";
-      String l2 = activeReview.getRelevantLevel2().contains( pmid ) ? "true"
-          : "false";
-      outRanks.append( pmid + "," + l1 + "," + l2 + ",\"" + observStr + "\","
-          + rankStr + "\n" );
-
-      String prob = probOutput.get( pmid );
-      String probStr = ( prob == null ) ? "" : prob;
-      outProbs.append( pmid + ",,,," + probStr + "\n" );
+      String l1 = documents.isRelevantL1( pmid ) ? "true" : "false";
+      String l2 = documents.isRelevantL2( pmid ) ? "true" : "false";
+      outRanks.write( pmid + "," + l1 + "," + l2 + ",\"" + observStr + "\"," );
+      rankHistory.writeRanks( doc, outRanks );
+      outRanks.write( "\n" );
+
+      outProbs.write( pmid + ",,,," );
+      rankHistory.writeProbs( doc, outProbs );
+      outProbs.write( "\n" );
     }
 
     outRanks.close();
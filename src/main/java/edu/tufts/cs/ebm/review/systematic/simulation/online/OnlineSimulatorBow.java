@@ -1,19 +1,28 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
-import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.collect.TreeMultimap;
+
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.simulation.BowFeatures;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.CsrRelation;
+import edu.tufts.cs.features.SparseVector;
 import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.Metadata;
 import edu.tufts.cs.ml.text.BagOfWords;
+import edu.tufts.cs.rank.BatchScorer;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
@@ -23,8 +32,12 @@ public abstract class OnlineSimulatorBow extends
     OnlineSimulator<PubmedId, FeatureVector<Integer>> {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory.getLog( OnlineSimulatorBow.class );
-  /** The Bag of Words. */
+  /** The Bag of Words (null if the features may come from the cache). */
   protected BagOfWords<Integer> bow;
+  /** The feature vectors and the Bag of Words they were built from. */
+  protected BowFeatures features;
+  /** The dense id of each row of the relation, or null if not yet known. */
+  protected int[] rowDocuments;
 
   /**
    * Default constructor.
@@ -36,6 +49,39 @@ public abstract class OnlineSimulatorBow extends
     super( review );
   }
 
+  /**
+   * Whether simulations of the same review in this JVM may share the Bag of
+   * Words and the feature vectors built by this class. This is only safe if
+   * the ranking never trains the Bag of Words after the vectors are built.
+   *
+   * @return
+   */
+  protected boolean isFeatureSharingSafe() {
+    return false;
+  }
+
+  /**
+   * Whether the feature vectors may be held in compressed sparse row form and
+   * read from and saved to the feature cache. This is only safe if the
+   * ranking never trains the Bag of Words, since the vectors are then built
+   * from the rows on demand and the Bag of Words is not always built.
+   *
+   * @return
+   */
+  protected boolean isFeatureCacheSafe() {
+    return isFeatureSharingSafe();
+  }
+
+  /**
+   * Get the settings that change the features built by loadFeatures(...),
+   * so that simulations with different settings do not share them.
+   *
+   * @return
+   */
+  protected String getFeatureKey() {
+    return parallelVectorization ? "parallel" : "";
+  }
+
   /**
    * Turn the Citations into FeatureVectors.
    * 
@@ -44,35 +90,180 @@ public abstract class OnlineSimulatorBow extends
    */
   @Override
   protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
+      final Collection<Citation> citations ) {
+    rowDocuments = null;
+    if ( !isFeatureSharingSafe() ) {
+      return vectorize( citations );
+    }
+
+    String key = "bow:" + getClass().getName() + ":" + getFeatureKey() + ":"
+        + dataset + ":" + citations.size() + ":"
+        + System.identityHashCode( citations );
+    try {
+      this.features = shared( key, new Callable<BowFeatures>() {
+        @Override
+        public BowFeatures call() throws IOException {
+          return loadFeatures( citations );
+        }
+      } );
+      if ( !isFeatureCacheSafe() ) {
+        this.bow = features.getBagOfWords();
+      }
+
+      return features.getFeatureVectors();
+    } catch ( IOException e ) {
+      LOG.error( "Could not share feature vectors; building them locally.", e );
+      return vectorize( citations );
+    }
+  }
+
+  /**
+   * Build the FeatureVectors for the Citations, or read them from the
+   * feature cache.
+   *
+   * @param citations
+   * @return
+   */
+  protected Map<PubmedId, FeatureVector<Integer>> vectorize(
       Collection<Citation> citations ) {
-    // initialize the bag of words
-    final int minOccurs = 5;
-    final int minLength = 3;
-    bow = new BagOfWords<Integer>( new File(
-        "src/main/resources/stoplists/en.txt" ), true, false, minOccurs,
-        minLength );
-
-    // create the features
-    List<String> texts = new ArrayList<String>();
-    for ( Citation c : citations ) {
-      texts.add( c.getTitle() + " " + c.getAbstr() );
+    try {
+      features = loadFeatures( citations );
+    } catch ( IOException e ) {
+      throw new IllegalStateException( "Could not build feature vectors.", e );
+    }
+    if ( !isFeatureCacheSafe() ) {
+      // the ranking trains the Bag of Words
+      bow = features.getBagOfWords();
     }
-    bow.createFeatures( texts );
 
-    for ( Citation c : activeReview.getSeedCitations() ) {
-      // seed citations are in the positive class
-      bow.train( c.getPmid().toString(), c.getTitle() + " " + c.getAbstr(), 1 );
+    return features.getFeatureVectors();
+  }
+
+  /**
+   * Build the features of the Citations.
+   *
+   * @param citations
+   * @return
+   * @throws IOException
+   */
+  protected BowFeatures loadFeatures( Collection<Citation> citations )
+    throws IOException {
+    return BowFeatures.load( citations, activeReview.getSeedCitations(),
+        isFeatureCacheSafe(), featureCacheDir, parallelVectorization );
+  }
+
+  /**
+   * Create a FeatureVector for a text that is not in the corpus (e.g. a
+   * pseudo-document), the same way the corpus vectors were built.
+   *
+   * @param id
+   * @param text
+   * @return
+   */
+  protected FeatureVector<Integer> createUnlabeledFV( String id, String text ) {
+    return features.createUnlabeledFV( id, text );
+  }
+
+  /**
+   * Get the metadata of the feature vectors.
+   *
+   * @return
+   */
+  protected Metadata getMetadata() {
+    return features.getMetadata();
+  }
+
+  /**
+   * Add the labeled papers as training examples: the row of each paper in
+   * the shared relation, or the paper looked up in its dictionary if it is
+   * not a row (e.g. a seed that the query did not return).
+   *
+   * @param papers
+   * @param label
+   * @param x
+   * @param y
+   * @param ids
+   * @param offset
+   * @return the offset after the papers
+   */
+  protected int addRows( Map<PubmedId, FeatureVector<Integer>> papers,
+      double label, SparseVector[] x, double[] y, String[] ids, int offset ) {
+    CsrRelation<PubmedId> relation = features.getRelation();
+    int i = offset;
+    for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : papers.entrySet() ) {
+      int row = relation.indexOf( e.getKey() );
+      x[i] = ( row >= 0 ) ? relation.getMatrix().row( row ) : relation
+          .getDictionary().lookup( e.getValue() );
+      y[i] = label;
+      ids[i++] = e.getKey().toString();
+    }
+
+    return i;
+  }
+
+  /**
+   * Rank the citations by the scores of the rows of the shared relation.
+   * The rank map is the only sort of the scores, and the proposals are
+   * selected from the scores themselves. The citations are usually the
+   * rows; any others are scored by the model.
+   *
+   * @param citations
+   * @param scores the scores of the rows
+   * @param model
+   * @return
+   */
+  protected TreeMultimap<Double, PubmedId> rankRows(
+      Map<PubmedId, FeatureVector<Integer>> citations, double[] scores,
+      BatchScorer model ) {
+    CsrRelation<PubmedId> relation = features.getRelation();
+    boolean isRelation = ( citations == features.getFeatureVectors() );
+    List<PubmedId> ids = relation.getIds();
+    BitSet exclude = null;
+    if ( !isRelation ) {
+      exclude = new BitSet( ids.size() );
+      for ( int row = 0; row < ids.size(); row++ ) {
+        if ( !citations.containsKey( ids.get( row ) ) ) {
+          exclude.set( row );
+        }
+      }
+    }
+    TreeMultimap<Double, PubmedId> rankMap = TreeMultimap.create();
+    for ( int row = 0; row < ids.size(); row++ ) {
+      if ( exclude == null || !exclude.get( row ) ) {
+        rankMap.put( scores[row], ids.get( row ) );
+      }
+    }
+    if ( rowDocuments == null ) {
+      rowDocuments = getDocumentIds( ids );
+    }
+    setRankScores( rowDocuments, scores, exclude );
+    if ( isRelation ) {
+      return rankMap;
     }
 
-    // create the feature vectors
-    Map<PubmedId, FeatureVector<Integer>> fvs = new HashMap<>();
-    for ( Citation c : citations ) {
-      fvs.put(
-          c.getPmid(),
-          bow.createUnlabeledFV( c.getPmid().toString(),
-              c.getTitle() + " " + c.getAbstr() ) );
+    List<PubmedId> others = new ArrayList<>();
+    List<SparseVector> rows = new ArrayList<>();
+    for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : citations
+        .entrySet() ) {
+      if ( relation.indexOf( e.getKey() ) < 0 ) {
+        others.add( e.getKey() );
+        rows.add( relation.getDictionary().lookup( e.getValue() ) );
+      }
+    }
+    if ( !others.isEmpty() ) {
+      double[] otherScores = new double[others.size()];
+      model.score( CsrMatrix.create( rows.toArray(
+          new SparseVector[rows.size()] ) ), 0, otherScores.length,
+          otherScores );
+      for ( int i = 0; i < otherScores.length; i++ ) {
+        rankMap.put( otherScores[i], others.get( i ) );
+        int doc = documents.indexOf( others.get( i ) );
+        if ( doc >= 0 ) {
+          rankScores[doc] = otherScores[i];
+        }
+      }
     }
 
-    return fvs;
+    return rankMap;
   }
 }
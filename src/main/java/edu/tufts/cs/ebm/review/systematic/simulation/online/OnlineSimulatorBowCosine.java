@@ -1,6 +1,9 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -10,20 +13,50 @@ import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.CsrRelation;
+import edu.tufts.cs.features.SparseVector;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.text.CosineSimilarity;
-import edu.tufts.cs.similarity.CachedCosineSimilarity;
+import edu.tufts.cs.rank.ParallelScorer;
+import edu.tufts.cs.similarity.CentroidCosine;
+import edu.tufts.cs.similarity.LshIndex;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
- * representation and a cosine similarity classifier.
+ * representation and a cosine similarity classifier: the papers are ranked by
+ * their mean cosine similarity to the relevant papers.
+ *
+ * The similarity is computed against the running centroid of the normalized
+ * relevant papers, which is updated as papers are labeled relevant, so each
+ * ranking costs one sparse dot product per paper, computed in one parallel
+ * batch. The Bag of Words is never trained, so the feature vectors may be
+ * shared and cached.
+ *
+ * For large corpora, an LSH index can be used instead: only the papers that
+ * share a bucket with a relevant paper are scored, and the others rank last.
+ * The recall of the index against exact search is logged at the first
+ * ranking.
  */
 public class OnlineSimulatorBowCosine extends OnlineSimulatorBow {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OnlineSimulatorBowCosine.class );
-  /** The Cosine Similarity. */
-  protected CosineSimilarity<Integer> cs;
+  /** The number of papers in the logged recall of the LSH index. */
+  protected static final int LSH_REPORT_K = 100;
+  /** The centroid of the relevant papers. */
+  protected CentroidCosine centroid = new CentroidCosine();
+  /** The norms of the rows of the feature vectors, once computed. */
+  protected double[] norms;
+  /** The number of LSH tables (0 to score every paper). */
+  protected int lshTables = 0;
+  /** The number of bits per LSH key. */
+  protected int lshBits = LshIndex.DEFAULT_BITS;
+  /** The LSH index, once built. */
+  protected LshIndex index;
+  /** The scorer of the feature vectors. */
+  protected ParallelScorer scorer = new ParallelScorer();
+  /** The scores of the rows of the feature vectors, reused between rankings. */
+  protected double[] scores;
 
   /**
    * Default constructor.
@@ -36,22 +69,38 @@ public class OnlineSimulatorBowCosine extends OnlineSimulatorBow {
   }
 
   /**
-   * Initialize the classifier.
+   * Score only the papers found by an LSH index with the given number of
+   * tables and bits per key, or every paper if there are no tables.
+   *
+   * @param tables
+   * @param bits
+   */
+  public void setLsh( int tables, int bits ) {
+    this.lshTables = tables;
+    this.lshBits = bits;
+    this.index = null;
+    LOG.info( "LSH tables: " + tables + ", bits: " + bits );
+  }
+
+  /**
+   * The ranking only reads the feature vectors.
+   *
+   * @return
    */
   @Override
-  protected void initializeClassifier( Collection<Citation> citations ) {
-    // initialize the cosine similarity
+  protected boolean isFeatureSharingSafe() {
+    return true;
   }
 
+  /**
+   * Initialize the classifier.
+   */
   @Override
-  protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
-      Collection<Citation> citations ) {
-    Map<PubmedId, FeatureVector<Integer>> fvs = super
-        .createFeatureVectors( citations );
-    cs = new CachedCosineSimilarity<Integer>( defaultCache,
-        bow.getTrainingData() );
-
-    return fvs;
+  protected void initializeClassifier( Collection<Citation> citations ) {
+    centroid.clear();
+    norms = null;
+    index = null;
+    scores = null;
   }
 
   /**
@@ -65,26 +114,103 @@ public class OnlineSimulatorBowCosine extends OnlineSimulatorBow {
       Map<PubmedId, FeatureVector<Integer>> citations,
       Map<PubmedId, FeatureVector<Integer>> expertRelevantPapers,
       Map<PubmedId, FeatureVector<Integer>> expertIrrelevantPapers ) {
-    TreeMultimap<Double, PubmedId> rankMap = TreeMultimap.create();
+    CsrRelation<PubmedId> relation = features.getRelation();
+    CsrMatrix m = relation.getMatrix();
+    if ( norms == null ) {
+      norms = CentroidCosine.norms( m );
+    }
 
-    // train the bag of words
-    for ( FeatureVector<Integer> fv : expertRelevantPapers.values() ) {
-      bow.train( fv, POS );
+    // the relevant papers only grow, unless the simulation was reset
+    if ( !containsOnly( expertRelevantPapers ) ) {
+      centroid.clear();
     }
-    for ( FeatureVector<Integer> fv : expertIrrelevantPapers.values() ) {
-      bow.train( fv, NEG );
+    int added = 0;
+    for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : expertRelevantPapers
+        .entrySet() ) {
+      String id = e.getKey().toString();
+      if ( centroid.contains( id ) ) {
+        continue;
+      }
+      int row = relation.indexOf( e.getKey() );
+      if ( row >= 0 ) {
+        centroid.add( id, m, row, norms[row] );
+      } else {
+        // e.g. a seed that the query did not return
+        centroid.add( id, relation.getDictionary().lookup( e.getValue() ) );
+      }
+      added++;
     }
+    LOG.debug( "Added " + added + " relevant papers to the centroid." );
 
-    // "train" the cosine similarity with the relevant data
-    cs.setCompareTo( bow.getTrainingData( POS ) );
+    if ( lshTables > 0 && !expertRelevantPapers.isEmpty() ) {
+      BitSet candidates = findCandidates( relation, expertRelevantPapers );
+      if ( scores == null || scores.length != m.numRows() ) {
+        scores = new double[m.numRows()];
+      }
+      for ( int row = 0; row < scores.length; row++ ) {
+        // the rows not near any relevant paper score 0
+        scores[row] = candidates.get( row ) ? centroid.score( m, row,
+            norms[row] ) : 0;
+      }
+    } else {
+      scores = scorer.score( centroid, m, scores );
+    }
+
+    // test the remaining citations by row; they are usually the rows
+    return rankRows( citations, scores, centroid );
+  }
+
+  /**
+   * Whether every paper of the centroid is one of the relevant papers.
+   *
+   * @param expertRelevantPapers
+   * @return
+   */
+  protected boolean containsOnly(
+      Map<PubmedId, FeatureVector<Integer>> expertRelevantPapers ) {
+    int found = 0;
+    for ( PubmedId pmid : expertRelevantPapers.keySet() ) {
+      if ( centroid.contains( pmid.toString() ) ) {
+        found++;
+      }
+    }
+
+    return found == centroid.size();
+  }
+
+  /**
+   * Find the rows that share an LSH bucket with a relevant paper, building
+   * the index the first time.
+   *
+   * @param relation
+   * @param expertRelevantPapers
+   * @return
+   */
+  protected BitSet findCandidates( CsrRelation<PubmedId> relation,
+      Map<PubmedId, FeatureVector<Integer>> expertRelevantPapers ) {
+    List<SparseVector> queries = new ArrayList<>();
+    for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : expertRelevantPapers
+        .entrySet() ) {
+      int row = relation.indexOf( e.getKey() );
+      queries.add( ( row >= 0 ) ? relation.getMatrix().row( row ) : relation
+          .getDictionary().lookup( e.getValue() ) );
+    }
+
+    if ( index == null ) {
+      LOG.info( "Building the LSH index..." );
+      index = new LshIndex( relation.getMatrix(), lshTables, lshBits,
+          LshIndex.DEFAULT_SEED );
+      LOG.info( "LSH recall:\n" + index.getRecallReport( queries, null,
+          LSH_REPORT_K ) );
+    }
 
-    // test the remaining citations
-    for ( PubmedId pmid : citations.keySet() ) {
-      FeatureVector<Integer> ufv = citations.get( pmid );
-      double sim = cs.calculateSimilarity( ufv );
-      rankMap.put( sim, pmid );
+    BitSet candidates = new BitSet( relation.size() );
+    for ( int row : index.candidates( queries, null ) ) {
+      candidates.set( row );
     }
+    LOG.debug( candidates.cardinality() + " of " + relation.size()
+        + " papers are LSH candidates." );
 
-    return rankMap;
+    return candidates;
   }
 }
@@ -1,11 +1,7 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -14,20 +10,33 @@ import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.SparseVector;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.TestRelation;
-import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.LibSvmClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
+import edu.tufts.cs.rank.LinearSvm;
+import edu.tufts.cs.rank.ParallelScorer;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
- * representation and an SVM classifier.
+ * representation and an SVM classifier, trained in-process and warm-started
+ * from the previous iteration's solution.
+ *
+ * The SVM is linear: it is trained on the row of each labeled paper and
+ * scores the corpus in one parallel batch, so the Bag of Words is never
+ * trained and the feature vectors may be shared and cached.
  */
 public class OnlineSimulatorBowLibSvm extends OnlineSimulatorBow {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OnlineSimulatorBowLibSvm.class );
+  /** The c parameter for SVM (the default of libsvm). */
+  protected static final double DEFAULT_C = 1;
+  /** The classifier, kept between iterations for warm start. */
+  protected LinearSvm<Integer> svm = new LinearSvm<>( LinearSvm.Loss.HINGE,
+      DEFAULT_C );
+  /** The scorer of the feature vectors. */
+  protected ParallelScorer scorer = new ParallelScorer();
+  /** The scores of the rows of the feature vectors, reused between rankings. */
+  protected double[] scores;
 
   /**
    * Default constructor.
@@ -37,38 +46,17 @@ public class OnlineSimulatorBowLibSvm extends OnlineSimulatorBow {
    */
   public OnlineSimulatorBowLibSvm( String review ) throws Exception {
     super( review );
+    svm.setWarmStart( true );
   }
 
   /**
-   * Get the papers terms to propose.
-   * 
-   * @param query
+   * The ranking trains on the rows and never trains the Bag of Words.
+   *
    * @return
    */
   @Override
-  protected Set<PubmedId> getPaperProposals(
-      TreeMultimap<Double, PubmedId> rankMap,
-      Set<PubmedId> expertRelevantPapers, Set<PubmedId> expertIrrelevantPapers ) {
-    Set<PubmedId> results = new HashSet<>();
-
-    List<PubmedId> citList = new ArrayList<>();
-    for ( Double sim : rankMap.keySet() ) {
-      for ( PubmedId pmid : rankMap.get( sim ) ) {
-        if ( !expertRelevantPapers.contains( pmid )
-            && !expertIrrelevantPapers.contains( pmid ) ) {
-          citList.add( pmid );
-        }
-      }
-    }
-
-    LOG.info( "Getting deterministic paper proposal set..." );
-    // TODO temporarily removing stochastic element
-    int lastIdx = ( citList.size() < PAPER_PROPOSALS_PER_ITERATION ) ? citList
-        .size() : PAPER_PROPOSALS_PER_ITERATION;
-    results.addAll( citList.subList( 0, lastIdx ) );
-
-    LOG.info( "Paper proposals: " + results );
-    return results;
+  protected boolean isFeatureSharingSafe() {
+    return true;
   }
 
   /**
@@ -89,41 +77,19 @@ public class OnlineSimulatorBowLibSvm extends OnlineSimulatorBow {
 
     // can't classify w/o samples from each class
     if ( !( expertRelevantPapers.isEmpty() || expertIrrelevantPapers.isEmpty() ) ) {
-      // create the training data, which is the expert-identified relevant
-      // and irrelevant sets// train the bag of words
-      for ( FeatureVector<Integer> fv : expertRelevantPapers.values() ) {
-        bow.train( fv, POS );
-      }
-      for ( FeatureVector<Integer> fv : expertIrrelevantPapers.values() ) {
-        bow.train( fv, NEG );
-      }
-
-      // create the test set
-      TestRelation<Integer> test = new TestRelation<Integer>( "test", bow
-          .getTrainingData().getMetadata() );
-      for ( FeatureVector<Integer> c : citations.values() ) {
-        test.add( (UnlabeledFeatureVector<Integer>) c );
-      }
-
-      LibSvmClassifier c = new LibSvmClassifier();
-      c.train( bow.getTrainingData() );
-      try {
-        TreeMultimap<Double, FeatureVector<Integer>> results = c.rank( test );
-
-        for ( Double rank : results.keySet().descendingSet() ) {
-          for ( FeatureVector<Integer> fv : results.get( rank ) ) {
-            try {
-              PubmedId pmid = edu.tufts.cs.ebm.util.Util
-                  .createOrUpdatePmid( Long.valueOf( fv.getId() ) );
-              rankMap.put( rank, pmid );
-            } catch ( NumberFormatException e ) {
-              LOG.error( "Could not parse pmid: " + fv.getId(), e );
-            }
-          }
-        }
-      } catch ( IncomparableFeatureVectorException e ) {
-        LOG.error( "Could not compare feature vectors.", e );
-      }
+      // train on each labeled paper once, by its row, warm-started by its id
+      int n = expertRelevantPapers.size() + expertIrrelevantPapers.size();
+      SparseVector[] x = new SparseVector[n];
+      double[] y = new double[n];
+      String[] ids = new String[n];
+      int k = addRows( expertRelevantPapers, 1, x, y, ids, 0 );
+      addRows( expertIrrelevantPapers, -1, x, y, ids, k );
+      svm.train( x, y, ids );
+
+      // test the citations in one batch
+      scores = scorer.score( svm, features.getRelation().getMatrix(),
+          scores );
+      rankMap = rankRows( citations, scores, svm );
     } else { // essentially random
       for ( PubmedId pmid : citations.keySet() ) {
         rankMap.put( 0.0, pmid );
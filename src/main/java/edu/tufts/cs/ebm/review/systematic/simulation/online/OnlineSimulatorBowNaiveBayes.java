@@ -6,33 +6,41 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import cc.mallet.types.InstanceList;
-
 import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.CsrRelation;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.TrainRelation;
-import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.Classifier;
-import edu.tufts.cs.ml.classify.NaiveBayesClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
+import edu.tufts.cs.rank.NaiveBayes;
+import edu.tufts.cs.rank.ParallelScorer;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
- * representation and an SVM classifier.
+ * representation and a multinomial Naive Bayes classifier: the papers are
+ * ranked by their log odds of being relevant.
+ *
+ * The model keeps per-class feature counts and only adds the papers that
+ * were labeled since the last ranking, so each update costs O(nnz) of the
+ * new labels, and each ranking scores the corpus in one parallel batch. The
+ * Bag of Words is never trained, so the feature vectors may be shared and
+ * cached.
  */
 public class OnlineSimulatorBowNaiveBayes extends OnlineSimulatorBow {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OnlineSimulatorBowNaiveBayes.class );
-  /** The instances. */
-  protected InstanceList instances;
+  /** The model, once the feature vectors exist. */
+  protected NaiveBayes model;
+  /** The scorer of the feature vectors. */
+  protected ParallelScorer scorer = new ParallelScorer();
+  /** The scores of the rows of the feature vectors, reused between rankings. */
+  protected double[] scores;
 
   /**
    * Default constructor.
-   * 
+   *
    * @param review
    * @throws Exception
    */
@@ -40,12 +48,23 @@ public class OnlineSimulatorBowNaiveBayes extends OnlineSimulatorBow {
     super( review );
   }
 
+  /**
+   * The ranking only reads the feature vectors.
+   *
+   * @return
+   */
+  @Override
+  protected boolean isFeatureSharingSafe() {
+    return true;
+  }
+
   /**
    * Initialize the classifier.
    */
   @Override
   protected void initializeClassifier( Collection<Citation> citations ) {
-    // this will all happen in the rank(...) method
+    model = null;
+    scores = null;
   }
 
   @Override
@@ -53,45 +72,71 @@ public class OnlineSimulatorBowNaiveBayes extends OnlineSimulatorBow {
       Map<PubmedId, FeatureVector<Integer>> citations,
       Map<PubmedId, FeatureVector<Integer>> expertRelevantPapers,
       Map<PubmedId, FeatureVector<Integer>> expertIrrelevantPapers ) {
-    // train the bag of words
-    for ( FeatureVector<Integer> fv : expertRelevantPapers.values() ) {
-      bow.train( fv, POS );
-    }
-    for ( FeatureVector<Integer> fv : expertIrrelevantPapers.values() ) {
-      bow.train( fv, NEG );
+    CsrRelation<PubmedId> relation = features.getRelation();
+    CsrMatrix m = relation.getMatrix();
+
+    // the labeled papers only grow, unless the simulation was reset
+    if ( model == null
+        || count( expertRelevantPapers, true )
+            + count( expertIrrelevantPapers, false ) < model.size() ) {
+      model = new NaiveBayes( relation.getDictionary().size() );
     }
+    int added = train( relation, expertRelevantPapers, true )
+        + train( relation, expertIrrelevantPapers, false );
+    LOG.debug( "Added " + added + " labeled papers to the model." );
 
-    // put the classified Citations into a training set
-    TrainRelation<Integer> relation = bow.getTrainingData();
-    // classify the unclassified Citations using the model
-    Classifier<Integer> cl = new NaiveBayesClassifier<Integer>();
+    // test the remaining citations by row; they are usually the rows
+    scores = scorer.score( model, m, scores );
 
-    cl.train( relation );
+    return rankRows( citations, scores, model );
+  }
 
-    TreeMultimap<Double, PubmedId> rankMap = TreeMultimap.create();
-    for ( PubmedId pmid : citations.keySet() ) {
-      FeatureVector<Integer> fv = citations.get( pmid );
-      UnlabeledFeatureVector<Integer> ufv;
-      if ( fv instanceof UnlabeledFeatureVector ) {
-        ufv = (UnlabeledFeatureVector<Integer>) fv;
-      } else {
+  /**
+   * Count the papers that the model has with the label.
+   *
+   * @param papers
+   * @param relevant
+   * @return
+   */
+  protected int count( Map<PubmedId, FeatureVector<Integer>> papers,
+      boolean relevant ) {
+    int found = 0;
+    for ( PubmedId pmid : papers.keySet() ) {
+      if ( model.contains( pmid.toString(), relevant ) ) {
+        found++;
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * Add the papers that the model doesn't have yet.
+   *
+   * @param relation
+   * @param papers
+   * @param relevant
+   * @return the number of papers added
+   */
+  protected int train( CsrRelation<PubmedId> relation,
+      Map<PubmedId, FeatureVector<Integer>> papers, boolean relevant ) {
+    int added = 0;
+    for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : papers.entrySet() ) {
+      String id = e.getKey().toString();
+      if ( model.contains( id ) ) {
         continue;
       }
-      double val = 0.0;
-      double cert = 0.0;
-      try {
-        cl.classify( ufv );
-        cert = cl.getCertainty( ufv );
-      } catch ( IncomparableFeatureVectorException e ) {
-        LOG.error( e );
+      int row = relation.indexOf( e.getKey() );
+      if ( row >= 0 ) {
+        model.add( id, relation.getMatrix(), row, relevant );
+      } else {
+        // e.g. a seed that the query did not return
+        model.add( id, relation.getDictionary().lookup( e.getValue() ),
+            relevant );
       }
-      if ( ufv.getClassification().equals( POS ) )
-        val = cert;
-      else
-        val = -1 * cert;
-      rankMap.put( val, pmid );
+      added++;
     }
 
-    return rankMap;
+    return added;
   }
 }
@@ -0,0 +1,241 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.online;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.TreeMultimap;
+
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.rank.PairwiseSgdRanker;
+import edu.tufts.cs.rank.ParallelScorer;
+
+/**
+ * An online simulation of a systematic review using a Bag of Words
+ * representation and a pairwise ranking SVM that is trained incrementally:
+ * instead of re-training an ensemble from scratch at every iteration, the
+ * model keeps its weights and steps only on pairs involving the newly labeled
+ * papers, with a full re-fit every few rankings to control drift.
+ */
+public class OnlineSimulatorBowRankSgd extends OnlineSimulatorBowRankSvm {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory
+      .getLog( OnlineSimulatorBowRankSgd.class );
+  /** The default number of steps per newly labeled paper. */
+  protected static final int DEFAULT_STEPS_PER_LABEL = 200;
+  /** The default number of rankings between full re-fits (0 for never). */
+  protected static final int DEFAULT_REFIT_INTERVAL = 10;
+  /** The number of steps per newly labeled paper. */
+  protected int stepsPerLabel = DEFAULT_STEPS_PER_LABEL;
+  /** The number of rankings between full re-fits (0 for never). */
+  protected int refitInterval = DEFAULT_REFIT_INTERVAL;
+  /** The ranking model. */
+  protected PairwiseSgdRanker ranker;
+  /** The ids of the relevant papers the model has been updated with. */
+  protected Set<String> trainedPos = new HashSet<>();
+  /** The ids of the irrelevant papers the model has been updated with. */
+  protected Set<String> trainedNeg = new HashSet<>();
+  /** The number of rankings so far. */
+  protected int numRankings = 0;
+  /** The scorer of the feature vectors. */
+  protected ParallelScorer scorer = new ParallelScorer();
+  /** The scores of the rows of the feature vectors, reused between rankings. */
+  protected double[] scores;
+
+  /**
+   * Default constructor.
+   *
+   * @param review
+   * @throws Exception
+   */
+  public OnlineSimulatorBowRankSgd( String review ) throws Exception {
+    super( review );
+  }
+
+  /**
+   * Set the number of steps per newly labeled paper.
+   *
+   * @param steps
+   */
+  public void setStepsPerLabel( int steps ) {
+    this.stepsPerLabel = steps;
+    LOG.info( "steps per label: " + steps );
+  }
+
+  /**
+   * Set the number of rankings between full re-fits (0 for never).
+   *
+   * @param interval
+   */
+  public void setRefitInterval( int interval ) {
+    this.refitInterval = interval;
+    LOG.info( "refit interval: " + interval );
+  }
+
+  /**
+   * Save the feature indices, the weights and the papers they were trained
+   * on, so that a resumed simulation continues from the same model.
+   *
+   * @return
+   * @throws IOException
+   */
+  @Override
+  protected byte[] saveModel() throws IOException {
+    if ( ranker == null ) {
+      return null;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream( bytes );
+    out.writeInt( dictionary.size() );
+    for ( int f = 0; f < dictionary.size(); f++ ) {
+      out.writeUTF( dictionary.getName( f ) );
+    }
+    ranker.write( out );
+    out.writeInt( numRankings );
+    writeIds( out, trainedPos );
+    writeIds( out, trainedNeg );
+    out.close();
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Restore the model saved by saveModel(). The weights are moved onto the
+   * dictionary of the relation's columns, if there is one, so that the test
+   * matrix can be scored with them.
+   *
+   * @param model
+   * @throws IOException
+   */
+  @Override
+  protected void restoreModel( byte[] model ) throws IOException {
+    DataInputStream in = new DataInputStream( new ByteArrayInputStream(
+        model ) );
+    boolean shared = ( features != null && features.getRelation() != null );
+    dictionary = shared ? features.getRelation().getDictionary()
+        : new FeatureDictionary();
+    // the shared dictionary is only read: the weights of names it does not
+    // have are dropped by the remap
+    int[] indices = new int[in.readInt()];
+    for ( int f = 0; f < indices.length; f++ ) {
+      String name = in.readUTF();
+      indices[f] = shared ? dictionary.indexOf( name ) : dictionary.add(
+          name );
+    }
+    ranker = new PairwiseSgdRanker( PairwiseSgdRanker.DEFAULT_LAMBDA / cParam,
+        random );
+    ranker.read( in );
+    ranker.remap( indices, dictionary.size() );
+    testSource = null;
+    numRankings = in.readInt();
+    trainedPos = readIds( in );
+    trainedNeg = readIds( in );
+    in.close();
+  }
+
+  /**
+   * Write a set of ids.
+   *
+   * @param out
+   * @param ids
+   * @throws IOException
+   */
+  protected static void writeIds( DataOutputStream out, Set<String> ids )
+    throws IOException {
+    out.writeInt( ids.size() );
+    for ( String id : ids ) {
+      out.writeUTF( id );
+    }
+  }
+
+  /**
+   * Read a set of ids written by writeIds(...).
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  protected static Set<String> readIds( DataInputStream in )
+    throws IOException {
+    int n = in.readInt();
+    Set<String> ids = new HashSet<>();
+    for ( int i = 0; i < n; i++ ) {
+      ids.add( in.readUTF() );
+    }
+
+    return ids;
+  }
+
+  /**
+   * Update the model with the newly labeled papers and rank the test set.
+   * The c parameter plays the same role as for the batch ranking SVM: the
+   * regularization is inversely proportional to it.
+   *
+   * @param minorityClass
+   * @param majorityClass
+   * @return
+   */
+  @Override
+  protected TreeMultimap<Double, PubmedId> ensembleRank(
+      Map<FeatureVector<Integer>, Integer> minorityClass,
+      Map<FeatureVector<Integer>, Integer> majorityClass ) {
+    if ( ranker == null ) {
+      ranker = new PairwiseSgdRanker( PairwiseSgdRanker.DEFAULT_LAMBDA
+          / cParam, random );
+    }
+    if ( refitInterval > 0 && numRankings > 0
+        && numRankings % refitInterval == 0 ) {
+      LOG.info( "Re-fitting the ranking model..." );
+      ranker.reset();
+      trainedPos.clear();
+      trainedNeg.clear();
+    }
+    numRankings++;
+
+    List<SparseVector> pos = new ArrayList<>();
+    List<SparseVector> newPos = new ArrayList<>();
+    for ( FeatureVector<Integer> fv : minorityClass.keySet() ) {
+      SparseVector x = dictionary.vectorize( fv );
+      pos.add( x );
+      if ( trainedPos.add( fv.getId() ) ) newPos.add( x );
+    }
+    List<SparseVector> neg = new ArrayList<>();
+    List<SparseVector> newNeg = new ArrayList<>();
+    for ( FeatureVector<Integer> fv : majorityClass.keySet() ) {
+      SparseVector x = dictionary.vectorize( fv );
+      neg.add( x );
+      if ( trainedNeg.add( fv.getId() ) ) newNeg.add( x );
+    }
+
+    LOG.info( "Updating the ranking model with " + newPos.size()
+        + " relevant and " + newNeg.size() + " irrelevant papers..." );
+    ranker.update( newPos, newNeg, pos, neg, stepsPerLabel
+        * ( newPos.size() + newNeg.size() ) );
+
+    // score the test set in one batch; the scores are negated so that the
+    // best comes first, as the ranks of the ensemble do
+    scores = scorer.score( ranker, testMatrix, scores );
+    TreeMultimap<Double, PubmedId> ranking = TreeMultimap.create();
+    for ( int row = 0; row < scores.length; row++ ) {
+      scores[row] = -scores[row];
+      ranking.put( scores[row], testIds.get( row ) );
+    }
+    setRankScores( testDocuments, scores, null );
+
+    return ranking;
+  }
+}
@@ -1,13 +1,14 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -16,14 +17,11 @@ import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.CsrRelation;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.LabeledFeatureVector;
-import edu.tufts.cs.ml.TestRelation;
-import edu.tufts.cs.ml.TrainRelation;
-import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.RankSvmClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
-import edu.tufts.cs.rank.BordaAggregator;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
@@ -48,6 +46,29 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
   protected static final double DEFAULT_C = 1;
   /** The c parameter for SVM. */
   protected double cParam = DEFAULT_C;
+  /** The default executor for the bags, shared by all simulations. */
+  protected static final ExecutorService BAG_EXECUTOR = Executors
+      .newFixedThreadPool( Runtime.getRuntime().availableProcessors(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+              Thread t = new Thread( r, "bag" );
+              t.setDaemon( true );
+              return t;
+            }
+          } );
+  /** The sparse feature indices, shared by the ensemble models. */
+  protected FeatureDictionary dictionary = new FeatureDictionary();
+  /** The executor for the bags (null to run them in the calling thread). */
+  protected ExecutorService executor = BAG_EXECUTOR;
+  /** The citations the test set was built from. */
+  protected Map<PubmedId, FeatureVector<Integer>> testSource;
+  /** The papers to rank, by row of the test matrix. */
+  protected List<PubmedId> testIds;
+  /** The dense id of each paper to rank. */
+  protected int[] testDocuments;
+  /** The feature vectors of the papers to rank. */
+  protected CsrMatrix testMatrix;
 
   /**
    * Default constructor.
@@ -57,6 +78,7 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
    */
   public OnlineSimulatorBowRankSvm( String review ) throws Exception {
     super( review );
+    this.ascendingScores = true; // rank 1 is the best
   }
 
   /**
@@ -70,35 +92,43 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
   }
 
   /**
-   * Get the papers terms to propose.
-   * 
-   * @param query
+   * Set the executor for the bags (null to run them in the calling thread).
+   *
+   * @param executor
+   */
+  public void setExecutor( ExecutorService executor ) {
+    this.executor = executor;
+  }
+
+  /**
+   * The ranking never trains the Bag of Words, and labels the vectors the same
+   * way in every simulation of this class, so the vectors can be shared.
+   *
    * @return
    */
   @Override
-  protected Set<PubmedId> getPaperProposals(
-      TreeMultimap<Double, PubmedId> rankMap,
-      Set<PubmedId> expertRelevantPapers, Set<PubmedId> expertIrrelevantPapers ) {
-    Set<PubmedId> results = new HashSet<>();
+  protected boolean isFeatureSharingSafe() {
+    return true;
+  }
 
-    List<PubmedId> citList = new ArrayList<>();
-    for ( Double sim : rankMap.keySet() ) {
-      for ( PubmedId pmid : rankMap.get( sim ) ) {
-        if ( !expertRelevantPapers.contains( pmid )
-            && !expertIrrelevantPapers.contains( pmid ) ) {
-          citList.add( pmid );
-        }
-      }
+  /**
+   * Turn the Citations into FeatureVectors. If they are held in compressed
+   * sparse row form, the models use the dictionary of its columns, so that
+   * the vectors are read from the rows instead of being converted.
+   *
+   * @param citations
+   * @return
+   */
+  @Override
+  protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
+      Collection<Citation> citations ) {
+    Map<PubmedId, FeatureVector<Integer>> fvs = super
+        .createFeatureVectors( citations );
+    if ( features != null && features.getRelation() != null ) {
+      dictionary = features.getRelation().getDictionary();
     }
 
-    LOG.info( "Getting deterministic paper proposal set..." );
-    // TODO temporarily removing stochastic element
-    int lastIdx = ( citList.size() < PAPER_PROPOSALS_PER_ITERATION ) ? citList
-        .size() : PAPER_PROPOSALS_PER_ITERATION;
-    results.addAll( citList.subList( 0, lastIdx ) );
-
-    LOG.info( "Paper proposals: " + results );
-    return results;
+    return fvs;
   }
 
   /**
@@ -107,6 +137,7 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
   @Override
   protected void initializeClassifier( Collection<Citation> citations ) {
     // this will all happen in the rank(...) method
+    testSource = null;
   }
 
   @Override
@@ -134,16 +165,8 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
         majorityMap.put( fv, NEG );
       }
 
-      // create the test set
-      TestRelation<Integer> test = new TestRelation<Integer>( "test", bow
-          .getTrainingData().getMetadata() );
-      for ( FeatureVector<Integer> c : citations.values() ) {
-        if ( c.getQid() == null )
-          c.setQid( 1 );
-        test.add( (UnlabeledFeatureVector<Integer>) c );
-      }
-
-      rankMap = ensembleRank( minorityMap, majorityMap, test );
+      prepareTest( citations );
+      rankMap = ensembleRank( minorityMap, majorityMap );
     } else { // essentially random
       for ( PubmedId c : citations.keySet() ) {
         rankMap.put( 0.0, c );
@@ -154,114 +177,104 @@ public class OnlineSimulatorBowRankSvm extends OnlineSimulatorBow {
   }
 
   /**
-   * Do an ensemble ranking with undersampling and bagging, merged by the Borda
-   * algorithm.
+   * Build the test set, unless it was built from the same citations. If they
+   * are the rows of the relation, its matrix is the test set, so the papers
+   * are neither converted nor copied.
+   *
+   * @param citations
+   */
+  protected void prepareTest( Map<PubmedId, FeatureVector<Integer>> citations ) {
+    if ( citations == testSource ) {
+      return;
+    }
+
+    CsrRelation<PubmedId> relation = ( features == null ) ? null : features
+        .getRelation();
+    if ( relation != null && citations == features.getFeatureVectors() ) {
+      testIds = relation.getIds();
+      testMatrix = relation.getMatrix();
+    } else {
+      testIds = new ArrayList<>( citations.size() );
+      SparseVector[] rows = new SparseVector[citations.size()];
+      for ( Map.Entry<PubmedId, FeatureVector<Integer>> e : citations
+          .entrySet() ) {
+        rows[testIds.size()] = dictionary.vectorize( e.getValue() );
+        testIds.add( e.getKey() );
+      }
+      testMatrix = CsrMatrix.create( rows );
+    }
+    testDocuments = getDocumentIds( testIds );
+    testSource = citations;
+  }
+
+  /**
+   * Do an ensemble ranking of the test set with undersampling and bagging,
+   * merged by the Borda algorithm. The labeled papers are vectorized before
+   * the bags run, so that they only read the vectors and the feature indices
+   * don't depend on the order in which they run.
    * 
    * @param minorityClass
    * @param majorityClass
-   * @param test
    * @return
    */
   protected TreeMultimap<Double, PubmedId> ensembleRank(
       Map<FeatureVector<Integer>, Integer> minorityClass,
-      Map<FeatureVector<Integer>, Integer> majorityClass,
-      TestRelation<Integer> test ) {
+      Map<FeatureVector<Integer>, Integer> majorityClass ) {
 
     LOG.info( "Ensemble ranking..." );
-    List<List<PubmedId>> rankings = new ArrayList<List<PubmedId>>();
-
-    // there will be no undersampling if the majority class is smaller than
-    // the minority class, so only rank once
-    int ensembleSize = ENSEMBLE_SIZE;
-    if ( minorityClass.size() * UNDERSAMPLING_MULTIPLIER >= majorityClass
-        .size() ) {
-      ensembleSize = 1;
-    }
-
-    for ( int i = 1; i <= ensembleSize; i++ ) {
-      LOG.info( "\tRanking ensemble #" + i );
-      rankings.add( bag( minorityClass, majorityClass, test ) );
-    }
+    RankSvmEnsemble.Examples minority = createExamples( minorityClass, true );
+    RankSvmEnsemble.Examples majority = createExamples( majorityClass, true );
+    RankSvmEnsemble.Examples fixed = createFixedExamples();
 
-    BordaAggregator<PubmedId> borda = new BordaAggregator<PubmedId>();
-    List<PubmedId> merged = borda.aggregate( rankings );
+    RankSvmEnsemble ensemble = new RankSvmEnsemble( cParam, dictionary,
+        ENSEMBLE_SIZE, UNDERSAMPLING_MULTIPLIER );
+    ensemble.setExecutor( executor );
+    List<Integer> merged = ensemble.rank( minority, fixed, majority,
+        testMatrix, random );
 
     TreeMultimap<Double, PubmedId> ranking = TreeMultimap.create();
+    double[] ranks = new double[testIds.size()];
+    Arrays.fill( ranks, Double.NaN );
     for ( int i = 0; i < merged.size(); i++ ) {
-      ranking.put( (double) i, merged.get( i ) );
+      ranking.put( (double) i, testIds.get( merged.get( i ) ) );
+      ranks[merged.get( i )] = i;
     }
+    setRankScores( testDocuments, ranks, null );
 
     return ranking;
   }
 
   /**
-   * Bag and run the classifier on an undersampled subset.
-   * 
-   * @param minorityClass
-   * @param majorityClass
-   * @param test
+   * Vectorize the labeled papers, adding their features to the dictionary.
+   * The target is the rank of the vector, or else its label.
+   *
+   * @param labeled the vectors and their labels
+   * @param cache whether the vectors are papers, whose conversions are cached
    * @return
    */
-  protected List<PubmedId> bag(
-      Map<FeatureVector<Integer>, Integer> minorityClass,
-      Map<FeatureVector<Integer>, Integer> majorityClass,
-      TestRelation<Integer> test ) {
-    // prepare the data for the ranking function
-    TrainRelation<Integer> trainRelation = new TrainRelation<Integer>( "train",
-        bow.getTrainingData().getMetadata() );
-    // add minority instances
-    for ( FeatureVector<Integer> fv : minorityClass.keySet() ) {
-      LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
-          minorityClass.get( fv ), fv.getId() );
-      lfv.setQid( fv.getQid() );
-      lfv.setRank( fv.getRank() );
-      lfv.putAll( fv );
-      trainRelation.add( lfv );
+  protected RankSvmEnsemble.Examples createExamples(
+      Map<FeatureVector<Integer>, Integer> labeled, boolean cache ) {
+    SparseVector[] x = new SparseVector[labeled.size()];
+    double[] target = new double[labeled.size()];
+    int[] qid = new int[labeled.size()];
+    int i = 0;
+    for ( Map.Entry<FeatureVector<Integer>, Integer> e : labeled.entrySet() ) {
+      FeatureVector<Integer> fv = e.getKey();
+      x[i] = cache ? dictionary.vectorize( fv ) : dictionary.convert( fv );
+      target[i] = ( fv.getRank() != null ) ? fv.getRank() : e.getValue();
+      qid[i++] = ( fv.getQid() == null ) ? 0 : fv.getQid();
     }
 
-    // undersampling the majority class
-    // add majority instances
-    int numNegSamples = ( minorityClass.size() * UNDERSAMPLING_MULTIPLIER >= majorityClass
-        .size() ) ? majorityClass.size() : minorityClass.size()
-        * UNDERSAMPLING_MULTIPLIER;
-    ArrayList<FeatureVector<Integer>> shuffled = new ArrayList<>(
-        majorityClass.keySet() );
-    Collections.shuffle( shuffled );
-    for ( int i = 0; i < numNegSamples; i++ ) {
-      FeatureVector<Integer> fv = shuffled.get( i );
-      LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
-          majorityClass.get( fv ), fv.getId() );
-      lfv.setQid( fv.getQid() );
-      lfv.setRank( fv.getRank() );
-      lfv.putAll( fv );
-      trainRelation.add( lfv );
-    }
-
-    // undersampling the majority class
-    // add majority instances
-    LOG.info( "\t\t# minority instances: " + minorityClass.size() + "\n\t\t"
-        + "# majority instances: " + numNegSamples + "/" + majorityClass.size() );
-    List<PubmedId> ranking = new ArrayList<PubmedId>();
-    RankSvmClassifier c = new RankSvmClassifier( cParam );
-    c.train( trainRelation );
-    try {
-      TreeMultimap<Double, FeatureVector<Integer>> results = c.rank( test );
-
-      for ( Double rank : results.keySet() ) {
-        for ( FeatureVector<Integer> fv : results.get( rank ) ) {
-          try {
-            PubmedId pmid = edu.tufts.cs.ebm.util.Util.createOrUpdatePmid( Long
-                .valueOf( fv.getId() ) );
-            ranking.add( pmid );
-          } catch ( NumberFormatException e ) {
-            LOG.error( "Could not parse pmid: " + fv.getId(), e );
-          }
-        }
-      }
-    } catch ( IncomparableFeatureVectorException e ) {
-      LOG.error( "Could not compare feature vectors.", e );
-    }
+    return new RankSvmEnsemble.Examples( x, target, qid );
+  }
 
-    return ranking;
+  /**
+   * Vectorize the examples that every bag is trained on in addition to the
+   * labeled papers.
+   *
+   * @return the examples, or null if there are none
+   */
+  protected RankSvmEnsemble.Examples createFixedExamples() {
+    return null;
   }
 }
@@ -6,9 +6,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,14 +18,7 @@ import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
-import edu.tufts.cs.ebm.util.Util;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.LabeledFeatureVector;
-import edu.tufts.cs.ml.TestRelation;
-import edu.tufts.cs.ml.TrainRelation;
-import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.classify.RankSvmClassifier;
-import edu.tufts.cs.ml.exception.IncomparableFeatureVectorException;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
@@ -101,8 +92,8 @@ public class OnlineSimulatorBowRankSvmLabeledTerms extends
     List<String> terms = Files.readAllLines( path, Charset.defaultCharset() );
 
     for ( String term : terms ) {
-      FeatureVector<Integer> pseudo = bow.createUnlabeledFV( PSEUDO_PREFIX
-          + term, term );
+      FeatureVector<Integer> pseudo = createUnlabeledFV( PSEUDO_PREFIX + term,
+          term );
       if ( term.contains( "+" ) ) {
         labeledTerms.put( pseudo, PSEUDO_POS );
       } else {
@@ -129,9 +120,9 @@ public class OnlineSimulatorBowRankSvmLabeledTerms extends
       Map<FeatureVector<Integer>, Integer> minorityMap = new HashMap<FeatureVector<Integer>, Integer>();
       for ( FeatureVector<Integer> fv : expertRelevantPapers.values() ) {
         fv.setQid( 1 );
-        PubmedId pmid = Util.createOrUpdatePmid( Long.valueOf( fv.getId() ) );
         int pos = POS_L1;
-        if ( activeReview.getRelevantLevel2().contains( pmid ) )
+        if ( documents.isRelevantL2( new PubmedId( Long.valueOf( fv
+            .getId() ) ) ) )
           pos = POS_L2;
         fv.setRank( pos );
         minorityMap.put( fv, pos );
@@ -143,16 +134,8 @@ public class OnlineSimulatorBowRankSvmLabeledTerms extends
         majorityMap.put( fv, NEG );
       }
 
-      // create the test set
-      TestRelation<Integer> test = new TestRelation<Integer>( "test", bow
-          .getTrainingData().getMetadata() );
-      for ( FeatureVector<Integer> c : citations.values() ) {
-        if ( c.getQid() == null )
-          c.setQid( 1 );
-        test.add( (UnlabeledFeatureVector<Integer>) c );
-      }
-
-      rankMap = ensembleRank( minorityMap, majorityMap, test );
+      prepareTest( citations );
+      rankMap = ensembleRank( minorityMap, majorityMap );
     } else { // essentially random
       for ( PubmedId c : citations.keySet() ) {
         rankMap.put( 0.0, c );
@@ -163,82 +146,13 @@ public class OnlineSimulatorBowRankSvmLabeledTerms extends
   
 
   /**
-   * Bag and run the classifier on an undersampled subset.
-   * 
-   * @param minorityClass
-   * @param majorityClass
-   * @param test
+   * Vectorize the pseudo-documents, which every bag is trained on.
+   *
    * @return
    */
   @Override
-  protected List<PubmedId> bag(
-      Map<FeatureVector<Integer>, Integer> minorityClass,
-      Map<FeatureVector<Integer>, Integer> majorityClass,
-      TestRelation<Integer> test ) {
-    // prepare the data for the ranking function
-    TrainRelation<Integer> trainRelation = new TrainRelation<Integer>( "train",
-        bow.getTrainingData().getMetadata() );
-    // add minority instances
-    for ( FeatureVector<Integer> fv : minorityClass.keySet() ) {
-      LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
-          minorityClass.get( fv ), fv.getId() );
-      lfv.setQid( fv.getQid() );
-      lfv.setRank( fv.getRank() );
-      lfv.putAll( fv );
-      trainRelation.add( lfv );
-    }
-
-    // add pseudo-documents
-    for ( FeatureVector<Integer> fv : labeledTerms.keySet() ) {
-      LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
-          labeledTerms.get( fv ), fv.getId() );
-      lfv.setQid( fv.getQid() );
-      lfv.setRank( fv.getRank() );
-      lfv.putAll( fv );
-      trainRelation.add( lfv );
-    }
-
-    // undersampling the majority class
-    // add majority instances
-    int numNegSamples = ( minorityClass.size() * UNDERSAMPLING_MULTIPLIER >= majorityClass
-        .size() ) ? majorityClass.size() : minorityClass.size()
-        * UNDERSAMPLING_MULTIPLIER;
-    ArrayList<FeatureVector<Integer>> shuffled = new ArrayList<>(
-        majorityClass.keySet() );
-    Collections.shuffle( shuffled );
-    for ( int i = 0; i < numNegSamples; i++ ) {
-      FeatureVector<Integer> fv = shuffled.get( i );
-      LabeledFeatureVector<Integer> lfv = new LabeledFeatureVector<Integer>(
-          majorityClass.get( fv ), fv.getId() );
-      lfv.setQid( fv.getQid() );
-      lfv.setRank( fv.getRank() );
-      lfv.putAll( fv );
-      trainRelation.add( lfv );
-    }
-
-    LOG.info( "\t\t# minority instances: " + minorityClass.size() + "\n\t\t"
-        + "# majority instances: " + numNegSamples + "/" + majorityClass.size() );
-    List<PubmedId> ranking = new ArrayList<PubmedId>();
-    RankSvmClassifier c = new RankSvmClassifier( cParam );
-    c.train( trainRelation );
-    try {
-      TreeMultimap<Double, FeatureVector<Integer>> results = c.rank( test );
-
-      for ( Double rank : results.keySet() ) {
-        for ( FeatureVector<Integer> fv : results.get( rank ) ) {
-          try {
-            PubmedId pmid = edu.tufts.cs.ebm.util.Util.createOrUpdatePmid( Long
-                .valueOf( fv.getId() ) );
-            ranking.add( pmid );
-          } catch ( NumberFormatException e ) {
-            LOG.error( "Could not parse pmid: " + fv.getId(), e );
-          }
-        }
-      }
-    } catch ( IncomparableFeatureVectorException e ) {
-      LOG.error( "Could not compare feature vectors.", e );
-    }
-
-    return ranking;
+  protected RankSvmEnsemble.Examples createFixedExamples() {
+    // the pseudo-documents have no rows, so don't cache them
+    return createExamples( labeledTerms, false );
   }
 }
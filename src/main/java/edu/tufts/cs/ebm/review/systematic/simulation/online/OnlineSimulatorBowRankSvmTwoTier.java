@@ -9,10 +9,7 @@ import org.apache.commons.logging.LogFactory;
 import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
-import edu.tufts.cs.ebm.util.Util;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.TestRelation;
-import edu.tufts.cs.ml.UnlabeledFeatureVector;
 
 /**
  * An online simulation of a systematic review using a Bag of Words
@@ -58,9 +55,9 @@ public class OnlineSimulatorBowRankSvmTwoTier extends OnlineSimulatorBowRankSvm
       Map<FeatureVector<Integer>, Integer> minorityMap = new HashMap<FeatureVector<Integer>, Integer>();
       for ( FeatureVector<Integer> fv : expertRelevantPapers.values() ) {
         fv.setQid( 1 );
-        PubmedId pmid = Util.createOrUpdatePmid( Long.valueOf( fv.getId() ) );
         int pos = POS_L1;
-        if ( activeReview.getRelevantLevel2().contains( pmid ) )
+        if ( documents.isRelevantL2( new PubmedId( Long.valueOf( fv
+            .getId() ) ) ) )
           pos = POS_L2;
         fv.setRank( pos );
         minorityMap.put( fv, pos );
@@ -72,16 +69,8 @@ public class OnlineSimulatorBowRankSvmTwoTier extends OnlineSimulatorBowRankSvm
         majorityMap.put( fv, NEG );
       }
 
-      // create the test set
-      TestRelation<Integer> test = new TestRelation<Integer>( "test", bow
-          .getTrainingData().getMetadata() );
-      for ( FeatureVector<Integer> c : citations.values() ) {
-        if ( c.getQid() == null )
-          c.setQid( 1 );
-        test.add( (UnlabeledFeatureVector<Integer>) c );
-      }
-
-      rankMap = ensembleRank( minorityMap, majorityMap, test );
+      prepareTest( citations );
+      rankMap = ensembleRank( minorityMap, majorityMap );
     } else { // essentially random
       for ( PubmedId c : citations.keySet() ) {
         rankMap.put( 0.0, c );
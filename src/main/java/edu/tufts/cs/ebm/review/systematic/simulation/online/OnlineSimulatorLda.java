@@ -8,15 +8,17 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Multimap;
 
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.simulation.CitationTokens;
+import edu.tufts.cs.ebm.review.systematic.simulation.LdaModels;
 import edu.tufts.cs.ml.DoubleFeature;
 import edu.tufts.cs.ml.FeatureVector;
 import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.topics.lda.BasicLDA;
-import edu.tufts.cs.ml.topics.lda.LDA;
+import edu.tufts.cs.topics.TopicModel;
 
 /**
  * An online simulation of a systematic review using an LDA representation.
@@ -34,7 +36,7 @@ public abstract class OnlineSimulatorLda extends
   /** The number of LDA iterations. */
   public static final int NUM_LDA_IT = 2000;
   /** The LDA model. */
-  protected LDA lda;
+  protected TopicModel lda;
 
   /**
    * Default constructor.
@@ -49,16 +51,15 @@ public abstract class OnlineSimulatorLda extends
   @Override
   protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
       Collection<Citation> citations ) {
-    StringBuilder sb = new StringBuilder();
-
-    for ( Citation c : citations ) {
-      sb.append( c.getPmid() + "\tX\t\"" + c.getTitle() + " " + c.getAbstr()
-          + "\"\n" );
-    }
-
-    this.lda = new BasicLDA( NUM_TOPICS, ALPHA_SUM_PRIOR, BETA_PRIOR );
     try {
-      lda.train( sb.toString(), NUM_LDA_IT );
+      this.lda = createLdaModels().train( dataset, citations,
+          CitationTokens.TEXT,
+          new Function<Citation, String>() {
+            @Override
+            public String apply( Citation c ) {
+              return c.getTitle() + " " + c.getAbstr();
+            }
+          }, NUM_TOPICS, ALPHA_SUM_PRIOR, BETA_PRIOR, NUM_LDA_IT, seed );
     } catch ( IOException e ) {
       LOG.error( e );
     }
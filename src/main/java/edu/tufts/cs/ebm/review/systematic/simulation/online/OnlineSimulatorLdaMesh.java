@@ -1,26 +1,24 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Multimap;
 
+import edu.tufts.cs.ebm.mesh.MeshDictionary;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.simulation.LdaModels;
 import edu.tufts.cs.ml.DoubleFeature;
 import edu.tufts.cs.ml.FeatureVector;
 import edu.tufts.cs.ml.UnlabeledFeatureVector;
-import edu.tufts.cs.ml.text.BagOfWords;
-import edu.tufts.cs.ml.topics.lda.BasicLDA;
-import edu.tufts.cs.ml.topics.lda.LDA;
+import edu.tufts.cs.topics.TopicModel;
 
 /**
  * An online simulation of a systematic review using an LDA representation.
@@ -38,8 +36,12 @@ public abstract class OnlineSimulatorLdaMesh extends
   public static final double BETA_PRIOR = 0.01;
   /** The number of LDA iterations. */
   public static final int NUM_LDA_IT = 2000;
+  /** The field of the title, abstract and MeSH terms in the token store. */
+  protected static final String TEXT_MESH = "text+mesh";
   /** The LDA model. */
-  protected LDA lda;
+  protected TopicModel lda;
+  /** The MeSH descriptor dictionary. */
+  protected MeshDictionary mesh = MeshDictionary.getInstance();
 
   /**
    * Default constructor.
@@ -54,23 +56,16 @@ public abstract class OnlineSimulatorLdaMesh extends
   @Override
   protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
       Collection<Citation> citations ) {
-    StringBuilder sb = new StringBuilder();
-    BagOfWords<Integer> meshBow = new BagOfWords<Integer>( new File(
-        "src/main/resources/stoplists/en.txt" ) );
-
-    List<String> meshStr = new ArrayList<String>();
-    for ( Citation c : citations ) {
-      String mesh = c.getMeshStr().replaceAll( ",", " " );
-      meshStr.add( mesh );
-      sb.append( c.getPmid() + "\tX\t\"" + c.getTitle() + " " + c.getAbstr()
-          + " " + mesh + "\"\n" );
-    }
-
-    meshBow.createFeatures( meshStr );
-
-    this.lda = new BasicLDA( NUM_TOPICS, ALPHA_SUM_PRIOR, BETA_PRIOR );
     try {
-      lda.train( sb.toString(), NUM_LDA_IT );
+      this.lda = createLdaModels().train( dataset + "-mesh", citations,
+          TEXT_MESH,
+          new Function<Citation, String>() {
+            @Override
+            public String apply( Citation c ) {
+              return c.getTitle() + " " + c.getAbstr() + " "
+                  + c.getMeshStr().replaceAll( ",", " " );
+            }
+          }, NUM_TOPICS, ALPHA_SUM_PRIOR, BETA_PRIOR, NUM_LDA_IT, seed );
     } catch ( IOException e ) {
       LOG.error( e );
     }
@@ -78,8 +73,7 @@ public abstract class OnlineSimulatorLdaMesh extends
     // create the feature vectors
     Map<PubmedId, FeatureVector<Integer>> fvs = new HashMap<>();
     for ( Citation c : citations ) {
-      String mesh = c.getMeshStr().replaceAll( ",", " " );
-      fvs.put( c.getPmid(), createUnlabeledVector( c, meshBow, mesh ) );
+      fvs.put( c.getPmid(), createUnlabeledVector( c ) );
     }
 
     return fvs;
@@ -92,11 +86,10 @@ public abstract class OnlineSimulatorLdaMesh extends
    * @param relevant
    * @return
    */
-  protected UnlabeledFeatureVector<Integer> createUnlabeledVector( Citation c,
-      BagOfWords<Integer> bow, String mesh ) {
-    // start with a BoW representation for the MeSH terms
-    UnlabeledFeatureVector<Integer> fv = bow.createUnlabeledFV( c.getPmid()
-        .toString(), mesh );
+  protected UnlabeledFeatureVector<Integer> createUnlabeledVector( Citation c ) {
+    // start with the MeSH descriptors
+    UnlabeledFeatureVector<Integer> fv = mesh.createFeatureVector( c
+        .getPmid().toString(), c.getMeshIds(), false );
     // then appen the LDA topics as features
     Multimap<Double, Integer> topicDist = lda
         .getTopics( c.getPmid().toString() );
@@ -1,32 +1,34 @@
 package edu.tufts.cs.ebm.review.systematic.simulation.online;
 
-import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.tufts.cs.ebm.mesh.MeshDictionary;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.PubmedId;
 import edu.tufts.cs.ml.FeatureVector;
-import edu.tufts.cs.ml.text.BagOfWords;
 
 /**
- * An online simulation of a systematic review using a Bag of Words
- * representation.
+ * An online simulation of a systematic review using a MeSH representation:
+ * one binary feature per MeSH descriptor of the citation and, optionally, per
+ * ancestor of the descriptors in the MeSH tree.
  */
 public abstract class OnlineSimulatorMesh extends
     OnlineSimulator<PubmedId, FeatureVector<Integer>> {
   /** The Logger for this class. */
   protected static final Log LOG = LogFactory
       .getLog( OnlineSimulatorMesh.class );
-
-  /** The Bag of Words. */
-  protected BagOfWords<Integer> bow;
+  /** The default of whether to add the ancestors of the descriptors. */
+  public static final boolean DEFAULT_MESH_ANCESTORS = false;
+  /** The MeSH descriptor dictionary. */
+  protected MeshDictionary mesh = MeshDictionary.getInstance();
+  /** Whether to add a feature per ancestor of the descriptors. */
+  protected boolean meshAncestors = DEFAULT_MESH_ANCESTORS;
 
   /**
    * Default constructor.
@@ -38,6 +40,16 @@ public abstract class OnlineSimulatorMesh extends
     super( review );
   }
 
+  /**
+   * Set whether to add a feature per ancestor of the descriptors in the MeSH
+   * tree.
+   *
+   * @param ancestors
+   */
+  public void setMeshAncestors( boolean ancestors ) {
+    this.meshAncestors = ancestors;
+  }
+
   /**
    * Turn the Citations into FeatureVectors.
    * 
@@ -47,29 +59,20 @@ public abstract class OnlineSimulatorMesh extends
   @Override
   protected Map<PubmedId, FeatureVector<Integer>> createFeatureVectors(
       Collection<Citation> citations ) {
-    // initialize the bag of words
-    bow = new BagOfWords<Integer>( new File(
-        "src/main/resources/stoplists/en.txt" ) );
-
-    // create the features
-    List<String> texts = new ArrayList<String>();
-    for ( Citation c : citations ) {
-      String mesh = c.getMeshStr().replaceAll( ",", " " );
-      texts.add( mesh );
-    }
-    bow.createFeatures( texts );
-
-    for ( Citation c : activeReview.getSeedCitations() ) {
-      // seed citations are in the positive class
-      bow.train( c.getPmid().toString(), c.getTitle() + " " + c.getAbstr(), 1 );
+    if ( meshAncestors ) {
+      try {
+        mesh.loadTree();
+      } catch ( IOException e ) {
+        LOG.error( "Could not load the MeSH tree; using the descriptors only.",
+            e );
+      }
     }
 
     // create the feature vectors
     Map<PubmedId, FeatureVector<Integer>> fvs = new HashMap<>();
     for ( Citation c : citations ) {
-      String mesh = c.getMeshStr().replaceAll( ",", " " );
-      fvs.put( c.getPmid(),
-          bow.createUnlabeledFV( c.getPmid().toString(), mesh ) );
+      fvs.put( c.getPmid(), mesh.<Integer> createFeatureVector( c.getPmid()
+          .toString(), c.getMeshIds(), meshAncestors ) );
     }
 
     return fvs;
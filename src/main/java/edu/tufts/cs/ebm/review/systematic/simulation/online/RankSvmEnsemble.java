@@ -0,0 +1,235 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.online;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.tufts.cs.ebm.review.systematic.simulation.TopKSelector;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.rank.BordaAggregator;
+import edu.tufts.cs.rank.LinearRankSvm;
+
+/**
+ * An ensemble of linear ranking SVMs, each trained on every minority and
+ * fixed example and an undersampled bag of the majority examples, merged by
+ * the Borda algorithm.
+ *
+ * The examples and the test set are vectorized by the caller, so the bags
+ * only read them and may run concurrently. Each bag draws from its own
+ * random stream, taken in order from the caller's, so the ranking is the same
+ * with or without an executor.
+ */
+public class RankSvmEnsemble {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( RankSvmEnsemble.class );
+  /** The c parameter for SVM. */
+  protected double c;
+  /** The feature indices of the examples. */
+  protected FeatureDictionary dictionary;
+  /** The ensemble size (number of classifiers). */
+  protected int size;
+  /** The number of times the size of the minority class to sample. */
+  protected int undersamplingMultiplier;
+  /** The executor for the bags (null to run them in the calling thread). */
+  protected ExecutorService executor;
+
+  /**
+   * Labeled examples over the indices of the dictionary.
+   */
+  public static class Examples {
+    /** The vectors. */
+    protected final SparseVector[] x;
+    /** The targets (the rank, or else the label). */
+    protected final double[] target;
+    /** The query ids. */
+    protected final int[] qid;
+
+    /**
+     * Default constructor.
+     *
+     * @param x
+     * @param target
+     * @param qid
+     */
+    public Examples( SparseVector[] x, double[] target, int[] qid ) {
+      this.x = x;
+      this.target = target;
+      this.qid = qid;
+    }
+
+    /**
+     * Get the number of examples.
+     *
+     * @return
+     */
+    public int size() {
+      return x.length;
+    }
+  }
+
+  /**
+   * Default constructor.
+   *
+   * @param c
+   * @param dictionary
+   * @param size
+   * @param undersamplingMultiplier
+   */
+  public RankSvmEnsemble( double c, FeatureDictionary dictionary, int size,
+      int undersamplingMultiplier ) {
+    this.c = c;
+    this.dictionary = dictionary;
+    this.size = size;
+    this.undersamplingMultiplier = undersamplingMultiplier;
+  }
+
+  /**
+   * Set the executor for the bags (null to run them in the calling thread).
+   *
+   * @param executor
+   */
+  public void setExecutor( ExecutorService executor ) {
+    this.executor = executor;
+  }
+
+  /**
+   * Rank the rows of the test matrix.
+   *
+   * @param minority
+   * @param fixed examples in every bag (may be null)
+   * @param majority
+   * @param test
+   * @param random
+   * @return the rows, best first
+   */
+  public List<Integer> rank( final Examples minority, final Examples fixed,
+      final Examples majority, final CsrMatrix test, Random random ) {
+    // there will be no undersampling if the majority class is smaller than
+    // the minority class, so only rank once
+    int ensembleSize = size;
+    if ( minority.size() * undersamplingMultiplier >= majority.size() ) {
+      ensembleSize = 1;
+    }
+
+    List<Future<List<Integer>>> bags = new ArrayList<>();
+    for ( int i = 1; i <= ensembleSize; i++ ) {
+      // each bag gets its own stream, drawn in order from the caller's
+      final Random bagRandom = new Random( random.nextLong() );
+      final int bagNum = i;
+      Callable<List<Integer>> task = new Callable<List<Integer>>() {
+        @Override
+        public List<Integer> call() {
+          LOG.info( "\tRanking ensemble #" + bagNum );
+          return bag( minority, fixed, majority, test, bagRandom );
+        }
+      };
+      if ( executor == null ) {
+        FutureTask<List<Integer>> f = new FutureTask<>( task );
+        f.run();
+        bags.add( f );
+      } else {
+        bags.add( executor.submit( task ) );
+      }
+    }
+
+    List<List<Integer>> rankings = new ArrayList<>();
+    for ( int i = 0; i < bags.size(); i++ ) {
+      try {
+        rankings.add( bags.get( i ).get() );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException( "Interrupted while ranking ensemble #"
+            + ( i + 1 ), e );
+      } catch ( ExecutionException e ) {
+        throw new RuntimeException( "Could not rank ensemble #" + ( i + 1 ),
+            e.getCause() );
+      }
+    }
+
+    return new BordaAggregator<Integer>().aggregate( rankings );
+  }
+
+  /**
+   * Train a model on an undersampled bag and rank the test rows with it.
+   *
+   * @param minority
+   * @param fixed
+   * @param majority
+   * @param test
+   * @param bagRandom the random number generator for this bag
+   * @return the rows, best first
+   */
+  protected List<Integer> bag( Examples minority, Examples fixed,
+      Examples majority, CsrMatrix test, Random bagRandom ) {
+    int numNegSamples = Math.min( majority.size(), minority.size()
+        * undersamplingMultiplier );
+    List<Integer> shuffled = new ArrayList<>( majority.size() );
+    for ( int i = 0; i < majority.size(); i++ ) {
+      shuffled.add( i );
+    }
+    Collections.shuffle( shuffled, bagRandom );
+
+    int n = minority.size() + ( ( fixed == null ) ? 0 : fixed.size() )
+        + numNegSamples;
+    SparseVector[] x = new SparseVector[n];
+    double[] target = new double[n];
+    int[] qid = new int[n];
+    int k = copy( minority, x, target, qid, 0 );
+    if ( fixed != null ) {
+      k = copy( fixed, x, target, qid, k );
+    }
+    for ( int i = 0; i < numNegSamples; i++ ) {
+      int j = shuffled.get( i );
+      x[k] = majority.x[j];
+      target[k] = majority.target[j];
+      qid[k++] = majority.qid[j];
+    }
+
+    LOG.info( "\t\t# minority instances: " + minority.size() + "\n\t\t"
+        + "# majority instances: " + numNegSamples + "/" + majority.size() );
+    LinearRankSvm<Integer> svm = new LinearRankSvm<>( c, dictionary,
+        bagRandom );
+    svm.train( x, target, qid );
+
+    // rank 1 is the best, so the lowest score ranks first
+    double[] scores = new double[test.numRows()];
+    svm.score( test, 0, scores.length, scores );
+    int[] order = TopKSelector.select( scores, null, scores.length, true );
+    List<Integer> ranking = new ArrayList<>( order.length );
+    for ( int row : order ) {
+      ranking.add( row );
+    }
+
+    return ranking;
+  }
+
+  /**
+   * Copy the examples into the arrays.
+   *
+   * @param examples
+   * @param x
+   * @param target
+   * @param qid
+   * @param offset
+   * @return the offset after the examples
+   */
+  protected static int copy( Examples examples, SparseVector[] x,
+      double[] target, int[] qid, int offset ) {
+    System.arraycopy( examples.x, 0, x, offset, examples.size() );
+    System.arraycopy( examples.target, 0, target, offset, examples.size() );
+    System.arraycopy( examples.qid, 0, qid, offset, examples.size() );
+
+    return offset + examples.size();
+  }
+}
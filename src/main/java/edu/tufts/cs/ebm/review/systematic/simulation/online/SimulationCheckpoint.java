@@ -0,0 +1,317 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.online;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Random;
+
+import edu.tufts.cs.ebm.review.systematic.simulation.RankHistory;
+
+/**
+ * The state of an online simulation between two iterations, so that a
+ * simulation that is interrupted can resume where it left off.
+ *
+ * The file holds a header (magic number, version, dataset, number of
+ * documents), the loop counters, the labeled sets as bit sets over the dense
+ * document ids, the iteration at which each document was first observed, the
+ * scores of the last ranking, the random number generator, the extent of the
+ * rank history and an optional, length-prefixed model section.
+ *
+ * The rank history grows with every iteration, so it is kept in a file of its
+ * own that each checkpoint only appends the new iterations to; the
+ * checkpoint records how many iterations (and bytes) of it are valid.
+ */
+public class SimulationCheckpoint {
+  /** The magic number at the start of every checkpoint ("EBMK"). */
+  public static final int MAGIC = 0x45424D4B;
+  /** The current file format version. */
+  public static final int VERSION = 4;
+  /** The checkpoint file name. */
+  public static final String FILE_NAME = "checkpoint.bin";
+  /** The suffix of the rank history file, next to the checkpoint. */
+  public static final String HISTORY_SUFFIX = ".history";
+  /** The value written for documents that were never observed. */
+  protected static final int NOT_OBSERVED = -1;
+  /** The name of the dataset. */
+  protected String dataset;
+  /** The number of documents. */
+  protected int numDocs;
+  /** The simulation loop iteration. */
+  protected int loopIteration;
+  /** The number of rankings recorded. */
+  protected long iteration;
+  /** The number of papers proposed. */
+  protected int papersProposed;
+  /** The number of consecutive batches with no relevant paper. */
+  protected int batchesWithoutHit;
+  /** The milliseconds the simulation loop had run. */
+  protected long elapsed;
+  /** The length of the stats file. */
+  protected long statsLength;
+  /** The papers labeled relevant, by dense id. */
+  protected BitSet relevant = new BitSet();
+  /** The papers labeled irrelevant, by dense id. */
+  protected BitSet irrelevant = new BitSet();
+  /** The iteration each paper was first observed, by dense id. */
+  protected int[] observed = new int[0];
+  /** The scores of the last ranking, by dense id (NaN if not ranked). */
+  protected double[] scores = new double[0];
+  /** The random number generator. */
+  protected Random random;
+  /** The rank history. */
+  protected RankHistory rankHistory;
+  /** The number of iterations of the rank history in the history file. */
+  protected int historyIterations;
+  /** The length of the history file holding them. */
+  protected long historyLength;
+  /** The serialized model, or null. */
+  protected byte[] model;
+
+  /**
+   * Get the rank history file of the checkpoint.
+   *
+   * @param f the checkpoint file
+   * @return
+   */
+  public static File getHistoryFile( File f ) {
+    return new File( f.getPath() + HISTORY_SUFFIX );
+  }
+
+  /**
+   * Write the checkpoint, replacing the file atomically so that a crash while
+   * writing leaves the previous checkpoint intact. The iterations of the rank
+   * history after the historyIterations already in the history file are
+   * appended to it first.
+   *
+   * @param f
+   * @throws IOException
+   */
+  public void write( File f ) throws IOException {
+    appendHistory( getHistoryFile( f ) );
+
+    File tmp = new File( f.getPath() + ".tmp" );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+        new FileOutputStream( tmp ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      out.writeUTF( dataset );
+      out.writeInt( numDocs );
+
+      out.writeInt( loopIteration );
+      out.writeLong( iteration );
+      out.writeInt( papersProposed );
+      out.writeInt( batchesWithoutHit );
+      out.writeLong( elapsed );
+      out.writeLong( statsLength );
+
+      writeBits( out, relevant );
+      writeBits( out, irrelevant );
+      out.writeInt( observed.length );
+      for ( int it : observed ) {
+        out.writeInt( it );
+      }
+      out.writeInt( scores.length );
+      for ( double score : scores ) {
+        out.writeDouble( score );
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream( bytes );
+      oos.writeObject( random );
+      oos.close();
+      out.writeInt( bytes.size() );
+      bytes.writeTo( out );
+
+      out.writeInt( historyIterations );
+      out.writeLong( historyLength );
+
+      out.writeInt( ( model == null ) ? -1 : model.length );
+      if ( model != null ) {
+        out.write( model );
+      }
+    } finally {
+      out.close();
+    }
+
+    if ( !tmp.renameTo( f ) ) {
+      f.delete();
+      if ( !tmp.renameTo( f ) ) {
+        tmp.delete();
+        throw new IOException( "Could not move checkpoint to " + f );
+      }
+    }
+  }
+
+  /**
+   * Read a checkpoint.
+   *
+   * @param f
+   * @param offHeapHistory whether to keep the rank history off the heap
+   * @return
+   * @throws IOException
+   */
+  public static SimulationCheckpoint read( File f, boolean offHeapHistory )
+    throws IOException {
+    DataInputStream in = new DataInputStream( new BufferedInputStream(
+        new FileInputStream( f ) ) );
+    try {
+      if ( in.readInt() != MAGIC ) {
+        throw new IOException( f + " is not a checkpoint." );
+      }
+      int version = in.readInt();
+      if ( version != VERSION ) {
+        throw new IOException( "Unsupported checkpoint version " + version
+            + " (expected " + VERSION + ")." );
+      }
+
+      SimulationCheckpoint cp = new SimulationCheckpoint();
+      cp.dataset = in.readUTF();
+      cp.numDocs = in.readInt();
+
+      cp.loopIteration = in.readInt();
+      cp.iteration = in.readLong();
+      cp.papersProposed = in.readInt();
+      cp.batchesWithoutHit = in.readInt();
+      cp.elapsed = in.readLong();
+      cp.statsLength = in.readLong();
+
+      cp.relevant = readBits( in );
+      cp.irrelevant = readBits( in );
+      cp.observed = new int[in.readInt()];
+      for ( int i = 0; i < cp.observed.length; i++ ) {
+        cp.observed[i] = in.readInt();
+      }
+      cp.scores = new double[in.readInt()];
+      for ( int i = 0; i < cp.scores.length; i++ ) {
+        cp.scores[i] = in.readDouble();
+      }
+
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully( bytes );
+      ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream(
+          bytes ) );
+      try {
+        cp.random = (Random) ois.readObject();
+      } catch ( ClassNotFoundException e ) {
+        throw new IOException( "Could not read the random number generator.",
+            e );
+      } finally {
+        ois.close();
+      }
+
+      cp.historyIterations = in.readInt();
+      cp.historyLength = in.readLong();
+
+      int modelLength = in.readInt();
+      if ( modelLength >= 0 ) {
+        cp.model = new byte[modelLength];
+        in.readFully( cp.model );
+      }
+
+      cp.readHistory( getHistoryFile( f ), offHeapHistory );
+
+      return cp;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Append the new iterations of the rank history to the history file, after
+   * dropping anything past the historyLength bytes that are valid (e.g. from
+   * a crash after appending).
+   *
+   * @param f
+   * @throws IOException
+   */
+  protected void appendHistory( File f ) throws IOException {
+    if ( rankHistory == null ) {
+      return;
+    }
+
+    FileOutputStream fos = new FileOutputStream( f, true );
+    try {
+      FileChannel channel = fos.getChannel();
+      if ( channel.size() < historyLength ) {
+        throw new IOException( f + " is shorter than the checkpoint says." );
+      }
+      channel.truncate( historyLength );
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+          fos ) );
+      rankHistory.write( out, historyIterations, rankHistory
+          .getNumIterations() );
+      out.flush();
+      historyIterations = rankHistory.getNumIterations();
+      historyLength = channel.size();
+    } finally {
+      fos.close();
+    }
+  }
+
+  /**
+   * Read the valid iterations of the rank history from the history file.
+   *
+   * @param f
+   * @param offHeapHistory whether to keep the rank history off the heap
+   * @throws IOException
+   */
+  protected void readHistory( File f, boolean offHeapHistory )
+    throws IOException {
+    if ( historyIterations == 0 ) {
+      return;
+    }
+
+    DataInputStream in = new DataInputStream( new BufferedInputStream(
+        new FileInputStream( f ) ) );
+    try {
+      rankHistory = RankHistory.read( in, historyIterations,
+          RankHistory.DEFAULT_CHUNK_SIZE, offHeapHistory );
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Write a bit set as its words.
+   *
+   * @param out
+   * @param bits
+   * @throws IOException
+   */
+  protected static void writeBits( DataOutputStream out, BitSet bits )
+    throws IOException {
+    long[] words = bits.toLongArray();
+    out.writeInt( words.length );
+    for ( long word : words ) {
+      out.writeLong( word );
+    }
+  }
+
+  /**
+   * Read a bit set written by writeBits(...).
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  protected static BitSet readBits( DataInputStream in ) throws IOException {
+    long[] words = new long[in.readInt()];
+    for ( int i = 0; i < words.length; i++ ) {
+      words[i] = in.readLong();
+    }
+
+    return BitSet.valueOf( words );
+  }
+}
@@ -16,7 +16,6 @@ import org.apache.commons.logging.LogFactory;
 import com.google.common.collect.TreeMultimap;
 
 import edu.tufts.cs.ebm.refinement.query.InfoMeasure;
-import edu.tufts.cs.ebm.refinement.query.ParallelPubmedSearcher;
 import edu.tufts.cs.ebm.review.systematic.Citation;
 import edu.tufts.cs.ebm.review.systematic.simulation.online.OnlineSimulator;
 import edu.tufts.cs.ebm.util.MathUtil;
@@ -75,38 +74,7 @@ public abstract class OnlineSimulationReplacement<I, C> extends
   protected void recordRank( TreeMultimap<Double, I> rankMap, Set<I> proposals,
       Set<I> expertIrrelevantPapers ) {
 
-    // get probability information
-    if ( z == -1 ) {
-      z = calcZ( rankMap.values().size() );
-    }
-
-    int rank = 1;
-    for ( Double sim : rankMap.keySet().descendingSet() ) {
-      for ( I pmid : rankMap.get( sim ) ) {
-        String rankStr = rankOutput.get( pmid );
-        if ( rankStr == null ) {
-          rankStr = "";
-        } else {
-          rankStr += ",";
-        }
-        rankStr += String.valueOf( rank );
-        rankOutput.put( pmid, rankStr );
-
-        double prob = (double) 1 / (double) rank / z;
-        prob = MathUtil.round( prob, 7 );
-
-        String probStr = probOutput.get( pmid );
-        if ( probStr == null ) {
-          probStr = "";
-        } else {
-          probStr += ",";
-        }
-        probStr += String.valueOf( prob );
-        probOutput.put( pmid, probStr );
-
-        rank++;
-      }
-    }
+    recordRankHistory( rankMap );
 
     for ( I pmid : proposals ) {
       String observStr = observOutput.get( pmid );
@@ -125,6 +93,8 @@ public abstract class OnlineSimulationReplacement<I, C> extends
   @SuppressWarnings("unchecked")
   @Override
   public void simulateReview() throws InterruptedException, IOException {
+    initializeReview();
+
     // prepare the CSV output
     FileWriter fw = new FileWriter( statsFile );
     BufferedWriter out = new BufferedWriter( fw );
@@ -143,16 +113,16 @@ public abstract class OnlineSimulationReplacement<I, C> extends
     Map<I, C> expertIrrelevantPapers = new HashMap<>();
 
     // run the initial query
-    ParallelPubmedSearcher searcher = new ParallelPubmedSearcher( "("
-        + popQuery + ") AND (" + icQuery + ")", activeReview );
-    search( searcher );
+    Set<Citation> corpus = search( activeReview, "(" + popQuery + ") AND ("
+        + icQuery + ")" );
 
-    initializeClassifier( searcher.getCitations() );
-    Map<I, C> citations = createFeatureVectors( searcher.getCitations() );
+    initializeClassifier( corpus );
+    Map<I, C> citations = createFeatureVectors( corpus );
 
     // populate the relevant papers with the seed citations
     for ( Citation c : activeReview.getSeedCitations() ) {
       expertRelevantPapers.put( (I) c.getPmid(), citations.get( c.getPmid() ) );
+      observe( (I) c.getPmid(), true );
     }
 
     // gather initial statistics on the results
@@ -161,7 +131,7 @@ public abstract class OnlineSimulationReplacement<I, C> extends
     evaluateQuery( rankMap, expertRelevantPapers.keySet(),
         expertIrrelevantPapers.keySet() );
 
-    int numPapersToObserve = (int) Math.ceil( searcher.getCitations().size()
+    int numPapersToObserve = (int) Math.ceil( corpus.size()
         * PERCENT_TO_OBSERVE );
 
     LOG.info( "Observing at least " + PERCENT_TO_OBSERVE
@@ -189,13 +159,14 @@ public abstract class OnlineSimulationReplacement<I, C> extends
           } else {
             expertIrrelevantPapers.put( pmid, citations.get( pmid ) );
           }
+          observe( pmid, accepted.contains( pmid ) );
         }
 
         double observedRel = (double) accepted.size()
             / (double) paperProposals.size();
         double expectedRel = ( activeReview.getRelevantLevel1().size() - expertRelevantPapers
             .size() )
-            / ( (double) searcher.getCitations().size()
+            / ( (double) corpus.size()
                 - expertRelevantPapers.size() - expertIrrelevantPapers.size() );
         LOG.info( "% observed relevant: " + observedRel );
         LOG.info( "%cR expected relevant: " + expectedRel );
@@ -27,12 +27,15 @@ public class Util {
   }
 
   public static SystematicReview createReview( String name, String creator ) {
-    MainController.EM.getTransaction().begin();
     SystematicReview review = new SystematicReview();
     review.setName( name );
     review.setCreator( creator );
-    MainController.EM.persist( review );
-    MainController.EM.getTransaction().commit();
+    // the entity manager is not thread-safe, so every use of it locks it
+    synchronized ( MainController.EM ) {
+      MainController.EM.getTransaction().begin();
+      MainController.EM.persist( review );
+      MainController.EM.getTransaction().commit();
+    }
 
     return review;
   }
@@ -44,19 +47,21 @@ public class Util {
    * @return
    */
   public static PubmedId createOrUpdatePmid( long l ) {
-    PubmedId pmid = MainController.EM.find( PubmedId.class, l );
-    if ( pmid == null ) {
-      MainController.EM.getTransaction().begin();
-      try {
-        pmid = new PubmedId( l );
-        MainController.EM.persist( pmid );
-      } catch ( NumberFormatException e ) {
-        LOG.warn( "Invalid PubMed id: " + l, e );
+    synchronized ( MainController.EM ) {
+      PubmedId pmid = MainController.EM.find( PubmedId.class, l );
+      if ( pmid == null ) {
+        MainController.EM.getTransaction().begin();
+        try {
+          pmid = new PubmedId( l );
+          MainController.EM.persist( pmid );
+        } catch ( NumberFormatException e ) {
+          LOG.warn( "Invalid PubMed id: " + l, e );
+        }
+        MainController.EM.getTransaction().commit();
       }
-      MainController.EM.getTransaction().commit();
-    }
 
-    return pmid;
+      return pmid;
+    }
   }
 
   /**
@@ -66,9 +71,9 @@ public class Util {
    * @return
    */
   public static Citation getCitation( PubmedId id ) {
-    Citation c = MainController.EM.find( Citation.class, id.longValue() );
-
-    return c;
+    synchronized ( MainController.EM ) {
+      return MainController.EM.find( Citation.class, id.longValue() );
+    }
   }
 
   /**
@@ -0,0 +1,277 @@
+package edu.tufts.cs.features;
+
+import java.util.Arrays;
+
+/**
+ * A sparse matrix in compressed sparse row form: the columns and values of
+ * row i are indices[indptr[i]] to indices[indptr[i + 1] - 1] and the same
+ * range of values. The columns of each row are sorted, so that the kernels
+ * below can work on the primitive arrays directly.
+ */
+public class CsrMatrix {
+  /** The row pointers (one more than the number of rows). */
+  protected final int[] indptr;
+  /** The column indices. */
+  protected final int[] indices;
+  /** The values. */
+  protected final float[] values;
+
+  /**
+   * Default constructor.
+   *
+   * @param indptr
+   * @param indices
+   * @param values
+   */
+  public CsrMatrix( int[] indptr, int[] indices, float[] values ) {
+    if ( indptr.length == 0 || indices.length != values.length
+        || indptr[indptr.length - 1] != indices.length ) {
+      throw new IllegalArgumentException( "Inconsistent CSR arrays." );
+    }
+    this.indptr = indptr;
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Build a matrix from its rows.
+   *
+   * @param rows
+   * @return
+   */
+  public static CsrMatrix create( SparseVector[] rows ) {
+    int[] indptr = new int[rows.length + 1];
+    for ( int i = 0; i < rows.length; i++ ) {
+      indptr[i + 1] = indptr[i] + rows[i].size();
+    }
+    int[] indices = new int[indptr[rows.length]];
+    float[] values = new float[indptr[rows.length]];
+    for ( int i = 0; i < rows.length; i++ ) {
+      for ( int k = 0; k < rows[i].size(); k++ ) {
+        indices[indptr[i] + k] = rows[i].index( k );
+        values[indptr[i] + k] = (float) rows[i].value( k );
+      }
+    }
+
+    return new CsrMatrix( indptr, indices, values );
+  }
+
+  /**
+   * Get the number of rows.
+   *
+   * @return
+   */
+  public int numRows() {
+    return indptr.length - 1;
+  }
+
+  /**
+   * Get the number of stored (non-zero) values.
+   *
+   * @return
+   */
+  public int nnz() {
+    return indices.length;
+  }
+
+  /**
+   * Get the number of stored values in the row.
+   *
+   * @param row
+   * @return
+   */
+  public int rowLength( int row ) {
+    return indptr[row + 1] - indptr[row];
+  }
+
+  /**
+   * Get the row as a sparse vector.
+   *
+   * @param row
+   * @return
+   */
+  public SparseVector row( int row ) {
+    int start = indptr[row];
+    int end = indptr[row + 1];
+    double[] val = new double[end - start];
+    for ( int k = start; k < end; k++ ) {
+      val[k - start] = values[k];
+    }
+
+    return new SparseVector( Arrays.copyOfRange( indices, start, end ), val );
+  }
+
+  /**
+   * The dot product of the row with a dense weight vector; columns beyond the
+   * end of the weights count as 0.
+   *
+   * @param row
+   * @param w
+   * @return
+   */
+  public double dot( int row, double[] w ) {
+    double sum = 0;
+    for ( int k = indptr[row]; k < indptr[row + 1]; k++ ) {
+      int col = indices[k];
+      if ( col < w.length ) {
+        sum += w[col] * values[k];
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * The dot product of two rows.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  public double dot( int a, int b ) {
+    double sum = 0;
+    int i = indptr[a];
+    int j = indptr[b];
+    int endA = indptr[a + 1];
+    int endB = indptr[b + 1];
+    while ( i < endA && j < endB ) {
+      if ( indices[i] == indices[j] ) {
+        sum += values[i++] * values[j++];
+      } else if ( indices[i] < indices[j] ) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * The dot product of the row with a sparse vector.
+   *
+   * @param row
+   * @param v
+   * @return
+   */
+  public double dot( int row, SparseVector v ) {
+    double sum = 0;
+    int i = indptr[row];
+    int end = indptr[row + 1];
+    int j = 0;
+    while ( i < end && j < v.size() ) {
+      int col = v.index( j );
+      if ( indices[i] == col ) {
+        sum += values[i++] * v.value( j++ );
+      } else if ( indices[i] < col ) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * The dot products of every row with a dense weight vector.
+   *
+   * @param w
+   * @return
+   */
+  public double[] multiply( double[] w ) {
+    double[] result = new double[numRows()];
+    for ( int row = 0; row < result.length; row++ ) {
+      result[row] = dot( row, w );
+    }
+
+    return result;
+  }
+
+  /**
+   * The squared Euclidean norm of the row.
+   *
+   * @param row
+   * @return
+   */
+  public double squaredNorm( int row ) {
+    double sum = 0;
+    for ( int k = indptr[row]; k < indptr[row + 1]; k++ ) {
+      sum += values[k] * values[k];
+    }
+
+    return sum;
+  }
+
+  /**
+   * The Euclidean norm of the row.
+   *
+   * @param row
+   * @return
+   */
+  public double norm( int row ) {
+    return Math.sqrt( squaredNorm( row ) );
+  }
+
+  /**
+   * Add the row, multiplied by the scale, to the dense weights.
+   *
+   * @param row
+   * @param w
+   * @param scale
+   */
+  public void addTo( int row, double[] w, double scale ) {
+    for ( int k = indptr[row]; k < indptr[row + 1]; k++ ) {
+      w[indices[k]] += scale * values[k];
+    }
+  }
+
+  /**
+   * Get a matrix of the selected rows, in the given order.
+   *
+   * @param rows
+   * @return
+   */
+  public CsrMatrix slice( int[] rows ) {
+    int[] ptr = new int[rows.length + 1];
+    for ( int i = 0; i < rows.length; i++ ) {
+      ptr[i + 1] = ptr[i] + rowLength( rows[i] );
+    }
+    int[] idx = new int[ptr[rows.length]];
+    float[] val = new float[ptr[rows.length]];
+    for ( int i = 0; i < rows.length; i++ ) {
+      int start = indptr[rows[i]];
+      System.arraycopy( indices, start, idx, ptr[i], ptr[i + 1] - ptr[i] );
+      System.arraycopy( values, start, val, ptr[i], ptr[i + 1] - ptr[i] );
+    }
+
+    return new CsrMatrix( ptr, idx, val );
+  }
+
+  /**
+   * Get the row pointers.
+   *
+   * @return
+   */
+  public int[] getIndptr() {
+    return this.indptr;
+  }
+
+  /**
+   * Get the column indices.
+   *
+   * @return
+   */
+  public int[] getIndices() {
+    return this.indices;
+  }
+
+  /**
+   * Get the values.
+   *
+   * @return
+   */
+  public float[] getValues() {
+    return this.values;
+  }
+}
@@ -0,0 +1,235 @@
+package edu.tufts.cs.features;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import edu.tufts.cs.ml.DoubleFeature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * A collection of documents held as one compressed sparse row matrix over
+ * the indices of a FeatureDictionary, instead of one map of boxed features
+ * per document.
+ *
+ * Classifiers that still need FeatureVectors get them through
+ * getFeatureVector(...) and asMap(), which build the vectors from the rows on
+ * demand; they are not retained, so changes to them (e.g. qid or rank) are
+ * not kept.
+ *
+ * @param <I> the document id type
+ */
+public class CsrRelation<I> {
+  /** The document ids, by row. */
+  protected final List<I> ids;
+  /** The rows, keyed by document id. */
+  protected final Map<I, Integer> rows = new HashMap<>();
+  /** The rows, keyed by the string form of the document id. */
+  protected final Map<String, Integer> rowsByName = new HashMap<>();
+  /** The matrix. */
+  protected final CsrMatrix matrix;
+  /** The dictionary of the matrix columns. */
+  protected final FeatureDictionary dictionary;
+
+  /**
+   * Default constructor.
+   *
+   * @param ids the document ids, by row
+   * @param matrix
+   * @param dictionary
+   */
+  public CsrRelation( List<I> ids, CsrMatrix matrix,
+      FeatureDictionary dictionary ) {
+    if ( ids.size() != matrix.numRows() ) {
+      throw new IllegalArgumentException( ids.size() + " ids for "
+          + matrix.numRows() + " rows." );
+    }
+    this.ids = Collections.unmodifiableList( new ArrayList<>( ids ) );
+    this.matrix = matrix;
+    this.dictionary = dictionary;
+    for ( int i = 0; i < ids.size(); i++ ) {
+      rows.put( ids.get( i ), i );
+      rowsByName.put( String.valueOf( ids.get( i ) ), i );
+    }
+  }
+
+  /**
+   * Convert the feature vectors, adding their features to the dictionary.
+   *
+   * @param fvs
+   * @param dictionary
+   * @return
+   */
+  public static <I> CsrRelation<I> create(
+      Map<I, ? extends FeatureVector<?>> fvs, FeatureDictionary dictionary ) {
+    List<I> ids = new ArrayList<>( fvs.size() );
+    SparseVector[] vectors = new SparseVector[fvs.size()];
+    int i = 0;
+    for ( Map.Entry<I, ? extends FeatureVector<?>> e : fvs.entrySet() ) {
+      ids.add( e.getKey() );
+      vectors[i++] = dictionary.convert( e.getValue() );
+    }
+
+    return new CsrRelation<>( ids, CsrMatrix.create( vectors ), dictionary );
+  }
+
+  /**
+   * Get the number of documents.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Get the document ids, by row.
+   *
+   * @return
+   */
+  public List<I> getIds() {
+    return this.ids;
+  }
+
+  /**
+   * Get the row of the document.
+   *
+   * @param id
+   * @return the row, or -1 if the document is not in the relation
+   */
+  public int indexOf( Object id ) {
+    Integer row = rows.get( id );
+
+    return ( row == null ) ? -1 : row;
+  }
+
+  /**
+   * Get the vector of the document, by the string form of its id.
+   *
+   * @param name
+   * @return the vector, or null if the document is not in the relation
+   */
+  public SparseVector getRow( String name ) {
+    Integer row = rowsByName.get( name );
+
+    return ( row == null ) ? null : matrix.row( row );
+  }
+
+  /**
+   * Get the matrix.
+   *
+   * @return
+   */
+  public CsrMatrix getMatrix() {
+    return this.matrix;
+  }
+
+  /**
+   * Get the dictionary of the matrix columns.
+   *
+   * @return
+   */
+  public FeatureDictionary getDictionary() {
+    return this.dictionary;
+  }
+
+  /**
+   * Build the FeatureVector of a row.
+   *
+   * @param row
+   * @return
+   */
+  public <E> UnlabeledFeatureVector<E> getFeatureVector( int row ) {
+    UnlabeledFeatureVector<E> fv = new UnlabeledFeatureVector<E>(
+        String.valueOf( ids.get( row ) ) );
+    int[] indptr = matrix.getIndptr();
+    int[] indices = matrix.getIndices();
+    float[] values = matrix.getValues();
+    for ( int k = indptr[row]; k < indptr[row + 1]; k++ ) {
+      String name = dictionary.getName( indices[k] );
+      fv.put( name, new DoubleFeature( name, (double) values[k] ) );
+    }
+
+    return fv;
+  }
+
+  /**
+   * Get a read-only view of the relation as FeatureVectors keyed by document
+   * id. The vectors are built from the rows each time they are read.
+   *
+   * @return
+   */
+  public <E> Map<I, FeatureVector<E>> asMap() {
+    return new AbstractMap<I, FeatureVector<E>>() {
+      @Override
+      public int size() {
+        return ids.size();
+      }
+
+      @Override
+      public boolean containsKey( Object key ) {
+        return rows.containsKey( key );
+      }
+
+      @Override
+      public FeatureVector<E> get( Object key ) {
+        Integer row = rows.get( key );
+
+        return ( row == null ) ? null : CsrRelation.this
+            .<E> getFeatureVector( row );
+      }
+
+      @Override
+      public Set<I> keySet() {
+        return Collections.unmodifiableSet( rows.keySet() );
+      }
+
+      @Override
+      public Set<Map.Entry<I, FeatureVector<E>>> entrySet() {
+        return new AbstractSet<Map.Entry<I, FeatureVector<E>>>() {
+          @Override
+          public int size() {
+            return ids.size();
+          }
+
+          @Override
+          public Iterator<Map.Entry<I, FeatureVector<E>>> iterator() {
+            return new Iterator<Map.Entry<I, FeatureVector<E>>>() {
+              private int row = 0;
+
+              @Override
+              public boolean hasNext() {
+                return row < ids.size();
+              }
+
+              @Override
+              public Map.Entry<I, FeatureVector<E>> next() {
+                if ( !hasNext() ) {
+                  throw new NoSuchElementException();
+                }
+                I id = ids.get( row );
+                FeatureVector<E> fv = CsrRelation.this
+                    .<E> getFeatureVector( row++ );
+
+                return new AbstractMap.SimpleImmutableEntry<>( id, fv );
+              }
+
+              @Override
+              public void remove() {
+                throw new UnsupportedOperationException();
+              }
+            };
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,394 @@
+package edu.tufts.cs.features;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import edu.tufts.cs.ml.DoubleFeature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * A document-term matrix saved to disk and read back through a
+ * memory-mapped file, so that a corpus that has been vectorized before does
+ * not need to be tokenized again.
+ *
+ * The file holds a header (magic number, version, fingerprint), the
+ * vocabulary, the document ids and the matrix in compressed sparse row form
+ * (row pointers, term indices, float values). Strings are length-prefixed
+ * UTF-8. The fingerprint identifies the corpus and the vectorization
+ * parameters the matrix was built from.
+ *
+ * Mapping the file makes loading a bulk copy rather than a parse; the matrix
+ * is still held on the heap once it is read (see getMatrix).
+ */
+public class FeatureCache {
+  /** The magic number at the start of every cache file ("EBMF"). */
+  public static final int MAGIC = 0x45424D46;
+  /** The current file format version. */
+  public static final int VERSION = 1;
+  /** The cache file extension. */
+  public static final String EXTENSION = ".features";
+  /** The string encoding. */
+  protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+  /** The mapped file. */
+  protected ByteBuffer buf;
+  /** The fingerprint. */
+  protected String fingerprint;
+  /** The vocabulary. */
+  protected String[] terms;
+  /** The document ids. */
+  protected String[] ids;
+  /** The offset of the row pointers. */
+  protected int indptr;
+  /** The offset of the term indices. */
+  protected int indices;
+  /** The offset of the values. */
+  protected int values;
+
+  /**
+   * Default constructor.
+   *
+   * @param buf
+   * @throws IOException
+   */
+  protected FeatureCache( ByteBuffer buf ) throws IOException {
+    this.buf = buf;
+    if ( buf.capacity() < 8 || buf.getInt( 0 ) != MAGIC ) {
+      throw new IOException( "Not a feature cache." );
+    }
+    int version = buf.getInt( 4 );
+    if ( version != VERSION ) {
+      throw new IOException( "Unsupported feature cache version " + version
+          + " (expected " + VERSION + ")." );
+    }
+
+    ByteBuffer b = buf.duplicate();
+    b.position( 8 );
+    this.fingerprint = readString( b );
+    this.terms = new String[b.getInt()];
+    for ( int i = 0; i < terms.length; i++ ) {
+      terms[i] = readString( b );
+    }
+    this.ids = new String[b.getInt()];
+    for ( int i = 0; i < ids.length; i++ ) {
+      ids[i] = readString( b );
+    }
+    this.indptr = b.position();
+    this.indices = indptr + ( ids.length + 1 ) * 4;
+    this.values = indices + buf.getInt( indptr + ids.length * 4 ) * 4;
+  }
+
+  /**
+   * Open the cache file.
+   *
+   * @param f
+   * @return
+   * @throws IOException
+   */
+  public static FeatureCache open( File f ) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile( f, "r" );
+    try {
+      FileChannel channel = raf.getChannel();
+      if ( channel.size() > Integer.MAX_VALUE ) {
+        throw new IOException( "Feature cache " + f + " is too large to map." );
+      }
+      // the mapping stays valid after the channel is closed
+      return new FeatureCache( channel.map( FileChannel.MapMode.READ_ONLY, 0,
+          channel.size() ) );
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Write the feature vectors to the cache file.
+   *
+   * @param f
+   * @param fingerprint
+   * @param fvs the feature vectors, keyed by document id
+   * @throws IOException
+   */
+  public static void write( File f, String fingerprint,
+      Map<String, ? extends FeatureVector<?>> fvs ) throws IOException {
+    write( f, fingerprint, CsrRelation.create( fvs, new FeatureDictionary() ) );
+  }
+
+  /**
+   * Write the relation to the cache file. The file is written under a
+   * temporary name and then renamed, so readers never see a partial cache.
+   *
+   * @param f
+   * @param fingerprint
+   * @param relation
+   * @throws IOException
+   */
+  public static void write( File f, String fingerprint,
+      CsrRelation<?> relation ) throws IOException {
+    FeatureDictionary dictionary = relation.getDictionary();
+    CsrMatrix matrix = relation.getMatrix();
+
+    File tmp = new File( f.getPath() + "." + Thread.currentThread().getId()
+        + ".tmp" );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+        new FileOutputStream( tmp ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      writeString( out, fingerprint );
+      // the dictionary may grow while writing; the matrix only uses a prefix
+      int numTerms = dictionary.size();
+      out.writeInt( numTerms );
+      for ( int i = 0; i < numTerms; i++ ) {
+        writeString( out, dictionary.getName( i ) );
+      }
+      out.writeInt( relation.size() );
+      for ( Object id : relation.getIds() ) {
+        writeString( out, String.valueOf( id ) );
+      }
+
+      long matrixBytes = ( relation.size() + 1 + 2L * matrix.nnz() ) * 4;
+      if ( out.size() + matrixBytes > Integer.MAX_VALUE ) {
+        throw new IOException( "Corpus is too large for a feature cache." );
+      }
+      for ( int ptr : matrix.getIndptr() ) {
+        out.writeInt( ptr );
+      }
+      for ( int index : matrix.getIndices() ) {
+        out.writeInt( index );
+      }
+      for ( float value : matrix.getValues() ) {
+        out.writeFloat( value );
+      }
+    } finally {
+      out.close();
+    }
+
+    if ( !tmp.renameTo( f ) ) {
+      f.delete();
+      if ( !tmp.renameTo( f ) ) {
+        tmp.delete();
+        throw new IOException( "Could not move feature cache to " + f );
+      }
+    }
+  }
+
+  /**
+   * Fingerprint the vectorization parameters and the documents.
+   *
+   * @param params
+   * @param texts the document texts, keyed (and so ordered) by id
+   * @return
+   */
+  public static String fingerprint( List<String> params,
+      SortedMap<String, String> texts ) {
+    return fingerprint( params, texts.entrySet() );
+  }
+
+  /**
+   * Fingerprint the parameters and the documents, without holding all of
+   * their texts at once.
+   *
+   * @param params
+   * @param texts the document ids and texts, ordered by id
+   * @return
+   */
+  public static String fingerprint( List<String> params,
+      Iterable<? extends Map.Entry<String, String>> texts ) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance( "SHA-1" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( "SHA-1 is not available.", e );
+    }
+    for ( String param : params ) {
+      update( md, param );
+    }
+    for ( Map.Entry<String, String> e : texts ) {
+      update( md, e.getKey() );
+      update( md, e.getValue() );
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for ( byte b : md.digest() ) {
+      sb.append( String.format( "%02x", b ) );
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Get the fingerprint.
+   *
+   * @return
+   */
+  public String getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * Get the number of documents.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * Get the id of the ith document.
+   *
+   * @param i
+   * @return
+   */
+  public String getId( int i ) {
+    return ids[i];
+  }
+
+  /**
+   * Get the number of terms.
+   *
+   * @return
+   */
+  public int getNumTerms() {
+    return terms.length;
+  }
+
+  /**
+   * Get the term at the index.
+   *
+   * @param term
+   * @return
+   */
+  public String getTerm( int term ) {
+    return terms[term];
+  }
+
+  /**
+   * Get the ith row of the matrix.
+   *
+   * @param i
+   * @return
+   */
+  public SparseVector getRow( int i ) {
+    int start = buf.getInt( indptr + i * 4 );
+    int end = buf.getInt( indptr + ( i + 1 ) * 4 );
+    int[] idx = new int[end - start];
+    double[] val = new double[end - start];
+    for ( int k = start; k < end; k++ ) {
+      idx[k - start] = buf.getInt( indices + k * 4 );
+      val[k - start] = buf.getFloat( values + k * 4 );
+    }
+
+    return new SparseVector( idx, val );
+  }
+
+  /**
+   * Read the whole matrix onto the heap. The mapping saves parsing the file,
+   * not the heap of the matrix: the CsrMatrix kernels work on primitive
+   * arrays, so the rows are copied out in bulk. Use getRow to read single
+   * rows straight from the mapped file.
+   *
+   * @return
+   */
+  public CsrMatrix getMatrix() {
+    int[] ptr = new int[ids.length + 1];
+    ByteBuffer b = buf.duplicate();
+    b.position( indptr );
+    b.asIntBuffer().get( ptr );
+    int nnz = ptr[ids.length];
+    int[] idx = new int[nnz];
+    b.position( indices );
+    b.asIntBuffer().get( idx );
+    float[] val = new float[nnz];
+    b.position( values );
+    b.asFloatBuffer().get( val );
+
+    return new CsrMatrix( ptr, idx, val );
+  }
+
+  /**
+   * Build a dictionary of the vocabulary, in index order.
+   *
+   * @return
+   */
+  public FeatureDictionary getDictionary() {
+    FeatureDictionary dictionary = new FeatureDictionary();
+    for ( String term : terms ) {
+      dictionary.add( term );
+    }
+
+    return dictionary;
+  }
+
+  /**
+   * Get the ith document as a feature vector.
+   *
+   * @param i
+   * @return
+   */
+  public <E> UnlabeledFeatureVector<E> getFeatureVector( int i ) {
+    UnlabeledFeatureVector<E> fv = new UnlabeledFeatureVector<E>( ids[i] );
+    SparseVector row = getRow( i );
+    for ( int k = 0; k < row.size(); k++ ) {
+      String term = terms[row.index( k )];
+      fv.put( term, new DoubleFeature( term, row.value( k ) ) );
+    }
+
+    return fv;
+  }
+
+  /**
+   * Add a length-prefixed string to the digest.
+   *
+   * @param md
+   * @param s
+   */
+  protected static void update( MessageDigest md, String s ) {
+    if ( s == null ) {
+      md.update( new byte[] { -1, -1, -1, -1 } );
+    } else {
+      byte[] bytes = s.getBytes( UTF8 );
+      md.update( ByteBuffer.allocate( 4 ).putInt( bytes.length ).array() );
+      md.update( bytes );
+    }
+  }
+
+  /**
+   * Write a length-prefixed string.
+   *
+   * @param out
+   * @param s
+   * @throws IOException
+   */
+  protected static void writeString( DataOutputStream out, String s )
+    throws IOException {
+    byte[] bytes = s.getBytes( UTF8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  /**
+   * Read a length-prefixed string.
+   *
+   * @param b
+   * @return
+   */
+  protected static String readString( ByteBuffer b ) {
+    byte[] bytes = new byte[b.getInt()];
+    b.get( bytes );
+
+    return new String( bytes, UTF8 );
+  }
+}
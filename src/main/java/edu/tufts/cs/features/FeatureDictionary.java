@@ -0,0 +1,193 @@
+package edu.tufts.cs.features;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.tufts.cs.ml.DoubleFeature;
+import edu.tufts.cs.ml.Feature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * Maps feature names to dense int indices and converts feature vectors to
+ * sparse vectors over those indices, caching the result per vector id.
+ *
+ * Thread-safe, so that models trained concurrently can share one dictionary.
+ */
+public class FeatureDictionary {
+  /** The feature indices, keyed by name. */
+  protected Map<String, Integer> ids = new HashMap<>();
+  /** The feature names, by index. */
+  protected List<String> names = new ArrayList<>();
+  /** The converted vectors, keyed by feature vector id. */
+  protected Map<String, SparseVector> cache = new HashMap<>();
+  /** The documents whose vectors are read from their rows, or null. */
+  protected CsrRelation<?> rows;
+
+  /**
+   * Get the index of the feature, adding it if it is new.
+   *
+   * @param name
+   * @return
+   */
+  public synchronized int add( String name ) {
+    Integer id = ids.get( name );
+    if ( id == null ) {
+      id = names.size();
+      ids.put( name, id );
+      names.add( name );
+    }
+
+    return id;
+  }
+
+  /**
+   * Get the index of the feature.
+   *
+   * @param name
+   * @return the index, or -1 if the feature is unknown
+   */
+  public synchronized int indexOf( String name ) {
+    Integer id = ids.get( name );
+
+    return ( id == null ) ? -1 : id;
+  }
+
+  /**
+   * Get the name of the feature at the index.
+   *
+   * @param id
+   * @return
+   */
+  public synchronized String getName( int id ) {
+    return names.get( id );
+  }
+
+  /**
+   * Get the number of features.
+   *
+   * @return
+   */
+  public synchronized int size() {
+    return names.size();
+  }
+
+  /**
+   * Read the vectors of the relation's documents from its rows rather than
+   * converting and caching them. The relation must be over this dictionary.
+   *
+   * @param relation
+   */
+  public synchronized void setRows( CsrRelation<?> relation ) {
+    if ( relation != null && relation.getDictionary() != this ) {
+      throw new IllegalArgumentException(
+          "The relation is over another dictionary." );
+    }
+    this.rows = relation;
+  }
+
+  /**
+   * Convert the feature vector, adding any new features. Vectors with an id
+   * are converted once and then served from the cache, or read from the rows
+   * of the relation they belong to.
+   *
+   * @param fv
+   * @return
+   */
+  public synchronized SparseVector vectorize( FeatureVector<?> fv ) {
+    String key = fv.getId();
+    SparseVector v = ( key == null ) ? null : cache.get( key );
+    if ( v == null && key != null && rows != null ) {
+      v = rows.getRow( key );
+    }
+    if ( v == null ) {
+      v = convert( fv );
+      if ( key != null ) cache.put( key, v );
+    }
+
+    return v;
+  }
+
+  /**
+   * Convert the feature vector without caching it, adding any new features.
+   *
+   * @param fv
+   * @return
+   */
+  public synchronized SparseVector convert( FeatureVector<?> fv ) {
+    int[] indices = new int[fv.size()];
+    double[] values = new double[fv.size()];
+    int n = 0;
+    for ( Map.Entry<String, Feature<?>> e : fv.entrySet() ) {
+      double value = valueOf( e.getValue() );
+      if ( value != 0 ) {
+        indices[n] = add( e.getKey() );
+        values[n++] = value;
+      }
+    }
+
+    return SparseVector.sort( indices, values, n );
+  }
+
+  /**
+   * Convert the feature vector without caching it or adding features;
+   * features that are unknown are dropped.
+   *
+   * @param fv
+   * @return
+   */
+  public synchronized SparseVector lookup( FeatureVector<?> fv ) {
+    int[] indices = new int[fv.size()];
+    double[] values = new double[fv.size()];
+    int n = 0;
+    for ( Map.Entry<String, Feature<?>> e : fv.entrySet() ) {
+      double value = valueOf( e.getValue() );
+      Integer id = ids.get( e.getKey() );
+      if ( value != 0 && id != null ) {
+        indices[n] = id;
+        values[n++] = value;
+      }
+    }
+
+    return SparseVector.sort( indices, values, n );
+  }
+
+  /**
+   * Convert the sparse vector back to a feature vector.
+   *
+   * @param id
+   * @param v
+   * @return
+   */
+  public synchronized <E> UnlabeledFeatureVector<E> toFeatureVector(
+      String id, SparseVector v ) {
+    UnlabeledFeatureVector<E> fv = new UnlabeledFeatureVector<E>( id );
+    for ( int i = 0; i < v.size(); i++ ) {
+      String name = names.get( v.index( i ) );
+      fv.put( name, new DoubleFeature( name, v.value( i ) ) );
+    }
+
+    return fv;
+  }
+
+  /**
+   * Forget the converted vectors (e.g. after the feature values change).
+   */
+  public synchronized void clearCache() {
+    cache.clear();
+  }
+
+  /**
+   * Get the numeric value of the feature; non-numeric features count as 0.
+   *
+   * @param f
+   * @return
+   */
+  public static double valueOf( Feature<?> f ) {
+    Object value = ( f == null ) ? null : f.getValue();
+
+    return ( value instanceof Number ) ? ( (Number) value ).doubleValue() : 0;
+  }
+}
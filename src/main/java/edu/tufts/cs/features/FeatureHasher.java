@@ -0,0 +1,371 @@
+package edu.tufts.cs.features;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Maps terms to a fixed number of buckets with a signed hash (the "hashing
+ * trick"), so that documents can be vectorized in a single pass without a
+ * vocabulary: each term adds +1 or -1 to its bucket, so that colliding terms
+ * tend to cancel out rather than add up.
+ *
+ * The buckets that are used are numbered densely in order of first use, so
+ * that the models only need weights for those; the feature name of a bucket
+ * is "h" followed by its number.
+ *
+ * Not thread-safe.
+ */
+public class FeatureHasher {
+  /** The default number of buckets. */
+  public static final int DEFAULT_DIMENSION = 1 << 18;
+  /** The prefix of the feature names. */
+  public static final String PREFIX = "h";
+  /** The hash function. */
+  protected static final HashFunction HASH = Hashing.murmur3_32();
+  /** The string encoding. */
+  protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+  /** The tokenizer. */
+  protected final TextTokenizer tokenizer;
+  /** The number of buckets (a power of two). */
+  protected final int dimension;
+  /** The dictionary index of each bucket, or -1 if it is not used yet. */
+  protected int[] columns;
+  /** The distinct terms, if collisions are tracked. */
+  protected Set<String> terms;
+  /** The buckets used by the distinct terms, if collisions are tracked. */
+  protected BitSet buckets;
+  /** The view whose term hashes are cached, or null. */
+  protected TokenStore.View view;
+  /** The signed bucket of each term id of the view, or 0 if not hashed. */
+  protected int[] hashes;
+
+  /**
+   * Default constructor.
+   *
+   * @param tokenizer
+   * @param dimension the number of buckets, rounded up to a power of two
+   */
+  public FeatureHasher( TextTokenizer tokenizer, int dimension ) {
+    if ( dimension <= 0 || dimension > 1 << 30 ) {
+      throw new IllegalArgumentException( "Bad dimension: " + dimension );
+    }
+    this.tokenizer = tokenizer;
+    int d = Integer.highestOneBit( dimension );
+    this.dimension = ( d == dimension ) ? d : d << 1;
+  }
+
+  /**
+   * Get the number of buckets.
+   *
+   * @return
+   */
+  public int getDimension() {
+    return this.dimension;
+  }
+
+  /**
+   * Record the distinct terms, so that the collision rate can be reported.
+   *
+   * @param track
+   */
+  public void setTrackCollisions( boolean track ) {
+    this.terms = track ? new HashSet<String>() : null;
+    this.buckets = track ? new BitSet( dimension ) : null;
+  }
+
+  /**
+   * Get the signed bucket of the term: the bucket is hash / 2 mod the
+   * dimension and the sign is the lowest bit of the hash.
+   *
+   * @param term
+   * @return bucket + 1 for a positive sign, -(bucket + 1) for a negative one
+   */
+  public int hash( String term ) {
+    int h = HASH.hashBytes( term.getBytes( UTF8 ) ).asInt();
+    int bucket = ( h >>> 1 ) & ( dimension - 1 );
+
+    return ( ( h & 1 ) == 0 ) ? bucket + 1 : -( bucket + 1 );
+  }
+
+  /**
+   * Vectorize a document, adding any new buckets to the dictionary.
+   *
+   * @param text
+   * @param dictionary
+   * @return
+   */
+  public SparseVector vectorize( String text, FeatureDictionary dictionary ) {
+    if ( columns == null ) {
+      columns = new int[dimension];
+      Arrays.fill( columns, -1 );
+    }
+
+    List<String> tokens = tokenizer.tokenize( text );
+    int[] indices = new int[tokens.size()];
+    double[] values = new double[tokens.size()];
+    for ( int i = 0; i < indices.length; i++ ) {
+      String term = tokens.get( i );
+      int signed = hash( term );
+      int bucket = Math.abs( signed ) - 1;
+      if ( columns[bucket] < 0 ) {
+        columns[bucket] = dictionary.add( PREFIX + bucket );
+      }
+      indices[i] = columns[bucket];
+      values[i] = Integer.signum( signed );
+      if ( terms != null && terms.add( term ) ) {
+        buckets.set( bucket );
+      }
+    }
+
+    return sum( indices, values );
+  }
+
+  /**
+   * Vectorize a tokenized document, adding any new buckets to the
+   * dictionary. Each term of the view is hashed once.
+   *
+   * @param terms the term ids of the document
+   * @param view the view the term ids are from
+   * @param dictionary
+   * @return
+   */
+  public SparseVector vectorize( int[] terms, TokenStore.View view,
+      FeatureDictionary dictionary ) {
+    if ( columns == null ) {
+      columns = new int[dimension];
+      Arrays.fill( columns, -1 );
+    }
+
+    int[] indices = new int[terms.length];
+    double[] values = new double[terms.length];
+    for ( int i = 0; i < indices.length; i++ ) {
+      int signed = hash( terms[i], view );
+      int bucket = Math.abs( signed ) - 1;
+      if ( columns[bucket] < 0 ) {
+        columns[bucket] = dictionary.add( PREFIX + bucket );
+      }
+      indices[i] = columns[bucket];
+      values[i] = Integer.signum( signed );
+      if ( this.terms != null && this.terms.add( view.getTerm( terms[i] ) ) ) {
+        buckets.set( bucket );
+      }
+    }
+
+    return sum( indices, values );
+  }
+
+  /**
+   * Get the signed bucket of the term of the view, hashing it only once.
+   *
+   * @param term
+   * @param view
+   * @return
+   */
+  protected int hash( int term, TokenStore.View view ) {
+    if ( view != this.view ) {
+      this.view = view;
+      this.hashes = new int[0];
+    }
+    if ( term >= hashes.length ) {
+      hashes = Arrays.copyOf( hashes, Math.max( term + 1,
+          2 * hashes.length ) );
+    }
+    if ( hashes[term] == 0 ) {
+      hashes[term] = hash( view.getTerm( term ) );
+    }
+
+    return hashes[term];
+  }
+
+  /**
+   * Vectorize a document over an existing dictionary; buckets that are not
+   * in it are ignored.
+   *
+   * @param text
+   * @param dictionary
+   * @return
+   */
+  public SparseVector transform( String text, FeatureDictionary dictionary ) {
+    List<String> tokens = tokenizer.tokenize( text );
+    int[] indices = new int[tokens.size()];
+    double[] values = new double[tokens.size()];
+    int n = 0;
+    for ( String term : tokens ) {
+      int signed = hash( term );
+      int index = dictionary.indexOf( PREFIX + ( Math.abs( signed ) - 1 ) );
+      if ( index >= 0 ) {
+        indices[n] = index;
+        values[n++] = Integer.signum( signed );
+      }
+    }
+
+    return sum( Arrays.copyOf( indices, n ), Arrays.copyOf( values, n ) );
+  }
+
+  /**
+   * Vectorize the documents in one pass.
+   *
+   * @param ids the document ids
+   * @param texts the document texts, in the same order
+   * @return
+   */
+  public <I> CsrRelation<I> vectorize( List<I> ids, Iterable<String> texts ) {
+    FeatureDictionary dictionary = new FeatureDictionary();
+    SparseVector[] rows = new SparseVector[ids.size()];
+    int i = 0;
+    for ( String text : texts ) {
+      rows[i++] = vectorize( text, dictionary );
+    }
+    if ( i != rows.length ) {
+      throw new IllegalArgumentException( ids.size() + " ids for " + i
+          + " texts." );
+    }
+
+    return new CsrRelation<>( ids, CsrMatrix.create( rows ), dictionary );
+  }
+
+  /**
+   * Vectorize tokenized documents in one pass.
+   *
+   * @param ids the document ids
+   * @param docs the term ids of the documents, in the same order
+   * @param view the view the term ids are from
+   * @return
+   */
+  public <I> CsrRelation<I> vectorize( List<I> ids, List<int[]> docs,
+      TokenStore.View view ) {
+    if ( ids.size() != docs.size() ) {
+      throw new IllegalArgumentException( ids.size() + " ids for "
+          + docs.size() + " documents." );
+    }
+
+    FeatureDictionary dictionary = new FeatureDictionary();
+    SparseVector[] rows = new SparseVector[ids.size()];
+    for ( int i = 0; i < rows.length; i++ ) {
+      rows[i] = vectorize( docs.get( i ), view, dictionary );
+    }
+    // the view belongs to the feature build; do not hold on to its store
+    this.view = null;
+    this.hashes = null;
+
+    return new CsrRelation<>( ids, CsrMatrix.create( rows ), dictionary );
+  }
+
+  /**
+   * Get the number of distinct terms seen.
+   *
+   * @return the number, or -1 if collisions are not tracked
+   */
+  public int getDistinctTerms() {
+    return ( terms == null ) ? -1 : terms.size();
+  }
+
+  /**
+   * Get the number of buckets used by the distinct terms.
+   *
+   * @return the number, or -1 if collisions are not tracked
+   */
+  public int getUsedBuckets() {
+    return ( buckets == null ) ? -1 : buckets.cardinality();
+  }
+
+  /**
+   * Get the fraction of the distinct terms that share a bucket with an
+   * earlier term.
+   *
+   * @return the rate, or NaN if collisions are not tracked
+   */
+  public double getCollisionRate() {
+    if ( terms == null ) {
+      return Double.NaN;
+    }
+
+    return terms.isEmpty() ? 0 : 1 - (double) getUsedBuckets()
+        / terms.size();
+  }
+
+  /**
+   * The expected fraction of n distinct terms that share a bucket with an
+   * earlier term, if they are hashed uniformly into the buckets.
+   *
+   * @param n
+   * @param dimension
+   * @return
+   */
+  public static double expectedCollisionRate( int n, int dimension ) {
+    if ( n == 0 ) {
+      return 0;
+    }
+    // each bucket is empty with probability (1 - 1/dimension)^n
+    double used = -dimension
+        * Math.expm1( n * Math.log1p( -1.0 / dimension ) );
+
+    return 1 - used / n;
+  }
+
+  /**
+   * Report the collision rate, and the expected rate for other dimensions.
+   *
+   * @return
+   */
+  public String getCollisionReport() {
+    if ( terms == null ) {
+      return "Collisions were not tracked.";
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append( "dimension,distinct terms,used buckets,collision rate,"
+        + "expected rate\n" );
+    sb.append( dimension + "," + getDistinctTerms() + "," + getUsedBuckets()
+        + "," + getCollisionRate() + ","
+        + expectedCollisionRate( getDistinctTerms(), dimension ) + "\n" );
+    for ( int bits = 16; bits <= 24; bits++ ) {
+      if ( 1 << bits != dimension ) {
+        sb.append( ( 1 << bits ) + "," + getDistinctTerms() + ",,,"
+            + expectedCollisionRate( getDistinctTerms(), 1 << bits ) + "\n" );
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Sum the values of repeated indices.
+   *
+   * @param indices
+   * @param values
+   * @return
+   */
+  protected static SparseVector sum( int[] indices, double[] values ) {
+    SparseVector sorted = SparseVector.sort( indices, values, indices.length );
+    int[] idx = new int[sorted.size()];
+    double[] val = new double[sorted.size()];
+    int size = 0;
+    for ( int i = 0; i < sorted.size(); i++ ) {
+      if ( size > 0 && idx[size - 1] == sorted.index( i ) ) {
+        val[size - 1] += sorted.value( i );
+      } else {
+        idx[size] = sorted.index( i );
+        val[size++] = sorted.value( i );
+      }
+    }
+
+    // colliding terms can cancel out
+    int n = 0;
+    for ( int i = 0; i < size; i++ ) {
+      if ( val[i] != 0 ) {
+        idx[n] = idx[i];
+        val[n++] = val[i];
+      }
+    }
+
+    return new SparseVector( Arrays.copyOf( idx, n ), Arrays.copyOf( val, n ) );
+  }
+}
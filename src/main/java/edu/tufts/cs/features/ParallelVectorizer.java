@@ -0,0 +1,442 @@
+package edu.tufts.cs.features;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds term-frequency vectors for a corpus with fork/join parallelism.
+ *
+ * The first pass counts the terms of ranges of documents in parallel and
+ * merges the counts in document order, so that the vocabulary is in order of
+ * first occurrence, exactly as a sequential pass would build it; terms that
+ * occur fewer than minOccurs times in the corpus are dropped. The second pass
+ * builds the rows of the documents in parallel.
+ */
+public class ParallelVectorizer {
+  /** The default number of documents below which a task is not split. */
+  public static final int DEFAULT_THRESHOLD = 256;
+  /** The pool shared by all vectorizers. */
+  protected static final ForkJoinPool POOL = new ForkJoinPool();
+  /** The tokenizer that the per-thread tokenizers are copied from. */
+  protected final TextTokenizer tokenizer;
+  /** The per-thread tokenizers. */
+  protected final ThreadLocal<TextTokenizer> tokenizers =
+      new ThreadLocal<TextTokenizer>() {
+        @Override
+        protected TextTokenizer initialValue() {
+          return new TextTokenizer( tokenizer );
+        }
+      };
+  /** The minimum number of occurrences of a term. */
+  protected final int minOccurs;
+  /** The number of documents below which a task is not split. */
+  protected int threshold = DEFAULT_THRESHOLD;
+  /** The pool. */
+  protected ForkJoinPool pool = POOL;
+
+  /**
+   * Default constructor.
+   *
+   * @param tokenizer
+   * @param minOccurs
+   */
+  public ParallelVectorizer( TextTokenizer tokenizer, int minOccurs ) {
+    this.tokenizer = tokenizer;
+    this.minOccurs = minOccurs;
+  }
+
+  /**
+   * Set the number of documents below which a task is not split.
+   *
+   * @param threshold
+   */
+  public void setThreshold( int threshold ) {
+    this.threshold = Math.max( 1, threshold );
+  }
+
+  /**
+   * Set the pool.
+   *
+   * @param pool
+   */
+  public void setPool( ForkJoinPool pool ) {
+    this.pool = pool;
+  }
+
+  /**
+   * Build the vocabulary and the vectors of the documents.
+   *
+   * @param ids the document ids
+   * @param texts the document texts, in the same order
+   * @return
+   */
+  public <I> CsrRelation<I> vectorize( List<I> ids, List<String> texts ) {
+    if ( ids.size() != texts.size() ) {
+      throw new IllegalArgumentException( ids.size() + " ids for "
+          + texts.size() + " texts." );
+    }
+
+    Map<String, int[]> counts = pool.invoke( new CountTask( texts, 0, texts
+        .size() ) );
+    FeatureDictionary dictionary = new FeatureDictionary();
+    Map<String, Integer> vocabulary = new HashMap<>();
+    for ( Map.Entry<String, int[]> e : counts.entrySet() ) {
+      if ( e.getValue()[0] >= minOccurs ) {
+        vocabulary.put( e.getKey(), dictionary.add( e.getKey() ) );
+      }
+    }
+
+    SparseVector[] rows = new SparseVector[texts.size()];
+    pool.invoke( new RowTask( texts, vocabulary, rows, 0, texts.size() ) );
+
+    return new CsrRelation<>( ids, CsrMatrix.create( rows ), dictionary );
+  }
+
+  /**
+   * Build the vocabulary and the vectors of documents that are already
+   * tokenized. The term ids are counted and the rows built in parallel, as
+   * for texts.
+   *
+   * @param ids the document ids
+   * @param docs the term ids of the documents, in the same order
+   * @param view the view the term ids are from
+   * @return
+   */
+  public <I> CsrRelation<I> vectorize( List<I> ids, List<int[]> docs,
+      TokenStore.View view ) {
+    if ( ids.size() != docs.size() ) {
+      throw new IllegalArgumentException( ids.size() + " ids for "
+          + docs.size() + " documents." );
+    }
+
+    Map<Integer, int[]> counts = pool.invoke( new TermCountTask( docs, 0,
+        docs.size() ) );
+    int[] columns = new int[view.size()];
+    Arrays.fill( columns, -1 );
+    FeatureDictionary dictionary = new FeatureDictionary();
+    for ( Map.Entry<Integer, int[]> e : counts.entrySet() ) {
+      if ( e.getValue()[0] >= minOccurs ) {
+        columns[e.getKey()] = dictionary.add( view.getTerm( e.getKey() ) );
+      }
+    }
+
+    SparseVector[] rows = new SparseVector[docs.size()];
+    pool.invoke( new TermRowTask( docs, columns, rows, 0, docs.size() ) );
+
+    return new CsrRelation<>( ids, CsrMatrix.create( rows ), dictionary );
+  }
+
+  /**
+   * Build the vector of a document over an existing vocabulary; terms that
+   * are not in it are ignored.
+   *
+   * @param text
+   * @param dictionary
+   * @return
+   */
+  public SparseVector transform( String text, FeatureDictionary dictionary ) {
+    List<String> terms = tokenizers.get().tokenize( text );
+    int[] indices = new int[terms.size()];
+    int n = 0;
+    for ( String term : terms ) {
+      int index = dictionary.indexOf( term );
+      if ( index >= 0 ) {
+        indices[n++] = index;
+      }
+    }
+
+    return count( indices, n );
+  }
+
+  /**
+   * Build the vector of a document over a vocabulary that no other thread
+   * changes, without locking.
+   *
+   * @param text
+   * @param vocabulary
+   * @return
+   */
+  protected SparseVector transform( String text,
+      Map<String, Integer> vocabulary ) {
+    List<String> terms = tokenizers.get().tokenize( text );
+    int[] indices = new int[terms.size()];
+    int n = 0;
+    for ( String term : terms ) {
+      Integer index = vocabulary.get( term );
+      if ( index != null ) {
+        indices[n++] = index;
+      }
+    }
+
+    return count( indices, n );
+  }
+
+  /**
+   * Count the occurrences of each index.
+   *
+   * @param indices the indices, one per occurrence (sorted in place)
+   * @param n the number of indices
+   * @return the term frequencies
+   */
+  protected static SparseVector count( int[] indices, int n ) {
+    Arrays.sort( indices, 0, n );
+    int[] idx = new int[n];
+    double[] tf = new double[n];
+    int size = 0;
+    for ( int i = 0; i < n; i++ ) {
+      if ( size > 0 && idx[size - 1] == indices[i] ) {
+        tf[size - 1]++;
+      } else {
+        idx[size] = indices[i];
+        tf[size++] = 1;
+      }
+    }
+
+    return new SparseVector( Arrays.copyOf( idx, size ), Arrays.copyOf( tf,
+        size ) );
+  }
+
+  /**
+   * Counts the terms of a range of documents, in order of first occurrence.
+   */
+  protected class CountTask extends RecursiveTask<Map<String, int[]>> {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The texts. */
+    protected final List<String> texts;
+    /** The first document. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param texts
+     * @param lo
+     * @param hi
+     */
+    protected CountTask( List<String> texts, int lo, int hi ) {
+      this.texts = texts;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Map<String, int[]> compute() {
+      if ( hi - lo <= threshold ) {
+        TextTokenizer t = tokenizers.get();
+        Map<String, int[]> counts = new LinkedHashMap<>();
+        for ( int i = lo; i < hi; i++ ) {
+          for ( String term : t.tokenize( texts.get( i ) ) ) {
+            int[] count = counts.get( term );
+            if ( count == null ) {
+              counts.put( term, new int[] { 1 } );
+            } else {
+              count[0]++;
+            }
+          }
+        }
+
+        return counts;
+      }
+
+      int mid = ( lo + hi ) >>> 1;
+      CountTask left = new CountTask( texts, lo, mid );
+      CountTask right = new CountTask( texts, mid, hi );
+      left.fork();
+      Map<String, int[]> rightCounts = right.compute();
+      Map<String, int[]> counts = left.join();
+
+      // the right range comes later, so its new terms go last
+      for ( Map.Entry<String, int[]> e : rightCounts.entrySet() ) {
+        int[] count = counts.get( e.getKey() );
+        if ( count == null ) {
+          counts.put( e.getKey(), e.getValue() );
+        } else {
+          count[0] += e.getValue()[0];
+        }
+      }
+
+      return counts;
+    }
+  }
+
+  /**
+   * Counts the term ids of a range of documents, in order of first
+   * occurrence.
+   */
+  protected class TermCountTask extends RecursiveTask<Map<Integer, int[]>> {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The term ids of the documents. */
+    protected final List<int[]> docs;
+    /** The first document. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param docs
+     * @param lo
+     * @param hi
+     */
+    protected TermCountTask( List<int[]> docs, int lo, int hi ) {
+      this.docs = docs;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Map<Integer, int[]> compute() {
+      if ( hi - lo <= threshold ) {
+        Map<Integer, int[]> counts = new LinkedHashMap<>();
+        for ( int i = lo; i < hi; i++ ) {
+          for ( int t : docs.get( i ) ) {
+            int[] count = counts.get( t );
+            if ( count == null ) {
+              counts.put( t, new int[] { 1 } );
+            } else {
+              count[0]++;
+            }
+          }
+        }
+
+        return counts;
+      }
+
+      int mid = ( lo + hi ) >>> 1;
+      TermCountTask left = new TermCountTask( docs, lo, mid );
+      TermCountTask right = new TermCountTask( docs, mid, hi );
+      left.fork();
+      Map<Integer, int[]> rightCounts = right.compute();
+      Map<Integer, int[]> counts = left.join();
+
+      // the right range comes later, so its new terms go last
+      for ( Map.Entry<Integer, int[]> e : rightCounts.entrySet() ) {
+        int[] count = counts.get( e.getKey() );
+        if ( count == null ) {
+          counts.put( e.getKey(), e.getValue() );
+        } else {
+          count[0] += e.getValue()[0];
+        }
+      }
+
+      return counts;
+    }
+  }
+
+  /**
+   * Builds the rows of a range of documents.
+   */
+  protected class RowTask extends RecursiveAction {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The texts. */
+    protected final List<String> texts;
+    /** The vocabulary. */
+    protected final Map<String, Integer> vocabulary;
+    /** The rows. */
+    protected final SparseVector[] rows;
+    /** The first document. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param texts
+     * @param vocabulary
+     * @param rows
+     * @param lo
+     * @param hi
+     */
+    protected RowTask( List<String> texts, Map<String, Integer> vocabulary,
+        SparseVector[] rows, int lo, int hi ) {
+      this.texts = texts;
+      this.vocabulary = vocabulary;
+      this.rows = rows;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if ( hi - lo <= threshold ) {
+        for ( int i = lo; i < hi; i++ ) {
+          rows[i] = transform( texts.get( i ), vocabulary );
+        }
+      } else {
+        int mid = ( lo + hi ) >>> 1;
+        invokeAll( new RowTask( texts, vocabulary, rows, lo, mid ),
+            new RowTask( texts, vocabulary, rows, mid, hi ) );
+      }
+    }
+  }
+
+  /**
+   * Builds the rows of a range of documents that are already tokenized.
+   */
+  protected class TermRowTask extends RecursiveAction {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The term ids of the documents. */
+    protected final List<int[]> docs;
+    /** The column of each term id, or -1 if it is not a feature. */
+    protected final int[] columns;
+    /** The rows. */
+    protected final SparseVector[] rows;
+    /** The first document. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param docs
+     * @param columns
+     * @param rows
+     * @param lo
+     * @param hi
+     */
+    protected TermRowTask( List<int[]> docs, int[] columns,
+        SparseVector[] rows, int lo, int hi ) {
+      this.docs = docs;
+      this.columns = columns;
+      this.rows = rows;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if ( hi - lo <= threshold ) {
+        for ( int i = lo; i < hi; i++ ) {
+          int[] doc = docs.get( i );
+          int[] indices = new int[doc.length];
+          int n = 0;
+          for ( int t : doc ) {
+            if ( columns[t] >= 0 ) {
+              indices[n++] = columns[t];
+            }
+          }
+          rows[i] = count( indices, n );
+        }
+      } else {
+        int mid = ( lo + hi ) >>> 1;
+        invokeAll( new TermRowTask( docs, columns, rows, lo, mid ),
+            new TermRowTask( docs, columns, rows, mid, hi ) );
+      }
+    }
+  }
+}
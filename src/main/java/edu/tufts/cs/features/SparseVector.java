@@ -0,0 +1,163 @@
+package edu.tufts.cs.features;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse vector of feature values, stored as parallel arrays of
+ * ascending feature indices and their (non-zero) values.
+ */
+public class SparseVector {
+  /** The empty vector. */
+  public static final SparseVector EMPTY = new SparseVector( new int[0],
+      new double[0] );
+  /** The feature indices, ascending. */
+  protected final int[] indices;
+  /** The feature values. */
+  protected final double[] values;
+
+  /**
+   * Default constructor. The indices must be ascending and unique.
+   *
+   * @param indices
+   * @param values
+   */
+  public SparseVector( int[] indices, double[] values ) {
+    if ( indices.length != values.length ) {
+      throw new IllegalArgumentException( "Got " + indices.length
+          + " indices but " + values.length + " values." );
+    }
+    this.indices = indices;
+    this.values = values;
+  }
+
+  /**
+   * Create a vector from unsorted indices and values.
+   *
+   * @param indices
+   * @param values
+   * @param n the number of entries to use
+   * @return
+   */
+  public static SparseVector sort( int[] indices, double[] values, int n ) {
+    long[] order = new long[n];
+    for ( int i = 0; i < n; i++ ) {
+      // the index in the high bits, its position in the low bits
+      order[i] = ( (long) indices[i] << 32 ) | i;
+    }
+    Arrays.sort( order );
+
+    int[] sortedIdx = new int[n];
+    double[] sortedVal = new double[n];
+    for ( int i = 0; i < n; i++ ) {
+      sortedIdx[i] = (int) ( order[i] >>> 32 );
+      sortedVal[i] = values[(int) order[i]];
+    }
+
+    return new SparseVector( sortedIdx, sortedVal );
+  }
+
+  /**
+   * Get the number of non-zero entries.
+   *
+   * @return
+   */
+  public int size() {
+    return indices.length;
+  }
+
+  /**
+   * Get the feature index of the ith entry.
+   *
+   * @param i
+   * @return
+   */
+  public int index( int i ) {
+    return indices[i];
+  }
+
+  /**
+   * Get the value of the ith entry.
+   *
+   * @param i
+   * @return
+   */
+  public double value( int i ) {
+    return values[i];
+  }
+
+  /**
+   * Get the largest feature index, or -1 if the vector is empty.
+   *
+   * @return
+   */
+  public int maxIndex() {
+    return ( indices.length == 0 ) ? -1 : indices[indices.length - 1];
+  }
+
+  /**
+   * The dot product with a dense weight vector; features beyond the end of
+   * the weights count as 0.
+   *
+   * @param w
+   * @return
+   */
+  public double dot( double[] w ) {
+    double sum = 0;
+    for ( int i = 0; i < indices.length; i++ ) {
+      if ( indices[i] < w.length ) {
+        sum += w[indices[i]] * values[i];
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * The dot product with another sparse vector.
+   *
+   * @param o
+   * @return
+   */
+  public double dot( SparseVector o ) {
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    while ( i < indices.length && j < o.indices.length ) {
+      if ( indices[i] == o.indices[j] ) {
+        sum += values[i++] * o.values[j++];
+      } else if ( indices[i] < o.indices[j] ) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return sum;
+  }
+
+  /**
+   * The squared Euclidean norm.
+   *
+   * @return
+   */
+  public double squaredNorm() {
+    double sum = 0;
+    for ( double v : values ) {
+      sum += v * v;
+    }
+
+    return sum;
+  }
+
+  /**
+   * Add this vector, multiplied by the scale, to the dense weights.
+   *
+   * @param w
+   * @param scale
+   */
+  public void addTo( double[] w, double scale ) {
+    for ( int i = 0; i < indices.length; i++ ) {
+      w[indices[i]] += scale * values[i];
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package edu.tufts.cs.features;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.aliasi.tokenizer.PorterStemmerTokenizerFactory;
+
+/**
+ * Splits text into terms: maximal runs of letters and digits, lower-cased,
+ * with stop words and short terms removed and the rest optionally Porter
+ * stemmed.
+ *
+ * Not thread-safe; give each thread its own copy. Tokenizers are equal if
+ * they split text into the same terms.
+ */
+public class TextTokenizer {
+  /** The stop words. */
+  protected final Set<String> stoplist;
+  /** The minimum length of a term. */
+  protected final int minLength;
+  /** Whether to stem the terms. */
+  protected final boolean stem;
+  /** The term being read. */
+  protected final StringBuilder term = new StringBuilder();
+
+  /**
+   * Default constructor.
+   *
+   * @param stoplist
+   * @param minLength
+   * @param stem
+   */
+  public TextTokenizer( Set<String> stoplist, int minLength, boolean stem ) {
+    this.stoplist = new HashSet<>( stoplist );
+    this.minLength = minLength;
+    this.stem = stem;
+  }
+
+  /**
+   * Copy constructor, for a tokenizer to be used by another thread.
+   *
+   * @param other
+   */
+  public TextTokenizer( TextTokenizer other ) {
+    this( other.stoplist, other.minLength, other.stem );
+  }
+
+  /**
+   * Read a stoplist with one word per line.
+   *
+   * @param f
+   * @return
+   * @throws IOException
+   */
+  public static Set<String> readStoplist( File f ) throws IOException {
+    Set<String> stoplist = new HashSet<>();
+    for ( String line : Files.readAllLines( f.toPath(), Charset
+        .forName( "UTF-8" ) ) ) {
+      line = line.trim().toLowerCase( Locale.ENGLISH );
+      if ( !line.isEmpty() ) {
+        stoplist.add( line );
+      }
+    }
+
+    return stoplist;
+  }
+
+  /**
+   * Split the text into terms, in order.
+   *
+   * @param text
+   * @return
+   */
+  public List<String> tokenize( String text ) {
+    List<String> terms = new ArrayList<>();
+    if ( text == null ) {
+      return terms;
+    }
+
+    term.setLength( 0 );
+    for ( int i = 0; i <= text.length(); i++ ) {
+      char c = ( i < text.length() ) ? text.charAt( i ) : ' ';
+      if ( Character.isLetterOrDigit( c ) ) {
+        term.append( Character.toLowerCase( c ) );
+      } else if ( term.length() > 0 ) {
+        add( terms, term.toString() );
+        term.setLength( 0 );
+      }
+    }
+
+    return terms;
+  }
+
+  /**
+   * Add the token to the terms, unless it is filtered out.
+   *
+   * @param terms
+   * @param token
+   */
+  protected void add( List<String> terms, String token ) {
+    String term = normalize( token );
+    if ( term != null ) {
+      terms.add( term );
+    }
+  }
+
+  /**
+   * Filter and stem a lower-cased token.
+   *
+   * @param token
+   * @return the term, or null if the token is filtered out
+   */
+  public String normalize( String token ) {
+    if ( token.length() < minLength || stoplist.contains( token ) ) {
+      return null;
+    }
+
+    return stem ? PorterStemmerTokenizerFactory.stem( token ) : token;
+  }
+
+  @Override
+  public boolean equals( Object o ) {
+    if ( !( o instanceof TextTokenizer ) ) {
+      return false;
+    }
+    TextTokenizer other = (TextTokenizer) o;
+
+    return minLength == other.minLength && stem == other.stem
+        && stoplist.equals( other.stoplist );
+  }
+
+  @Override
+  public int hashCode() {
+    return ( stoplist.hashCode() * 31 + minLength ) * 31 + ( stem ? 1 : 0 );
+  }
+}
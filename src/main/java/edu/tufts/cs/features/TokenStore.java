@@ -0,0 +1,567 @@
+package edu.tufts.cs.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tokenizes each document once and keeps its tokens as a varint-encoded
+ * array of token ids, so that the representations built from the same text
+ * (Bag of Words, LDA) share one tokenization.
+ *
+ * The stored tokens are only split and lower-cased. Stop words, short terms
+ * and stemming are applied by a View, once per distinct token rather than
+ * once per occurrence: a View maps the token ids to the ids of the terms of
+ * its tokenizer, so that the documents can be read as term id arrays.
+ *
+ * The documents are keyed by id; a document is tokenized the first time its
+ * id is seen, and again if its id comes with a text of a different hash.
+ * Many documents are tokenized with fork/join parallelism: each task numbers
+ * the tokens of its range in a local table, which is merged into the store
+ * once, so that the tasks only lock the store twice.
+ *
+ * Thread-safe. A store holds every document it has tokenized, so it should
+ * be scoped to a feature build rather than shared for the life of the JVM.
+ */
+public class TokenStore {
+  /** The default number of documents below which a task is not split. */
+  public static final int DEFAULT_THRESHOLD = 256;
+  /** The tokenizer that splits and lower-cases the text. */
+  protected static final TextTokenizer SPLITTER = new TextTokenizer(
+      Collections.<String> emptySet(), 1, false );
+  /** The per-thread splitters. */
+  protected final ThreadLocal<TextTokenizer> splitters =
+      new ThreadLocal<TextTokenizer>() {
+        @Override
+        protected TextTokenizer initialValue() {
+          return new TextTokenizer( SPLITTER );
+        }
+      };
+  /** The ids of the tokens. */
+  protected final Map<String, Integer> tokenIds = new HashMap<>();
+  /** The tokens, by id. */
+  protected final List<String> tokens = new ArrayList<>();
+  /** The documents, keyed by document id. */
+  protected final Map<String, Document> docs = new HashMap<>();
+  /** The views, keyed by their tokenizer. */
+  protected final Map<TextTokenizer, View> views = new HashMap<>();
+  /** The number of token occurrences stored. */
+  protected long occurrences;
+  /** The number of bytes stored. */
+  protected long bytes;
+  /** The number of documents below which a task is not split. */
+  protected int threshold = DEFAULT_THRESHOLD;
+  /** The pool. */
+  protected ForkJoinPool pool = ParallelVectorizer.POOL;
+
+  /**
+   * The stored tokens of a document.
+   */
+  protected static class Document {
+    /** The hash of the text. */
+    protected final int hash;
+    /** The number of tokens. */
+    protected final int length;
+    /** The encoded token ids. */
+    protected final byte[] encoded;
+
+    /**
+     * Default constructor.
+     *
+     * @param hash
+     * @param ids
+     */
+    protected Document( int hash, int[] ids ) {
+      this.hash = hash;
+      this.length = ids.length;
+      this.encoded = encode( ids );
+    }
+  }
+
+  /**
+   * Set the number of documents below which a task is not split.
+   *
+   * @param threshold
+   */
+  public void setThreshold( int threshold ) {
+    this.threshold = Math.max( 1, threshold );
+  }
+
+  /**
+   * Set the pool.
+   *
+   * @param pool
+   */
+  public void setPool( ForkJoinPool pool ) {
+    this.pool = pool;
+  }
+
+  /**
+   * Get the token ids of the document, tokenizing the text if the document
+   * is new or its text has changed.
+   *
+   * @param id
+   * @param text the text, or null to read the stored tokens
+   * @return
+   */
+  public int[] tokenize( String id, String text ) {
+    return tokenize( Collections.singletonList( id ), Collections
+        .singletonList( text ), 0, 1 )[0];
+  }
+
+  /**
+   * Get the token ids of a range of documents, tokenizing the texts of those
+   * that are new or have changed. The tokens are numbered locally while the
+   * texts are split outside the lock, and then added to the store at once.
+   *
+   * @param ids
+   * @param texts the texts, or nulls to read the stored tokens
+   * @param lo the first document
+   * @param hi the end of the range
+   * @return the token ids of the documents of the range
+   */
+  protected int[][] tokenize( List<String> ids, List<String> texts, int lo,
+      int hi ) {
+    int[][] result = new int[hi - lo][];
+    Document[] stored = new Document[hi - lo];
+    synchronized ( this ) {
+      for ( int i = lo; i < hi; i++ ) {
+        stored[i - lo] = docs.get( ids.get( i ) );
+      }
+    }
+
+    boolean[] split = new boolean[hi - lo];
+    boolean changed = false;
+    Map<String, Integer> localIds = new HashMap<>();
+    List<String> local = new ArrayList<>();
+    TextTokenizer splitter = splitters.get();
+    for ( int i = lo; i < hi; i++ ) {
+      Document doc = stored[i - lo];
+      String text = texts.get( i );
+      if ( doc != null && ( text == null || doc.hash == text.hashCode() ) ) {
+        result[i - lo] = decode( doc.encoded );
+      } else if ( text == null ) {
+        result[i - lo] = new int[0];
+      } else {
+        List<String> terms = splitter.tokenize( text );
+        int[] doc2 = new int[terms.size()];
+        for ( int j = 0; j < doc2.length; j++ ) {
+          Integer t = localIds.get( terms.get( j ) );
+          if ( t == null ) {
+            t = local.size();
+            localIds.put( terms.get( j ), t );
+            local.add( terms.get( j ) );
+          }
+          doc2[j] = t;
+        }
+        result[i - lo] = doc2;
+        split[i - lo] = true;
+        changed = true;
+      }
+    }
+    if ( !changed ) {
+      return result;
+    }
+
+    synchronized ( this ) {
+      int[] global = new int[local.size()];
+      for ( int t = 0; t < global.length; t++ ) {
+        global[t] = add( local.get( t ) );
+      }
+      for ( int i = lo; i < hi; i++ ) {
+        if ( !split[i - lo] ) {
+          continue;
+        }
+        int[] doc = result[i - lo];
+        for ( int j = 0; j < doc.length; j++ ) {
+          doc[j] = global[doc[j]];
+        }
+        put( ids.get( i ), texts.get( i ).hashCode(), doc );
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the id of the token, adding it if it is new. The caller holds the
+   * lock.
+   *
+   * @param token
+   * @return
+   */
+  protected int add( String token ) {
+    Integer id = tokenIds.get( token );
+    if ( id == null ) {
+      id = tokens.size();
+      tokenIds.put( token, id );
+      tokens.add( token );
+    }
+
+    return id;
+  }
+
+  /**
+   * Store the tokens of the document, unless another thread already stored
+   * the same text. The caller holds the lock.
+   *
+   * @param id
+   * @param hash the hash of the text
+   * @param ids the token ids
+   */
+  protected void put( String id, int hash, int[] ids ) {
+    Document old = docs.get( id );
+    if ( old != null && old.hash == hash ) {
+      return;
+    }
+
+    Document doc = new Document( hash, ids );
+    docs.put( id, doc );
+    occurrences += doc.length;
+    bytes += doc.encoded.length;
+    if ( old != null ) {
+      occurrences -= old.length;
+      bytes -= old.encoded.length;
+    }
+  }
+
+  /**
+   * Get the token ids of the document.
+   *
+   * @param id
+   * @return the ids, or null if the document has not been tokenized
+   */
+  public int[] get( String id ) {
+    Document doc;
+    synchronized ( this ) {
+      doc = docs.get( id );
+    }
+
+    return ( doc == null ) ? null : decode( doc.encoded );
+  }
+
+  /**
+   * Get the token with the id.
+   *
+   * @param id
+   * @return
+   */
+  public synchronized String getToken( int id ) {
+    return tokens.get( id );
+  }
+
+  /**
+   * Get the tokens from the id on.
+   *
+   * @param from
+   * @return
+   */
+  protected synchronized List<String> getTokens( int from ) {
+    return new ArrayList<>( tokens.subList( Math.min( from, tokens.size() ),
+        tokens.size() ) );
+  }
+
+  /**
+   * Get the number of distinct tokens.
+   *
+   * @return
+   */
+  public synchronized int getVocabularySize() {
+    return tokens.size();
+  }
+
+  /**
+   * Get the number of documents.
+   *
+   * @return
+   */
+  public synchronized int size() {
+    return docs.size();
+  }
+
+  /**
+   * Get the number of bytes used by the encoded token ids.
+   *
+   * @return
+   */
+  public synchronized long getBytes() {
+    return this.bytes;
+  }
+
+  /**
+   * Get the number of token occurrences stored.
+   *
+   * @return
+   */
+  public synchronized long getOccurrences() {
+    return this.occurrences;
+  }
+
+  /**
+   * Forget the documents (but not the token ids, which views may hold).
+   */
+  public synchronized void clear() {
+    docs.clear();
+    occurrences = 0;
+    bytes = 0;
+  }
+
+  /**
+   * Get the view of the documents through the tokenizer; tokenizers that
+   * are equal share a view.
+   *
+   * @param tokenizer
+   * @return
+   */
+  public synchronized View view( TextTokenizer tokenizer ) {
+    View view = views.get( tokenizer );
+    if ( view == null ) {
+      view = new View( new TextTokenizer( tokenizer ) );
+      views.put( view.tokenizer, view );
+    }
+
+    return view;
+  }
+
+  /**
+   * Encode the ids as varints: 7 bits per byte, low bits first, with the
+   * high bit set on all but the last byte of an id.
+   *
+   * @param ids non-negative ids
+   * @return
+   */
+  public static byte[] encode( int[] ids ) {
+    byte[] out = new byte[ids.length * 5];
+    int n = 0;
+    for ( int id : ids ) {
+      while ( ( id & ~0x7F ) != 0 ) {
+        out[n++] = (byte) ( ( id & 0x7F ) | 0x80 );
+        id >>>= 7;
+      }
+      out[n++] = (byte) id;
+    }
+
+    return Arrays.copyOf( out, n );
+  }
+
+  /**
+   * Decode the varint ids.
+   *
+   * @param in
+   * @return
+   */
+  public static int[] decode( byte[] in ) {
+    int count = 0;
+    for ( byte b : in ) {
+      if ( b >= 0 ) {
+        count++;
+      }
+    }
+
+    int[] ids = new int[count];
+    int n = 0;
+    int id = 0;
+    int shift = 0;
+    for ( byte b : in ) {
+      id |= ( b & 0x7F ) << shift;
+      if ( b >= 0 ) {
+        ids[n++] = id;
+        id = 0;
+        shift = 0;
+      } else {
+        shift += 7;
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * The documents as term ids of a tokenizer. The term ids are dense, in
+   * order of first use.
+   */
+  public class View {
+    /** The tokenizer. */
+    protected final TextTokenizer tokenizer;
+    /** The ids of the terms. */
+    protected final FeatureDictionary terms = new FeatureDictionary();
+    /** The term id of each token id, or -1 if it is filtered out. */
+    protected int[] termIds = new int[0];
+
+    /**
+     * Default constructor.
+     *
+     * @param tokenizer
+     */
+    protected View( TextTokenizer tokenizer ) {
+      this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Get the term ids of the document, tokenizing the text if the document
+     * is new.
+     *
+     * @param id
+     * @param text
+     * @return
+     */
+    public int[] tokenize( String id, String text ) {
+      return map( TokenStore.this.tokenize( id, text ) );
+    }
+
+    /**
+     * Get the term ids of the documents, tokenizing the texts of those that
+     * are new in parallel.
+     *
+     * @param ids
+     * @param texts the texts, in the same order
+     * @return the term ids, in the order of the documents
+     */
+    public List<int[]> tokenize( List<String> ids, List<String> texts ) {
+      if ( ids.size() != texts.size() ) {
+        throw new IllegalArgumentException( ids.size() + " ids for "
+            + texts.size() + " texts." );
+      }
+
+      int[][] docs = new int[ids.size()][];
+      pool.invoke( new TokenizeTask( this, ids, texts, docs, 0, ids
+          .size() ) );
+
+      return Arrays.asList( docs );
+    }
+
+    /**
+     * Map token ids to term ids, dropping the filtered tokens.
+     *
+     * @param tokenIds
+     * @return
+     */
+    public synchronized int[] map( int[] tokenIds ) {
+      int[] result = new int[tokenIds.length];
+      int n = 0;
+      for ( int token : tokenIds ) {
+        if ( token >= termIds.length ) {
+          extend();
+        }
+        if ( termIds[token] >= 0 ) {
+          result[n++] = termIds[token];
+        }
+      }
+
+      return ( n == result.length ) ? result : Arrays.copyOf( result, n );
+    }
+
+    /**
+     * Map the token ids of several documents to term ids at once.
+     *
+     * @param docs the token ids of the documents
+     * @return the term ids of the documents
+     */
+    public synchronized int[][] map( int[][] docs ) {
+      int[][] result = new int[docs.length][];
+      for ( int i = 0; i < docs.length; i++ ) {
+        result[i] = map( docs[i] );
+      }
+
+      return result;
+    }
+
+    /**
+     * Normalize the tokens added to the store since the last time.
+     */
+    protected void extend() {
+      int start = termIds.length;
+      List<String> added = getTokens( start );
+      termIds = Arrays.copyOf( termIds, start + added.size() );
+      for ( int i = 0; i < added.size(); i++ ) {
+        String term = tokenizer.normalize( added.get( i ) );
+        termIds[start + i] = ( term == null ) ? -1 : terms.add( term );
+      }
+    }
+
+    /**
+     * Get the term with the id.
+     *
+     * @param id
+     * @return
+     */
+    public String getTerm( int id ) {
+      return terms.getName( id );
+    }
+
+    /**
+     * Get the number of distinct terms.
+     *
+     * @return
+     */
+    public int size() {
+      return terms.size();
+    }
+
+    /**
+     * Get the tokenizer.
+     *
+     * @return a copy
+     */
+    public TextTokenizer getTokenizer() {
+      return new TextTokenizer( tokenizer );
+    }
+  }
+
+  /**
+   * Tokenizes a range of documents and maps them to the term ids of a view.
+   */
+  protected class TokenizeTask extends RecursiveAction {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The view. */
+    protected final View view;
+    /** The document ids. */
+    protected final List<String> ids;
+    /** The texts. */
+    protected final List<String> texts;
+    /** The term ids of the documents. */
+    protected final int[][] docs;
+    /** The first document. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param view
+     * @param ids
+     * @param texts
+     * @param docs
+     * @param lo
+     * @param hi
+     */
+    protected TokenizeTask( View view, List<String> ids, List<String> texts,
+        int[][] docs, int lo, int hi ) {
+      this.view = view;
+      this.ids = ids;
+      this.texts = texts;
+      this.docs = docs;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if ( hi - lo <= threshold ) {
+        int[][] terms = view.map( tokenize( ids, texts, lo, hi ) );
+        System.arraycopy( terms, 0, docs, lo, terms.length );
+      } else {
+        int mid = ( lo + hi ) >>> 1;
+        invokeAll( new TokenizeTask( view, ids, texts, docs, lo, mid ),
+            new TokenizeTask( view, ids, texts, docs, mid, hi ) );
+      }
+    }
+  }
+}
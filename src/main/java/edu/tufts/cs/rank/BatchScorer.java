@@ -0,0 +1,22 @@
+package edu.tufts.cs.rank;
+
+import edu.tufts.cs.features.CsrMatrix;
+
+/**
+ * A model that scores the rows of a sparse matrix in batches, so that a
+ * corpus is ranked from one array of scores instead of one call per
+ * document. While the model is not being trained, disjoint ranges of rows
+ * may be scored concurrently (see ParallelScorer).
+ */
+public interface BatchScorer {
+
+  /**
+   * Score the rows of the matrix from start (inclusive) to end (exclusive).
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the scores, indexed by row
+   */
+  void score( CsrMatrix m, int start, int end, double[] scores );
+}
@@ -0,0 +1,352 @@
+package edu.tufts.cs.rank;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.TreeMultimap;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.LabeledFeatureVector;
+import edu.tufts.cs.ml.TestRelation;
+import edu.tufts.cs.ml.TrainRelation;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * A linear ranking SVM solved in-process, as a drop-in replacement for the
+ * svm_rank binaries behind RankSvmClassifier.
+ *
+ * Like svm_rank (with a single query), it minimizes
+ *
+ * 1/2 |w|^2 + c * sum over pairs of max( 0, 1 - w.(x_i - x_j) )
+ *
+ * over the pairs in the same query whose target (the rank, or else the label)
+ * of x_i is greater than that of x_j, by dual coordinate descent on the pair
+ * differences. The pair differences are never materialized. As with
+ * RankSvmClassifier, rank(...) keys the test vectors by their score, so a
+ * lower target ranks first when iterating the keys in ascending order.
+ *
+ * With warm start, the dual variable of each pair is kept by the ids of the
+ * pair, and the next call to train(...) with ids starts from them, so that a
+ * retrain after a few new labels converges in a few passes.
+ */
+public class LinearRankSvm<E> implements BatchScorer {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( LinearRankSvm.class );
+  /** The default stopping tolerance on the projected gradient. */
+  public static final double DEFAULT_EPSILON = 0.01;
+  /** The default maximum number of passes over the pairs. */
+  public static final int DEFAULT_MAX_ITERATIONS = 1000;
+  /** The c parameter. */
+  protected double c;
+  /** The stopping tolerance on the projected gradient. */
+  protected double epsilon = DEFAULT_EPSILON;
+  /** The maximum number of passes over the pairs. */
+  protected int maxIterations = DEFAULT_MAX_ITERATIONS;
+  /** The feature indices. */
+  protected FeatureDictionary dictionary;
+  /** The random number generator for the order of the pairs. */
+  protected Random random;
+  /** The weights. */
+  protected double[] w = new double[0];
+  /** Whether to start training from the last dual variables. */
+  protected boolean warmStart;
+  /** The dual variables of the last training, by the ids of the pair. */
+  protected Map<String, Double> duals = new HashMap<>();
+
+  /**
+   * Default constructor.
+   *
+   * @param c
+   */
+  public LinearRankSvm( double c ) {
+    this( c, new FeatureDictionary(), new Random( 0 ) );
+  }
+
+  /**
+   * Constructor with a feature dictionary that may be shared between models,
+   * so that the test vectors only need to be converted once.
+   *
+   * @param c
+   * @param dictionary
+   * @param random
+   */
+  public LinearRankSvm( double c, FeatureDictionary dictionary, Random random ) {
+    this.c = c;
+    this.dictionary = dictionary;
+    this.random = random;
+  }
+
+  /**
+   * Set the stopping tolerance on the projected gradient.
+   *
+   * @param epsilon
+   */
+  public void setEpsilon( double epsilon ) {
+    this.epsilon = epsilon;
+  }
+
+  /**
+   * Set the maximum number of passes over the pairs.
+   *
+   * @param maxIterations
+   */
+  public void setMaxIterations( int maxIterations ) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Start training from the dual variables of the last training with ids.
+   *
+   * @param warmStart
+   */
+  public void setWarmStart( boolean warmStart ) {
+    this.warmStart = warmStart;
+  }
+
+  /**
+   * Train the model.
+   *
+   * @param train
+   */
+  public void train( TrainRelation<E> train ) {
+    int n = train.size();
+    SparseVector[] x = new SparseVector[n];
+    double[] target = new double[n];
+    int[] qid = new int[n];
+    int i = 0;
+    for ( LabeledFeatureVector<E> lfv : train ) {
+      // the training vectors may be pseudo-documents, so don't cache them
+      x[i] = dictionary.convert( lfv );
+      target[i] = getTarget( lfv );
+      qid[i] = ( lfv.getQid() == null ) ? 0 : lfv.getQid();
+      i++;
+    }
+
+    train( x, target, qid );
+  }
+
+  /**
+   * Train the model on converted vectors.
+   *
+   * @param x
+   * @param target
+   * @param qid
+   */
+  public void train( SparseVector[] x, double[] target, int[] qid ) {
+    int[][] pairs = pairs( target, qid );
+    solve( x, pairs[0], pairs[1], new double[pairs[0].length] );
+  }
+
+  /**
+   * Train the model on converted vectors of a single query.
+   *
+   * @param x
+   * @param target
+   * @param ids the ids of the vectors, for warm start
+   */
+  public void train( SparseVector[] x, double[] target, String[] ids ) {
+    int[][] pairs = pairs( target, new int[x.length] );
+    int[] hi = pairs[0];
+    int[] lo = pairs[1];
+    double[] alpha = new double[hi.length];
+    if ( warmStart ) {
+      for ( int p = 0; p < hi.length; p++ ) {
+        Double dual = duals.get( ids[hi[p]] + " " + ids[lo[p]] );
+        alpha[p] = ( dual == null ) ? 0 : Math.min( dual, c );
+      }
+    }
+
+    solve( x, hi, lo, alpha );
+
+    if ( warmStart ) {
+      duals = new HashMap<>();
+      for ( int p = 0; p < hi.length; p++ ) {
+        if ( alpha[p] > 0 ) {
+          duals.put( ids[hi[p]] + " " + ids[lo[p]], alpha[p] );
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the pairs (hi, lo) in the same query whose scores should be ordered
+   * hi > lo.
+   *
+   * @param target
+   * @param qid
+   * @return the hi and the lo vector of each pair
+   */
+  protected static int[][] pairs( double[] target, int[] qid ) {
+    int n = target.length;
+    int numPairs = 0;
+    for ( int a = 0; a < n; a++ ) {
+      for ( int b = 0; b < n; b++ ) {
+        if ( qid[a] == qid[b] && target[a] > target[b] ) numPairs++;
+      }
+    }
+    int[] hi = new int[numPairs];
+    int[] lo = new int[numPairs];
+    int p = 0;
+    for ( int a = 0; a < n; a++ ) {
+      for ( int b = 0; b < n; b++ ) {
+        if ( qid[a] == qid[b] && target[a] > target[b] ) {
+          hi[p] = a;
+          lo[p++] = b;
+        }
+      }
+    }
+
+    return new int[][] { hi, lo };
+  }
+
+  /**
+   * Solve the dual by coordinate descent.
+   *
+   * @param x
+   * @param hi
+   * @param lo
+   * @param alpha the initial dual variables, updated in place
+   */
+  protected void solve( SparseVector[] x, int[] hi, int[] lo,
+      double[] alpha ) {
+    int dim = dictionary.size();
+    for ( SparseVector v : x ) {
+      dim = Math.max( dim, v.maxIndex() + 1 );
+    }
+    w = new double[dim];
+    int numPairs = hi.length;
+    for ( int p = 0; p < numPairs; p++ ) {
+      if ( alpha[p] != 0 ) {
+        x[hi[p]].addTo( w, alpha[p] );
+        x[lo[p]].addTo( w, -alpha[p] );
+      }
+    }
+    double[] qd = new double[numPairs];
+    double[] sq = new double[x.length];
+    for ( int i = 0; i < x.length; i++ ) {
+      sq[i] = x[i].squaredNorm();
+    }
+    for ( int p = 0; p < numPairs; p++ ) {
+      qd[p] = sq[hi[p]] + sq[lo[p]] - 2 * x[hi[p]].dot( x[lo[p]] );
+    }
+
+    int[] order = new int[numPairs];
+    for ( int p = 0; p < numPairs; p++ ) {
+      order[p] = p;
+    }
+
+    int it = 0;
+    for ( ; it < maxIterations; it++ ) {
+      // visit the pairs in a random order
+      for ( int p = numPairs - 1; p > 0; p-- ) {
+        int q = random.nextInt( p + 1 );
+        int tmp = order[p];
+        order[p] = order[q];
+        order[q] = tmp;
+      }
+
+      double maxPg = Double.NEGATIVE_INFINITY;
+      double minPg = Double.POSITIVE_INFINITY;
+      for ( int k = 0; k < numPairs; k++ ) {
+        int p = order[k];
+        if ( qd[p] <= 0 ) continue; // identical vectors
+
+        double g = x[hi[p]].dot( w ) - x[lo[p]].dot( w ) - 1;
+        double pg = g;
+        if ( alpha[p] == 0 ) {
+          pg = Math.min( g, 0 );
+        } else if ( alpha[p] == c ) {
+          pg = Math.max( g, 0 );
+        }
+        maxPg = Math.max( maxPg, pg );
+        minPg = Math.min( minPg, pg );
+
+        if ( pg != 0 ) {
+          double old = alpha[p];
+          alpha[p] = Math.min( Math.max( old - g / qd[p], 0 ), c );
+          double d = alpha[p] - old;
+          x[hi[p]].addTo( w, d );
+          x[lo[p]].addTo( w, -d );
+        }
+      }
+
+      if ( maxPg - minPg < epsilon ) break;
+    }
+
+    LOG.debug( "Solved " + numPairs + " pairs in " + it + " iterations" );
+  }
+
+  /**
+   * Score the feature vector.
+   *
+   * @param fv
+   * @return
+   */
+  public double score( FeatureVector<E> fv ) {
+    return dictionary.vectorize( fv ).dot( w );
+  }
+
+  /**
+   * Score the rows of the matrix.
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the scores, indexed by row
+   */
+  @Override
+  public void score( CsrMatrix m, int start, int end, double[] scores ) {
+    for ( int row = start; row < end; row++ ) {
+      scores[row] = m.dot( row, w );
+    }
+  }
+
+  /**
+   * Rank the test set.
+   *
+   * @param test
+   * @return the test vectors, keyed by score
+   */
+  public TreeMultimap<Double, FeatureVector<E>> rank( TestRelation<E> test ) {
+    TreeMultimap<Double, FeatureVector<E>> results = TreeMultimap.create();
+    for ( UnlabeledFeatureVector<E> fv : test ) {
+      results.put( score( fv ), fv );
+    }
+
+    return results;
+  }
+
+  /**
+   * Get the weights.
+   *
+   * @return
+   */
+  public double[] getWeights() {
+    return this.w;
+  }
+
+  /**
+   * Get the target of the training vector: its rank, or else its label.
+   *
+   * @param lfv
+   * @return
+   */
+  protected static double getTarget( LabeledFeatureVector<?> lfv ) {
+    if ( lfv.getRank() != null ) {
+      return lfv.getRank();
+    }
+    Object label = lfv.getLabel();
+    if ( label instanceof Number ) {
+      return ( (Number) label ).doubleValue();
+    }
+    throw new IllegalArgumentException( "No rank or numeric label for "
+        + lfv.getId() );
+  }
+}
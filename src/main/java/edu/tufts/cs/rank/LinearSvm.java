@@ -0,0 +1,434 @@
+package edu.tufts.cs.rank;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.TreeMultimap;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.LabeledFeatureVector;
+import edu.tufts.cs.ml.TestRelation;
+import edu.tufts.cs.ml.TrainRelation;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+/**
+ * A linear SVM or logistic regression solved in-process by dual coordinate
+ * descent, as in LIBLINEAR (Hsieh et al., 2008; Yu et al., 2011), as a
+ * drop-in replacement for the libsvm and svm_light binaries behind
+ * LibSvmClassifier and SvmLightClassifier.
+ *
+ * It minimizes
+ *
+ * 1/2 |w|^2 + c * sum over i of loss( y_i w.x_i )
+ *
+ * where the loss is the hinge, the squared hinge or the logistic loss, and
+ * the label y_i is +1 for a positive numeric label and -1 otherwise. An
+ * intercept is learned as the weight of a constant bias feature.
+ *
+ * With warm start, the dual variable of each training vector is kept by id,
+ * and the next call to train(...) starts from them, so that a retrain after
+ * a few new labels converges in a few passes. rank(...) keys the test
+ * vectors by their decision value, so the positive class ranks first when
+ * iterating the keys in descending order.
+ *
+ * Not thread-safe.
+ */
+public class LinearSvm<E> implements BatchScorer {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( LinearSvm.class );
+  /** The default stopping tolerance on the projected gradient. */
+  public static final double DEFAULT_EPSILON = 0.1;
+  /** The default maximum number of passes over the training vectors. */
+  public static final int DEFAULT_MAX_ITERATIONS = 1000;
+  /** The default value of the bias feature. */
+  public static final double DEFAULT_BIAS = 1;
+  /** The maximum number of Newton steps of a logistic subproblem. */
+  protected static final int MAX_NEWTON_STEPS = 100;
+
+  /**
+   * The loss functions.
+   */
+  public enum Loss {
+    /** The hinge loss of the L1-loss SVM (LIBLINEAR -s 3). */
+    HINGE,
+    /** The squared hinge loss of the L2-loss SVM (LIBLINEAR -s 1). */
+    SQUARED_HINGE,
+    /** The logistic loss of logistic regression (LIBLINEAR -s 7). */
+    LOGISTIC
+  }
+
+  /** The loss function. */
+  protected final Loss loss;
+  /** The c parameter. */
+  protected double c;
+  /** The stopping tolerance on the projected gradient. */
+  protected double epsilon = DEFAULT_EPSILON;
+  /** The maximum number of passes over the training vectors. */
+  protected int maxIterations = DEFAULT_MAX_ITERATIONS;
+  /** The value of the bias feature, or 0 for no intercept. */
+  protected double bias = DEFAULT_BIAS;
+  /** Whether to start training from the last dual variables. */
+  protected boolean warmStart;
+  /** The feature indices. */
+  protected FeatureDictionary dictionary;
+  /** The random number generator for the order of the training vectors. */
+  protected Random random;
+  /** The weights. */
+  protected double[] w = new double[0];
+  /** The weight of the bias feature. */
+  protected double b;
+  /** The signed dual variables (y_i alpha_i) of the last training, by id. */
+  protected Map<String, Double> duals = new HashMap<>();
+  /** The number of passes of the last training. */
+  protected int iterations;
+
+  /**
+   * Default constructor.
+   *
+   * @param loss
+   * @param c
+   */
+  public LinearSvm( Loss loss, double c ) {
+    this( loss, c, new FeatureDictionary(), new Random( 0 ) );
+  }
+
+  /**
+   * Constructor with a feature dictionary that may be shared between models,
+   * so that the test vectors only need to be converted once.
+   *
+   * @param loss
+   * @param c
+   * @param dictionary
+   * @param random
+   */
+  public LinearSvm( Loss loss, double c, FeatureDictionary dictionary,
+      Random random ) {
+    this.loss = loss;
+    this.c = c;
+    this.dictionary = dictionary;
+    this.random = random;
+  }
+
+  /**
+   * Set the stopping tolerance on the projected gradient.
+   *
+   * @param epsilon
+   */
+  public void setEpsilon( double epsilon ) {
+    this.epsilon = epsilon;
+  }
+
+  /**
+   * Set the maximum number of passes over the training vectors.
+   *
+   * @param maxIterations
+   */
+  public void setMaxIterations( int maxIterations ) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Set the value of the bias feature, or 0 for no intercept.
+   *
+   * @param bias
+   */
+  public void setBias( double bias ) {
+    this.bias = bias;
+  }
+
+  /**
+   * Set whether to start training from the last dual variables. Only the
+   * training vectors whose id and label are unchanged keep their variable.
+   *
+   * @param warmStart
+   */
+  public void setWarmStart( boolean warmStart ) {
+    this.warmStart = warmStart;
+  }
+
+  /**
+   * Train the model.
+   *
+   * @param train
+   */
+  public void train( TrainRelation<E> train ) {
+    int n = train.size();
+    SparseVector[] x = new SparseVector[n];
+    double[] y = new double[n];
+    String[] ids = new String[n];
+    int i = 0;
+    for ( LabeledFeatureVector<E> lfv : train ) {
+      // the training vectors may be pseudo-documents, so don't cache them
+      x[i] = dictionary.convert( lfv );
+      y[i] = getSign( lfv );
+      ids[i] = lfv.getId();
+      i++;
+    }
+
+    train( x, y, ids );
+  }
+
+  /**
+   * Train the model on converted vectors.
+   *
+   * @param x
+   * @param y the labels, +1 or -1
+   * @param ids the ids of the vectors, for warm start
+   */
+  public void train( SparseVector[] x, double[] y, String[] ids ) {
+    int n = x.length;
+    int dim = dictionary.size();
+    for ( SparseVector v : x ) {
+      dim = Math.max( dim, v.maxIndex() + 1 );
+    }
+    w = new double[dim];
+    b = 0;
+
+    // the upper bound of the variables and the diagonal of the loss
+    double upper = ( loss == Loss.SQUARED_HINGE ) ? Double.POSITIVE_INFINITY
+        : c;
+    double diag = ( loss == Loss.SQUARED_HINGE ) ? 1 / ( 2 * c ) : 0;
+
+    double[] alpha = new double[n];
+    double[] qd = new double[n];
+    Set<String> seen = new HashSet<>();
+    for ( int i = 0; i < n; i++ ) {
+      qd[i] = x[i].squaredNorm() + bias * bias + diag;
+      alpha[i] = ( loss == Loss.LOGISTIC ) ? Math.min( 0.001 * c, 1e-8 ) : 0;
+      Double dual = ( warmStart && seen.add( ids[i] ) ) ? duals.get( ids[i] )
+          : null;
+      if ( dual != null && dual * y[i] > 0 ) {
+        // the same vector with the same label, so its old variable is valid
+        alpha[i] = Math.abs( dual );
+        if ( loss == Loss.LOGISTIC ) {
+          alpha[i] = Math.min( alpha[i], c - Math.min( 0.001 * c, 1e-8 ) );
+        }
+        alpha[i] = Math.min( alpha[i], upper );
+      }
+      update( x[i], y[i] * alpha[i] );
+    }
+
+    int[] order = new int[n];
+    for ( int i = 0; i < n; i++ ) {
+      order[i] = i;
+    }
+
+    double newtonEpsilon = 1e-2;
+    int it = 0;
+    for ( ; it < maxIterations; it++ ) {
+      // visit the training vectors in a random order
+      for ( int i = n - 1; i > 0; i-- ) {
+        int j = random.nextInt( i + 1 );
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+      }
+
+      double maxPg = Double.NEGATIVE_INFINITY;
+      double minPg = Double.POSITIVE_INFINITY;
+      for ( int k = 0; k < n; k++ ) {
+        int i = order[k];
+        if ( qd[i] <= 0 ) continue; // an empty vector without a bias
+
+        double ywx = y[i] * ( x[i].dot( w ) + b * bias );
+        if ( loss == Loss.LOGISTIC ) {
+          double old = alpha[i];
+          // the gradient of the dual in the variable
+          double g = Math.abs( ywx + Math.log( old / ( c - old ) ) );
+          maxPg = Math.max( maxPg, g );
+          minPg = Math.min( minPg, -g );
+          alpha[i] = solveLogistic( qd[i], old, ywx, newtonEpsilon );
+          update( x[i], y[i] * ( alpha[i] - old ) );
+          continue;
+        }
+
+        double g = ywx - 1 + diag * alpha[i];
+        double pg = g;
+        if ( alpha[i] == 0 ) {
+          pg = Math.min( g, 0 );
+        } else if ( alpha[i] == upper ) {
+          pg = Math.max( g, 0 );
+        }
+        maxPg = Math.max( maxPg, pg );
+        minPg = Math.min( minPg, pg );
+
+        if ( pg != 0 ) {
+          double old = alpha[i];
+          alpha[i] = Math.min( Math.max( old - g / qd[i], 0 ), upper );
+          update( x[i], y[i] * ( alpha[i] - old ) );
+        }
+      }
+
+      if ( n == 0 || maxPg - minPg < epsilon ) break;
+      if ( loss == Loss.LOGISTIC && maxPg < newtonEpsilon ) {
+        // solve the subproblems more precisely as the passes converge
+        newtonEpsilon = Math.max( 0.1 * newtonEpsilon, 1e-8 );
+      }
+    }
+    iterations = Math.min( it + 1, maxIterations );
+
+    duals = new HashMap<>();
+    for ( int i = 0; i < n; i++ ) {
+      duals.put( ids[i], y[i] * alpha[i] );
+    }
+
+    LOG.debug( "Solved " + n + " vectors in " + iterations + " iterations" );
+  }
+
+  /**
+   * Add the vector, with its bias feature, to the weights.
+   *
+   * @param x
+   * @param d
+   */
+  protected void update( SparseVector x, double d ) {
+    if ( d != 0 ) {
+      x.addTo( w, d );
+      b += d * bias;
+    }
+  }
+
+  /**
+   * Solve the logistic subproblem of one variable by Newton's method,
+   * keeping it inside (0, c).
+   *
+   * @param qd the squared norm of the vector
+   * @param old the variable
+   * @param ywx the signed decision value of the vector
+   * @param tolerance
+   * @return the new variable
+   */
+  protected double solveLogistic( double qd, double old, double ywx,
+      double tolerance ) {
+    // solve for whichever of alpha and c - alpha moves away from its bound
+    boolean swap = 0.5 * qd * ( c - 2 * old ) + ywx < 0;
+    double a = swap ? c - old : old;
+    double s = swap ? -1 : 1;
+    double z = a;
+    if ( c - z < 0.5 * c ) {
+      z *= 0.1;
+    }
+
+    double g = qd * ( z - a ) + s * ywx + Math.log( z / ( c - z ) );
+    for ( int step = 0; step < MAX_NEWTON_STEPS
+        && Math.abs( g ) >= tolerance; step++ ) {
+      double next = z - g / ( qd + c / ( z * ( c - z ) ) );
+      z = ( next <= 0 ) ? 0.1 * z : next;
+      g = qd * ( z - a ) + s * ywx + Math.log( z / ( c - z ) );
+    }
+
+    return swap ? c - z : z;
+  }
+
+  /**
+   * Score the feature vector.
+   *
+   * @param fv
+   * @return the decision value
+   */
+  public double score( FeatureVector<E> fv ) {
+    return score( dictionary.vectorize( fv ) );
+  }
+
+  /**
+   * Score the converted vector.
+   *
+   * @param x
+   * @return the decision value
+   */
+  public double score( SparseVector x ) {
+    return x.dot( w ) + b * bias;
+  }
+
+  /**
+   * Score the rows of the matrix.
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the decision values, indexed by row
+   */
+  @Override
+  public void score( CsrMatrix m, int start, int end, double[] scores ) {
+    for ( int row = start; row < end; row++ ) {
+      scores[row] = m.dot( row, w ) + b * bias;
+    }
+  }
+
+  /**
+   * The probability of the positive class, for logistic regression.
+   *
+   * @param fv
+   * @return
+   */
+  public double probability( FeatureVector<E> fv ) {
+    return 1 / ( 1 + Math.exp( -score( fv ) ) );
+  }
+
+  /**
+   * Rank the test set.
+   *
+   * @param test
+   * @return the test vectors, keyed by decision value
+   */
+  public TreeMultimap<Double, FeatureVector<E>> rank( TestRelation<E> test ) {
+    TreeMultimap<Double, FeatureVector<E>> results = TreeMultimap.create();
+    for ( UnlabeledFeatureVector<E> fv : test ) {
+      results.put( score( fv ), fv );
+    }
+
+    return results;
+  }
+
+  /**
+   * Get the weights.
+   *
+   * @return
+   */
+  public double[] getWeights() {
+    return this.w;
+  }
+
+  /**
+   * Get the weight of the bias feature.
+   *
+   * @return
+   */
+  public double getBiasWeight() {
+    return this.b;
+  }
+
+  /**
+   * Get the number of passes of the last training.
+   *
+   * @return
+   */
+  public int getIterations() {
+    return this.iterations;
+  }
+
+  /**
+   * Get the sign of the training vector's label: +1 for a positive number,
+   * else -1.
+   *
+   * @param lfv
+   * @return
+   */
+  protected static double getSign( LabeledFeatureVector<?> lfv ) {
+    Object label = lfv.getLabel();
+    if ( label instanceof Number ) {
+      return ( ( (Number) label ).doubleValue() > 0 ) ? 1 : -1;
+    }
+    throw new IllegalArgumentException( "No numeric label for "
+        + lfv.getId() );
+  }
+}
@@ -0,0 +1,282 @@
+package edu.tufts.cs.rank;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+/**
+ * A two-class multinomial Naive Bayes model with Laplace smoothing that is
+ * trained incrementally from per-class feature counts, so that labeling a
+ * document costs O(nnz) however many documents have been labeled.
+ *
+ * A document x is scored by its log odds of being positive,
+ *
+ * log P(+) / P(-) + sum over j of x_j log P(j | +) / P(j | -)
+ *
+ * where P(j | c) = ( n_cj + a ) / ( n_c + a V ). The denominators are the
+ * same for every feature, so the score is x . w - |x|_1 d plus the prior,
+ * where w_j = log( n_+j + a ) - log( n_-j + a ) changes only at the features
+ * of a new document and d = log( n_+ + a V ) - log( n_- + a V ) is a scalar.
+ * Ranking a corpus is then one pass over its rows.
+ *
+ * Not thread-safe.
+ */
+public class NaiveBayes implements BatchScorer {
+  /** The default smoothing parameter. */
+  public static final double DEFAULT_SMOOTHING = 1;
+  /** The number of features (V). */
+  protected int vocabularySize;
+  /** The smoothing parameter (a). */
+  protected double smoothing = DEFAULT_SMOOTHING;
+  /** The feature counts of the positive documents. */
+  protected double[] positiveCounts = new double[0];
+  /** The feature counts of the negative documents. */
+  protected double[] negativeCounts = new double[0];
+  /** The log ratios of the smoothed feature counts (w). */
+  protected double[] weights = new double[0];
+  /** The total count of the positive documents. */
+  protected double positiveTotal;
+  /** The total count of the negative documents. */
+  protected double negativeTotal;
+  /** The number of positive documents. */
+  protected int positiveDocs;
+  /** The number of negative documents. */
+  protected int negativeDocs;
+  /** The ids of the documents. */
+  protected final Set<String> ids = new HashSet<>();
+  /** The ids of the positive documents. */
+  protected final Set<String> positiveIds = new HashSet<>();
+
+  /**
+   * Default constructor.
+   *
+   * @param vocabularySize the number of features, which grows if a document
+   *          has more
+   */
+  public NaiveBayes( int vocabularySize ) {
+    this.vocabularySize = vocabularySize;
+  }
+
+  /**
+   * Set the smoothing parameter. The model must be empty.
+   *
+   * @param smoothing
+   */
+  public void setSmoothing( double smoothing ) {
+    if ( !ids.isEmpty() ) {
+      throw new IllegalStateException( "The model has been trained." );
+    }
+    this.smoothing = smoothing;
+  }
+
+  /**
+   * Add a labeled document, unless it has already been added.
+   *
+   * @param id
+   * @param x
+   * @param positive
+   * @return whether the document was added
+   */
+  public boolean add( String id, SparseVector x, boolean positive ) {
+    if ( !ids.add( id ) ) {
+      return false;
+    }
+
+    grow( x.maxIndex() + 1 );
+    for ( int i = 0; i < x.size(); i++ ) {
+      count( x.index( i ), x.value( i ), positive );
+    }
+    countDocument( id, positive );
+
+    return true;
+  }
+
+  /**
+   * Add a row of the matrix as a labeled document, unless it has already been
+   * added.
+   *
+   * @param id
+   * @param m
+   * @param row
+   * @param positive
+   * @return whether the document was added
+   */
+  public boolean add( String id, CsrMatrix m, int row, boolean positive ) {
+    if ( !ids.add( id ) ) {
+      return false;
+    }
+
+    int start = m.getIndptr()[row];
+    int end = m.getIndptr()[row + 1];
+    if ( end > start ) {
+      // the columns of a row are ascending
+      grow( m.getIndices()[end - 1] + 1 );
+    }
+    for ( int k = start; k < end; k++ ) {
+      count( m.getIndices()[k], m.getValues()[k], positive );
+    }
+    countDocument( id, positive );
+
+    return true;
+  }
+
+  /**
+   * Add the value of a feature to the counts of the class.
+   *
+   * @param feature
+   * @param value
+   * @param positive
+   */
+  protected void count( int feature, double value, boolean positive ) {
+    if ( positive ) {
+      positiveCounts[feature] += value;
+      positiveTotal += value;
+    } else {
+      negativeCounts[feature] += value;
+      negativeTotal += value;
+    }
+    weights[feature] = Math.log( positiveCounts[feature] + smoothing )
+        - Math.log( negativeCounts[feature] + smoothing );
+  }
+
+  /**
+   * Count a document of the class.
+   *
+   * @param id
+   * @param positive
+   */
+  protected void countDocument( String id, boolean positive ) {
+    if ( positive ) {
+      positiveIds.add( id );
+      positiveDocs++;
+    } else {
+      negativeDocs++;
+    }
+  }
+
+  /**
+   * Whether the document has been added.
+   *
+   * @param id
+   * @return
+   */
+  public boolean contains( String id ) {
+    return ids.contains( id );
+  }
+
+  /**
+   * Whether the document has been added with the label.
+   *
+   * @param id
+   * @param positive
+   * @return
+   */
+  public boolean contains( String id, boolean positive ) {
+    return ids.contains( id ) && positiveIds.contains( id ) == positive;
+  }
+
+  /**
+   * Get the number of documents.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Remove all of the documents.
+   */
+  public void clear() {
+    ids.clear();
+    positiveIds.clear();
+    positiveCounts = new double[0];
+    negativeCounts = new double[0];
+    weights = new double[0];
+    positiveTotal = 0;
+    negativeTotal = 0;
+    positiveDocs = 0;
+    negativeDocs = 0;
+  }
+
+  /**
+   * The log odds of the prior, with add-one smoothing of the document counts.
+   *
+   * @return
+   */
+  protected double prior() {
+    return Math.log( positiveDocs + 1.0 ) - Math.log( negativeDocs + 1.0 );
+  }
+
+  /**
+   * The log ratio of the denominators of the feature probabilities (d).
+   *
+   * @return
+   */
+  protected double normalizer() {
+    double v = smoothing * vocabularySize;
+    return Math.log( positiveTotal + v ) - Math.log( negativeTotal + v );
+  }
+
+  /**
+   * The log odds of the vector being positive.
+   *
+   * @param x
+   * @return
+   */
+  public double score( SparseVector x ) {
+    double length = 0;
+    for ( int i = 0; i < x.size(); i++ ) {
+      length += x.value( i );
+    }
+
+    return prior() + x.dot( weights ) - length * normalizer();
+  }
+
+  /**
+   * The log odds of the rows of the matrix being positive.
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the log odds, indexed by row
+   */
+  @Override
+  public void score( CsrMatrix m, int start, int end, double[] scores ) {
+    int[] indptr = m.getIndptr();
+    int[] indices = m.getIndices();
+    float[] values = m.getValues();
+    double prior = prior();
+    double normalizer = normalizer();
+    for ( int row = start; row < end; row++ ) {
+      // the dot product and the length of the row in one pass
+      double dot = 0;
+      double length = 0;
+      for ( int k = indptr[row]; k < indptr[row + 1]; k++ ) {
+        if ( indices[k] < weights.length ) {
+          dot += weights[indices[k]] * values[k];
+        }
+        length += values[k];
+      }
+      scores[row] = prior + dot - length * normalizer;
+    }
+  }
+
+  /**
+   * Make room for the features up to the size.
+   *
+   * @param size
+   */
+  protected void grow( int size ) {
+    vocabularySize = Math.max( vocabularySize, size );
+    if ( size > weights.length ) {
+      int n = Math.max( size, 2 * weights.length );
+      positiveCounts = Arrays.copyOf( positiveCounts, n );
+      negativeCounts = Arrays.copyOf( negativeCounts, n );
+      weights = Arrays.copyOf( weights, n );
+    }
+  }
+}
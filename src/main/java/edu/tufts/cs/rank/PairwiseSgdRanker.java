@@ -0,0 +1,244 @@
+package edu.tufts.cs.rank;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+/**
+ * A linear ranking function learned online by Pegasos-style stochastic
+ * sub-gradient descent on the pairwise hinge loss
+ *
+ * lambda/2 |w|^2 + mean over (pos, neg) of max( 0, 1 - w.(pos - neg) ).
+ *
+ * The weights persist between updates, so each update only needs to step on
+ * pairs that involve newly labeled documents. The weight vector is kept as
+ * scale * v so that the regularization shrinkage costs O(1) per step.
+ */
+public class PairwiseSgdRanker implements BatchScorer {
+  /** The default regularization strength. */
+  public static final double DEFAULT_LAMBDA = 1e-3;
+  /** The scale below which it is folded back into the weights. */
+  protected static final double MIN_SCALE = 1e-9;
+  /** The regularization strength. */
+  protected double lambda;
+  /** The random number generator for sampling pairs. */
+  protected Random random;
+  /** The unscaled weights. */
+  protected double[] v = new double[0];
+  /** The weight scale. */
+  protected double scale = 1;
+  /** The number of steps taken since the last reset. */
+  protected long t = 0;
+
+  /**
+   * Default constructor.
+   *
+   * @param random
+   */
+  public PairwiseSgdRanker( Random random ) {
+    this( DEFAULT_LAMBDA, random );
+  }
+
+  /**
+   * Constructor with the regularization strength.
+   *
+   * @param lambda
+   * @param random
+   */
+  public PairwiseSgdRanker( double lambda, Random random ) {
+    if ( lambda <= 0 ) {
+      throw new IllegalArgumentException( "Lambda must be positive: "
+          + lambda );
+    }
+    this.lambda = lambda;
+    this.random = random;
+  }
+
+  /**
+   * Take the given number of steps on pairs that involve at least one of the
+   * new documents. Each step picks a new document uniformly and pairs it with
+   * a random document of the opposite class.
+   *
+   * @param newPos the newly labeled relevant documents
+   * @param newNeg the newly labeled irrelevant documents
+   * @param pos all of the relevant documents
+   * @param neg all of the irrelevant documents
+   * @param steps
+   */
+  public void update( List<SparseVector> newPos, List<SparseVector> newNeg,
+      List<SparseVector> pos, List<SparseVector> neg, int steps ) {
+    int numNew = newPos.size() + newNeg.size();
+    if ( numNew == 0 || pos.isEmpty() || neg.isEmpty() ) return;
+
+    for ( int s = 0; s < steps; s++ ) {
+      int r = random.nextInt( numNew );
+      if ( r < newPos.size() ) {
+        step( newPos.get( r ), neg.get( random.nextInt( neg.size() ) ) );
+      } else {
+        step( pos.get( random.nextInt( pos.size() ) ), newNeg.get( r
+            - newPos.size() ) );
+      }
+    }
+  }
+
+  /**
+   * Re-fit from scratch on all of the pairs.
+   *
+   * @param pos
+   * @param neg
+   * @param steps
+   */
+  public void refit( List<SparseVector> pos, List<SparseVector> neg,
+      int steps ) {
+    reset();
+    update( pos, neg, pos, neg, steps );
+  }
+
+  /**
+   * Take one step on the pair.
+   *
+   * @param pos
+   * @param neg
+   */
+  protected void step( SparseVector pos, SparseVector neg ) {
+    ensureCapacity( Math.max( pos.maxIndex(), neg.maxIndex() ) + 1 );
+
+    t++;
+    // offset by one so that the first step does not zero the weights
+    double eta = 1.0 / ( lambda * ( t + 1 ) );
+    double margin = scale * ( pos.dot( v ) - neg.dot( v ) );
+
+    scale *= ( 1 - eta * lambda );
+    if ( margin < 1 ) {
+      pos.addTo( v, eta / scale );
+      neg.addTo( v, -eta / scale );
+    }
+
+    if ( scale < MIN_SCALE ) {
+      for ( int i = 0; i < v.length; i++ ) {
+        v[i] *= scale;
+      }
+      scale = 1;
+    }
+  }
+
+  /**
+   * Score the document; higher scores rank higher.
+   *
+   * @param x
+   * @return
+   */
+  public double score( SparseVector x ) {
+    return scale * x.dot( v );
+  }
+
+  /**
+   * Score the rows of the matrix; higher scores rank higher.
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the scores, indexed by row
+   */
+  @Override
+  public void score( CsrMatrix m, int start, int end, double[] scores ) {
+    for ( int row = start; row < end; row++ ) {
+      scores[row] = scale * m.dot( row, v );
+    }
+  }
+
+  /**
+   * Get a copy of the weights.
+   *
+   * @return
+   */
+  public double[] getWeights() {
+    double[] w = Arrays.copyOf( v, v.length );
+    for ( int i = 0; i < w.length; i++ ) {
+      w[i] *= scale;
+    }
+
+    return w;
+  }
+
+  /**
+   * Get the number of steps taken since the last reset.
+   *
+   * @return
+   */
+  public long getNumSteps() {
+    return this.t;
+  }
+
+  /**
+   * Forget the weights.
+   */
+  public void reset() {
+    Arrays.fill( v, 0 );
+    scale = 1;
+    t = 0;
+  }
+
+  /**
+   * Write the weights and the step count.
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void write( DataOutput out ) throws IOException {
+    out.writeLong( t );
+    out.writeDouble( scale );
+    out.writeInt( v.length );
+    for ( double d : v ) {
+      out.writeDouble( d );
+    }
+  }
+
+  /**
+   * Read the weights and the step count written by write(...).
+   *
+   * @param in
+   * @throws IOException
+   */
+  public void read( DataInput in ) throws IOException {
+    t = in.readLong();
+    scale = in.readDouble();
+    v = new double[in.readInt()];
+    for ( int i = 0; i < v.length; i++ ) {
+      v[i] = in.readDouble();
+    }
+  }
+
+  /**
+   * Move the weight of each feature to its index in another dictionary.
+   *
+   * @param indices the new index of each feature (-1 to drop it)
+   * @param n the number of features in the other dictionary
+   */
+  public void remap( int[] indices, int n ) {
+    double[] moved = new double[n];
+    for ( int i = 0; i < Math.min( indices.length, v.length ); i++ ) {
+      if ( indices[i] >= 0 ) {
+        moved[indices[i]] = v[i];
+      }
+    }
+    v = moved;
+  }
+
+  /**
+   * Grow the weights to hold the given number of features.
+   *
+   * @param n
+   */
+  protected void ensureCapacity( int n ) {
+    if ( n > v.length ) {
+      v = Arrays.copyOf( v, Math.max( n, v.length * 2 ) );
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package edu.tufts.cs.rank;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.tufts.cs.features.CsrMatrix;
+
+/**
+ * Scores every row of a sparse matrix with a batch scorer, splitting the rows
+ * into ranges that are scored in parallel with fork/join. The score array is
+ * reused between calls when it has the right length, so that ranking the
+ * same corpus every iteration allocates nothing.
+ */
+public class ParallelScorer {
+  /** The default number of rows below which a task is not split. */
+  public static final int DEFAULT_THRESHOLD = 2048;
+  /** The pool shared by all scorers. */
+  protected static final ForkJoinPool POOL = new ForkJoinPool();
+  /** The number of rows below which a task is not split. */
+  protected int threshold = DEFAULT_THRESHOLD;
+  /** The pool. */
+  protected ForkJoinPool pool = POOL;
+
+  /**
+   * Set the number of rows below which a task is not split.
+   *
+   * @param threshold
+   */
+  public void setThreshold( int threshold ) {
+    this.threshold = Math.max( 1, threshold );
+  }
+
+  /**
+   * Set the pool.
+   *
+   * @param pool
+   */
+  public void setPool( ForkJoinPool pool ) {
+    this.pool = pool;
+  }
+
+  /**
+   * Score every row of the matrix.
+   *
+   * @param scorer
+   * @param m
+   * @return the scores, indexed by row
+   */
+  public double[] score( BatchScorer scorer, CsrMatrix m ) {
+    return score( scorer, m, null );
+  }
+
+  /**
+   * Score every row of the matrix into the buffer, if it has one score per
+   * row, or else into a new array.
+   *
+   * @param scorer
+   * @param m
+   * @param scores the buffer (may be null)
+   * @return the scores, indexed by row
+   */
+  public double[] score( BatchScorer scorer, CsrMatrix m, double[] scores ) {
+    int rows = m.numRows();
+    if ( scores == null || scores.length != rows ) {
+      scores = new double[rows];
+    }
+    if ( rows <= threshold ) {
+      // not worth a task
+      scorer.score( m, 0, rows, scores );
+    } else {
+      pool.invoke( new ScoreTask( scorer, m, scores, 0, rows ) );
+    }
+
+    return scores;
+  }
+
+  /**
+   * Scores a range of rows.
+   */
+  protected class ScoreTask extends RecursiveAction {
+    /** The serial version UID. */
+    private static final long serialVersionUID = 1L;
+    /** The scorer. */
+    protected final BatchScorer scorer;
+    /** The matrix. */
+    protected final CsrMatrix m;
+    /** The scores. */
+    protected final double[] scores;
+    /** The first row. */
+    protected final int lo;
+    /** The end of the range. */
+    protected final int hi;
+
+    /**
+     * Default constructor.
+     *
+     * @param scorer
+     * @param m
+     * @param scores
+     * @param lo
+     * @param hi
+     */
+    protected ScoreTask( BatchScorer scorer, CsrMatrix m, double[] scores,
+        int lo, int hi ) {
+      this.scorer = scorer;
+      this.m = m;
+      this.scores = scores;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if ( hi - lo <= threshold ) {
+        scorer.score( m, lo, hi, scores );
+      } else {
+        int mid = ( lo + hi ) >>> 1;
+        invokeAll( new ScoreTask( scorer, m, scores, lo, mid ),
+            new ScoreTask( scorer, m, scores, mid, hi ) );
+      }
+    }
+  }
+}
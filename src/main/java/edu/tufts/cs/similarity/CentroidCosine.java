@@ -0,0 +1,198 @@
+package edu.tufts.cs.similarity;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.rank.BatchScorer;
+
+/**
+ * Scores documents by their mean cosine similarity to a set of reference
+ * documents (e.g. the relevant papers), without comparing them pairwise.
+ *
+ * The mean of cos(x, p) over the references p is x . c / (|x| k), where c is
+ * the sum of the L2-normalized references and k their number. The engine
+ * keeps c as a dense vector that is updated as references are added, so that
+ * a document is scored in O(nnz) however many references there are.
+ *
+ * Not thread-safe.
+ */
+public class CentroidCosine implements BatchScorer {
+  /** The sum of the normalized reference vectors. */
+  protected double[] centroid = new double[0];
+  /** The ids of the references. */
+  protected final Set<String> ids = new HashSet<>();
+
+  /**
+   * Add a reference document, unless it has already been added.
+   *
+   * @param id
+   * @param x
+   * @return whether the document was added
+   */
+  public boolean add( String id, SparseVector x ) {
+    if ( !ids.add( id ) ) {
+      return false;
+    }
+
+    double norm = Math.sqrt( x.squaredNorm() );
+    if ( norm > 0 ) {
+      grow( x.maxIndex() + 1 );
+      x.addTo( centroid, 1 / norm );
+    }
+
+    return true;
+  }
+
+  /**
+   * Add a row of the matrix as a reference document, unless it has already
+   * been added.
+   *
+   * @param id
+   * @param m
+   * @param row
+   * @param norm the norm of the row
+   * @return whether the document was added
+   */
+  public boolean add( String id, CsrMatrix m, int row, double norm ) {
+    if ( !ids.add( id ) ) {
+      return false;
+    }
+
+    int end = m.getIndptr()[row + 1];
+    if ( norm > 0 && end > m.getIndptr()[row] ) {
+      // the columns of a row are ascending
+      grow( m.getIndices()[end - 1] + 1 );
+      m.addTo( row, centroid, 1 / norm );
+    }
+
+    return true;
+  }
+
+  /**
+   * Whether the document has been added.
+   *
+   * @param id
+   * @return
+   */
+  public boolean contains( String id ) {
+    return ids.contains( id );
+  }
+
+  /**
+   * Get the number of reference documents.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Remove all of the reference documents.
+   */
+  public void clear() {
+    ids.clear();
+    centroid = new double[0];
+  }
+
+  /**
+   * The mean cosine similarity of the vector to the references.
+   *
+   * @param x
+   * @return the similarity, or 0 if there are no references
+   */
+  public double score( SparseVector x ) {
+    return score( x, Math.sqrt( x.squaredNorm() ) );
+  }
+
+  /**
+   * The mean cosine similarity of the vector to the references.
+   *
+   * @param x
+   * @param norm the norm of the vector
+   * @return the similarity, or 0 if there are no references
+   */
+  public double score( SparseVector x, double norm ) {
+    if ( ids.isEmpty() || norm == 0 ) {
+      return 0;
+    }
+
+    return x.dot( centroid ) / ( norm * ids.size() );
+  }
+
+  /**
+   * The mean cosine similarity of the row to the references.
+   *
+   * @param m
+   * @param row
+   * @param norm the norm of the row
+   * @return the similarity, or 0 if there are no references
+   */
+  public double score( CsrMatrix m, int row, double norm ) {
+    if ( ids.isEmpty() || norm == 0 ) {
+      return 0;
+    }
+
+    return m.dot( row, centroid ) / ( norm * ids.size() );
+  }
+
+  /**
+   * The mean cosine similarity of the rows of the matrix to the references,
+   * or 0 if there are no references.
+   *
+   * @param m
+   * @param start
+   * @param end
+   * @param scores the similarities, indexed by row
+   */
+  @Override
+  public void score( CsrMatrix m, int start, int end, double[] scores ) {
+    int[] indptr = m.getIndptr();
+    int[] indices = m.getIndices();
+    float[] values = m.getValues();
+    int k = ids.size();
+    for ( int row = start; row < end; row++ ) {
+      // the dot product and the norm of the row in one pass
+      double dot = 0;
+      double squaredNorm = 0;
+      for ( int i = indptr[row]; i < indptr[row + 1]; i++ ) {
+        if ( indices[i] < centroid.length ) {
+          dot += centroid[indices[i]] * values[i];
+        }
+        squaredNorm += values[i] * values[i];
+      }
+      scores[row] = ( k == 0 || squaredNorm == 0 ) ? 0 : dot
+          / ( Math.sqrt( squaredNorm ) * k );
+    }
+  }
+
+  /**
+   * The norms of the rows of the matrix, to be computed once.
+   *
+   * @param m
+   * @return
+   */
+  public static double[] norms( CsrMatrix m ) {
+    double[] norms = new double[m.numRows()];
+    for ( int row = 0; row < norms.length; row++ ) {
+      norms[row] = m.norm( row );
+    }
+
+    return norms;
+  }
+
+  /**
+   * Make room for the features up to the size.
+   *
+   * @param size
+   */
+  protected void grow( int size ) {
+    if ( size > centroid.length ) {
+      centroid = Arrays.copyOf( centroid, Math.max( size,
+          2 * centroid.length ) );
+    }
+  }
+}
@@ -0,0 +1,337 @@
+package edu.tufts.cs.similarity;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.tufts.cs.ebm.review.systematic.simulation.TopKSelector;
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+/**
+ * An approximate nearest-neighbour index for cosine similarity over the rows
+ * of a sparse matrix, by random-hyperplane LSH (Charikar, 2002): each of the
+ * tables keys a row by the signs of its dot products with bits random
+ * hyperplanes, so that two rows share a key with probability
+ * (1 - angle / pi)^bits.
+ *
+ * A query for a set of documents visits their buckets in every table; the
+ * rows found there are the candidates, which are ranked by their exact mean
+ * cosine similarity to the query documents. More tables find more of the
+ * true neighbours; more bits make the buckets smaller and the queries
+ * faster. With multi-probe, the buckets whose key differs in one bit are
+ * visited too, which raises the recall without adding tables.
+ *
+ * The hyperplanes are not stored: the sign of a feature on a hyperplane is a
+ * bit of a hash of the seed, the feature and the hyperplane, so the index
+ * costs one int per row and table.
+ *
+ * Not thread-safe.
+ */
+public class LshIndex {
+  /** The default number of tables. */
+  public static final int DEFAULT_TABLES = 8;
+  /** The default number of bits per key. */
+  public static final int DEFAULT_BITS = 12;
+  /** The default random seed. */
+  public static final long DEFAULT_SEED = 1;
+  /** The rows. */
+  protected final CsrMatrix matrix;
+  /** The norms of the rows. */
+  protected final double[] norms;
+  /** The number of tables. */
+  protected final int tables;
+  /** The number of bits per key. */
+  protected final int bits;
+  /** The random seed. */
+  protected final long seed;
+  /** The rows of each key, by table. */
+  protected final List<Map<Integer, int[]>> buckets;
+  /** Whether to visit the buckets whose key differs in one bit. */
+  protected boolean multiProbe;
+  /** The number of candidates of the last query. */
+  protected int lastCandidates;
+
+  /**
+   * Default constructor: index the rows of the matrix.
+   *
+   * @param matrix
+   * @param tables
+   * @param bits the number of bits per key, from 1 to 30
+   * @param seed
+   */
+  @SuppressWarnings("unchecked")
+  public LshIndex( CsrMatrix matrix, int tables, int bits, long seed ) {
+    if ( tables < 1 || bits < 1 || bits > 30 ) {
+      throw new IllegalArgumentException( "Bad number of tables (" + tables
+          + ") or bits (" + bits + ")." );
+    }
+    this.matrix = matrix;
+    this.norms = CentroidCosine.norms( matrix );
+    this.tables = tables;
+    this.bits = bits;
+    this.seed = seed;
+
+    int rows = matrix.numRows();
+    int[][] keys = new int[rows][];
+    for ( int row = 0; row < rows; row++ ) {
+      keys[row] = keys( matrix.row( row ) );
+    }
+
+    Map<Integer, int[]>[] maps = new Map[tables];
+    for ( int t = 0; t < tables; t++ ) {
+      // sort the rows by key, so that each bucket is built in one go
+      long[] order = new long[rows];
+      for ( int row = 0; row < rows; row++ ) {
+        order[row] = ( (long) keys[row][t] << 32 ) | row;
+      }
+      Arrays.sort( order );
+      maps[t] = new HashMap<>();
+      for ( int i = 0; i < rows; ) {
+        int key = (int) ( order[i] >>> 32 );
+        int j = i;
+        while ( j < rows && (int) ( order[j] >>> 32 ) == key ) {
+          j++;
+        }
+        int[] bucket = new int[j - i];
+        for ( int k = i; k < j; k++ ) {
+          bucket[k - i] = (int) order[k];
+        }
+        maps[t].put( key, bucket );
+        i = j;
+      }
+    }
+    this.buckets = Arrays.asList( maps );
+  }
+
+  /**
+   * Set whether to visit the buckets whose key differs in one bit.
+   *
+   * @param multiProbe
+   */
+  public void setMultiProbe( boolean multiProbe ) {
+    this.multiProbe = multiProbe;
+  }
+
+  /**
+   * Get the number of candidates of the last query.
+   *
+   * @return
+   */
+  public int getLastCandidates() {
+    return this.lastCandidates;
+  }
+
+  /**
+   * Get the key of the vector in each table.
+   *
+   * @param x
+   * @return
+   */
+  public int[] keys( SparseVector x ) {
+    int planes = tables * bits;
+    double[] dots = new double[planes];
+    for ( int i = 0; i < x.size(); i++ ) {
+      int feature = x.index( i );
+      double value = x.value( i );
+      for ( int p = 0; p < planes; p += 64 ) {
+        long signs = hash( seed, feature, p >>> 6 );
+        int n = Math.min( 64, planes - p );
+        for ( int b = 0; b < n; b++ ) {
+          dots[p + b] += ( ( signs >>> b & 1 ) == 0 ) ? value : -value;
+        }
+      }
+    }
+
+    int[] keys = new int[tables];
+    for ( int t = 0; t < tables; t++ ) {
+      int key = 0;
+      for ( int b = 0; b < bits; b++ ) {
+        if ( dots[t * bits + b] > 0 ) {
+          key |= 1 << b;
+        }
+      }
+      keys[t] = key;
+    }
+
+    return keys;
+  }
+
+  /**
+   * Get the rows in the buckets of the query documents.
+   *
+   * @param queries
+   * @param exclude the rows to skip (may be null)
+   * @return the rows, ascending
+   */
+  public int[] candidates( List<SparseVector> queries, BitSet exclude ) {
+    BitSet found = new BitSet( matrix.numRows() );
+    for ( SparseVector q : queries ) {
+      int[] keys = keys( q );
+      for ( int t = 0; t < tables; t++ ) {
+        visit( buckets.get( t ).get( keys[t] ), found );
+        if ( multiProbe ) {
+          for ( int b = 0; b < bits; b++ ) {
+            visit( buckets.get( t ).get( keys[t] ^ ( 1 << b ) ), found );
+          }
+        }
+      }
+    }
+    if ( exclude != null ) {
+      found.andNot( exclude );
+    }
+
+    int[] rows = new int[found.cardinality()];
+    int n = 0;
+    for ( int row = found.nextSetBit( 0 ); row >= 0; row = found
+        .nextSetBit( row + 1 ) ) {
+      rows[n++] = row;
+    }
+    lastCandidates = rows.length;
+
+    return rows;
+  }
+
+  /**
+   * Mark the rows of the bucket as found.
+   *
+   * @param bucket (may be null)
+   * @param found
+   */
+  protected static void visit( int[] bucket, BitSet found ) {
+    if ( bucket != null ) {
+      for ( int row : bucket ) {
+        found.set( row );
+      }
+    }
+  }
+
+  /**
+   * Find the k rows with the highest mean cosine similarity to the query
+   * documents among the candidates.
+   *
+   * @param queries
+   * @param exclude the rows to skip (may be null)
+   * @param k
+   * @return the rows, most similar first
+   */
+  public int[] query( List<SparseVector> queries, BitSet exclude, int k ) {
+    CentroidCosine centroid = centroid( queries );
+    int[] rows = candidates( queries, exclude );
+    double[] scores = new double[rows.length];
+    for ( int i = 0; i < rows.length; i++ ) {
+      scores[i] = centroid.score( matrix, rows[i], norms[rows[i]] );
+    }
+
+    int[] best = TopKSelector.select( scores, null, k, false );
+    for ( int i = 0; i < best.length; i++ ) {
+      best[i] = rows[best[i]];
+    }
+
+    return best;
+  }
+
+  /**
+   * Find the k rows with the highest mean cosine similarity to the query
+   * documents by comparing every row.
+   *
+   * @param queries
+   * @param exclude the rows to skip (may be null)
+   * @param k
+   * @return the rows, most similar first
+   */
+  public int[] exact( List<SparseVector> queries, BitSet exclude, int k ) {
+    CentroidCosine centroid = centroid( queries );
+    double[] scores = new double[matrix.numRows()];
+    for ( int row = 0; row < scores.length; row++ ) {
+      scores[row] = centroid.score( matrix, row, norms[row] );
+    }
+
+    return TopKSelector.select( scores, exclude, k, false );
+  }
+
+  /**
+   * Report the size of the last query's candidate set, the recall of the
+   * approximate top k against the exact top k and the time of each.
+   *
+   * @param queries
+   * @param exclude the rows to skip (may be null)
+   * @param k
+   * @return
+   */
+  public String getRecallReport( List<SparseVector> queries, BitSet exclude,
+      int k ) {
+    long start = System.nanoTime();
+    int[] approx = query( queries, exclude, k );
+    long annNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    int[] exact = exact( queries, exclude, k );
+    long exactNanos = System.nanoTime() - start;
+
+    return "tables,bits,multi-probe,rows,k,candidates,recall,ann ms,exact ms\n"
+        + tables + "," + bits + "," + multiProbe + "," + matrix.numRows()
+        + "," + k + "," + lastCandidates + "," + recall( approx, exact ) + ","
+        + annNanos / 1e6 + "," + exactNanos / 1e6 + "\n";
+  }
+
+  /**
+   * The fraction of the exact results that the approximate results found.
+   *
+   * @param approx
+   * @param exact
+   * @return the recall, or 1 if there are no exact results
+   */
+  public static double recall( int[] approx, int[] exact ) {
+    if ( exact.length == 0 ) {
+      return 1;
+    }
+
+    BitSet found = new BitSet();
+    for ( int row : approx ) {
+      found.set( row );
+    }
+    int hits = 0;
+    for ( int row : exact ) {
+      if ( found.get( row ) ) {
+        hits++;
+      }
+    }
+
+    return (double) hits / exact.length;
+  }
+
+  /**
+   * The centroid of the query documents.
+   *
+   * @param queries
+   * @return
+   */
+  protected static CentroidCosine centroid( List<SparseVector> queries ) {
+    CentroidCosine centroid = new CentroidCosine();
+    for ( int i = 0; i < queries.size(); i++ ) {
+      centroid.add( String.valueOf( i ), queries.get( i ) );
+    }
+
+    return centroid;
+  }
+
+  /**
+   * Hash the seed, the feature and the group of 64 hyperplanes to 64 random
+   * signs (the finalizer of SplitMix64).
+   *
+   * @param seed
+   * @param feature
+   * @param group
+   * @return
+   */
+  protected static long hash( long seed, int feature, int group ) {
+    long z = seed + feature * 0x9E3779B97F4A7C15L + group
+        * 0xC2B2AE3D27D4EB4FL;
+    z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+    z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+
+    return z ^ ( z >>> 31 );
+  }
+}
@@ -0,0 +1,59 @@
+package edu.tufts.cs.topics;
+
+import java.io.IOException;
+
+import com.google.common.collect.Multimap;
+
+import edu.tufts.cs.ml.topics.lda.LDA;
+
+/**
+ * Adapts an LDA model from the ml library to the TopicModel interface. The
+ * LDA model only trains on text, so the added documents are collected as
+ * training data until train(...) is called.
+ */
+public class LdaTopicModel implements TopicModel {
+  /** The LDA model. */
+  protected final LDA lda;
+  /** The training data of the added documents. */
+  protected StringBuilder data = new StringBuilder();
+
+  /**
+   * Default constructor.
+   *
+   * @param lda
+   */
+  public LdaTopicModel( LDA lda ) {
+    this.lda = lda;
+  }
+
+  @Override
+  public void add( String id, String text ) {
+    data.append( id + "\tX\t\"" + text + "\"\n" );
+  }
+
+  @Override
+  public void train( int iterations ) throws IOException {
+    String str = data.toString();
+    data = new StringBuilder();
+    lda.train( str, iterations );
+  }
+
+  @Override
+  public void train( String data, int iterations ) throws IOException {
+    lda.train( data, iterations );
+  }
+
+  @Override
+  public Multimap<Double, Integer> getTopics( String id ) {
+    return lda.getTopics( id );
+  }
+
+  /**
+   * Get the LDA model.
+   *
+   * @return
+   */
+  public LDA getLda() {
+    return this.lda;
+  }
+}
@@ -0,0 +1,1155 @@
+package edu.tufts.cs.topics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.TreeMultimap;
+
+import edu.tufts.cs.features.TextTokenizer;
+import edu.tufts.cs.features.TokenStore;
+
+/**
+ * LDA trained by collapsed Gibbs sampling on several threads, with the
+ * bucketed sampler of SparseLDA (Yao, Mimno and McCallum, 2009): the
+ * probability of each topic is split into a smoothing bucket, a document
+ * bucket and a word bucket, so that a token only visits the topics of its
+ * document and word, except when the rarely chosen smoothing bucket is hit.
+ *
+ * The documents are added one at a time and kept only as arrays of word ids,
+ * so that the corpus is never held as text. They can be added as text or as
+ * term ids of a TokenStore view with the same tokenizer, so that documents
+ * that are already tokenized are not tokenized again.
+ *
+ * The documents are split into one partition per thread. Each thread samples
+ * its partition against the shared word-topic counts of the last sweep plus
+ * its own changes to them, which it keeps only for the words it touches. The
+ * changes are added to the shared counts after every sweep, so that the
+ * result does not depend on the scheduling of the threads.
+ *
+ * Every checkInterval sweeps the log-likelihood of the model is logged, and
+ * training stops early once it has improved by less than the relative
+ * tolerance for patience checks in a row.
+ *
+ * A trained model can be written to a file and read back as a frozen model:
+ * it keeps the word-topic counts and the topic proportions of its documents,
+ * and new documents are folded in by sampling their topics against the
+ * frozen counts. The file records the fingerprint of the corpus the counts
+ * were trained on and which documents were folded in, so that a reader can
+ * tell how much of its corpus the counts have seen.
+ */
+public class SparseLda implements TopicModel {
+  /** The Logger for this class. */
+  protected static final Log LOG = LogFactory.getLog( SparseLda.class );
+  /** The default number of sweeps between log-likelihood checks. */
+  public static final int DEFAULT_CHECK_INTERVAL = 20;
+  /** The default relative log-likelihood improvement of a plateau. */
+  public static final double DEFAULT_TOLERANCE = 1e-4;
+  /** The default number of plateau checks in a row before stopping. */
+  public static final int DEFAULT_PATIENCE = 3;
+  /** The default number of sweeps before stopping early is allowed. */
+  public static final int DEFAULT_MIN_ITERATIONS = 100;
+  /** The default random seed. */
+  public static final long DEFAULT_SEED = 1;
+  /** The default number of sweeps to fold in a document. */
+  public static final int DEFAULT_FOLD_IN_ITERATIONS = 50;
+  /** The magic number at the start of every model file ("EBML"). */
+  public static final int MAGIC = 0x45424D4C;
+  /** The current file format version. */
+  public static final int VERSION = 2;
+  /** The model file extension. */
+  public static final String EXTENSION = ".lda";
+  /** The number of topics. */
+  protected final int numTopics;
+  /** The alpha prior of each topic. */
+  protected final double alpha;
+  /** The sum of the alpha priors. */
+  protected final double alphaSum;
+  /** The beta prior. */
+  protected final double beta;
+  /** The tokenizer. */
+  protected final TextTokenizer tokenizer;
+  /** The number of threads. */
+  protected int numThreads = Runtime.getRuntime().availableProcessors();
+  /** The executor of the samplers, or null for a pool per training. */
+  protected ExecutorService executor;
+  /** The number of sweeps between log-likelihood checks. */
+  protected int checkInterval = DEFAULT_CHECK_INTERVAL;
+  /** The relative log-likelihood improvement of a plateau. */
+  protected double tolerance = DEFAULT_TOLERANCE;
+  /** The number of plateau checks in a row before stopping. */
+  protected int patience = DEFAULT_PATIENCE;
+  /** The number of sweeps before stopping early is allowed. */
+  protected int minIterations = DEFAULT_MIN_ITERATIONS;
+  /** The random seed. */
+  protected long seed = DEFAULT_SEED;
+  /** The document indices, keyed by document id. */
+  protected final Map<String, Integer> docs = new HashMap<>();
+  /** The word ids, keyed by word. */
+  protected final Map<String, Integer> vocabulary = new HashMap<>();
+  /** The words, by id. */
+  protected final List<String> words = new ArrayList<>();
+  /** The word ids of the tokens of each added document. */
+  protected final List<int[]> corpus = new ArrayList<>();
+  /** The word ids of the tokens of each training document. */
+  protected int[][] tokens;
+  /** The topics of the tokens of each document. */
+  protected int[][] assignments;
+  /** The topic counts of each document. */
+  protected int[][] docTopicCounts;
+  /** The topic counts of each word. */
+  protected int[][] typeTopicCounts;
+  /** The number of tokens of each topic. */
+  protected int[] tokensPerTopic;
+  /** The topics with a non-zero count, for each word. */
+  protected int[][] nonZero;
+  /** The number of topics with a non-zero count, for each word. */
+  protected int[] nonZeroSize;
+  /** The number of sweeps of the last training. */
+  protected int iterations;
+  /** The log-likelihood at the end of the last training. */
+  protected double logLikelihood = Double.NaN;
+  /** The topic proportions of the documents that were read or folded in. */
+  protected final Map<String, double[]> proportions = new HashMap<>();
+  /** The number of sweeps to fold in a document. */
+  protected int foldInIterations = DEFAULT_FOLD_IN_ITERATIONS;
+  /** The fingerprint of the corpus and parameters, if the model was read. */
+  protected String fingerprint;
+  /** The fingerprint of the corpus the counts were trained on, if known. */
+  protected String baseFingerprint;
+  /** The ids of the documents that were folded in. */
+  protected final Set<String> folded = new HashSet<>();
+  /** The view whose term ids are mapped to word ids, or null. */
+  protected TokenStore.View view;
+  /** The word id of each term id of the view, -1 if not in the model. */
+  protected int[] viewWords = new int[0];
+
+  /**
+   * Default constructor.
+   *
+   * @param numTopics
+   * @param alphaSum the sum of the (symmetric) alpha priors
+   * @param beta
+   * @param tokenizer
+   */
+  public SparseLda( int numTopics, double alphaSum, double beta,
+      TextTokenizer tokenizer ) {
+    this.numTopics = numTopics;
+    this.alphaSum = alphaSum;
+    this.alpha = alphaSum / numTopics;
+    this.beta = beta;
+    this.tokenizer = tokenizer;
+  }
+
+  /**
+   * Set the number of threads.
+   *
+   * @param numThreads
+   */
+  public void setNumThreads( int numThreads ) {
+    this.numThreads = Math.max( 1, numThreads );
+  }
+
+  /**
+   * Set the executor of the samplers, which the caller shuts down (null for
+   * a pool of numThreads threads for each training).
+   *
+   * @param executor
+   */
+  public void setExecutor( ExecutorService executor ) {
+    this.executor = executor;
+  }
+
+  /**
+   * Set the number of sweeps between log-likelihood checks.
+   *
+   * @param checkInterval
+   */
+  public void setCheckInterval( int checkInterval ) {
+    this.checkInterval = Math.max( 1, checkInterval );
+  }
+
+  /**
+   * Set the relative log-likelihood improvement below which a check counts
+   * as a plateau; 0 or less disables stopping early.
+   *
+   * @param tolerance
+   */
+  public void setTolerance( double tolerance ) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Set the number of plateau checks in a row before stopping.
+   *
+   * @param patience
+   */
+  public void setPatience( int patience ) {
+    this.patience = Math.max( 1, patience );
+  }
+
+  /**
+   * Set the number of sweeps before stopping early is allowed.
+   *
+   * @param minIterations
+   */
+  public void setMinIterations( int minIterations ) {
+    this.minIterations = minIterations;
+  }
+
+  /**
+   * Set the random seed.
+   *
+   * @param seed
+   */
+  public void setSeed( long seed ) {
+    this.seed = seed;
+  }
+
+  /**
+   * Set the number of sweeps to fold in a document.
+   *
+   * @param foldInIterations
+   */
+  public void setFoldInIterations( int foldInIterations ) {
+    this.foldInIterations = Math.max( 1, foldInIterations );
+  }
+
+  @Override
+  public void add( String id, String text ) {
+    List<String> terms = tokenizer.tokenize( text );
+    int[] ids = new int[terms.size()];
+    for ( int i = 0; i < ids.length; i++ ) {
+      ids[i] = addWord( terms.get( i ) );
+    }
+    put( id, ids );
+  }
+
+  /**
+   * Add a document that is already tokenized.
+   *
+   * @param id
+   * @param terms the term ids of the document
+   * @param view the view the term ids are from
+   */
+  public void add( String id, int[] terms, TokenStore.View view ) {
+    put( id, toWords( terms, view, true ) );
+  }
+
+  /**
+   * Get the id of the word, adding it if it is new.
+   *
+   * @param word
+   * @return
+   */
+  protected int addWord( String word ) {
+    Integer w = vocabulary.get( word );
+    if ( w == null ) {
+      w = words.size();
+      vocabulary.put( word, w );
+      words.add( word );
+    }
+
+    return w;
+  }
+
+  /**
+   * Map the term ids of a view to word ids; each term is looked up once.
+   *
+   * @param terms
+   * @param view
+   * @param add whether to add new words, or else drop them
+   * @return
+   */
+  protected int[] toWords( int[] terms, TokenStore.View view, boolean add ) {
+    if ( view != this.view ) {
+      this.view = view;
+      this.viewWords = new int[0];
+    }
+
+    int[] ids = new int[terms.length];
+    int n = 0;
+    for ( int t : terms ) {
+      if ( t >= viewWords.length ) {
+        int start = viewWords.length;
+        viewWords = Arrays.copyOf( viewWords, Math.max( t + 1,
+            2 * viewWords.length ) );
+        Arrays.fill( viewWords, start, viewWords.length, -2 );
+      }
+      // -2 is not looked up yet, -1 is not in the model
+      if ( viewWords[t] == -2 || ( add && viewWords[t] == -1 ) ) {
+        Integer w = vocabulary.get( view.getTerm( t ) );
+        if ( w == null && add ) {
+          w = addWord( view.getTerm( t ) );
+        }
+        viewWords[t] = ( w == null ) ? -1 : w;
+      }
+      if ( viewWords[t] >= 0 ) {
+        ids[n++] = viewWords[t];
+      }
+    }
+
+    return ( n == ids.length ) ? ids : Arrays.copyOf( ids, n );
+  }
+
+  /**
+   * Set the word ids of the document.
+   *
+   * @param id
+   * @param ids
+   */
+  protected void put( String id, int[] ids ) {
+    Integer d = docs.get( id );
+    if ( d == null ) {
+      docs.put( id, corpus.size() );
+      corpus.add( ids );
+    } else {
+      corpus.set( d, ids );
+    }
+  }
+
+  @Override
+  public void train( String data, int maxIterations ) {
+    int start = 0;
+    while ( start < data.length() ) {
+      int end = data.indexOf( '\n', start );
+      if ( end < 0 ) {
+        end = data.length();
+      }
+      int tab1 = data.indexOf( '\t', start );
+      int tab2 = ( tab1 < 0 ) ? -1 : data.indexOf( '\t', tab1 + 1 );
+      if ( tab2 >= 0 && tab2 < end ) {
+        int from = tab2 + 1;
+        int to = end;
+        if ( to - from >= 2 && data.charAt( from ) == '"'
+            && data.charAt( to - 1 ) == '"' ) {
+          from++;
+          to--;
+        }
+        add( data.substring( start, tab1 ), data.substring( from, to ) );
+      }
+      start = end + 1;
+    }
+
+    train( maxIterations );
+  }
+
+  @Override
+  public void train( int maxIterations ) {
+    initialize();
+
+    int threads = Math.max( 1, Math.min( numThreads, tokens.length ) );
+    List<Worker> workers = new ArrayList<>();
+    for ( int i = 0; i < threads; i++ ) {
+      workers.add( new Worker( i * tokens.length / threads, ( i + 1 )
+          * tokens.length / threads, new Random( seed + i + 1 ) ) );
+    }
+
+    ExecutorService pool = ( executor != null ) ? executor : Executors
+        .newFixedThreadPool( threads );
+    long start = System.currentTimeMillis();
+    double last = logLikelihood();
+    int plateau = 0;
+    iterations = 0;
+    try {
+      while ( iterations < maxIterations ) {
+        for ( Future<Void> f : pool.invokeAll( workers ) ) {
+          f.get();
+        }
+        for ( Worker worker : workers ) {
+          worker.merge();
+        }
+        iterations++;
+
+        if ( iterations % checkInterval == 0 || iterations == maxIterations ) {
+          double ll = logLikelihood();
+          double improvement = ( ll - last ) / Math.abs( last );
+          LOG.info( "LDA sweep " + iterations + ": log-likelihood " + ll
+              + " (" + ll / tokenCount() + " per token, relative improvement "
+              + improvement + ", " + ( System.currentTimeMillis() - start )
+              + " ms)" );
+          plateau = ( improvement < tolerance ) ? plateau + 1 : 0;
+          last = ll;
+          if ( plateau >= patience && iterations >= minIterations
+              && iterations < maxIterations ) {
+            LOG.info( "LDA converged after " + iterations + " of "
+                + maxIterations + " sweeps." );
+            break;
+          }
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "LDA training was interrupted.", e );
+    } catch ( ExecutionException e ) {
+      throw new IllegalStateException( "LDA sampling failed.", e.getCause() );
+    } finally {
+      if ( pool != executor ) {
+        pool.shutdown();
+      }
+    }
+    this.logLikelihood = last;
+  }
+
+  /**
+   * Assign the tokens of the added documents to random topics.
+   */
+  protected void initialize() {
+    proportions.clear();
+    folded.clear();
+    baseFingerprint = null;
+    tokens = corpus.toArray( new int[corpus.size()][] );
+    Random random = new Random( seed );
+    assignments = new int[tokens.length][];
+    docTopicCounts = new int[tokens.length][numTopics];
+    for ( int d = 0; d < tokens.length; d++ ) {
+      assignments[d] = new int[tokens[d].length];
+      for ( int i = 0; i < tokens[d].length; i++ ) {
+        assignments[d][i] = random.nextInt( numTopics );
+        docTopicCounts[d][assignments[d][i]]++;
+      }
+    }
+    typeTopicCounts = new int[words.size()][numTopics];
+    tokensPerTopic = new int[numTopics];
+    for ( int d = 0; d < tokens.length; d++ ) {
+      for ( int i = 0; i < tokens[d].length; i++ ) {
+        typeTopicCounts[tokens[d][i]][assignments[d][i]]++;
+        tokensPerTopic[assignments[d][i]]++;
+      }
+    }
+    nonZero = new int[words.size()][numTopics];
+    nonZeroSize = new int[words.size()];
+    for ( int w = 0; w < nonZero.length; w++ ) {
+      indexNonZero( w );
+    }
+  }
+
+  /**
+   * List the topics with a non-zero count for the word, in order.
+   *
+   * @param w
+   */
+  protected void indexNonZero( int w ) {
+    nonZeroSize[w] = 0;
+    for ( int t = 0; t < numTopics; t++ ) {
+      if ( typeTopicCounts[w][t] > 0 ) {
+        nonZero[w][nonZeroSize[w]++] = t;
+      }
+    }
+  }
+
+  /**
+   * Get the total number of tokens.
+   *
+   * @return
+   */
+  protected int tokenCount() {
+    int n = 0;
+    for ( int count : tokensPerTopic ) {
+      n += count;
+    }
+
+    return n;
+  }
+
+  /**
+   * The log-likelihood of the topic assignments and the words under the
+   * model.
+   *
+   * @return
+   */
+  public double logLikelihood() {
+    double ll = 0;
+    double lgAlpha = logGamma( alpha );
+    for ( int d = 0; d < tokens.length; d++ ) {
+      for ( int t = 0; t < numTopics; t++ ) {
+        if ( docTopicCounts[d][t] > 0 ) {
+          ll += logGamma( alpha + docTopicCounts[d][t] ) - lgAlpha;
+        }
+      }
+      ll += logGamma( alphaSum ) - logGamma( alphaSum + tokens[d].length );
+    }
+
+    double betaSum = beta * words.size();
+    double lgBeta = logGamma( beta );
+    for ( int[] counts : typeTopicCounts ) {
+      for ( int t = 0; t < numTopics; t++ ) {
+        if ( counts[t] > 0 ) {
+          ll += logGamma( beta + counts[t] ) - lgBeta;
+        }
+      }
+    }
+    for ( int t = 0; t < numTopics; t++ ) {
+      ll += logGamma( betaSum ) - logGamma( betaSum + tokensPerTopic[t] );
+    }
+
+    return ll;
+  }
+
+  /**
+   * The log of the gamma function, by Stirling's series.
+   *
+   * @param x a positive number
+   * @return
+   */
+  protected static double logGamma( double x ) {
+    // shift x up, since the series is only accurate for large x
+    double shift = 0;
+    while ( x < 8 ) {
+      shift += Math.log( x );
+      x++;
+    }
+    double x2 = x * x;
+
+    return ( x - 0.5 ) * Math.log( x ) - x + 0.5 * Math.log( 2 * Math.PI )
+        + 1 / ( 12 * x ) - 1 / ( 360 * x * x2 ) + 1 / ( 1260 * x * x2 * x2 )
+        - shift;
+  }
+
+  @Override
+  public Multimap<Double, Integer> getTopics( String id ) {
+    Multimap<Double, Integer> topics = TreeMultimap.create( Ordering
+        .natural().reverse(), Ordering.natural() );
+    double[] theta = getProportions( id );
+    if ( theta != null ) {
+      for ( int t = 0; t < numTopics; t++ ) {
+        topics.put( theta[t], t );
+      }
+    }
+
+    return topics;
+  }
+
+  /**
+   * Get the topic proportions of a document that was trained on, read or
+   * folded in.
+   *
+   * @param id
+   * @return the proportions, or null if the document is not in the model
+   */
+  public double[] getProportions( String id ) {
+    Integer d = docs.get( id );
+    if ( d != null && tokens != null && d < tokens.length ) {
+      double[] theta = new double[numTopics];
+      for ( int t = 0; t < numTopics; t++ ) {
+        theta[t] = ( docTopicCounts[d][t] + alpha )
+            / ( tokens[d].length + alphaSum );
+      }
+
+      return theta;
+    }
+
+    return proportions.get( id );
+  }
+
+  /**
+   * Whether the document is in the model.
+   *
+   * @param id
+   * @return
+   */
+  public boolean contains( String id ) {
+    return getProportions( id ) != null;
+  }
+
+  /**
+   * Infer the topic proportions of a new document against the frozen
+   * word-topic counts; words that are not in the model are ignored. The
+   * counts of the second half of the sweeps are averaged.
+   *
+   * @param text
+   * @return
+   */
+  public double[] infer( String text ) {
+    List<String> terms = tokenizer.tokenize( text );
+    int[] ids = new int[terms.size()];
+    int n = 0;
+    for ( String term : terms ) {
+      Integer w = vocabulary.get( term );
+      if ( w != null ) {
+        ids[n++] = w;
+      }
+    }
+
+    return infer( ids, n );
+  }
+
+  /**
+   * Infer the topic proportions of a new document that is already
+   * tokenized; terms that are not in the model are ignored.
+   *
+   * @param terms the term ids of the document
+   * @param view the view the term ids are from
+   * @return
+   */
+  public double[] infer( int[] terms, TokenStore.View view ) {
+    int[] ids = toWords( terms, view, false );
+
+    return infer( ids, ids.length );
+  }
+
+  /**
+   * Infer the topic proportions of a new document.
+   *
+   * @param ids the word ids of the document
+   * @param n the number of word ids
+   * @return
+   */
+  protected double[] infer( int[] ids, int n ) {
+    Random random = new Random( seed );
+    int[] z = new int[n];
+    int[] counts = new int[numTopics];
+    for ( int i = 0; i < n; i++ ) {
+      z[i] = random.nextInt( numTopics );
+      counts[z[i]]++;
+    }
+
+    double betaSum = beta * words.size();
+    double[] p = new double[numTopics];
+    double[] sum = new double[numTopics];
+    int samples = 0;
+    for ( int it = 0; it < foldInIterations; it++ ) {
+      for ( int i = 0; i < n; i++ ) {
+        counts[z[i]]--;
+        double total = 0;
+        for ( int t = 0; t < numTopics; t++ ) {
+          total += ( counts[t] + alpha ) * ( typeTopicCounts[ids[i]][t] + beta )
+              / ( tokensPerTopic[t] + betaSum );
+          p[t] = total;
+        }
+        double u = random.nextDouble() * total;
+        int topic = 0;
+        while ( topic < numTopics - 1 && p[topic] < u ) {
+          topic++;
+        }
+        z[i] = topic;
+        counts[topic]++;
+      }
+      if ( it >= foldInIterations / 2 ) {
+        for ( int t = 0; t < numTopics; t++ ) {
+          sum[t] += counts[t];
+        }
+        samples++;
+      }
+    }
+
+    double[] theta = new double[numTopics];
+    for ( int t = 0; t < numTopics; t++ ) {
+      theta[t] = ( sum[t] / samples + alpha ) / ( n + alphaSum );
+    }
+
+    return theta;
+  }
+
+  /**
+   * Fold a new document into the model, so that getTopics(...) returns its
+   * inferred topics.
+   *
+   * @param id
+   * @param text
+   */
+  public void foldIn( String id, String text ) {
+    proportions.put( id, infer( text ) );
+    folded.add( id );
+  }
+
+  /**
+   * Fold a new document that is already tokenized into the model.
+   *
+   * @param id
+   * @param terms the term ids of the document
+   * @param view the view the term ids are from
+   */
+  public void foldIn( String id, int[] terms, TokenStore.View view ) {
+    proportions.put( id, infer( terms, view ) );
+    folded.add( id );
+  }
+
+  /**
+   * Whether the document was folded in, rather than trained on.
+   *
+   * @param id
+   * @return
+   */
+  public boolean isFoldedIn( String id ) {
+    return folded.contains( id );
+  }
+
+  /**
+   * Write the model to the file. The file is written under a temporary name
+   * and then renamed, so readers never see a partial model. A model that was
+   * trained rather than read has the fingerprint as its base fingerprint.
+   *
+   * @param f
+   * @param fingerprint the fingerprint of the corpus and parameters
+   * @throws IOException
+   */
+  public void write( File f, String fingerprint ) throws IOException {
+    String base = ( baseFingerprint == null ) ? fingerprint : baseFingerprint;
+    File tmp = new File( f.getPath() + "." + Thread.currentThread().getId()
+        + ".tmp" );
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+        new FileOutputStream( tmp ) ) );
+    try {
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+      out.writeUTF( fingerprint );
+      out.writeUTF( base );
+      out.writeInt( numTopics );
+      out.writeDouble( alphaSum );
+      out.writeDouble( beta );
+      out.writeInt( words.size() );
+      for ( int w = 0; w < words.size(); w++ ) {
+        out.writeUTF( words.get( w ) );
+        // the counts are sparse
+        int nonZero = 0;
+        for ( int t = 0; t < numTopics; t++ ) {
+          nonZero += ( typeTopicCounts[w][t] > 0 ) ? 1 : 0;
+        }
+        out.writeInt( nonZero );
+        for ( int t = 0; t < numTopics; t++ ) {
+          if ( typeTopicCounts[w][t] > 0 ) {
+            out.writeInt( t );
+            out.writeInt( typeTopicCounts[w][t] );
+          }
+        }
+      }
+
+      Map<String, double[]> all = new HashMap<>( proportions );
+      for ( String id : docs.keySet() ) {
+        double[] theta = getProportions( id );
+        if ( theta != null ) {
+          all.put( id, theta );
+        }
+      }
+      out.writeInt( all.size() );
+      for ( Map.Entry<String, double[]> e : all.entrySet() ) {
+        out.writeUTF( e.getKey() );
+        out.writeBoolean( folded.contains( e.getKey() ) );
+        for ( double pct : e.getValue() ) {
+          out.writeDouble( pct );
+        }
+      }
+    } finally {
+      out.close();
+    }
+
+    if ( !tmp.renameTo( f ) ) {
+      f.delete();
+      if ( !tmp.renameTo( f ) ) {
+        tmp.delete();
+        throw new IOException( "Could not move LDA model to " + f );
+      }
+    }
+  }
+
+  /**
+   * Read a frozen model from the file.
+   *
+   * @param f
+   * @param tokenizer the tokenizer of the documents to fold in
+   * @return
+   * @throws IOException
+   */
+  public static SparseLda read( File f, TextTokenizer tokenizer )
+    throws IOException {
+    DataInputStream in = new DataInputStream( new BufferedInputStream(
+        new FileInputStream( f ) ) );
+    try {
+      if ( in.readInt() != MAGIC ) {
+        throw new IOException( "Not an LDA model: " + f );
+      }
+      int version = in.readInt();
+      if ( version < 1 || version > VERSION ) {
+        throw new IOException( "Unsupported LDA model version " + version
+            + " (expected " + VERSION + ")." );
+      }
+      String fingerprint = in.readUTF();
+      // version 1 did not record what the counts were trained on
+      String base = ( version >= 2 ) ? in.readUTF() : null;
+      int numTopics = in.readInt();
+      double alphaSum = in.readDouble();
+      double beta = in.readDouble();
+      SparseLda lda = new SparseLda( numTopics, alphaSum, beta, tokenizer );
+      lda.fingerprint = fingerprint;
+      lda.baseFingerprint = base;
+
+      int numWords = in.readInt();
+      lda.typeTopicCounts = new int[numWords][numTopics];
+      lda.tokensPerTopic = new int[numTopics];
+      for ( int w = 0; w < numWords; w++ ) {
+        String word = in.readUTF();
+        lda.vocabulary.put( word, w );
+        lda.words.add( word );
+        int nonZero = in.readInt();
+        for ( int k = 0; k < nonZero; k++ ) {
+          int t = in.readInt();
+          lda.typeTopicCounts[w][t] = in.readInt();
+          lda.tokensPerTopic[t] += lda.typeTopicCounts[w][t];
+        }
+      }
+
+      int numDocs = in.readInt();
+      for ( int d = 0; d < numDocs; d++ ) {
+        String id = in.readUTF();
+        if ( version >= 2 && in.readBoolean() ) {
+          lda.folded.add( id );
+        }
+        double[] theta = new double[numTopics];
+        for ( int t = 0; t < numTopics; t++ ) {
+          theta[t] = in.readDouble();
+        }
+        lda.proportions.put( id, theta );
+      }
+
+      return lda;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Get the fingerprint of the corpus and parameters of a model that was
+   * read.
+   *
+   * @return the fingerprint, or null if the model was not read
+   */
+  public String getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * Get the fingerprint of the corpus the counts of a model that was read
+   * were trained on.
+   *
+   * @return the fingerprint, or null if it is not known
+   */
+  public String getBaseFingerprint() {
+    return this.baseFingerprint;
+  }
+
+  /**
+   * Get the most frequent words of the topic.
+   *
+   * @param topic
+   * @param n the number of words
+   * @return
+   */
+  public List<String> getTopWords( final int topic, int n ) {
+    List<Integer> ids = new ArrayList<>();
+    for ( int w = 0; w < words.size(); w++ ) {
+      if ( typeTopicCounts[w][topic] > 0 ) {
+        ids.add( w );
+      }
+    }
+    Collections.sort( ids, new Ordering<Integer>() {
+      @Override
+      public int compare( Integer a, Integer b ) {
+        return typeTopicCounts[b][topic] - typeTopicCounts[a][topic];
+      }
+    } );
+
+    List<String> top = new ArrayList<>();
+    for ( int w : ids.subList( 0, Math.min( n, ids.size() ) ) ) {
+      top.add( words.get( w ) );
+    }
+
+    return top;
+  }
+
+  /**
+   * Get the number of topics.
+   *
+   * @return
+   */
+  public int getNumTopics() {
+    return this.numTopics;
+  }
+
+  /**
+   * Get the number of sweeps of the last training.
+   *
+   * @return
+   */
+  public int getIterations() {
+    return this.iterations;
+  }
+
+  /**
+   * Get the log-likelihood at the end of the last training.
+   *
+   * @return
+   */
+  public double getLogLikelihood() {
+    return this.logLikelihood;
+  }
+
+  /**
+   * Samples the topics of a partition of the documents for one sweep. The
+   * shared counts are only read during the sweep; the worker's changes are
+   * kept for the words it touches and merged into them afterwards.
+   */
+  protected class Worker implements Callable<Void> {
+    /** The first document. */
+    protected final int lo;
+    /** The end of the partition. */
+    protected final int hi;
+    /** The random numbers. */
+    protected final Random random;
+    /** The changes to the word-topic counts, or null if never touched. */
+    protected int[][] deltas;
+    /** The words touched in this sweep. */
+    protected int[] touched;
+    /** The number of words touched in this sweep. */
+    protected int numTouched;
+    /** Whether each word was touched in this sweep. */
+    protected boolean[] isTouched;
+    /** The local copy of the number of tokens of each topic. */
+    protected int[] totals;
+    /** The topics with a non-zero count, for each touched word. */
+    protected int[][] nonZero;
+    /** The number of topics with a non-zero count, for each touched word. */
+    protected int[] nonZeroSize;
+    /** The coefficients of the word bucket, by topic. */
+    protected double[] coefficients;
+    /** The terms of the word bucket, by position in the non-zero topics. */
+    protected double[] wordTerms;
+    /** The sum of the beta priors. */
+    protected double betaSum;
+    /** The mass of the smoothing bucket. */
+    protected double smoothingMass;
+    /** The mass of the document bucket. */
+    protected double docMass;
+
+    /**
+     * Default constructor.
+     *
+     * @param lo
+     * @param hi
+     * @param random
+     */
+    protected Worker( int lo, int hi, Random random ) {
+      this.lo = lo;
+      this.hi = hi;
+      this.random = random;
+    }
+
+    @Override
+    public Void call() {
+      start();
+      for ( int d = lo; d < hi; d++ ) {
+        sample( d );
+      }
+
+      return null;
+    }
+
+    /**
+     * Start a sweep from the shared counts.
+     */
+    protected void start() {
+      int numWords = typeTopicCounts.length;
+      if ( deltas == null ) {
+        deltas = new int[numWords][];
+        touched = new int[numWords];
+        isTouched = new boolean[numWords];
+        nonZero = new int[numWords][];
+        nonZeroSize = new int[numWords];
+        totals = new int[numTopics];
+        coefficients = new double[numTopics];
+        wordTerms = new double[numTopics];
+      }
+      System.arraycopy( tokensPerTopic, 0, totals, 0, numTopics );
+
+      betaSum = beta * numWords;
+      smoothingMass = 0;
+      for ( int t = 0; t < numTopics; t++ ) {
+        smoothingMass += alpha * beta / ( betaSum + totals[t] );
+        coefficients[t] = alpha / ( betaSum + totals[t] );
+      }
+    }
+
+    /**
+     * Start changing the counts of the word in this sweep.
+     *
+     * @param w
+     */
+    protected void touch( int w ) {
+      if ( deltas[w] == null ) {
+        deltas[w] = new int[numTopics];
+        nonZero[w] = new int[numTopics];
+      }
+      System.arraycopy( SparseLda.this.nonZero[w], 0, nonZero[w], 0,
+          SparseLda.this.nonZeroSize[w] );
+      nonZeroSize[w] = SparseLda.this.nonZeroSize[w];
+      isTouched[w] = true;
+      touched[numTouched++] = w;
+    }
+
+    /**
+     * Add the changes of the sweep to the shared counts and clear them. The
+     * workers are merged one at a time, after the sweep.
+     */
+    protected void merge() {
+      for ( int k = 0; k < numTouched; k++ ) {
+        int w = touched[k];
+        int[] delta = deltas[w];
+        for ( int t = 0; t < numTopics; t++ ) {
+          typeTopicCounts[w][t] += delta[t];
+          tokensPerTopic[t] += delta[t];
+        }
+        Arrays.fill( delta, 0 );
+        isTouched[w] = false;
+        indexNonZero( w );
+      }
+      numTouched = 0;
+    }
+
+    /**
+     * Resample the topics of the tokens of the document.
+     *
+     * @param d
+     */
+    protected void sample( int d ) {
+      int[] docCounts = docTopicCounts[d];
+      docMass = 0;
+      for ( int t = 0; t < numTopics; t++ ) {
+        if ( docCounts[t] > 0 ) {
+          docMass += beta * docCounts[t] / ( betaSum + totals[t] );
+          coefficients[t] = ( alpha + docCounts[t] ) / ( betaSum + totals[t] );
+        }
+      }
+
+      for ( int i = 0; i < tokens[d].length; i++ ) {
+        int w = tokens[d][i];
+        int topic = assignments[d][i];
+        update( w, topic, docCounts, -1 );
+        topic = draw( w, docCounts );
+        update( w, topic, docCounts, 1 );
+        assignments[d][i] = topic;
+      }
+
+      // the coefficients of the next document start from the priors
+      for ( int t = 0; t < numTopics; t++ ) {
+        coefficients[t] = alpha / ( betaSum + totals[t] );
+      }
+    }
+
+    /**
+     * Add a token of the word to the topic, keeping the bucket masses up to
+     * date.
+     *
+     * @param w
+     * @param t
+     * @param docCounts
+     * @param delta +1 or -1
+     */
+    protected void update( int w, int t, int[] docCounts, int delta ) {
+      smoothingMass -= alpha * beta / ( betaSum + totals[t] );
+      docMass -= beta * docCounts[t] / ( betaSum + totals[t] );
+      docCounts[t] += delta;
+      totals[t] += delta;
+      smoothingMass += alpha * beta / ( betaSum + totals[t] );
+      docMass += beta * docCounts[t] / ( betaSum + totals[t] );
+      coefficients[t] = ( alpha + docCounts[t] ) / ( betaSum + totals[t] );
+
+      if ( !isTouched[w] ) {
+        touch( w );
+      }
+      deltas[w][t] += delta;
+      int count = typeTopicCounts[w][t] + deltas[w][t];
+      if ( delta > 0 && count == 1 ) {
+        nonZero[w][nonZeroSize[w]++] = t;
+      } else if ( delta < 0 && count == 0 ) {
+        int[] topics = nonZero[w];
+        for ( int k = 0; k < nonZeroSize[w]; k++ ) {
+          if ( topics[k] == t ) {
+            topics[k] = topics[--nonZeroSize[w]];
+            break;
+          }
+        }
+      }
+    }
+
+    /**
+     * Draw a topic for a token of the word.
+     *
+     * @param w
+     * @param docCounts
+     * @return
+     */
+    protected int draw( int w, int[] docCounts ) {
+      int[] topics = nonZero[w];
+      int size = nonZeroSize[w];
+      double wordMass = 0;
+      for ( int k = 0; k < size; k++ ) {
+        wordTerms[k] = coefficients[topics[k]]
+            * ( typeTopicCounts[w][topics[k]] + deltas[w][topics[k]] );
+        wordMass += wordTerms[k];
+      }
+
+      double u = random.nextDouble()
+          * ( smoothingMass + docMass + wordMass );
+      if ( u < wordMass ) {
+        for ( int k = 0; k < size; k++ ) {
+          u -= wordTerms[k];
+          if ( u <= 0 ) {
+            return topics[k];
+          }
+        }
+        return topics[size - 1];
+      }
+
+      u -= wordMass;
+      if ( u < docMass ) {
+        int last = -1;
+        for ( int t = 0; t < numTopics; t++ ) {
+          if ( docCounts[t] > 0 ) {
+            u -= beta * docCounts[t] / ( betaSum + totals[t] );
+            last = t;
+            if ( u <= 0 ) {
+              return t;
+            }
+          }
+        }
+        if ( last >= 0 ) {
+          return last;
+        }
+      }
+
+      u -= docMass;
+      for ( int t = 0; t < numTopics; t++ ) {
+        u -= alpha * beta / ( betaSum + totals[t] );
+        if ( u <= 0 ) {
+          return t;
+        }
+      }
+
+      return numTopics - 1;
+    }
+  }
+}
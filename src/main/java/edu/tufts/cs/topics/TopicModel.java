@@ -0,0 +1,45 @@
+package edu.tufts.cs.topics;
+
+import java.io.IOException;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * A topic model trained on a corpus of documents, in the form that the LDA
+ * simulators use.
+ */
+public interface TopicModel {
+
+  /**
+   * Add a training document.
+   *
+   * @param id
+   * @param text
+   */
+  void add( String id, String text );
+
+  /**
+   * Train the model on the added documents.
+   *
+   * @param iterations the maximum number of iterations
+   * @throws IOException
+   */
+  void train( int iterations ) throws IOException;
+
+  /**
+   * Add the documents and train the model on them.
+   *
+   * @param data one document per line, as "id\tlabel\t\"text\""
+   * @param iterations the maximum number of iterations
+   * @throws IOException
+   */
+  void train( String data, int iterations ) throws IOException;
+
+  /**
+   * Get the topic distribution of a training document.
+   *
+   * @param id
+   * @return the topics, keyed by their proportion in the document
+   */
+  Multimap<Double, Integer> getTopics( String id );
+}
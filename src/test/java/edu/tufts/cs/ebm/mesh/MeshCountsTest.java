@@ -0,0 +1,31 @@
+package edu.tufts.cs.ebm.mesh;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.SortedMultiset;
+
+public class MeshCountsTest {
+
+  /**
+   * Test counting the MeSH terms by id.
+   */
+  @Test
+  public void testCounts() {
+    MeshDictionary dict = new MeshDictionary();
+    MeshCounts counts = new MeshCounts( dict );
+    counts.addAll( dict.intern( Arrays.asList( "Humans", "Stroke" ) ) );
+    counts.addAll( dict.intern( Arrays.asList( "Humans", "Aspirin" ) ) );
+
+    assert counts.count( "Humans" ) == 2;
+    assert counts.count( "Stroke" ) == 1;
+    assert counts.count( "Stents" ) == 0;
+    assert counts.size() == 4;
+
+    SortedMultiset<String> multiset = counts.toMultiset();
+    assert multiset.count( "Humans" ) == 2;
+    assert multiset.count( "Aspirin" ) == 1;
+    assert multiset.firstEntry().getElement().equals( "Aspirin" );
+  }
+}
@@ -0,0 +1,94 @@
+package edu.tufts.cs.ebm.mesh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.SparseVector;
+
+public class MeshDictionaryTest {
+
+  /**
+   * Test interning descriptors.
+   */
+  @Test
+  public void testIntern() {
+    MeshDictionary dict = new MeshDictionary();
+    int humans = dict.intern( "Humans" );
+    int[] ids = dict.intern( Arrays.asList( "Stroke", "Humans", "Stroke" ) );
+
+    assert ids.length == 2;
+    assert ids[0] == humans;
+    assert dict.getName( ids[1] ).equals( "Stroke" );
+    assert dict.indexOf( "Aspirin" ) == -1;
+    assert dict.size() == 2;
+  }
+
+  /**
+   * Test the features of the ancestors in the tree.
+   */
+  @Test
+  public void testAncestors() {
+    MeshDictionary dict = new MeshDictionary();
+    dict.addTreeNumbers( "Stroke", "C10.228.140.300.775", "C14.907.253.855" );
+    int[] ids = dict.intern( Arrays.asList( "Stroke", "Humans" ) );
+
+    int stroke = dict.indexOf( "Stroke" );
+    assert dict.getAncestors( stroke ).length == 7;
+    assert dict.getAncestors( dict.indexOf( "Humans" ) ).length == 0;
+    int c14 = dict.indexOf( MeshDictionary.TREE_PREFIX + "C14" );
+    assert c14 >= 0;
+
+    SparseVector plain = dict.vectorize( ids, false );
+    assert plain.size() == 2;
+    SparseVector v = dict.vectorize( ids, true );
+    assert v.size() == 9;
+    for ( int i = 1; i < v.size(); i++ ) {
+      assert v.index( i - 1 ) < v.index( i );
+      assert v.value( i ) == 1;
+    }
+  }
+
+  /**
+   * Test loading the tree numbers from the descriptor XML.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testLoadTree() throws IOException {
+    String xml = "<DescriptorRecordSet><DescriptorRecord>"
+        + "<DescriptorName><String>Aspirin</String></DescriptorName>"
+        + "<TreeNumberList><TreeNumber>D02.455.526.728.650.075"
+        + "</TreeNumber></TreeNumberList>"
+        + "</DescriptorRecord></DescriptorRecordSet>";
+    MeshDictionary dict = new MeshDictionary();
+    dict.loadTree( new ByteArrayInputStream( xml.getBytes( Charset
+        .forName( "UTF-8" ) ) ) );
+
+    int aspirin = dict.indexOf( "Aspirin" );
+    assert aspirin >= 0;
+    assert dict.getTreeNumbers( aspirin )[0]
+        .equals( "D02.455.526.728.650.075" );
+    assert dict.getAncestors( aspirin ).length == 5;
+  }
+
+  /**
+   * Test the set operations on sorted id arrays.
+   */
+  @Test
+  public void testSetOperations() {
+    int[] a = { 1, 3, 5, 7 };
+    int[] b = { 2, 3, 7, 8 };
+
+    assert Arrays.equals( MeshDictionary.intersect( a, b ),
+        new int[] { 3, 7 } );
+    assert Arrays.equals( MeshDictionary.union( a, b ),
+        new int[] { 1, 2, 3, 5, 7, 8 } );
+    assert MeshDictionary.intersect( a, new int[0] ).length == 0;
+    assert Arrays.equals( MeshDictionary.sortUnique( new int[] { 4, 1, 4, 2 },
+        4 ), new int[] { 1, 2, 4 } );
+  }
+}
@@ -0,0 +1,97 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.features.CsrRelation;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.ml.Feature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.text.BagOfWords;
+
+public class BowFeaturesTest {
+  /** The sentences the test abstracts are made of. */
+  protected static final String[] SENTENCES = {
+    "Clopidogrel reduced the risk of Stent Thrombosis in 2010.",
+    "Patients treated with clopidogrel-aspirin had fewer bleeding events.",
+    "The randomized, double-blind trial enrolled 1200 patients; see [12].",
+    "Proton-beam therapy: outcomes of children with brain tumours.",
+    "Treating tumours with protons spares the surrounding tissues." };
+
+  /**
+   * Create Citations whose texts repeat the sentences, so that their terms
+   * occur often enough to be features.
+   *
+   * @return
+   */
+  protected static List<Citation> createCitations() {
+    List<Citation> citations = new ArrayList<>();
+    for ( int i = 0; i < 30; i++ ) {
+      Citation c = new Citation( new PubmedId( 1000 + i ) );
+      c.setTitle( SENTENCES[i % SENTENCES.length] );
+      c.setAbstr( SENTENCES[( i * 2 ) % SENTENCES.length] + " "
+          + SENTENCES[( i * 3 + 1 ) % SENTENCES.length] );
+      citations.add( c );
+    }
+
+    return citations;
+  }
+
+  /**
+   * Test that the parallel vectorizer gives every Citation the same features
+   * as the Bag of Words, so that ebm.parallelVectorization does not change
+   * the simulations.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testParallelSameAsBagOfWords() throws IOException {
+    List<Citation> citations = createCitations();
+    List<Citation> seeds = Collections.emptyList();
+    BagOfWords<Integer> bow = BowFeatures.createBagOfWords( citations, seeds );
+    Map<PubmedId, FeatureVector<Integer>> expected = BowFeatures.vectorize(
+        bow, citations );
+
+    List<PubmedId> ids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    for ( Citation c : citations ) {
+      ids.add( c.getPmid() );
+      texts.add( BowFeatures.getText( c ) );
+    }
+    CsrRelation<PubmedId> actual = BowFeatures.createVectorizer().vectorize(
+        ids, texts );
+
+    for ( int row = 0; row < ids.size(); row++ ) {
+      Map<String, Double> fromBow = new HashMap<>();
+      for ( Map.Entry<String, Feature<?>> e : expected.get( ids.get( row ) )
+          .entrySet() ) {
+        double value = FeatureDictionary.valueOf( e.getValue() );
+        if ( value != 0 ) {
+          fromBow.put( e.getKey(), value );
+        }
+      }
+      Map<String, Double> fromRows = new HashMap<>();
+      SparseVector v = actual.getMatrix().row( row );
+      for ( int i = 0; i < v.size(); i++ ) {
+        fromRows.put( actual.getDictionary().getName( v.index( i ) ), v
+            .value( i ) );
+      }
+
+      assert !fromBow.isEmpty();
+      assert fromBow.equals( fromRows ) : ids.get( row ) + ": " + fromRows
+          + " != " + fromBow;
+    }
+
+    assert BowFeatures.agreesWithBagOfWords( BowFeatures.createTokenizer(),
+        citations );
+  }
+}
@@ -0,0 +1,86 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ebm.review.systematic.Citation;
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+
+public class CorpusSnapshotTest {
+
+  /**
+   * Test writing a snapshot and mapping it back.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    SystematicReview r = new SystematicReview();
+    r.setId( 7L );
+    r.setName( "Clopidogrel" );
+    r.setQueryP( "pop" );
+    r.setQueryIC( "ic" );
+    r.addBlacklisted( new PubmedId( 3 ) );
+    r.getSeeds().add( new PubmedId( 9 ) );
+    r.getRelevantLevel1().add( new PubmedId( 1 ) );
+    r.getRelevantLevel2().add( new PubmedId( 1 ) );
+
+    Citation c1 = new Citation( new PubmedId( 1 ) );
+    c1.setTitle( "A title \u00e9" );
+    c1.setAbstr( "An abstract." );
+    c1.setDate( new Date( 1000000L ) );
+    c1.setMeshStr( "Humans,Stents" );
+    Citation c2 = new Citation( new PubmedId( 2 ) ); // all fields empty
+    Citation seed = new Citation( new PubmedId( 9 ) );
+    seed.setTitle( "Seed" );
+    r.setSeedCitations( new HashSet<>( Collections.singleton( seed ) ) );
+    Set<Citation> corpus = new HashSet<>();
+    corpus.add( c1 );
+    corpus.add( c2 );
+
+    File f = File.createTempFile( "snapshot", CorpusSnapshot.EXTENSION );
+    f.deleteOnExit();
+    CorpusSnapshot.write( f, r, "(pop) AND (ic)", corpus );
+    CorpusSnapshot s = CorpusSnapshot.open( f );
+
+    assert s.size() == 3;
+    assert s.getQuery().equals( "(pop) AND (ic)" );
+    assert s.getCitations().equals( corpus );
+    assert s.getCitations().size() == 2;
+    assert !s.getCitations().contains( r.getSeedCitations().iterator()
+        .next() );
+    assert s.getSeedCitations().equals( r.getSeedCitations() );
+
+    SystematicReview loaded = s.getReview();
+    assert loaded.getId() == 7L;
+    assert loaded.getName().equals( "Clopidogrel" );
+    assert loaded.getQueryO() == null;
+    assert loaded.getBlacklist().contains( new PubmedId( 3 ) );
+    assert loaded.getRelevantLevel2().equals( r.getRelevantLevel2() );
+    assert loaded.getSeedCitations().size() == 1;
+
+    for ( int i = 0; i < s.size(); i++ ) {
+      Citation c = s.getCitation( i );
+      if ( c.equals( c1 ) ) {
+        assert s.is( i, CorpusSnapshot.RELEVANT_L2 );
+        assert s.getTitle( i ).equals( "A title \u00e9" );
+        assert s.getAbstr( i ).equals( "An abstract." );
+        assert c.getDate().getTime() == 1000000L;
+        assert c.getMeshTerms().contains( "Stents" );
+      } else if ( c.equals( c2 ) ) {
+        assert s.getFlags( i ) == CorpusSnapshot.IN_CORPUS;
+        assert c.getTitle() == null && c.getDate() == null;
+      } else {
+        assert s.getFlags( i ) == CorpusSnapshot.SEED;
+        assert c.getTitle().equals( "Seed" );
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.testng.annotations.Test;
+
+public class RankHistoryTest {
+
+  /**
+   * Test recording across several chunks.
+   */
+  @Test
+  public void testRecordAcrossChunks() {
+    RankHistory history = new RankHistory( 3, 2, false );
+    for ( int it = 0; it < 5; it++ ) {
+      for ( int doc = 0; doc < 3; doc++ ) {
+        history.record( it, doc, doc + it + 1, 0.5f );
+      }
+    }
+
+    assert history.getNumIterations() == 5;
+    assert history.getRank( 0, 0 ) == 1;
+    assert history.getRank( 4, 2 ) == 7;
+    assert history.getProb( 3, 1 ) == 0.5f;
+    assert history.getRank( 5, 0 ) == 0; // not yet recorded
+  }
+
+  /**
+   * Test that documents added after the first chunk was allocated still fit.
+   */
+  @Test
+  public void testGrowDocuments() {
+    RankHistory history = new RankHistory( 1, 4, true );
+    history.record( 0, 0, 1, 1.0f );
+    history.record( 0, 5, 2, 0.25f );
+    history.record( 1, 5, 1, 0.75f );
+
+    assert history.getRank( 0, 0 ) == 1;
+    assert history.getRank( 0, 5 ) == 2;
+    assert history.getRank( 1, 5 ) == 1;
+    assert history.getRank( 1, 0 ) == 0;
+  }
+
+  /**
+   * Test the CSV output.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testWrite() throws IOException {
+    RankHistory history = new RankHistory( 2 );
+    history.record( 0, 0, 1, (float) 0.6666667 );
+    history.record( 0, 1, 2, (float) 0.3333333 );
+    history.record( 1, 0, 2, (float) 0.3333333 );
+    history.record( 1, 1, 1, (float) 0.6666667 );
+
+    StringWriter ranks = new StringWriter();
+    history.writeRanks( 1, ranks );
+    assert ranks.toString().equals( "2,1" );
+
+    StringWriter probs = new StringWriter();
+    history.writeProbs( 0, probs );
+    assert probs.toString().equals( "0.6666667,0.3333333" );
+  }
+}
@@ -0,0 +1,60 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.BitSet;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ebm.review.systematic.PubmedId;
+import edu.tufts.cs.ebm.review.systematic.SystematicReview;
+
+public class ReviewIndexTest {
+
+  /**
+   * Test that the review's labels are indexed as documents are added.
+   */
+  @Test
+  public void testLabels() {
+    SystematicReview r = new SystematicReview();
+    r.getRelevantLevel1().add( new PubmedId( 1 ) );
+    r.getRelevantLevel1().add( new PubmedId( 2 ) );
+    r.getRelevantLevel2().add( new PubmedId( 2 ) );
+    r.getSeeds().add( new PubmedId( 3 ) );
+    r.addBlacklisted( new PubmedId( 4 ) );
+
+    ReviewIndex<PubmedId> index = new ReviewIndex<>( r );
+    for ( long pmid = 1; pmid <= 4; pmid++ ) {
+      assert index.add( new PubmedId( pmid ) ) == pmid - 1;
+    }
+    assert index.add( new PubmedId( 2 ) ) == 1; // already present
+
+    assert index.getRelevantL1().cardinality() == 2;
+    assert index.getRelevantL2().get( 1 );
+    assert index.getSeeds().get( 2 );
+    assert index.getBlacklisted().get( 3 );
+    assert index.isRelevant( new PubmedId( 1 ) );
+    assert !index.isRelevantL2( new PubmedId( 1 ) );
+    assert !index.isRelevant( new PubmedId( 3 ) );
+
+    // documents outside of the index fall back to the review
+    r.getRelevantLevel2().add( new PubmedId( 9 ) );
+    assert index.isRelevantL2( new PubmedId( 9 ) );
+  }
+
+  /**
+   * Test counting the documents in two sets.
+   */
+  @Test
+  public void testCountBoth() {
+    BitSet a = new BitSet();
+    a.set( 1 );
+    a.set( 5 );
+    a.set( 7 );
+    BitSet b = new BitSet();
+    b.set( 5 );
+    b.set( 7 );
+    b.set( 8 );
+
+    assert ReviewIndex.countBoth( a, b ) == 2;
+    assert a.cardinality() == 3; // unchanged
+  }
+}
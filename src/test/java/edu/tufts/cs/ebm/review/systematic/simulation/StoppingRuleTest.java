@@ -0,0 +1,50 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ebm.refinement.query.InfoMeasure;
+
+public class StoppingRuleTest {
+
+  /**
+   * Test parsing the rules and checking them in order.
+   */
+  @Test
+  public void testParse() {
+    List<StoppingRule> rules = StoppingRule
+        .parse( "recallL2:0.9, screened:100,nohit:3,minutes:1" );
+    assert rules.size() == 4;
+
+    Map<String, InfoMeasure> im = new HashMap<>();
+    im.put( "L2", new InfoMeasure( 8, 10 ) );
+    assert StoppingRule.getStopReason( rules, 50, 0, im, 0 ) == null;
+    assert StoppingRule.getStopReason( rules, 100, 0, im, 0 ).startsWith(
+        "screened" );
+    assert StoppingRule.getStopReason( rules, 50, 3, im, 0 ).startsWith(
+        "nohit" );
+    assert StoppingRule.getStopReason( rules, 50, 0, im, 60 * 1000 )
+        .startsWith( "time" );
+    assert StoppingRule.getStopReason( rules, 50, 0, null, 0 ) == null;
+
+    im.put( "L2", new InfoMeasure( 9, 10 ) );
+    assert StoppingRule.getStopReason( rules, 100, 0, im, 0 ).startsWith(
+        "recallL2" );
+  }
+
+  /**
+   * Test that unknown rules are rejected.
+   */
+  @Test
+  public void testUnknown() {
+    try {
+      StoppingRule.parse( "precision:0.5" );
+      assert false;
+    } catch ( IllegalArgumentException e ) {
+      // expected
+    }
+  }
+}
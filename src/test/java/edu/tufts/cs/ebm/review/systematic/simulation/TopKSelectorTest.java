@@ -0,0 +1,73 @@
+package edu.tufts.cs.ebm.review.systematic.simulation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class TopKSelectorTest {
+
+  /**
+   * Test descending and ascending selection with exclusions.
+   */
+  @Test
+  public void testSelect() {
+    double[] scores = { 0.3, 0.9, Double.NaN, 0.1, 0.7, 0.5 };
+    BitSet exclude = new BitSet();
+    exclude.set( 1 );
+
+    int[] top = TopKSelector.select( scores, exclude, 3, false );
+    assert Arrays.equals( top, new int[] { 4, 5, 0 } );
+
+    top = TopKSelector.select( scores, exclude, 2, true );
+    assert Arrays.equals( top, new int[] { 3, 0 } );
+
+    // fewer candidates than k
+    top = TopKSelector.select( scores, exclude, 10, false );
+    assert Arrays.equals( top, new int[] { 4, 5, 0, 3 } );
+  }
+
+  /**
+   * Test that ties go to the lower index.
+   */
+  @Test
+  public void testTies() {
+    double[] scores = { 1, 2, 2, 1, 2 };
+
+    assert Arrays.equals( TopKSelector.select( scores, null, 2, false ),
+        new int[] { 1, 2 } );
+    assert Arrays.equals( TopKSelector.select( scores, null, 3, true ),
+        new int[] { 0, 3, 1 } );
+  }
+
+  /**
+   * Test against a full sort.
+   */
+  @Test
+  public void testAgainstSort() {
+    Random r = new Random( 0 );
+    double[] scores = new double[1000];
+    for ( int i = 0; i < scores.length; i++ ) {
+      scores[i] = r.nextInt( 100 );
+    }
+    Integer[] order = new Integer[scores.length];
+    for ( int i = 0; i < order.length; i++ ) {
+      order[i] = i;
+    }
+    final double[] s = scores;
+    Arrays.sort( order, new Comparator<Integer>() {
+      @Override
+      public int compare( Integer a, Integer b ) {
+        int c = Double.compare( s[b], s[a] );
+        return ( c != 0 ) ? c : a.compareTo( b );
+      }
+    } );
+
+    int[] top = TopKSelector.select( scores, null, 25, false );
+    for ( int i = 0; i < top.length; i++ ) {
+      assert top[i] == order[i];
+    }
+  }
+}
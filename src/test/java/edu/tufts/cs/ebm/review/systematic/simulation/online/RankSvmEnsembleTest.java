@@ -0,0 +1,89 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.online;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.FeatureDictionary;
+import edu.tufts.cs.features.SparseVector;
+
+public class RankSvmEnsembleTest {
+
+  /**
+   * Create random examples; the relevant ones have feature 0.
+   *
+   * @param n
+   * @param target
+   * @param random
+   * @return
+   */
+  protected static RankSvmEnsemble.Examples createExamples( int n,
+      double target, Random random ) {
+    SparseVector[] x = new SparseVector[n];
+    double[] targets = new double[n];
+    int[] qid = new int[n];
+    for ( int i = 0; i < n; i++ ) {
+      x[i] = createVector( target == 1, random );
+      targets[i] = target;
+      qid[i] = 1;
+    }
+
+    return new RankSvmEnsemble.Examples( x, targets, qid );
+  }
+
+  /**
+   * Create a random vector.
+   *
+   * @param relevant
+   * @param random
+   * @return
+   */
+  protected static SparseVector createVector( boolean relevant,
+      Random random ) {
+    return new SparseVector( new int[] { relevant ? 0 : 1,
+      2 + random.nextInt( 20 ) }, new double[] { 1, random.nextDouble() } );
+  }
+
+  /**
+   * Test that the bags rank the same in parallel as in the calling thread for
+   * a fixed seed, and that the relevant rows rank first.
+   */
+  @Test
+  public void testParallelSameAsSerial() {
+    Random random = new Random( 3 );
+    RankSvmEnsemble.Examples minority = createExamples( 5, 1, random );
+    RankSvmEnsemble.Examples majority = createExamples( 40, 2, random );
+    SparseVector[] rows = new SparseVector[60];
+    for ( int i = 0; i < rows.length; i++ ) {
+      rows[i] = createVector( i < 10, random );
+    }
+    CsrMatrix test = CsrMatrix.create( rows );
+    RankSvmEnsemble ensemble = new RankSvmEnsemble( 1,
+        new FeatureDictionary(), 10, 1 );
+
+    ensemble.setExecutor( null );
+    List<Integer> serial = ensemble.rank( minority, null, majority, test,
+        new Random( 7 ) );
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      ensemble.setExecutor( executor );
+      for ( int run = 0; run < 3; run++ ) {
+        assert serial.equals( ensemble.rank( minority, null, majority, test,
+            new Random( 7 ) ) );
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assert serial.size() == rows.length;
+    assert new HashSet<>( serial ).size() == rows.length;
+    for ( int i = 0; i < 10; i++ ) {
+      assert serial.get( i ) < 10;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package edu.tufts.cs.ebm.review.systematic.simulation.online;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ebm.review.systematic.simulation.RankHistory;
+
+public class SimulationCheckpointTest {
+
+  /**
+   * Test that a checkpoint reads back as it was written, including the state
+   * of the random number generator.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    SimulationCheckpoint cp = new SimulationCheckpoint();
+    cp.dataset = "clopidogrel";
+    cp.numDocs = 4;
+    cp.loopIteration = 20;
+    cp.iteration = 7;
+    cp.papersProposed = 100;
+    cp.statsLength = 1234;
+    cp.elapsed = 98765;
+    cp.relevant.set( 0 );
+    cp.relevant.set( 3 );
+    cp.irrelevant.set( 1 );
+    cp.observed = new int[] { 0, 5, SimulationCheckpoint.NOT_OBSERVED, 0 };
+    cp.scores = new double[] { 1.5, Double.NaN, -2, 0 };
+    cp.random = new Random( 42 );
+    cp.random.nextInt();
+    cp.rankHistory = new RankHistory( 4 );
+    cp.rankHistory.record( 0, 2, 1, 0.5f );
+    cp.rankHistory.record( 1, 3, 2, 0.25f );
+    cp.model = new byte[] { 1, 2, 3 };
+
+    File f = File.createTempFile( "checkpoint", ".bin" );
+    try {
+      cp.write( f );
+      SimulationCheckpoint read = SimulationCheckpoint.read( f, false );
+
+      assert read.dataset.equals( "clopidogrel" );
+      assert read.numDocs == 4;
+      assert read.loopIteration == 20;
+      assert read.iteration == 7;
+      assert read.papersProposed == 100;
+      assert read.statsLength == 1234;
+      assert read.elapsed == 98765;
+      assert read.relevant.equals( cp.relevant );
+      assert read.irrelevant.equals( cp.irrelevant );
+      assert read.observed[1] == 5;
+      assert read.observed[2] == SimulationCheckpoint.NOT_OBSERVED;
+      assert read.scores[0] == 1.5;
+      assert Double.isNaN( read.scores[1] );
+      assert read.random.nextLong() == cp.random.nextLong();
+      assert read.rankHistory.getNumIterations() == 2;
+      assert read.rankHistory.getRank( 0, 2 ) == 1;
+      assert read.rankHistory.getProb( 1, 3 ) == 0.25f;
+      assert read.rankHistory.getRank( 0, 3 ) == 0;
+      assert read.model.length == 3 && read.model[2] == 3;
+    } finally {
+      f.delete();
+      SimulationCheckpoint.getHistoryFile( f ).delete();
+    }
+  }
+
+  /**
+   * Test that each checkpoint only appends the new iterations of the rank
+   * history, and that anything appended after the last checkpoint is dropped.
+   */
+  @Test
+  public void testAppendHistory() throws IOException {
+    SimulationCheckpoint cp = new SimulationCheckpoint();
+    cp.dataset = "clopidogrel";
+    cp.random = new Random( 1 );
+    cp.rankHistory = new RankHistory( 3 );
+    cp.rankHistory.record( 0, 0, 1, 0.5f );
+
+    File f = File.createTempFile( "checkpoint", ".bin" );
+    File history = SimulationCheckpoint.getHistoryFile( f );
+    try {
+      cp.write( f );
+      long length = history.length();
+      assert cp.historyIterations == 1 && cp.historyLength == length;
+
+      // an append from a checkpoint that was never completed
+      Files.write( history.toPath(), new byte[] { 1, 2, 3 },
+          StandardOpenOption.APPEND );
+
+      SimulationCheckpoint read = SimulationCheckpoint.read( f, false );
+      assert read.rankHistory.getNumIterations() == 1;
+      read.rankHistory.record( 1, 2, 1, 0.25f );
+      read.rankHistory.record( 2, 2, 2, 0.125f );
+      read.write( f );
+      assert history.length() == 3 * length;
+
+      read = SimulationCheckpoint.read( f, false );
+      assert read.rankHistory.getNumIterations() == 3;
+      assert read.rankHistory.getRank( 0, 0 ) == 1;
+      assert read.rankHistory.getProb( 1, 2 ) == 0.25f;
+      assert read.rankHistory.getRank( 2, 2 ) == 2;
+    } finally {
+      f.delete();
+      history.delete();
+    }
+  }
+
+  /**
+   * Test that the model section is optional.
+   */
+  @Test
+  public void testNoModel() throws IOException {
+    SimulationCheckpoint cp = new SimulationCheckpoint();
+    cp.dataset = "protonbeam";
+    cp.random = new Random( 1 );
+
+    File f = File.createTempFile( "checkpoint", ".bin" );
+    try {
+      cp.write( f );
+      SimulationCheckpoint read = SimulationCheckpoint.read( f, false );
+
+      assert read.model == null;
+      assert read.rankHistory == null;
+      assert read.relevant.isEmpty();
+    } finally {
+      f.delete();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package edu.tufts.cs.features;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class CsrMatrixTest {
+  /** The rows of the test matrix. */
+  protected static final SparseVector[] ROWS = new SparseVector[] {
+      new SparseVector( new int[] { 0, 2, 4 }, new double[] { 1, 2, 3 } ),
+      new SparseVector( new int[0], new double[0] ),
+      new SparseVector( new int[] { 2, 3, 4 }, new double[] { 5, 7, 1 } ) };
+
+  /**
+   * Test building a matrix from its rows.
+   */
+  @Test
+  public void testCreate() {
+    CsrMatrix m = CsrMatrix.create( ROWS );
+
+    assert m.numRows() == 3;
+    assert m.nnz() == 6;
+    assert Arrays.equals( m.getIndptr(), new int[] { 0, 3, 3, 6 } );
+    assert m.rowLength( 1 ) == 0;
+    assert m.row( 2 ).index( 1 ) == 3 && m.row( 2 ).value( 1 ) == 7;
+  }
+
+  /**
+   * Test the kernels against the sparse vector ones.
+   */
+  @Test
+  public void testKernels() {
+    CsrMatrix m = CsrMatrix.create( ROWS );
+    double[] w = new double[] { 1, 1, 1, 1 };
+
+    assert m.dot( 0, 2 ) == ROWS[0].dot( ROWS[2] );
+    assert m.dot( 0, ROWS[2] ) == 13;
+    assert m.dot( 0, 1 ) == 0;
+    assert m.dot( 0, w ) == 3; // column 4 is past the end
+    assert Arrays.equals( m.multiply( w ), new double[] { 3, 0, 12 } );
+    assert m.squaredNorm( 0 ) == 14;
+    assert m.norm( 1 ) == 0;
+
+    double[] sum = new double[5];
+    m.addTo( 2, sum, 2 );
+    assert sum[2] == 10 && sum[3] == 14 && sum[4] == 2;
+  }
+
+  /**
+   * Test selecting rows.
+   */
+  @Test
+  public void testSlice() {
+    CsrMatrix m = CsrMatrix.create( ROWS ).slice( new int[] { 2, 0 } );
+
+    assert m.numRows() == 2;
+    assert m.rowLength( 0 ) == 3;
+    assert m.dot( 0, ROWS[2] ) == ROWS[2].squaredNorm();
+    assert m.dot( 1, ROWS[0] ) == ROWS[0].squaredNorm();
+  }
+
+  /**
+   * Test looking up the rows of a relation.
+   */
+  @Test
+  public void testRelation() {
+    FeatureDictionary dictionary = new FeatureDictionary();
+    CsrRelation<Long> relation = new CsrRelation<>( Arrays.asList( 7L, 8L,
+        9L ), CsrMatrix.create( ROWS ), dictionary );
+    dictionary.setRows( relation );
+
+    assert relation.size() == 3;
+    assert relation.indexOf( 9L ) == 2;
+    assert relation.indexOf( 10L ) == -1;
+    assert relation.getRow( "9" ).dot( ROWS[2] ) == ROWS[2].squaredNorm();
+    assert relation.getRow( "10" ) == null;
+    assert relation.asMap().size() == 3;
+    assert relation.asMap().containsKey( 8L );
+
+    try {
+      new FeatureDictionary().setRows( relation );
+      assert false;
+    } catch ( IllegalArgumentException e ) {
+      // expected
+    }
+  }
+}
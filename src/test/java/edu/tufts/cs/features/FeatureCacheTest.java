@@ -0,0 +1,149 @@
+package edu.tufts.cs.features;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.ml.DoubleFeature;
+import edu.tufts.cs.ml.FeatureVector;
+import edu.tufts.cs.ml.UnlabeledFeatureVector;
+
+public class FeatureCacheTest {
+
+  /**
+   * Test that the fingerprint depends on the parameters and the texts, but
+   * not on the order the texts were added in.
+   */
+  @Test
+  public void testFingerprint() {
+    List<String> params = Arrays.asList( "bow", "true", "5" );
+    SortedMap<String, String> texts = new TreeMap<>();
+    texts.put( "2", "beta" );
+    texts.put( "1", "alpha" );
+    SortedMap<String, String> reordered = new TreeMap<>();
+    reordered.put( "1", "alpha" );
+    reordered.put( "2", "beta" );
+
+    String fp = FeatureCache.fingerprint( params, texts );
+    assert fp.length() == 40;
+    assert fp.equals( FeatureCache.fingerprint( params, reordered ) );
+
+    reordered.put( "2", "beta " );
+    assert !fp.equals( FeatureCache.fingerprint( params, reordered ) );
+    assert !fp.equals( FeatureCache.fingerprint( Arrays.asList( "bow",
+        "true", "4" ), texts ) );
+  }
+
+  /**
+   * Test writing and reopening a cache: the ids, the feature names and the
+   * values survive.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    Map<String, FeatureVector<Integer>> fvs = new LinkedHashMap<>();
+    UnlabeledFeatureVector<Integer> a = new UnlabeledFeatureVector<>( "17" );
+    a.put( "aspirin", new DoubleFeature( "aspirin", 2.0 ) );
+    a.put( "stent", new DoubleFeature( "stent", 0.5 ) );
+    fvs.put( "17", a );
+    UnlabeledFeatureVector<Integer> b = new UnlabeledFeatureVector<>( "42" );
+    b.put( "stent", new DoubleFeature( "stent", 3.0 ) );
+    b.put( "warfarin", new DoubleFeature( "warfarin", 1.0 ) );
+    fvs.put( "42", b );
+    fvs.put( "99", new UnlabeledFeatureVector<Integer>( "99" ) );
+
+    File f = File.createTempFile( "features", FeatureCache.EXTENSION );
+    try {
+      FeatureCache.write( f, "abc", fvs );
+      FeatureCache cache = FeatureCache.open( f );
+
+      assert cache.getFingerprint().equals( "abc" );
+      assert cache.size() == 3;
+      assert cache.getId( 0 ).equals( "17" );
+      assert cache.getId( 1 ).equals( "42" );
+      assert cache.getNumTerms() == 3;
+      assert cache.getRow( 0 ).size() == 2;
+      assert cache.getRow( 1 ).size() == 2;
+      assert cache.getRow( 2 ).size() == 0;
+
+      for ( int i = 0; i < 2; i++ ) {
+        FeatureVector<Integer> expected = fvs.get( cache.getId( i ) );
+        FeatureVector<Integer> read = cache.getFeatureVector( i );
+        assert read.getId().equals( expected.getId() );
+        assert read.keySet().equals( expected.keySet() );
+        for ( String name : expected.keySet() ) {
+          double value = FeatureDictionary.valueOf( expected.get( name ) );
+          assert FeatureDictionary.valueOf( read.get( name ) ) == value;
+        }
+      }
+      SparseVector row = cache.getRow( 1 );
+      for ( int i = 0; i < row.size(); i++ ) {
+        String term = cache.getTerm( row.index( i ) );
+        assert row.value( i ) == ( term.equals( "stent" ) ? 3.0 : 1.0 );
+      }
+    } finally {
+      f.delete();
+    }
+  }
+
+  /**
+   * Test writing a relation and reading its matrix back.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testMatrix() throws IOException {
+    FeatureDictionary dictionary = new FeatureDictionary();
+    for ( String term : new String[] { "a", "b", "c", "d", "e" } ) {
+      dictionary.add( term );
+    }
+    CsrRelation<String> relation = new CsrRelation<>( Arrays.asList( "1",
+        "2", "3" ), CsrMatrix.create( CsrMatrixTest.ROWS ), dictionary );
+
+    File f = File.createTempFile( "features", FeatureCache.EXTENSION );
+    try {
+      FeatureCache.write( f, "abc", relation );
+      FeatureCache cache = FeatureCache.open( f );
+      CsrMatrix m = cache.getMatrix();
+
+      assert Arrays.equals( m.getIndptr(), relation.getMatrix().getIndptr() );
+      assert Arrays.equals( m.getIndices(), relation.getMatrix()
+          .getIndices() );
+      assert Arrays.equals( m.getValues(), relation.getMatrix().getValues() );
+      assert cache.getRow( 2 ).dot( m.row( 2 ) ) == m.squaredNorm( 2 );
+      assert cache.getDictionary().indexOf( "d" ) == 3;
+    } finally {
+      f.delete();
+    }
+  }
+
+  /**
+   * Test that a file that is not a cache is rejected.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testNotACache() throws IOException {
+    File f = File.createTempFile( "features", FeatureCache.EXTENSION );
+    FileOutputStream out = new FileOutputStream( f );
+    out.write( new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } );
+    out.close();
+    try {
+      FeatureCache.open( f );
+      assert false;
+    } catch ( IOException e ) {
+      // expected
+    } finally {
+      f.delete();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package edu.tufts.cs.features;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+public class FeatureHasherTest {
+  /** The test tokenizer. */
+  protected static final TextTokenizer TOKENIZER = new TextTokenizer(
+      new HashSet<String>(), 1, false );
+
+  /**
+   * Test that the dimension is rounded up to a power of two and that terms
+   * hash consistently into it.
+   */
+  @Test
+  public void testHash() {
+    FeatureHasher h = new FeatureHasher( TOKENIZER, 1000 );
+    assert h.getDimension() == 1024;
+    assert new FeatureHasher( TOKENIZER, 1024 ).getDimension() == 1024;
+
+    int signed = h.hash( "myocardial" );
+    assert signed != 0 && Math.abs( signed ) <= 1024;
+    assert h.hash( "myocardial" ) == signed;
+  }
+
+  /**
+   * Test vectorizing with a single bucket, where every term collides.
+   */
+  @Test
+  public void testCollisions() {
+    FeatureHasher h = new FeatureHasher( TOKENIZER, 1 );
+    h.setTrackCollisions( true );
+    CsrRelation<Integer> r = h.vectorize( Arrays.asList( 1, 2 ), Arrays
+        .asList( "a b c a", "d" ) );
+
+    assert r.getDictionary().size() == 1;
+    assert r.getDictionary().getName( 0 ).equals( FeatureHasher.PREFIX + 0 );
+    assert h.getDistinctTerms() == 4;
+    assert h.getUsedBuckets() == 1;
+    assert h.getCollisionRate() == 0.75;
+
+    // the row of "d" is its sign
+    assert Math.abs( r.getMatrix().dot( 1, new double[] { 1 } ) ) == 1;
+    assert h.getCollisionReport().startsWith( "dimension," );
+  }
+
+  /**
+   * Test the expected collision rate.
+   */
+  @Test
+  public void testExpectedCollisionRate() {
+    assert FeatureHasher.expectedCollisionRate( 0, 16 ) == 0;
+    assert FeatureHasher.expectedCollisionRate( 1, 16 ) < 1e-12;
+    // two terms in two buckets collide half the time
+    assert Math.abs( FeatureHasher.expectedCollisionRate( 2, 2 ) - 0.25 )
+        < 1e-12;
+    assert FeatureHasher.expectedCollisionRate( 1000, 1 << 20 )
+        < FeatureHasher.expectedCollisionRate( 1000, 1 << 10 );
+  }
+
+  /**
+   * Test that transform(...) ignores buckets outside the dictionary.
+   */
+  @Test
+  public void testTransform() {
+    FeatureHasher h = new FeatureHasher( TOKENIZER, 1 << 16 );
+    CsrRelation<Integer> r = h.vectorize( Arrays.asList( 1 ), Arrays
+        .asList( "alpha beta" ) );
+
+    SparseVector x = h.transform( "alpha alpha", r.getDictionary() );
+    assert x.size() == 1 && Math.abs( x.value( 0 ) ) == 2;
+    assert h.transform( "", r.getDictionary() ).size() == 0;
+  }
+}
@@ -0,0 +1,80 @@
+package edu.tufts.cs.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class ParallelVectorizerTest {
+  /** The test tokenizer. */
+  protected static final TextTokenizer TOKENIZER = new TextTokenizer(
+      new HashSet<>( Arrays.asList( "the", "of" ) ), 3, false );
+
+  /**
+   * Test splitting and filtering the terms.
+   */
+  @Test
+  public void testTokenize() {
+    List<String> terms = TOKENIZER.tokenize(
+        "The Effect of beta-blockers, in 2010: an RCT." );
+
+    assert terms.equals( Arrays.asList( "effect", "beta", "blockers",
+        "2010", "rct" ) );
+    assert TOKENIZER.tokenize( null ).isEmpty();
+  }
+
+  /**
+   * Test that splitting the work gives the same vocabulary and rows as a
+   * single task.
+   */
+  @Test
+  public void testSplitSameAsSingleTask() {
+    List<Integer> ids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    String[] words = { "alpha", "beta", "gamma", "delta", "epsilon" };
+    for ( int i = 0; i < 50; i++ ) {
+      ids.add( i );
+      texts.add( words[i % 5] + " " + words[( i * 3 ) % 5] + " zeta" + i % 7 );
+    }
+
+    ParallelVectorizer sequential = new ParallelVectorizer( TOKENIZER, 2 );
+    sequential.setThreshold( Integer.MAX_VALUE );
+    ParallelVectorizer parallel = new ParallelVectorizer( TOKENIZER, 2 );
+    parallel.setThreshold( 1 );
+    CsrRelation<Integer> a = sequential.vectorize( ids, texts );
+    CsrRelation<Integer> b = parallel.vectorize( ids, texts );
+
+    assert a.getDictionary().size() == b.getDictionary().size();
+    for ( int i = 0; i < a.getDictionary().size(); i++ ) {
+      assert a.getDictionary().getName( i ).equals(
+          b.getDictionary().getName( i ) );
+    }
+    assert a.getDictionary().getName( 0 ).equals( "alpha" );
+    assert Arrays.equals( a.getMatrix().getIndptr(), b.getMatrix()
+        .getIndptr() );
+    assert Arrays.equals( a.getMatrix().getIndices(), b.getMatrix()
+        .getIndices() );
+    assert Arrays.equals( a.getMatrix().getValues(), b.getMatrix()
+        .getValues() );
+  }
+
+  /**
+   * Test dropping rare terms and counting term frequencies.
+   */
+  @Test
+  public void testCounts() {
+    ParallelVectorizer v = new ParallelVectorizer( TOKENIZER, 2 );
+    CsrRelation<String> r = v.vectorize( Arrays.asList( "a", "b" ), Arrays
+        .asList( "heart heart failure", "heart attack" ) );
+
+    assert r.getDictionary().size() == 1; // only "heart" occurs twice
+    assert r.getMatrix().squaredNorm( 0 ) == 4;
+    assert r.getMatrix().squaredNorm( 1 ) == 1;
+
+    SparseVector x = v.transform( "Heart, heart and lungs", r
+        .getDictionary() );
+    assert x.size() == 1 && x.value( 0 ) == 2;
+  }
+}
@@ -0,0 +1,40 @@
+package edu.tufts.cs.features;
+
+import org.testng.annotations.Test;
+
+public class SparseVectorTest {
+
+  /**
+   * Test building a vector from unsorted entries.
+   */
+  @Test
+  public void testSort() {
+    SparseVector v = SparseVector.sort( new int[] { 7, 2, 5, 0 },
+        new double[] { 1.0, 2.0, 3.0, 0.0 }, 3 );
+
+    assert v.size() == 3;
+    assert v.index( 0 ) == 2 && v.value( 0 ) == 2.0;
+    assert v.index( 1 ) == 5 && v.value( 1 ) == 3.0;
+    assert v.index( 2 ) == 7 && v.value( 2 ) == 1.0;
+    assert v.maxIndex() == 7;
+  }
+
+  /**
+   * Test the products.
+   */
+  @Test
+  public void testDot() {
+    SparseVector a = new SparseVector( new int[] { 0, 2, 4 }, new double[] {
+        1, 2, 3 } );
+    SparseVector b = new SparseVector( new int[] { 2, 3, 4 }, new double[] {
+        5, 7, 1 } );
+
+    assert a.dot( b ) == 13;
+    assert a.dot( new double[] { 1, 1, 1 } ) == 3; // index 4 is past the end
+    assert a.squaredNorm() == 14;
+
+    double[] w = new double[5];
+    a.addTo( w, 2 );
+    assert w[0] == 2 && w[2] == 4 && w[4] == 6;
+  }
+}
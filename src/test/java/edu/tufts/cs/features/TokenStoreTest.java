@@ -0,0 +1,142 @@
+package edu.tufts.cs.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class TokenStoreTest {
+  /** The test tokenizer. */
+  protected static final TextTokenizer TOKENIZER = new TextTokenizer(
+      new HashSet<>( Arrays.asList( "the", "of" ) ), 3, true );
+
+  /**
+   * Test the varint encoding.
+   */
+  @Test
+  public void testEncode() {
+    int[] ids = { 0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE };
+    byte[] encoded = TokenStore.encode( ids );
+
+    assert encoded.length == 1 + 1 + 1 + 2 + 2 + 3 + 5;
+    assert Arrays.equals( TokenStore.decode( encoded ), ids );
+    assert TokenStore.decode( TokenStore.encode( new int[0] ) ).length == 0;
+  }
+
+  /**
+   * Test that the view gives the terms of its tokenizer, and that a document
+   * is only tokenized again when its text changes.
+   */
+  @Test
+  public void testView() {
+    TokenStore store = new TokenStore();
+    TokenStore.View view = store.view( TOKENIZER );
+    String text = "The effects of beta-blockers: effective in 2010?";
+    int[] terms = view.tokenize( "d1", text );
+
+    List<String> expected = TOKENIZER.tokenize( text );
+    assert terms.length == expected.size();
+    for ( int i = 0; i < terms.length; i++ ) {
+      assert view.getTerm( terms[i] ).equals( expected.get( i ) );
+    }
+    // the stored tokens are only split and lower-cased
+    assert store.get( "d1" ).length == 8;
+    assert store.getToken( store.get( "d1" )[0] ).equals( "the" );
+
+    // the same text reads the stored tokens; a changed text replaces them
+    assert Arrays.equals( view.tokenize( "d1", new String( text ) ), terms );
+    assert view.tokenize( "d1", "other text" ).length == 2;
+    assert store.size() == 1;
+    assert store.getBytes() == 2 && store.getOccurrences() == 2;
+    assert Arrays.equals( view.tokenize( "d1", text ), terms );
+    assert store.getBytes() == 8;
+
+    // equal tokenizers share a view; others map the same tokens
+    assert store.view( new TextTokenizer( TOKENIZER ) ) == view;
+    TokenStore.View unstemmed = store.view( new TextTokenizer(
+        new HashSet<String>(), 1, false ) );
+    assert unstemmed.tokenize( "d1", null ).length == 8;
+  }
+
+  /**
+   * Test that vectorizing stored tokens gives the same relation as
+   * vectorizing the texts.
+   */
+  @Test
+  public void testVectorize() {
+    TokenStore store = new TokenStore();
+    TokenStore.View view = store.view( TOKENIZER );
+    List<Integer> ids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    List<int[]> docs = new ArrayList<>();
+    String[] words = { "alpha", "betas", "gamma", "the", "delta" };
+    for ( int i = 0; i < 40; i++ ) {
+      ids.add( i );
+      texts.add( words[i % 5] + " " + words[( i * 3 ) % 5] + " zeta" + i % 7 );
+      docs.add( view.tokenize( String.valueOf( i ), texts.get( i ) ) );
+    }
+
+    ParallelVectorizer v = new ParallelVectorizer( TOKENIZER, 2 );
+    v.setThreshold( 4 );
+    CsrRelation<Integer> a = v.vectorize( ids, texts );
+    CsrRelation<Integer> b = v.vectorize( ids, docs, view );
+
+    assert a.getDictionary().size() == b.getDictionary().size();
+    for ( int i = 0; i < a.getDictionary().size(); i++ ) {
+      assert a.getDictionary().getName( i ).equals(
+          b.getDictionary().getName( i ) );
+    }
+    assert Arrays.equals( a.getMatrix().getIndices(), b.getMatrix()
+        .getIndices() );
+    assert Arrays.equals( a.getMatrix().getValues(), b.getMatrix()
+        .getValues() );
+
+    FeatureHasher h = new FeatureHasher( TOKENIZER, 64 );
+    CsrRelation<Integer> c = h.vectorize( ids, texts );
+    CsrRelation<Integer> d = new FeatureHasher( TOKENIZER, 64 ).vectorize(
+        ids, docs, view );
+    assert Arrays.equals( c.getMatrix().getIndices(), d.getMatrix()
+        .getIndices() );
+    assert Arrays.equals( c.getMatrix().getValues(), d.getMatrix()
+        .getValues() );
+  }
+
+  /**
+   * Test that tokenizing documents in parallel gives the same term ids as
+   * tokenizing them one at a time, and reuses the stored documents.
+   */
+  @Test
+  public void testTokenizeBatch() {
+    List<String> ids = new ArrayList<>();
+    List<String> texts = new ArrayList<>();
+    String[] words = { "alpha", "betas", "gamma", "the", "delta" };
+    for ( int i = 0; i < 40; i++ ) {
+      ids.add( String.valueOf( i ) );
+      texts.add( words[( i * 3 ) % 5] + " zeta" + i % 7 + " " + words[i % 5] );
+    }
+
+    TokenStore.View single = new TokenStore().view( TOKENIZER );
+    TokenStore store = new TokenStore();
+    store.setThreshold( 3 );
+    TokenStore.View view = store.view( TOKENIZER );
+    List<int[]> docs = view.tokenize( ids, texts );
+    assert store.size() == 40;
+    for ( int i = 0; i < 40; i++ ) {
+      int[] expected = single.tokenize( ids.get( i ), texts.get( i ) );
+      assert expected.length == docs.get( i ).length;
+      for ( int j = 0; j < expected.length; j++ ) {
+        assert single.getTerm( expected[j] ).equals( view.getTerm( docs.get(
+            i )[j] ) );
+      }
+    }
+
+    long bytes = store.getBytes();
+    List<int[]> again = view.tokenize( ids, texts );
+    assert store.getBytes() == bytes;
+    for ( int i = 0; i < 40; i++ ) {
+      assert Arrays.equals( docs.get( i ), again.get( i ) );
+    }
+  }
+}
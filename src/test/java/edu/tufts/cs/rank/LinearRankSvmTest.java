@@ -0,0 +1,178 @@
+package edu.tufts.cs.rank;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.SparseVector;
+
+public class LinearRankSvmTest {
+
+  /**
+   * Test that the lower targets score lower, as with svm_rank.
+   */
+  @Test
+  public void testRank() {
+    Random r = new Random( 1 );
+    int n = 20;
+    SparseVector[] x = new SparseVector[n];
+    double[] target = new double[n];
+    int[] qid = new int[n];
+    for ( int i = 0; i < n; i++ ) {
+      boolean pos = i % 2 == 0;
+      x[i] = new SparseVector( new int[] { 0, 1 + r.nextInt( 10 ) },
+          new double[] { pos ? -1 : 1, 1 } );
+      target[i] = pos ? 1 : 2;
+    }
+
+    LinearRankSvm<Integer> svm = new LinearRankSvm<>( 1 );
+    svm.train( x, target, qid );
+    double[] w = svm.getWeights();
+    for ( int i = 0; i < n; i += 2 ) {
+      for ( int j = 1; j < n; j += 2 ) {
+        assert x[i].dot( w ) < x[j].dot( w );
+      }
+    }
+  }
+
+  /**
+   * Test that pairs are only formed within a query.
+   */
+  @Test
+  public void testQid() {
+    SparseVector[] x = new SparseVector[] {
+      new SparseVector( new int[] { 0 }, new double[] { 1 } ),
+      new SparseVector( new int[] { 1 }, new double[] { 1 } ) };
+    LinearRankSvm<Integer> svm = new LinearRankSvm<>( 1 );
+    svm.train( x, new double[] { 1, 2 }, new int[] { 1, 2 } );
+    assert svm.getWeights()[0] == 0;
+    assert svm.getWeights()[1] == 0;
+
+    svm.train( x, new double[] { 1, 2 }, new int[] { 1, 1 } );
+    assert svm.getWeights()[0] < svm.getWeights()[1];
+  }
+
+  /**
+   * Test that a warm retrain with ids after a few new labels finds the same
+   * solution as a cold one.
+   */
+  @Test
+  public void testWarmStart() {
+    Random r = new Random( 2 );
+    int n = 30;
+    SparseVector[] x = new SparseVector[n];
+    double[] target = new double[n];
+    String[] ids = new String[n];
+    for ( int i = 0; i < n; i++ ) {
+      boolean pos = r.nextInt( 3 ) == 0;
+      x[i] = new SparseVector( new int[] { 0, 1 + r.nextInt( 5 ) },
+          new double[] { pos ? 1 : -1 + r.nextDouble(), r.nextDouble() } );
+      target[i] = pos ? 1 : -1;
+      ids[i] = String.valueOf( i );
+    }
+
+    LinearRankSvm<Integer> cold = new LinearRankSvm<>( 1 );
+    cold.setEpsilon( 0.0001 );
+    cold.train( x, target, ids );
+    LinearRankSvm<Integer> warm = new LinearRankSvm<>( 1 );
+    warm.setEpsilon( 0.0001 );
+    warm.setWarmStart( true );
+    warm.train( Arrays.copyOf( x, n - 5 ), Arrays.copyOf(
+        target, n - 5 ), Arrays.copyOf( ids, n - 5 ) );
+    warm.train( x, target, ids );
+
+    double[] a = cold.getWeights();
+    double[] b = warm.getWeights();
+    assert a.length == b.length;
+    for ( int f = 0; f < a.length; f++ ) {
+      assert Math.abs( a[f] - b[f] ) < 0.01 : a[f] + " != " + b[f];
+    }
+  }
+
+  /**
+   * Test the ranking example of svm_rank: trained on its three queries, the
+   * model orders the four documents of its test query by their targets, as
+   * svm_rank's model does (no swapped pairs).
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testSvmRankExample() throws IOException {
+    List<double[]> train = read( "src/test/resources/svm_rank/train.dat" );
+    List<double[]> test = read( "src/test/resources/svm_rank/test.dat" );
+    SparseVector[] x = new SparseVector[train.size()];
+    double[] target = new double[x.length];
+    int[] qid = new int[x.length];
+    for ( int i = 0; i < x.length; i++ ) {
+      x[i] = toVector( train.get( i ) );
+      target[i] = train.get( i )[0];
+      qid[i] = (int) train.get( i )[1];
+    }
+
+    LinearRankSvm<Integer> svm = new LinearRankSvm<>( 3 );
+    svm.setEpsilon( 0.0001 );
+    svm.train( x, target, qid );
+    double[] w = svm.getWeights();
+    for ( double[] a : test ) {
+      for ( double[] b : test ) {
+        if ( a[0] > b[0] ) {
+          assert toVector( a ).dot( w ) > toVector( b ).dot( w );
+        }
+      }
+    }
+  }
+
+  /**
+   * Read an svm_rank data file: each row is the target, the qid and then the
+   * values of the features 1 to 5.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  protected static List<double[]> read( String file ) throws IOException {
+    List<double[]> rows = new ArrayList<>();
+    BufferedReader in = new BufferedReader( new FileReader( file ) );
+    try {
+      for ( String line = in.readLine(); line != null; line = in.readLine() ) {
+        if ( line.startsWith( "#" ) ) {
+          continue;
+        }
+        String[] tokens = line.split( " " );
+        double[] row = new double[tokens.length];
+        row[0] = Double.parseDouble( tokens[0] );
+        for ( int t = 1; t < tokens.length; t++ ) {
+          row[t] = Double.parseDouble( tokens[t].substring( tokens[t]
+              .indexOf( ':' ) + 1 ) );
+        }
+        rows.add( row );
+      }
+    } finally {
+      in.close();
+    }
+
+    return rows;
+  }
+
+  /**
+   * Get the features of a row read by read(...).
+   *
+   * @param row
+   * @return
+   */
+  protected static SparseVector toVector( double[] row ) {
+    int[] indices = new int[row.length - 2];
+    for ( int f = 0; f < indices.length; f++ ) {
+      indices[f] = f;
+    }
+
+    return new SparseVector( indices, Arrays.copyOfRange( row, 2,
+        row.length ) );
+  }
+}
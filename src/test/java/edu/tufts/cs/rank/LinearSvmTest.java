@@ -0,0 +1,274 @@
+package edu.tufts.cs.rank;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.SparseVector;
+
+public class LinearSvmTest {
+
+  /**
+   * Create noisy training vectors whose first feature is the label.
+   *
+   * @param n
+   * @param random
+   * @return
+   */
+  protected static SparseVector[] createVectors( int n, Random random ) {
+    SparseVector[] x = new SparseVector[n];
+    for ( int i = 0; i < n; i++ ) {
+      boolean pos = i % 3 == 0;
+      int noise = 1 + random.nextInt( 20 );
+      x[i] = new SparseVector( new int[] { 0, noise, noise + 1 },
+          new double[] { pos ? 1 : -1, random.nextDouble(),
+            random.nextDouble() } );
+    }
+
+    return x;
+  }
+
+  /**
+   * Get the labels of the vectors.
+   *
+   * @param x
+   * @return
+   */
+  protected static double[] labels( SparseVector[] x ) {
+    double[] y = new double[x.length];
+    for ( int i = 0; i < x.length; i++ ) {
+      y[i] = x[i].value( 0 );
+    }
+
+    return y;
+  }
+
+  /**
+   * Get the ids of the vectors.
+   *
+   * @param n
+   * @return
+   */
+  protected static String[] ids( int n ) {
+    String[] ids = new String[n];
+    for ( int i = 0; i < n; i++ ) {
+      ids[i] = String.valueOf( i );
+    }
+
+    return ids;
+  }
+
+  /**
+   * Test that every loss separates separable data.
+   */
+  @Test
+  public void testSeparable() {
+    SparseVector[] x = createVectors( 60, new Random( 1 ) );
+    double[] y = labels( x );
+    for ( LinearSvm.Loss loss : LinearSvm.Loss.values() ) {
+      LinearSvm<Integer> svm = new LinearSvm<>( loss, 10 );
+      svm.train( x, y, ids( x.length ) );
+      assert svm.getIterations() < LinearSvm.DEFAULT_MAX_ITERATIONS : loss;
+      for ( int i = 0; i < x.length; i++ ) {
+        assert svm.score( x[i] ) * y[i] > 0 : loss + " " + i;
+      }
+    }
+  }
+
+  /**
+   * Test that a warm retrain after a few new labels finds the same solution
+   * as a cold one in fewer passes.
+   */
+  @Test
+  public void testWarmStart() {
+    SparseVector[] x = createVectors( 300, new Random( 2 ) );
+    double[] y = labels( x );
+    // flip a few labels, so that the data is not separable
+    for ( int i = 1; i < x.length; i += 29 ) {
+      y[i] = -y[i];
+    }
+    SparseVector[] first = Arrays.copyOf( x, x.length - 5 );
+
+    for ( LinearSvm.Loss loss : LinearSvm.Loss.values() ) {
+      LinearSvm<Integer> warm = new LinearSvm<>( loss, 1 );
+      warm.setEpsilon( 0.001 );
+      warm.setWarmStart( true );
+      warm.train( first, y, ids( first.length ) );
+      warm.train( x, y, ids( x.length ) );
+
+      LinearSvm<Integer> cold = new LinearSvm<>( loss, 1 );
+      cold.setEpsilon( 0.001 );
+      cold.train( x, y, ids( x.length ) );
+
+      assert warm.getIterations() < cold.getIterations() : loss;
+      double[] a = warm.getWeights();
+      double[] b = cold.getWeights();
+      for ( int j = 0; j < a.length; j++ ) {
+        assert Math.abs( a[j] - b[j] ) < 0.05 : loss + " " + j;
+      }
+
+      // a changed label doesn't keep its variable
+      y[0] = -y[0];
+      warm.train( x, y, ids( x.length ) );
+      y[0] = -y[0];
+      assert warm.getIterations() < LinearSvm.DEFAULT_MAX_ITERATIONS;
+    }
+  }
+
+  /**
+   * Create text-like term count vectors: a tenth of the terms of the
+   * relevant documents (every fourth) come from one topic, a tenth of the
+   * others from another, and the rest from a large background vocabulary.
+   *
+   * @param n
+   * @param dim
+   * @param random
+   * @return
+   */
+  protected static SparseVector[] createDocuments( int n, int dim,
+      Random random ) {
+    SparseVector[] x = new SparseVector[n];
+    for ( int i = 0; i < n; i++ ) {
+      double[] counts = new double[dim];
+      for ( int t = 0; t < 30; t++ ) {
+        if ( random.nextInt( 10 ) > 0 ) {
+          counts[100 + random.nextInt( dim - 100 )]++;
+        } else {
+          counts[( ( i % 4 == 0 ) ? 0 : 50 ) + random.nextInt( 50 )]++;
+        }
+      }
+      int size = 0;
+      for ( double c : counts ) {
+        size += ( c > 0 ) ? 1 : 0;
+      }
+      int[] indices = new int[size];
+      double[] values = new double[size];
+      int k = 0;
+      for ( int j = 0; j < dim; j++ ) {
+        if ( counts[j] > 0 ) {
+          indices[k] = j;
+          values[k++] = counts[j];
+        }
+      }
+      x[i] = new SparseVector( indices, values );
+    }
+
+    return x;
+  }
+
+  /**
+   * Train an SVM with the RBF kernel exp( -gamma |x - z|^2 ) by dual
+   * coordinate descent, and score the test vectors with it.
+   *
+   * @param x
+   * @param y
+   * @param test
+   * @param gamma
+   * @param c
+   * @return
+   */
+  protected static double[] rbfScores( SparseVector[] x, double[] y,
+      SparseVector[] test, double gamma, double c ) {
+    double[][] k = new double[x.length][x.length];
+    for ( int i = 0; i < x.length; i++ ) {
+      for ( int j = 0; j < x.length; j++ ) {
+        k[i][j] = rbf( x[i], x[j], gamma );
+      }
+    }
+    double[] alpha = new double[x.length];
+    for ( int it = 0; it < 200; it++ ) {
+      for ( int i = 0; i < x.length; i++ ) {
+        double g = -1;
+        for ( int j = 0; j < x.length; j++ ) {
+          g += y[i] * alpha[j] * y[j] * k[i][j];
+        }
+        alpha[i] = Math.min( Math.max( alpha[i] - g / k[i][i], 0 ), c );
+      }
+    }
+
+    double[] scores = new double[test.length];
+    for ( int t = 0; t < test.length; t++ ) {
+      for ( int j = 0; j < x.length; j++ ) {
+        scores[t] += alpha[j] * y[j] * rbf( x[j], test[t], gamma );
+      }
+    }
+
+    return scores;
+  }
+
+  /**
+   * The RBF kernel.
+   *
+   * @param a
+   * @param b
+   * @param gamma
+   * @return
+   */
+  protected static double rbf( SparseVector a, SparseVector b, double gamma ) {
+    return Math.exp( -gamma * ( a.squaredNorm() + b.squaredNorm() - 2
+        * a.dot( b ) ) );
+  }
+
+  /**
+   * The area under the ROC curve of the scores.
+   *
+   * @param scores
+   * @param y
+   * @return
+   */
+  protected static double auc( double[] scores, double[] y ) {
+    double pairs = 0;
+    double correct = 0;
+    for ( int i = 0; i < scores.length; i++ ) {
+      for ( int j = 0; j < scores.length; j++ ) {
+        if ( y[i] > 0 && y[j] < 0 ) {
+          pairs++;
+          if ( scores[i] > scores[j] ) {
+            correct++;
+          } else if ( scores[i] == scores[j] ) {
+            correct += 0.5;
+          }
+        }
+      }
+    }
+
+    return correct / pairs;
+  }
+
+  /**
+   * Test that the linear SVM, which replaced the libsvm and svm_light
+   * binaries, ranks sparse text-like data as well as an SVM with the RBF
+   * kernel of libsvm (with its default gamma of 1 / the number of features):
+   * with many more features than papers, the classes are close to linearly
+   * separable.
+   */
+  @Test
+  public void testLinearComparedToRbf() {
+    Random random = new Random( 11 );
+    int dim = 2000;
+    SparseVector[] train = createDocuments( 120, dim, random );
+    SparseVector[] test = createDocuments( 400, dim, random );
+    double[] y = new double[train.length];
+    for ( int i = 0; i < y.length; i++ ) {
+      y[i] = ( i % 4 == 0 ) ? 1 : -1;
+    }
+    double[] testY = new double[test.length];
+    for ( int i = 0; i < testY.length; i++ ) {
+      testY[i] = ( i % 4 == 0 ) ? 1 : -1;
+    }
+
+    LinearSvm<Integer> svm = new LinearSvm<>( LinearSvm.Loss.HINGE, 1 );
+    svm.train( train, y, ids( train.length ) );
+    double[] linear = new double[test.length];
+    for ( int i = 0; i < test.length; i++ ) {
+      linear[i] = svm.score( test[i] );
+    }
+    double[] rbf = rbfScores( train, y, test, 1.0 / dim, 1 );
+
+    double linearAuc = auc( linear, testY );
+    double rbfAuc = auc( rbf, testY );
+    assert linearAuc > 0.85 : linearAuc;
+    assert linearAuc >= rbfAuc - 0.02 : linearAuc + " < " + rbfAuc;
+  }
+}
@@ -0,0 +1,100 @@
+package edu.tufts.cs.rank;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+public class NaiveBayesTest {
+
+  /**
+   * The log odds of the vector by the textbook formula, from the labeled
+   * rows.
+   *
+   * @param m
+   * @param labels 1 for positive, -1 for negative, 0 for unlabeled
+   * @param x
+   * @param vocabularySize
+   * @return
+   */
+  protected static double logOdds( CsrMatrix m, int[] labels, SparseVector x,
+      int vocabularySize ) {
+    double[][] counts = new double[2][vocabularySize];
+    double[] totals = new double[2];
+    int[] docs = new int[2];
+    for ( int row = 0; row < labels.length; row++ ) {
+      if ( labels[row] == 0 ) continue;
+      int c = ( labels[row] > 0 ) ? 0 : 1;
+      docs[c]++;
+      SparseVector v = m.row( row );
+      for ( int i = 0; i < v.size(); i++ ) {
+        counts[c][v.index( i )] += v.value( i );
+        totals[c] += v.value( i );
+      }
+    }
+
+    double odds = Math.log( ( docs[0] + 1.0 ) / ( docs[1] + 1.0 ) );
+    for ( int i = 0; i < x.size(); i++ ) {
+      int j = x.index( i );
+      double pos = ( counts[0][j] + 1 ) / ( totals[0] + vocabularySize );
+      double neg = ( counts[1][j] + 1 ) / ( totals[1] + vocabularySize );
+      odds += x.value( i ) * Math.log( pos / neg );
+    }
+
+    return odds;
+  }
+
+  /**
+   * Test that the incremental scores are the textbook log odds as documents
+   * are labeled, and that a document is only counted once.
+   */
+  @Test
+  public void testIncremental() {
+    Random random = new Random( 4 );
+    int vocabularySize = 30;
+    SparseVector[] docs = new SparseVector[40];
+    for ( int d = 0; d < docs.length; d++ ) {
+      int[] indices = new int[4];
+      double[] values = new double[4];
+      for ( int i = 0; i < 4; i++ ) {
+        indices[i] = i * 7 + random.nextInt( 7 );
+        values[i] = 1 + random.nextInt( 3 );
+      }
+      docs[d] = new SparseVector( indices, values );
+    }
+    CsrMatrix m = CsrMatrix.create( docs );
+    ParallelScorer scorer = new ParallelScorer();
+    scorer.setThreshold( 7 );
+    double[] scores = null;
+
+    NaiveBayes nb = new NaiveBayes( vocabularySize );
+    int[] labels = new int[docs.length];
+    for ( int d = 0; d < 10; d++ ) {
+      // label the documents one at a time, as the expert does
+      labels[d] = ( d % 3 == 0 ) ? 1 : -1;
+      if ( d % 2 == 0 ) {
+        assert nb.add( "d" + d, m, d, labels[d] > 0 );
+      } else {
+        assert nb.add( "d" + d, docs[d], labels[d] > 0 );
+      }
+      assert !nb.add( "d" + d, m, d, labels[d] > 0 );
+
+      scores = scorer.score( nb, m, scores );
+      for ( int row = 0; row < docs.length; row++ ) {
+        double expected = logOdds( m, labels, docs[row], vocabularySize );
+        assert Math.abs( scores[row] - expected ) < 1e-9;
+        assert Math.abs( nb.score( docs[row] ) - expected ) < 1e-9;
+      }
+    }
+
+    assert nb.size() == 10;
+    assert nb.contains( "d3", true ) && !nb.contains( "d3", false );
+    assert nb.contains( "d1", false ) && !nb.contains( "d1", true );
+    assert !nb.contains( "d11", false );
+    nb.clear();
+    assert nb.size() == 0 && nb.score( docs[0] ) == 0;
+    assert !nb.contains( "d3", true );
+  }
+}
@@ -0,0 +1,98 @@
+package edu.tufts.cs.rank;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.SparseVector;
+
+public class PairwiseSgdRankerTest {
+
+  /**
+   * Create a document with the signal feature 0 and a noise feature.
+   *
+   * @param signal
+   * @param r
+   * @return
+   */
+  protected static SparseVector doc( double signal, Random r ) {
+    return new SparseVector( new int[] { 0, 1 + r.nextInt( 20 ) },
+        new double[] { signal, 1 } );
+  }
+
+  /**
+   * Test that relevant documents are ranked above irrelevant ones, and that
+   * incremental updates keep it that way.
+   */
+  @Test
+  public void testRank() {
+    Random r = new Random( 1 );
+    List<SparseVector> pos = new ArrayList<>();
+    List<SparseVector> neg = new ArrayList<>();
+    for ( int i = 0; i < 5; i++ ) {
+      pos.add( doc( 1, r ) );
+      neg.add( doc( -1, r ) );
+    }
+
+    PairwiseSgdRanker ranker = new PairwiseSgdRanker( 0.01, new Random( 0 ) );
+    ranker.update( pos, neg, pos, neg, 500 );
+    assert ranker.getNumSteps() == 500;
+    assert ranker.score( doc( 1, r ) ) > ranker.score( doc( -1, r ) );
+
+    // only the new labels are stepped on
+    List<SparseVector> newNeg = Collections.singletonList( doc( -1, r ) );
+    neg.add( newNeg.get( 0 ) );
+    ranker.update( new ArrayList<SparseVector>(), newNeg, pos, neg, 50 );
+    assert ranker.getNumSteps() == 550;
+    assert ranker.getWeights()[0] > 0;
+
+    ranker.refit( pos, neg, 100 );
+    assert ranker.getNumSteps() == 100;
+    assert ranker.score( pos.get( 0 ) ) > ranker.score( neg.get( 0 ) );
+  }
+
+  /**
+   * Test that nothing happens without both classes.
+   */
+  @Test
+  public void testOneClass() {
+    Random r = new Random( 2 );
+    List<SparseVector> pos = Collections.singletonList( doc( 1, r ) );
+    PairwiseSgdRanker ranker = new PairwiseSgdRanker( new Random( 0 ) );
+    ranker.update( pos, new ArrayList<SparseVector>(), pos,
+        new ArrayList<SparseVector>(), 10 );
+
+    assert ranker.getNumSteps() == 0;
+    assert ranker.score( pos.get( 0 ) ) == 0;
+  }
+
+  /**
+   * Test that remapping moves the weights to the new feature indices.
+   */
+  @Test
+  public void testRemap() {
+    Random r = new Random( 3 );
+    List<SparseVector> pos = Collections.singletonList( doc( 1, r ) );
+    List<SparseVector> neg = Collections.singletonList( doc( -1, r ) );
+    PairwiseSgdRanker ranker = new PairwiseSgdRanker( 0.01, new Random( 0 ) );
+    ranker.update( pos, neg, pos, neg, 50 );
+    double[] before = ranker.getWeights();
+
+    int[] indices = new int[before.length];
+    for ( int i = 0; i < indices.length; i++ ) {
+      indices[i] = indices.length - i;
+    }
+    indices[1] = -1;
+    ranker.remap( indices, indices.length + 1 );
+    double[] after = ranker.getWeights();
+    assert after.length == before.length + 1;
+    assert after[0] == 0;
+    for ( int i = 0; i < indices.length; i++ ) {
+      assert ( i == 1 ) ? after[indices.length - 1] == 0
+          : after[indices[i]] == before[i];
+    }
+  }
+}
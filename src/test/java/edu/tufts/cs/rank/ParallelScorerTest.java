@@ -0,0 +1,73 @@
+package edu.tufts.cs.rank;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+import edu.tufts.cs.similarity.CentroidCosine;
+
+public class ParallelScorerTest {
+
+  /**
+   * Create random rows.
+   *
+   * @param n
+   * @param random
+   * @return
+   */
+  protected static SparseVector[] createRows( int n, Random random ) {
+    SparseVector[] rows = new SparseVector[n];
+    for ( int i = 0; i < n; i++ ) {
+      int[] indices = new int[] { random.nextInt( 10 ),
+        10 + random.nextInt( 10 ) };
+      double[] values = new double[] { 1 + random.nextInt( 3 ),
+        random.nextDouble() };
+      rows[i] = new SparseVector( indices, values );
+    }
+
+    return rows;
+  }
+
+  /**
+   * Test that the partitioned scores are the scores of the single vectors,
+   * and that the buffer is reused.
+   */
+  @Test
+  public void testScore() {
+    Random random = new Random( 5 );
+    SparseVector[] rows = createRows( 500, random );
+    CsrMatrix m = CsrMatrix.create( rows );
+
+    LinearSvm<Integer> svm = new LinearSvm<>( LinearSvm.Loss.HINGE, 1 );
+    double[] y = new double[rows.length];
+    String[] ids = new String[rows.length];
+    for ( int i = 0; i < rows.length; i++ ) {
+      y[i] = ( rows[i].index( 0 ) < 5 ) ? 1 : -1;
+      ids[i] = String.valueOf( i );
+    }
+    svm.train( rows, y, ids );
+    CentroidCosine centroid = new CentroidCosine();
+    centroid.add( "a", rows[0] );
+    centroid.add( "b", rows[1] );
+
+    ParallelScorer scorer = new ParallelScorer();
+    scorer.setThreshold( 16 );
+    scorer.setPool( new ForkJoinPool( 4 ) );
+    double[] scores = scorer.score( svm, m );
+    assert scores.length == rows.length;
+    for ( int i = 0; i < rows.length; i++ ) {
+      assert Math.abs( scores[i] - svm.score( rows[i] ) ) < 1e-9;
+    }
+
+    assert scorer.score( centroid, m, scores ) == scores;
+    for ( int i = 0; i < rows.length; i++ ) {
+      assert Math.abs( scores[i] - centroid.score( rows[i] ) ) < 1e-6;
+    }
+
+    // a buffer of the wrong length is replaced
+    assert scorer.score( centroid, m, new double[3] ).length == rows.length;
+  }
+}
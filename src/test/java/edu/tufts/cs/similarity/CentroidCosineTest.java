@@ -0,0 +1,77 @@
+package edu.tufts.cs.similarity;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+public class CentroidCosineTest {
+
+  /**
+   * Create a random sparse vector.
+   *
+   * @param random
+   * @return
+   */
+  protected static SparseVector randomVector( Random random ) {
+    int n = 1 + random.nextInt( 8 );
+    int[] indices = new int[n];
+    double[] values = new double[n];
+    int index = 0;
+    for ( int i = 0; i < n; i++ ) {
+      index += 1 + random.nextInt( 5 );
+      indices[i] = index;
+      values[i] = 1 + random.nextInt( 4 );
+    }
+
+    return new SparseVector( indices, values );
+  }
+
+  /**
+   * The cosine similarity of two vectors.
+   *
+   * @param a
+   * @param b
+   * @return
+   */
+  protected static double cosine( SparseVector a, SparseVector b ) {
+    return a.dot( b ) / Math.sqrt( a.squaredNorm() * b.squaredNorm() );
+  }
+
+  /**
+   * Test that the centroid score is the mean pairwise cosine similarity.
+   */
+  @Test
+  public void testMeanCosine() {
+    Random random = new Random( 3 );
+    SparseVector[] docs = new SparseVector[30];
+    for ( int i = 0; i < docs.length; i++ ) {
+      docs[i] = randomVector( random );
+    }
+    CsrMatrix m = CsrMatrix.create( docs );
+    double[] norms = CentroidCosine.norms( m );
+
+    CentroidCosine cc = new CentroidCosine();
+    assert cc.score( docs[0] ) == 0;
+    for ( int k = 0; k < 5; k++ ) {
+      // add the references one at a time, as they are labeled
+      assert cc.add( "d" + k, m, k, norms[k] );
+      for ( int i = 0; i < docs.length; i++ ) {
+        double mean = 0;
+        for ( int j = 0; j <= k; j++ ) {
+          mean += cosine( docs[i], docs[j] );
+        }
+        mean /= k + 1;
+        assert Math.abs( cc.score( docs[i] ) - mean ) < 1e-5;
+        assert Math.abs( cc.score( m, i, norms[i] ) - mean ) < 1e-5;
+      }
+    }
+
+    assert !cc.add( "d0", docs[0] );
+    assert cc.size() == 5;
+    cc.clear();
+    assert cc.size() == 0 && cc.score( docs[1] ) == 0;
+  }
+}
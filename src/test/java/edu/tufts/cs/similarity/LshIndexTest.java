@@ -0,0 +1,112 @@
+package edu.tufts.cs.similarity;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.tufts.cs.features.CsrMatrix;
+import edu.tufts.cs.features.SparseVector;
+
+public class LshIndexTest {
+
+  /**
+   * Create documents in clusters: the documents of a cluster share most of
+   * their features.
+   *
+   * @param clusters
+   * @param size the number of documents per cluster
+   * @param random
+   * @return
+   */
+  protected static CsrMatrix createClusters( int clusters, int size,
+      Random random ) {
+    SparseVector[] docs = new SparseVector[clusters * size];
+    for ( int c = 0; c < clusters; c++ ) {
+      for ( int d = 0; d < size; d++ ) {
+        int[] indices = new int[12];
+        double[] values = new double[12];
+        for ( int i = 0; i < 10; i++ ) {
+          indices[i] = c * 100 + i;
+          values[i] = 1 + random.nextInt( 3 );
+        }
+        // two features of noise, after the cluster's features
+        indices[10] = clusters * 100 + 2 * ( c * size + d );
+        indices[11] = indices[10] + 1;
+        values[10] = 1;
+        values[11] = 1;
+        docs[c * size + d] = new SparseVector( indices, values );
+      }
+    }
+
+    return CsrMatrix.create( docs );
+  }
+
+  /**
+   * Test that the rows of a key are the rows the key is computed for.
+   */
+  @Test
+  public void testKeys() {
+    CsrMatrix m = createClusters( 5, 10, new Random( 1 ) );
+    LshIndex index = new LshIndex( m, 4, 10, LshIndex.DEFAULT_SEED );
+
+    for ( int row = 0; row < m.numRows(); row++ ) {
+      int[] keys = index.keys( m.row( row ) );
+      assert keys.length == 4;
+      for ( int t = 0; t < keys.length; t++ ) {
+        assert keys[t] >= 0 && keys[t] < 1 << 10;
+        int[] bucket = index.buckets.get( t ).get( keys[t] );
+        assert Arrays.binarySearch( bucket, row ) >= 0;
+      }
+    }
+    assert Arrays.equals( index.keys( m.row( 3 ) ), new LshIndex( m, 4, 10,
+        LshIndex.DEFAULT_SEED ).keys( m.row( 3 ) ) );
+  }
+
+  /**
+   * Test that the index finds the neighbours in the seeds' cluster without
+   * visiting every row.
+   */
+  @Test
+  public void testRecall() {
+    CsrMatrix m = createClusters( 20, 25, new Random( 2 ) );
+    LshIndex index = new LshIndex( m, 8, 10, LshIndex.DEFAULT_SEED );
+    List<SparseVector> seeds = Arrays.asList( m.row( 50 ), m.row( 51 ) );
+    BitSet exclude = new BitSet();
+    exclude.set( 50, 52 );
+
+    int[] approx = index.query( seeds, exclude, 10 );
+    int[] exact = index.exact( seeds, exclude, 10 );
+    assert exact.length == 10;
+    for ( int row : exact ) {
+      assert row / 25 == 2;
+    }
+    assert LshIndex.recall( approx, exact ) >= 0.9;
+    assert index.getLastCandidates() < m.numRows() / 2;
+
+    index.setMultiProbe( true );
+    index.query( seeds, exclude, 10 );
+    assert index.getLastCandidates() >= approx.length;
+    assert index.getRecallReport( seeds, exclude, 10 ).startsWith(
+        "tables,bits" );
+  }
+
+  /**
+   * Test that with one bit per key the approximate search is exact.
+   */
+  @Test
+  public void testExhaustive() {
+    CsrMatrix m = createClusters( 4, 10, new Random( 3 ) );
+    LshIndex index = new LshIndex( m, 30, 1, LshIndex.DEFAULT_SEED );
+    index.setMultiProbe( true );
+    List<SparseVector> seeds = Arrays.asList( m.row( 0 ) );
+
+    // both keys of every table are visited
+    assert index.candidates( seeds, null ).length == m.numRows();
+    assert Arrays.equals( index.query( seeds, null, 15 ), index.exact(
+        seeds, null, 15 ) );
+    assert LshIndex.recall( new int[0], new int[0] ) == 1;
+  }
+}
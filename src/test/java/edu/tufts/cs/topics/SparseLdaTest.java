@@ -0,0 +1,280 @@
+package edu.tufts.cs.topics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Multimap;
+
+import edu.tufts.cs.features.TextTokenizer;
+import edu.tufts.cs.features.TokenStore;
+
+public class SparseLdaTest {
+  /** The test tokenizer. */
+  protected static final TextTokenizer TOKENIZER = new TextTokenizer(
+      new HashSet<String>(), 3, false );
+
+  /**
+   * Create a corpus with two disjoint vocabularies, as training data.
+   *
+   * @return
+   */
+  protected static String createData() {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < 20; i++ ) {
+      sb.append( "a" + i + "\tX\t\"apple banana cherry apple grape melon\"\n" );
+      sb.append( "b" + i + "\tX\t\"xray yacht zebra xray walrus yak\"\n" );
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Get the most likely topic of the document.
+   *
+   * @param lda
+   * @param id
+   * @return
+   */
+  protected static int topTopic( SparseLda lda, String id ) {
+    Multimap<Double, Integer> topics = lda.getTopics( id );
+
+    return topics.values().iterator().next();
+  }
+
+  /**
+   * Test the log gamma function against known values.
+   */
+  @Test
+  public void testLogGamma() {
+    assert Math.abs( SparseLda.logGamma( 1 ) ) < 1e-9;
+    assert Math.abs( SparseLda.logGamma( 5 ) - Math.log( 24 ) ) < 1e-9;
+    assert Math.abs( SparseLda.logGamma( 0.5 )
+        - 0.5 * Math.log( Math.PI ) ) < 1e-9;
+  }
+
+  /**
+   * Test that the topics separate the two vocabularies.
+   */
+  @Test
+  public void testTrain() {
+    SparseLda lda = new SparseLda( 2, 0.2, 0.01, TOKENIZER );
+    lda.setNumThreads( 3 );
+    lda.setTolerance( 0 );
+    lda.train( createData(), 100 );
+
+    assert lda.getIterations() == 100;
+    int a = topTopic( lda, "a0" );
+    int b = topTopic( lda, "b0" );
+    assert a != b;
+    for ( int i = 1; i < 20; i++ ) {
+      assert topTopic( lda, "a" + i ) == a;
+      assert topTopic( lda, "b" + i ) == b;
+    }
+    assert lda.getTopWords( a, 1 ).get( 0 ).equals( "apple" );
+
+    double sum = 0;
+    for ( double pct : lda.getTopics( "a0" ).keys() ) {
+      sum += pct;
+    }
+    assert Math.abs( sum - 1 ) < 1e-9;
+    assert lda.getTopics( "unknown" ).isEmpty();
+  }
+
+  /**
+   * Test that merging the changes of the threads gives the counts of the
+   * topic assignments.
+   */
+  @Test
+  public void testMerge() {
+    SparseLda lda = new SparseLda( 3, 1, 0.01, TOKENIZER );
+    lda.setNumThreads( 3 );
+    lda.setTolerance( 0 );
+    lda.train( createData(), 10 );
+
+    int[][] counts = new int[lda.words.size()][3];
+    int[] totals = new int[3];
+    for ( int d = 0; d < lda.tokens.length; d++ ) {
+      for ( int i = 0; i < lda.tokens[d].length; i++ ) {
+        counts[lda.tokens[d][i]][lda.assignments[d][i]]++;
+        totals[lda.assignments[d][i]]++;
+      }
+    }
+    assert Arrays.deepEquals( counts, lda.typeTopicCounts );
+    assert Arrays.equals( totals, lda.tokensPerTopic );
+    for ( int w = 0; w < counts.length; w++ ) {
+      int n = 0;
+      for ( int t = 0; t < 3; t++ ) {
+        if ( counts[w][t] > 0 ) {
+          assert lda.nonZero[w][n++] == t;
+        }
+      }
+      assert lda.nonZeroSize[w] == n;
+    }
+  }
+
+  /**
+   * Test that training is reproducible with the same seed and threads.
+   */
+  @Test
+  public void testReproducible() {
+    List<Multimap<Double, Integer>> runs = new ArrayList<>();
+    for ( int i = 0; i < 2; i++ ) {
+      SparseLda lda = new SparseLda( 4, 1, 0.01, TOKENIZER );
+      lda.setNumThreads( 2 );
+      lda.train( createData(), 30 );
+      runs.add( lda.getTopics( "a3" ) );
+    }
+
+    assert runs.get( 0 ).equals( runs.get( 1 ) );
+  }
+
+  /**
+   * Test that a shared executor samples as a pool per training and is left
+   * for the caller to shut down.
+   */
+  @Test
+  public void testExecutor() {
+    ExecutorService executor = Executors.newFixedThreadPool( 2 );
+    try {
+      List<Multimap<Double, Integer>> runs = new ArrayList<>();
+      for ( int i = 0; i < 2; i++ ) {
+        SparseLda lda = new SparseLda( 4, 1, 0.01, TOKENIZER );
+        lda.setNumThreads( 2 );
+        lda.setExecutor( ( i == 0 ) ? null : executor );
+        lda.train( createData(), 30 );
+        runs.add( lda.getTopics( "a3" ) );
+      }
+
+      assert runs.get( 0 ).equals( runs.get( 1 ) );
+      assert !executor.isShutdown();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Test that adding the documents one at a time is the same as training on
+   * the TSV data.
+   */
+  @Test
+  public void testAdd() {
+    SparseLda parsed = new SparseLda( 4, 1, 0.01, TOKENIZER );
+    parsed.train( createData(), 30 );
+
+    SparseLda added = new SparseLda( 4, 1, 0.01, TOKENIZER );
+    for ( int i = 0; i < 20; i++ ) {
+      added.add( "a" + i, "apple banana cherry apple grape melon" );
+      added.add( "b" + i, "xray yacht zebra xray walrus yak" );
+    }
+    added.add( "a0", "apple banana cherry apple grape melon" );
+    added.train( 30 );
+
+    assert added.corpus.size() == 40;
+    assert added.getTopics( "a0" ).equals( parsed.getTopics( "a0" ) );
+    assert added.getTopics( "b7" ).equals( parsed.getTopics( "b7" ) );
+  }
+
+  /**
+   * Test that adding stored tokens is the same as adding the texts.
+   */
+  @Test
+  public void testAddTokens() {
+    SparseLda text = new SparseLda( 4, 1, 0.01, TOKENIZER );
+    TokenStore.View view = new TokenStore().view( TOKENIZER );
+    SparseLda tokens = new SparseLda( 4, 1, 0.01, TOKENIZER );
+    for ( int i = 0; i < 20; i++ ) {
+      String a = "Apple banana cherry apple grape melon";
+      String b = "xray yacht zebra xray walrus yak, an ox";
+      text.add( "a" + i, a );
+      text.add( "b" + i, b );
+      tokens.add( "a" + i, view.tokenize( "a" + i, a ), view );
+      tokens.add( "b" + i, view.tokenize( "b" + i, b ), view );
+    }
+    text.train( 30 );
+    tokens.train( 30 );
+
+    assert tokens.getTopics( "a3" ).equals( text.getTopics( "a3" ) );
+    assert tokens.getTopics( "b5" ).equals( text.getTopics( "b5" ) );
+    int[] unseen = view.tokenize( "c", "apple kiwi cherry" );
+    assert unseen.length == 3;
+    assert Arrays.equals( tokens.infer( unseen, view ), text
+        .infer( "apple kiwi cherry" ) );
+  }
+
+  /**
+   * Test stopping once the log-likelihood levels off.
+   */
+  @Test
+  public void testEarlyStopping() {
+    SparseLda lda = new SparseLda( 2, 0.2, 0.01, TOKENIZER );
+    lda.setCheckInterval( 5 );
+    lda.setMinIterations( 10 );
+    lda.setPatience( 2 );
+    lda.setTolerance( 1e-3 );
+    lda.train( createData(), 2000 );
+
+    assert lda.getIterations() >= 10 && lda.getIterations() < 2000;
+    assert lda.getIterations() % 5 == 0;
+    assert lda.getLogLikelihood() < 0;
+    assert Math.abs( lda.getLogLikelihood() - lda.logLikelihood() ) < 1e-6;
+  }
+
+  /**
+   * Test writing a model and folding new documents into the frozen model.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testWriteRead() throws IOException {
+    SparseLda lda = new SparseLda( 2, 0.2, 0.01, TOKENIZER );
+    lda.setTolerance( 0 );
+    lda.train( createData(), 100 );
+    int a = topTopic( lda, "a0" );
+
+    File f = File.createTempFile( "model", SparseLda.EXTENSION );
+    SparseLda read;
+    try {
+      lda.write( f, "fingerprint" );
+      read = SparseLda.read( f, TOKENIZER );
+    } finally {
+      f.delete();
+    }
+
+    assert read.getFingerprint().equals( "fingerprint" );
+    assert read.getBaseFingerprint().equals( "fingerprint" );
+    assert read.getNumTopics() == 2;
+    assert read.getTopics( "b5" ).equals( lda.getTopics( "b5" ) );
+    assert read.getTopWords( a, 1 ).equals( lda.getTopWords( a, 1 ) );
+
+    assert !read.contains( "c0" );
+    read.foldIn( "c0", "apple cherry unseen melon" );
+    read.foldIn( "c1", "zebra yacht walrus" );
+    assert read.contains( "c0" );
+    assert topTopic( read, "c0" ) == a;
+    assert topTopic( read, "c1" ) != a;
+    assert read.infer( "unseen words only" )[0] == 0.5;
+    assert read.isFoldedIn( "c0" ) && !read.isFoldedIn( "b5" );
+
+    // the folded model keeps the fingerprint of the corpus it was trained on
+    f = File.createTempFile( "folded", SparseLda.EXTENSION );
+    SparseLda folded;
+    try {
+      read.write( f, "folded" );
+      folded = SparseLda.read( f, TOKENIZER );
+    } finally {
+      f.delete();
+    }
+    assert folded.getFingerprint().equals( "folded" );
+    assert folded.getBaseFingerprint().equals( "fingerprint" );
+    assert folded.isFoldedIn( "c1" ) && !folded.isFoldedIn( "a0" );
+    assert folded.getTopics( "c1" ).equals( read.getTopics( "c1" ) );
+  }
+}